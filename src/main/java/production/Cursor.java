@@ -7,13 +7,11 @@ import production.dialogue.DialogueRenderer;
 import production.display.DisplayConfig;
 import production.display.FramebufferConfig;
 import production.sprite.SpriteCamera;
-import production.tilemap.Tile;
 import production.tilemap.TileMap;
 import production.ui.ChatBox;
 import production.ui.GameFrame;
 import production.ui.InterfaceController;
-
-import java.util.ArrayList;
+import whitetail.utility.IntArray;
 
 import static whitetail.utility.logging.Logger.DevLoggingEnabled;
 
@@ -28,6 +26,8 @@ public final class Cursor {
     private int windowHeight;
     private int fbWidth;
     private int fbHeight;
+    /* reused for every click, Player copies the path it follows */
+    private final IntArray path = new IntArray();
 
     public Cursor(SpriteCamera cam, TileMap map, int tileSize,
                   int windowWidth, int windowHeight,
@@ -41,6 +41,11 @@ public final class Cursor {
         this.fbHeight = fbHeight;
     }
 
+    /** For when MapRegistry swaps the active map. */
+    public void setMap(TileMap map) {
+        this.map = map;
+    }
+
     public void handleMouseClick(int sx, int sy) {
         /*
         int fbX = (sx * fbWidth) / windowWidth;
@@ -78,10 +83,8 @@ public final class Cursor {
             ChatBox.AddMsg("Clicked on: " + c.displayName);
         }
 
-        ArrayList<Integer> path = Pathfinder.findAdjacent(map,
-                Player.tileX, Player.tileY, tileX, tileY);
-
-        if (path == null) {
+        if (!Pathfinder.findAdjacent(map,
+                Player.tileX, Player.tileY, tileX, tileY, path)) {
             if (DevLoggingEnabled()) {
                 ChatBox.AddMsg("Can't reach " + c.displayName);
             }
@@ -110,30 +113,26 @@ public final class Cursor {
     }
 
     private void handleTileClick(int tileX, int tileY) {
-        Tile tile = map.getTile((short) tileX, (short) tileY);
+        String examine;
 
-        if (tile == null) {
+        if (!map.hasTile(tileX, tileY)) {
             if (DevLoggingEnabled()) {
                 ChatBox.AddMsg("Click: no tile at [" + tileX + ", " + tileY + "]");
             }
             return;
         }
 
-        if (tile.getExamine() != null) {
-            ChatBox.AddMsg(tile.getExamine());
+        if ((examine = map.getExamine(tileX, tileY)) != null) {
+            ChatBox.AddMsg(examine);
         }
 
-        ArrayList<Integer> path;
-
-        if (tile.isBlocked()) {
+        if (map.isBlocked(tileX, tileY)) {
             if (DevLoggingEnabled()) {
                 ChatBox.AddMsg("Click: blocked [" + tileX + ", " + tileY + "]");
             }
 
-            path = Pathfinder.findAdjacent(map,
-                    Player.tileX, Player.tileY, tileX, tileY);
-
-            if (path == null) {
+            if (!Pathfinder.findAdjacent(map,
+                    Player.tileX, Player.tileY, tileX, tileY, path)) {
                 if (DevLoggingEnabled()) {
                     ChatBox.AddMsg("Unable to find path to adjacent tile.");
                 }
@@ -153,9 +152,8 @@ public final class Cursor {
             return;
         }
 
-        path = Pathfinder.find(map, Player.tileX, Player.tileY, tileX, tileY);
-
-        if (path == null) {
+        if (!Pathfinder.find(map, Player.tileX, Player.tileY, tileX, tileY,
+                path)) {
             if (DevLoggingEnabled()) {
                 ChatBox.AddMsg("Click: no path to [" + tileX + ", " + tileY + "]");
             }
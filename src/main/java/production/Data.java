@@ -12,6 +12,7 @@ import production.ui.FontAtlasOld;
 import whitetail.audio.Audio;
 import whitetail.audio.AudioBuffer;
 import whitetail.loaders.config.ConfigEntry;
+import whitetail.software_framebuffer.GLSourceTexelLayout;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -20,13 +21,27 @@ import java.util.Map;
 public final class Data {
     public static final double TICK_DUR = 0.6f;
     public static final int BPP = 4;
+    /* Same int layout as the ARGB palettes, so texels need no swizzle */
+    public static final GLSourceTexelLayout TEXEL_LAYOUT =
+            GLSourceTexelLayout.BGRA_UINT_8888_REV;
     /* game attribs */
     public static final int SPRITE_SIZE = 16;
     public static final int MAP_ATLAS = 0;
     public static final int PLAYER_ATLAS = 1;
     public static final int MAP_PALETTE = 0;
+    public static final int TILE_LAYER = 7;
     public static final int BLACK = 0xFF160D13;
     public static final int SPRITE_SYS_CAP = 2048;
+    /* PathService threads, leaving a core each to the main and raster
+    threads */
+    public static final int PATH_WORKERS = Math.max(0,
+            Runtime.getRuntime().availableProcessors() - 2);
+    /* ground chunks kept baked around the player on each side, enough to
+    cover the view, and how many may be baked at once */
+    public static final int GROUND_STREAM_RADIUS = 2;
+    public static final int GROUND_RESIDENT_BUDGET = 36;
+    /* MapRegistry keeps maps no longer active while they fit in this */
+    public static final long MAP_CACHE_BUDGET = 64L << 20;
     public static final String TEST_ATLAS_FILENAME = "test_atlas.png";
     public static final String TEST_PALETTE_FILENAME = "mystic-16-mod-17.png";
     public static final String TEST_ATLAS_ANIM_FILENAME = "test_atlas_anims.png";
@@ -0,0 +1,446 @@
+package production;
+
+import production.sprite.SpriteChunkStreamer;
+import production.sprite.SpriteInterpSys;
+import production.sprite.SpriteSys;
+import production.tilemap.TileMap;
+import production.tilemap.TileMapFileParser;
+import production.tilemap.TileMapLoader;
+import whitetail.utility.logging.LogLevel;
+
+import java.io.File;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.ErrorHandler.LogFatalExcpAndExit;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Owns every loaded map and which one is active, so moving between maps
+ * does not parse or make sprites again.
+ *
+ * A map becomes active through Activate or Teleport. The map left behind
+ * keeps its chars' and monsters' sprites, hidden, and stays cached, least
+ * recently used dropped first once the cached maps add up to more than the
+ * budget. Activating a map queues its neighbours, named by its header, to
+ * be parsed and prepared by a background thread, so a door or teleport to
+ * one of them only has to attach the chars and swap the layers.
+ *
+ * Everything but Preload's background work runs on the main thread,
+ * between ticks' reads of Data.tileMap.
+ */
+public final class MapRegistry {
+    private static boolean init;
+
+    /* entry states */
+    private static final int QUEUED = 0;
+    private static final int LOADING = 1;
+    /* parsed and prepared, no chars or sprites yet */
+    private static final int READY = 2;
+    private static final int ATTACHED = 3;
+
+    private static final class Entry {
+        final String filename;
+        int state;
+        TileMap map;
+
+        Entry(String filename, int state) {
+            this.filename = filename;
+            this.state = state;
+        }
+    }
+
+    private static long budget;
+    /* where maps are read from, null for the resources */
+    private static File sourceDir;
+
+    private static final Object lock = new Object();
+    private static Thread thread;
+    /* guarded by lock: entries least recently used first, and the entries
+    waiting for the preload thread */
+    private static LinkedHashMap<String, Entry> entries;
+    private static ArrayDeque<Entry> preloads;
+    private static int loadingCount;
+    private static boolean stopping;
+    private static Throwable failure;
+
+    private static Entry active;
+
+    private MapRegistry() {}
+
+    /**
+     * @param budget bytes the inactive cached maps may take, by
+     *               TileMap.getFootprintBytes
+     * @param sourceDir directory to read maps from, compiling each next to
+     *                  its source, or null for the resources
+     */
+    public static boolean Init(long budget, File sourceDir) {
+        assert(!init);
+        assert(budget >= 0);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        MapRegistry.budget = budget;
+        MapRegistry.sourceDir = sourceDir;
+        entries = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+        preloads = new ArrayDeque<Entry>();
+        loadingCount = 0;
+        stopping = false;
+        failure = null;
+        active = null;
+
+        thread = new Thread(new Runnable() {
+            public void run() { loop(); }
+        }, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with a budget of [" +
+                budget + "] bytes.\n");
+
+        return init = true;
+    }
+
+    private static void loop() {
+        Entry e;
+        TileMap map;
+        Throwable t;
+
+        for (;;) {
+            synchronized (lock) {
+                while (preloads.isEmpty() && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        /* only Shutdown stops the thread */
+                    }
+                }
+                if (stopping) return;
+
+                e = preloads.poll();
+                /* Get took it over, or it was dropped */
+                if (e.state != QUEUED || entries.get(e.filename) != e)
+                    continue;
+                e.state = LOADING;
+                ++loadingCount;
+            }
+
+            map = null;
+            t = null;
+            try {
+                map = load(e.filename);
+            } catch (Throwable ex) {
+                t = ex;
+            }
+
+            synchronized (lock) {
+                if (t != null && failure == null) failure = t;
+                finish(e, map);
+                --loadingCount;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /* holds lock */
+    private static void finish(Entry e, TileMap map) {
+        if (map != null) {
+            e.map = map;
+            e.state = READY;
+        } else {
+            entries.remove(e.filename);
+            e.state = QUEUED;
+            e.map = null;
+        }
+    }
+
+    /* parse and prepare, any thread */
+    private static TileMap load(String filename) {
+        TileMap map = sourceDir == null ?
+                TileMapFileParser.FromFile(filename) :
+                TileMapFileParser.FromFile(new File(sourceDir, filename),
+                        new File(sourceDir, filename + COMPILED_SUFFIX));
+
+        if (map == null) return null;
+        if (!TileMapLoader.Prepare(map, Data.atlasIdsByFilename,
+                Data.paletteIdsByFilename, Data.TEST_PALETTE_FILENAME))
+            return null;
+
+        return map;
+    }
+
+    /**
+     * Has the background thread parse and prepare a map, unless it is
+     * already cached or on its way.
+     */
+    public static void Preload(String filename) {
+        assert(init);
+
+        synchronized (lock) {
+            /* a peek, so preloading does not count as use */
+            for (Entry e : entries.values()) {
+                if (e.filename.equals(filename)) return;
+            }
+
+            Entry e = new Entry(filename, QUEUED);
+            entries.put(filename, e);
+            preloads.add(e);
+            lock.notifyAll();
+        }
+    }
+
+    /* the prepared entry for filename, loading it here if need be */
+    private static Entry acquire(String filename) {
+        Entry e;
+        TileMap map;
+        boolean here = false;
+
+        synchronized (lock) {
+            e = entries.get(filename);
+            if (e == null) {
+                e = new Entry(filename, LOADING);
+                entries.put(filename, e);
+                here = true;
+            } else if (e.state == QUEUED) {
+                e.state = LOADING;
+                here = true;
+            } else {
+                while (e.state == LOADING) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException ex) {
+                        /* keep waiting, the map is being written */
+                    }
+                }
+            }
+        }
+
+        reportFailure();
+
+        if (here) {
+            map = load(filename);
+            synchronized (lock) {
+                finish(e, map);
+                lock.notifyAll();
+            }
+        }
+
+        return e.map != null ? e : null;
+    }
+
+    private static void reportFailure() {
+        Throwable t;
+
+        synchronized (lock) {
+            t = failure;
+            failure = null;
+        }
+
+        if (t != null) LogFatalExcpAndExit(ERR_STR_PRELOAD_FAILED, t);
+    }
+
+    /**
+     * Makes a map the one drawn, walked and updated, loading it if it is
+     * not cached. The player stays where they are; see Teleport.
+     *
+     * @return the map, null if it failed to load
+     */
+    public static TileMap Activate(String filename) {
+        assert(init);
+
+        long t = System.nanoTime();
+        Entry e = acquire(filename);
+        TileMap map;
+
+        if (e == null) {
+            LogFatalAndExit(ErrStrFailedActivate(filename));
+            return null;
+        }
+        map = e.map;
+
+        if (e != active) {
+            if (active != null) active.map.setVisible(false);
+
+            if (e.state == READY) {
+                TileMapLoader.Attach(map);
+                e.state = ATTACHED;
+            } else {
+                /* a char shared with the map left behind is on its tile and
+                sprite, take it back */
+                map.rebindChars();
+                map.setVisible(true);
+            }
+
+            SpriteSys.SetChunkLayer(map.getGroundLayer());
+            SpriteSys.SetScrollLayerClearColor(map.clearColor);
+            if (SpriteChunkStreamer.IsInitialized()) {
+                SpriteChunkStreamer.SetLayer(map.getGroundLayer());
+            } else if (!SpriteChunkStreamer.Init(map.getGroundLayer(),
+                    Data.GROUND_STREAM_RADIUS, Data.GROUND_RESIDENT_BUDGET)) {
+                return null;
+            }
+
+            Data.tileMap = map;
+            Data.clearColor = map.clearColor;
+            if (Data.cursor != null) Data.cursor.setMap(map);
+            active = e;
+        }
+
+        for (String n : map.getNeighbours()) Preload(n);
+        trim();
+
+        LogSession(LogLevel.DEBUG, CLASS + " activated map [" + map.name +
+                "] in [" + (System.nanoTime() - t) / 1000 + "] us.\n");
+
+        return map;
+    }
+
+    /**
+     * Activates a map and puts the player on (tileX, tileY) of it, with no
+     * walk between.
+     *
+     * @return false if the map failed to load
+     */
+    public static boolean Teleport(String filename, int tileX, int tileY) {
+        assert(init);
+
+        if (Activate(filename) == null) return false;
+
+        Player.clearPath();
+        Player.tileX = Player.prevTileX = tileX;
+        Player.tileY = Player.prevTileY = tileY;
+        SpriteInterpSys.Warp(Player.interp, tileX, tileY);
+        SpriteChunkStreamer.Update(tileX, tileY);
+
+        return true;
+    }
+
+    /* drops the least recently used maps past the budget */
+    private static void trim() {
+        List<Entry> dropped = new ArrayList<Entry>();
+        long total = 0;
+        Iterator<Entry> it;
+        Entry e;
+
+        synchronized (lock) {
+            for (Entry c : entries.values()) {
+                if (c != active && c.map != null)
+                    total += c.map.getFootprintBytes();
+            }
+
+            for (it = entries.values().iterator(); it.hasNext() &&
+                    total > budget;) {
+                e = it.next();
+                if (e == active || e.map == null) continue;
+
+                total -= e.map.getFootprintBytes();
+                dropped.add(e);
+                it.remove();
+            }
+        }
+
+        /* sprites belong to this thread, release outside the lock */
+        for (Entry d : dropped) {
+            d.map.release();
+            LogSession(LogLevel.DEBUG, CLASS + " dropped map [" +
+                    d.map.name + "].\n");
+            d.map = null;
+        }
+    }
+
+    /**
+     * Blocks until the background thread has prepared every queued map. For
+     * tests and loading screens.
+     */
+    public static void AwaitPreloads() {
+        assert(init);
+
+        synchronized (lock) {
+            while (!preloads.isEmpty() || loadingCount > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    /* keep waiting, a map is being written */
+                }
+            }
+        }
+
+        reportFailure();
+    }
+
+    /** @return whether the map is prepared and cached, active or not */
+    public static boolean IsCached(String filename) {
+        assert(init);
+
+        synchronized (lock) {
+            for (Entry e : entries.values()) {
+                if (e.filename.equals(filename)) return e.map != null;
+            }
+            return false;
+        }
+    }
+
+    public static TileMap GetActive() {
+        assert(init);
+
+        return active != null ? active.map : null;
+    }
+
+    /** @return the filename the active map was activated by, or null */
+    public static String GetActiveFilename() {
+        assert(init);
+
+        return active != null ? active.filename : null;
+    }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            LogSession(LogLevel.WARNING, ERR_STR_JOIN_INTERRUPTED);
+        }
+
+        if (SpriteChunkStreamer.IsInitialized())
+            SpriteChunkStreamer.Shutdown();
+
+        thread = null;
+        entries = null;
+        preloads = null;
+        active = null;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static boolean IsInitialized() {
+        return init;
+    }
+
+    private static final String THREAD_NAME = "map-preload";
+    /* a.map in sourceDir compiles to a.mapc */
+    private static final String COMPILED_SUFFIX = "c";
+
+    public static final String CLASS = MapRegistry.class.getSimpleName();
+    private static String ErrStrFailedActivate(String filename) {
+        return String.format("%s failed to activate map [%s] because it " +
+                "failed to load.\n", CLASS, filename);
+    }
+    private static final String ERR_STR_PRELOAD_FAILED = CLASS +
+            " failed to preload a map because loading it threw.\n";
+    private static final String ERR_STR_JOIN_INTERRUPTED = CLASS +
+            " was interrupted while waiting for the preload thread to stop.\n";
+}
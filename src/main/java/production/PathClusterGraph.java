@@ -0,0 +1,338 @@
+package production;
+
+import production.tilemap.TileMap;
+import whitetail.utility.logging.LogLevel;
+
+import java.util.Arrays;
+
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Abstract graph for hierarchical pathfinding (PathStrategy.HPA) over a
+ * TileMap.
+ *
+ * The map is cut into square clusters. Wherever open tiles face each other
+ * across a cluster border, each unbroken run of such pairs gets a
+ * transition: one at its middle, or one at each end if the run is long.
+ * The tiles on either side of a transition are the graph's nodes; a
+ * transition is an edge of cost 1, and every pair of nodes in one cluster
+ * is joined by their shortest distance inside the cluster. A query
+ * searches this graph, then refines each hop with a search bounded to one
+ * cluster, so its cost grows with the path length rather than the map
+ * area. Paths are shortest within a few percent, not exactly.
+ *
+ * Built when constructed. Listens for blocked changes on the map and
+ * rebuilds only the clusters, and borders, a change touches, the next time
+ * it is queried.
+ */
+public final class PathClusterGraph implements TileMap.BlockedListener {
+    public static final int DEFAULT_CLUSTER_SIZE = 16;
+
+    /* runs at least this long get a transition at each end */
+    private static final int LONG_RUN = 6;
+
+    private static final int NONE[] = new int[0];
+
+    final TileMap map;
+    /* cluster edge in tiles, and clusters across and down */
+    final int size;
+    final int cw, ch;
+
+    /* Transitions across the east and south border of each cluster, as
+    pairs of map-local tile indices, this cluster's tile first. The west and
+    north borders are the east and south of the neighbours. */
+    int east[][];
+    int south[][];
+    /* the node tiles of each cluster, and the in-cluster distance between
+    nodes i and j at [i * n + j], -1 if there is no path inside the cluster */
+    int nodes[][];
+    int dist[][];
+
+    private final boolean eastDirty[];
+    private final boolean southDirty[];
+    private final boolean clusterDirty[];
+    private boolean dirty;
+
+    /* build scratch, sized to one cluster */
+    private final int bfsDist[];
+    private final int bfsQueue[];
+    private int nodeBuf[];
+
+    public PathClusterGraph(TileMap map, int size) {
+        assert(map != null);
+        assert(size >= 2);
+
+        int k;
+
+        this.map = map;
+        this.size = size;
+        cw = (map.width + size - 1) / size;
+        ch = (map.height + size - 1) / size;
+
+        east = new int[cw * ch][];
+        south = new int[cw * ch][];
+        nodes = new int[cw * ch][];
+        dist = new int[cw * ch][];
+        eastDirty = new boolean[cw * ch];
+        southDirty = new boolean[cw * ch];
+        clusterDirty = new boolean[cw * ch];
+
+        bfsDist = new int[size * size];
+        bfsQueue = new int[size * size];
+        nodeBuf = new int[size * 4];
+
+        for (k = 0; k < cw * ch; ++k) {
+            eastDirty[k] = southDirty[k] = clusterDirty[k] = true;
+        }
+        dirty = true;
+        refresh();
+
+        map.addBlockedListener(this);
+
+        LogSession(LogLevel.DEBUG, CLASS + " built for map [" + map.name +
+                "] with [" + cw + "x" + ch + "] clusters of [" + size +
+                "] tiles.\n");
+    }
+
+    /** Stops listening to the map, for when the graph is dropped. */
+    public void detach() {
+        map.removeBlockedListener(this);
+    }
+
+    public void onBlockedChanged(int ax, int ay, boolean blocked) {
+        int cx = ax / size, cy = ay / size;
+        int k = cy * cw + cx;
+        int lx = ax - cx * size, ly = ay - cy * size;
+
+        clusterDirty[k] = true;
+
+        /* a tile on a cluster edge can change that border's transitions,
+        and with them the nodes of the cluster across it */
+        if (lx == size - 1 && cx + 1 < cw) {
+            eastDirty[k] = clusterDirty[k + 1] = true;
+        }
+        if (lx == 0 && cx > 0) {
+            eastDirty[k - 1] = clusterDirty[k - 1] = true;
+        }
+        if (ly == size - 1 && cy + 1 < ch) {
+            southDirty[k] = clusterDirty[k + cw] = true;
+        }
+        if (ly == 0 && cy > 0) {
+            southDirty[k - cw] = clusterDirty[k - cw] = true;
+        }
+
+        dirty = true;
+    }
+
+    /** Rebuilds whatever changed since the last call. */
+    void refresh() {
+        int k;
+
+        if (!dirty) return;
+
+        for (k = 0; k < cw * ch; ++k) {
+            if (eastDirty[k]) {
+                east[k] = borderTransitions(k, true);
+                eastDirty[k] = false;
+            }
+            if (southDirty[k]) {
+                south[k] = borderTransitions(k, false);
+                southDirty[k] = false;
+            }
+        }
+
+        for (k = 0; k < cw * ch; ++k) {
+            if (clusterDirty[k]) {
+                buildCluster(k);
+                clusterDirty[k] = false;
+            }
+        }
+
+        dirty = false;
+    }
+
+    int clusterOf(int tile) {
+        int ax = tile % map.width, ay = tile / map.width;
+
+        return (ay / size) * cw + ax / size;
+    }
+
+    /** @return the position of tile in nodes[k], -1 if it is not a node */
+    int nodeIndex(int k, int tile) {
+        int n[] = nodes[k];
+
+        for (int i = 0; i < n.length; ++i) {
+            if (n[i] == tile) return i;
+        }
+        return -1;
+    }
+
+    private boolean free(int ax, int ay) {
+        return !map.isBlockedLocal(ax, ay);
+    }
+
+    /*
+     * Scans the east (or south) border of cluster k for runs of open tile
+     * pairs facing each other across it.
+     */
+    private int[] borderTransitions(int k, boolean isEast) {
+        int w = map.width;
+        int cx = k % cw, cy = k / cw;
+        int len, i, run, count = 0;
+        int out[];
+
+        if (isEast ? cx + 1 >= cw : cy + 1 >= ch) return NONE;
+
+        len = isEast ? Math.min(size, map.height - cy * size) :
+                Math.min(size, w - cx * size);
+        out = new int[len * 2 * 2];
+
+        run = 0;
+        for (i = 0; i <= len; ++i) {
+            if (i < len && pairOpen(cx, cy, isEast, i)) {
+                ++run;
+                continue;
+            }
+            if (run == 0) continue;
+
+            if (run >= LONG_RUN) {
+                count = addTransition(out, count, cx, cy, isEast, i - run);
+                count = addTransition(out, count, cx, cy, isEast, i - 1);
+            } else {
+                count = addTransition(out, count, cx, cy, isEast,
+                        i - run + (run - 1) / 2);
+            }
+            run = 0;
+        }
+
+        return Arrays.copyOf(out, count);
+    }
+
+    private boolean pairOpen(int cx, int cy, boolean isEast, int i) {
+        int ax, ay;
+
+        if (isEast) {
+            ax = (cx + 1) * size - 1;
+            ay = cy * size + i;
+            return free(ax, ay) && free(ax + 1, ay);
+        }
+
+        ax = cx * size + i;
+        ay = (cy + 1) * size - 1;
+        return free(ax, ay) && free(ax, ay + 1);
+    }
+
+    private int addTransition(int out[], int count, int cx, int cy,
+                              boolean isEast, int i) {
+        int w = map.width;
+        int ax, ay;
+
+        if (isEast) {
+            ax = (cx + 1) * size - 1;
+            ay = cy * size + i;
+            out[count++] = ay * w + ax;
+            out[count++] = ay * w + ax + 1;
+        } else {
+            ax = cx * size + i;
+            ay = (cy + 1) * size - 1;
+            out[count++] = ay * w + ax;
+            out[count++] = (ay + 1) * w + ax;
+        }
+
+        return count;
+    }
+
+    /* collects the node tiles of cluster k and their in-cluster distances */
+    private void buildCluster(int k) {
+        int cx = k % cw, cy = k / cw;
+        int count = 0, i, j;
+        int n[], d[];
+
+        count = collect(east[k], 0, count);
+        if (cx > 0) count = collect(east[k - 1], 1, count);
+        count = collect(south[k], 0, count);
+        if (cy > 0) count = collect(south[k - cw], 1, count);
+
+        nodes[k] = n = Arrays.copyOf(nodeBuf, count);
+        dist[k] = d = new int[count * count];
+
+        for (i = 0; i < count; ++i) {
+            clusterBfs(map, size, k % cw, k / cw, n[i], bfsDist, bfsQueue,
+                    null);
+            for (j = 0; j < count; ++j) {
+                d[i * count + j] = bfsDist[localIndex(n[j], k)];
+            }
+        }
+    }
+
+    /* adds side (0 or 1) of each transition pair to nodeBuf, once each */
+    private int collect(int trans[], int side, int count) {
+        int t, i, j;
+
+        for (i = side; i < trans.length; i += 2) {
+            t = trans[i];
+            for (j = 0; j < count && nodeBuf[j] != t; ++j) {}
+            if (j < count) continue;
+
+            if (count == nodeBuf.length)
+                nodeBuf = Arrays.copyOf(nodeBuf, count * 2);
+            nodeBuf[count++] = t;
+        }
+
+        return count;
+    }
+
+    /* index of a tile of cluster k into a size * size cluster array */
+    int localIndex(int tile, int k) {
+        int ax = tile % map.width, ay = tile / map.width;
+
+        return (ay - (k / cw) * size) * size + ax - (k % cw) * size;
+    }
+
+    /**
+     * Breadth-first over cluster (cx, cy) only, from map-local tile from.
+     * Fills dist, indexed like localIndex, with the distance to every tile,
+     * -1 where unreachable. If parent is not null it receives, for each
+     * reached tile, the local index it was reached from.
+     */
+    static void clusterBfs(TileMap map, int size, int cx, int cy, int from,
+                           int dist[], int queue[], int parent[]) {
+        int w = map.width;
+        int x0 = cx * size, y0 = cy * size;
+        int x1 = Math.min(x0 + size, w), y1 = Math.min(y0 + size, map.height);
+        int head = 0, tail = 0, cur, x, y, nx, ny, n, i;
+
+        Arrays.fill(dist, 0, size * size, -1);
+
+        cur = (from / w - y0) * size + from % w - x0;
+        dist[cur] = 0;
+        if (parent != null) parent[cur] = -1;
+        queue[tail++] = cur;
+
+        while (head < tail) {
+            cur = queue[head++];
+            y = cur / size;
+            x = cur - y * size;
+
+            for (i = 0; i < 4; ++i) {
+                nx = x + BFS_DX[i];
+                ny = y + BFS_DY[i];
+                if (nx < 0 || ny < 0 || x0 + nx >= x1 || y0 + ny >= y1)
+                    continue;
+
+                n = ny * size + nx;
+                if (dist[n] >= 0) continue;
+                if (map.isBlockedLocal(x0 + nx, y0 + ny)) continue;
+
+                dist[n] = dist[cur] + 1;
+                if (parent != null) parent[n] = cur;
+                queue[tail++] = n;
+            }
+        }
+    }
+
+    private static final int BFS_DX[] = { 1, -1, 0, 0 };
+    private static final int BFS_DY[] = { 0, 0, 1, -1 };
+
+    public static final String CLASS = PathClusterGraph.class.getSimpleName();
+}
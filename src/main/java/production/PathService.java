@@ -0,0 +1,488 @@
+package production;
+
+import production.tilemap.TileMap;
+import whitetail.utility.IntArray;
+import whitetail.utility.logging.LogLevel;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.ErrorHandler.LogFatalExcpAndExit;
+import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Batched pathfinding for many agents, answered once per tick.
+ *
+ * Agents call Request during the tick and get their path from Flush at the
+ * end of it. Flush groups the requests by where they lead. A group of at
+ * least FIELD_MIN_GROUP shares one Pathfinder.flowField that each member
+ * walks, so a crowd chasing one target costs about one flood. Every other
+ * request is a search of its own. Fields and searches are spread over the
+ * worker threads and the calling thread, each with its own
+ * Pathfinder.Scratch, and Flush returns once all are done.
+ *
+ * Workers only read the maps. The maps must not change between the start
+ * of Flush and its return, which holds when everything runs on the main
+ * thread. Receivers are called on the thread that called Flush, in request
+ * order. They may Request again; those requests wait for the next Flush.
+ */
+public final class PathService {
+    private static boolean init;
+
+    /** Told the outcome of a request. */
+    public interface Receiver {
+        /**
+         * @param path packed coordinates, start excluded, only valid during
+         *             the call; copy what is kept
+         */
+        void onPath(int tag, boolean found, IntArray path);
+    }
+
+    /* requests to one place at least this many share a flow field */
+    public static final int FIELD_MIN_GROUP = 4;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /* --- requests, indexed in arrival order --- */
+    private static int count;
+    private static int cap;
+    private static TileMap reqMap[];
+    private static int reqStartX[], reqStartY[];
+    private static int reqDestX[], reqDestY[];
+    private static boolean reqAdjacent[];
+    private static PathStrategy reqStrategy[];
+    private static Receiver reqReceiver[];
+    private static int reqTag[];
+    /* results, written by whoever runs the request's job */
+    private static boolean reqFound[];
+    private static IntArray reqPath[];
+
+    /* --- grouping: open-addressed table of groups by destination, each a
+    chain of requests through reqNext --- */
+    private static int groupSlot[];
+    private static int groupFirst[];
+    private static int groupSize[];
+    private static int groupCount;
+    private static int reqNext[];
+
+    /* --- jobs for this flush: a request index, or -(group + 1) for a
+    group's flow field --- */
+    private static int jobs[];
+    private static int jobCount;
+    private static final AtomicInteger nextJob = new AtomicInteger();
+
+    private static Worker mainWorker;
+    private static Worker workers[];
+    private static Thread threads[];
+
+    private static final Object lock = new Object();
+    /* guarded by lock */
+    private static int batch;
+    private static int busyWorkers;
+    private static boolean stopping;
+    private static Throwable failure;
+
+    /* counts since Init, for the bench */
+    private static long fieldCount;
+    private static long searchCount;
+
+    private static final class Worker {
+        final Pathfinder.Scratch scratch = new Pathfinder.Scratch();
+        final IntArray starts = new IntArray();
+    }
+
+    private PathService() {}
+
+    /**
+     * @param workerCount threads besides the one calling Flush, 0 to run
+     *                    every job on that thread
+     */
+    public static boolean Init(int workerCount) {
+        assert(!init);
+        assert(workerCount >= 0);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        try {
+            cap = INITIAL_CAPACITY;
+            reqMap = new TileMap[cap];
+            reqStartX = new int[cap];
+            reqStartY = new int[cap];
+            reqDestX = new int[cap];
+            reqDestY = new int[cap];
+            reqAdjacent = new boolean[cap];
+            reqStrategy = new PathStrategy[cap];
+            reqReceiver = new Receiver[cap];
+            reqTag = new int[cap];
+            reqFound = new boolean[cap];
+            reqPath = new IntArray[cap];
+            reqNext = new int[cap];
+            jobs = new int[cap];
+            groupSlot = new int[cap * 2];
+            groupFirst = new int[cap];
+            groupSize = new int[cap];
+            for (int i = 0; i < cap; ++i) reqPath[i] = new IntArray();
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return init = false;
+        }
+
+        count = 0;
+        fieldCount = searchCount = 0;
+        batch = busyWorkers = 0;
+        stopping = false;
+        failure = null;
+
+        mainWorker = new Worker();
+        workers = new Worker[workerCount];
+        threads = new Thread[workerCount];
+        for (int i = 0; i < workerCount; ++i) {
+            final Worker w = workers[i] = new Worker();
+
+            threads[i] = new Thread(new Runnable() {
+                public void run() { loop(w); }
+            }, THREAD_NAME + i);
+            threads[i].setDaemon(true);
+            threads[i].start();
+        }
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with [" +
+                workerCount + "] workers.\n");
+
+        return init = true;
+    }
+
+    /**
+     * Queues a path request, answered by the next Flush. With adjacent the
+     * path leads next to (destX, destY), as Pathfinder.findAdjacent;
+     * otherwise onto it, as Pathfinder.find.
+     *
+     * @param strategy used if the request ends up searched on its own
+     */
+    public static void Request(TileMap map, int startX, int startY,
+                               int destX, int destY, boolean adjacent,
+                               PathStrategy strategy, Receiver receiver,
+                               int tag) {
+        assert(init);
+        assert(map != null && strategy != null && receiver != null);
+
+        if (count == cap) grow();
+
+        reqMap[count] = map;
+        reqStartX[count] = startX;
+        reqStartY[count] = startY;
+        reqDestX[count] = destX;
+        reqDestY[count] = destY;
+        reqAdjacent[count] = adjacent;
+        reqStrategy[count] = strategy;
+        reqReceiver[count] = receiver;
+        reqTag[count] = tag;
+        ++count;
+    }
+
+    private static void grow() {
+        int n = cap * 2, i;
+
+        reqMap = Arrays.copyOf(reqMap, n);
+        reqStartX = Arrays.copyOf(reqStartX, n);
+        reqStartY = Arrays.copyOf(reqStartY, n);
+        reqDestX = Arrays.copyOf(reqDestX, n);
+        reqDestY = Arrays.copyOf(reqDestY, n);
+        reqAdjacent = Arrays.copyOf(reqAdjacent, n);
+        reqStrategy = Arrays.copyOf(reqStrategy, n);
+        reqReceiver = Arrays.copyOf(reqReceiver, n);
+        reqTag = Arrays.copyOf(reqTag, n);
+        reqFound = Arrays.copyOf(reqFound, n);
+        reqPath = Arrays.copyOf(reqPath, n);
+        reqNext = Arrays.copyOf(reqNext, n);
+        jobs = Arrays.copyOf(jobs, n);
+        groupSlot = new int[n * 2];
+        groupFirst = Arrays.copyOf(groupFirst, n);
+        groupSize = Arrays.copyOf(groupSize, n);
+        for (i = cap; i < n; ++i) reqPath[i] = new IntArray();
+
+        cap = n;
+    }
+
+    /**
+     * Answers every request made since the last Flush. Call once per tick,
+     * after everything that may Request, from the thread that changes the
+     * maps.
+     */
+    public static void Flush() {
+        assert(init);
+
+        int n = count, i;
+        Throwable t;
+
+        if (n == 0) return;
+
+        group(n);
+        refreshGraphs(n);
+
+        /* the workers pick up this batch, this thread joins in */
+        nextJob.set(0);
+        synchronized (lock) {
+            busyWorkers = workers.length;
+            ++batch;
+            lock.notifyAll();
+        }
+
+        t = null;
+        try {
+            runJobs(mainWorker);
+        } catch (Throwable e) {
+            t = e;
+        }
+
+        synchronized (lock) {
+            while (busyWorkers > 0) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    /* keep waiting, the workers are still writing results */
+                }
+            }
+            if (t == null) t = failure;
+            failure = null;
+        }
+
+        if (t != null) {
+            LogFatalExcpAndExit(ERR_STR_JOB_FAILED, t);
+            return;
+        }
+
+        for (i = 0; i < n; ++i) {
+            reqReceiver[i].onPath(reqTag[i], reqFound[i], reqPath[i]);
+        }
+
+        retire(n);
+    }
+
+    /*
+     * Chains the first n requests into groups by map and destination, and
+     * lists the jobs: one per group big enough for a field, one per request
+     * otherwise.
+     */
+    private static void group(int n) {
+        int mask = groupSlot.length - 1;
+        int i, h, g, r;
+
+        Arrays.fill(groupSlot, -1);
+        groupCount = 0;
+
+        for (i = 0; i < n; ++i) {
+            h = hash(i) & mask;
+            while ((g = groupSlot[h]) >= 0 && !sameDest(groupFirst[g], i))
+                h = (h + 1) & mask;
+
+            if (g < 0) {
+                g = groupSlot[h] = groupCount++;
+                groupFirst[g] = -1;
+                groupSize[g] = 0;
+            }
+
+            /* prepended, so a chain runs newest first; order does not
+            matter to a field */
+            reqNext[i] = groupFirst[g];
+            groupFirst[g] = i;
+            ++groupSize[g];
+        }
+
+        jobCount = 0;
+        for (g = 0; g < groupCount; ++g) {
+            if (groupSize[g] >= FIELD_MIN_GROUP) {
+                jobs[jobCount++] = -(g + 1);
+                ++fieldCount;
+                continue;
+            }
+            for (r = groupFirst[g]; r >= 0; r = reqNext[r]) {
+                jobs[jobCount++] = r;
+                ++searchCount;
+            }
+        }
+    }
+
+    private static int hash(int r) {
+        int h = System.identityHashCode(reqMap[r]);
+
+        h = h * 31 + Pathfinder.pack(reqDestX[r], reqDestY[r]);
+        h = h * 31 + (reqAdjacent[r] ? 1 : 0);
+
+        return h ^ (h >>> 16);
+    }
+
+    private static boolean sameDest(int a, int b) {
+        return reqMap[a] == reqMap[b] && reqDestX[a] == reqDestX[b] &&
+                reqDestY[a] == reqDestY[b] &&
+                reqAdjacent[a] == reqAdjacent[b];
+    }
+
+    /* the cluster graphs catch up here, so HPA searches only read them */
+    private static void refreshGraphs(int n) {
+        PathClusterGraph g;
+
+        for (int i = 0; i < n; ++i) {
+            if (reqStrategy[i] != PathStrategy.HPA) continue;
+            if ((g = reqMap[i].getPathGraph()) != null) g.refresh();
+        }
+    }
+
+    /* drops the first n requests, keeping any a receiver made */
+    private static void retire(int n) {
+        int left = count - n, i;
+        IntArray p;
+
+        for (i = 0; i < left; ++i) {
+            reqMap[i] = reqMap[n + i];
+            reqStartX[i] = reqStartX[n + i];
+            reqStartY[i] = reqStartY[n + i];
+            reqDestX[i] = reqDestX[n + i];
+            reqDestY[i] = reqDestY[n + i];
+            reqAdjacent[i] = reqAdjacent[n + i];
+            reqStrategy[i] = reqStrategy[n + i];
+            reqReceiver[i] = reqReceiver[n + i];
+            reqTag[i] = reqTag[n + i];
+
+            /* swap, so every slot keeps an IntArray of its own */
+            p = reqPath[i];
+            reqPath[i] = reqPath[n + i];
+            reqPath[n + i] = p;
+        }
+
+        /* no references kept to maps or receivers of answered requests */
+        Arrays.fill(reqMap, left, count, null);
+        Arrays.fill(reqStrategy, left, count, null);
+        Arrays.fill(reqReceiver, left, count, null);
+
+        count = left;
+    }
+
+    private static void loop(Worker w) {
+        int seen = 0;
+        Throwable t;
+
+        for (;;) {
+            synchronized (lock) {
+                while (batch == seen && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        /* only Shutdown stops the thread */
+                    }
+                }
+                if (stopping) return;
+                seen = batch;
+            }
+
+            t = null;
+            try {
+                runJobs(w);
+            } catch (Throwable e) {
+                t = e;
+            }
+
+            synchronized (lock) {
+                if (t != null && failure == null) failure = t;
+                if (--busyWorkers == 0) lock.notifyAll();
+            }
+        }
+    }
+
+    private static void runJobs(Worker w) {
+        int j;
+
+        while ((j = nextJob.getAndIncrement()) < jobCount) {
+            if (jobs[j] >= 0) search(w, jobs[j]);
+            else field(w, -jobs[j] - 1);
+        }
+    }
+
+    private static void search(Worker w, int r) {
+        if (reqAdjacent[r]) {
+            reqFound[r] = Pathfinder.findAdjacent(w.scratch, reqMap[r],
+                    reqStartX[r], reqStartY[r], reqDestX[r], reqDestY[r],
+                    reqStrategy[r], reqPath[r]);
+        } else {
+            reqFound[r] = Pathfinder.find(w.scratch, reqMap[r],
+                    reqStartX[r], reqStartY[r], reqDestX[r], reqDestY[r],
+                    reqStrategy[r], reqPath[r]);
+        }
+    }
+
+    private static void field(Worker w, int g) {
+        int first = groupFirst[g], r;
+
+        w.starts.clear();
+        for (r = first; r >= 0; r = reqNext[r])
+            w.starts.add(Pathfinder.pack(reqStartX[r], reqStartY[r]));
+
+        /* nowhere to stand, each request gets its own trivial answer */
+        if (!Pathfinder.flowField(w.scratch, reqMap[first], reqDestX[first],
+                reqDestY[first], reqAdjacent[first], w.starts)) {
+            for (r = first; r >= 0; r = reqNext[r]) search(w, r);
+            return;
+        }
+
+        for (r = first; r >= 0; r = reqNext[r]) {
+            reqFound[r] = Pathfinder.followFlowField(w.scratch, reqMap[r],
+                    reqStartX[r], reqStartY[r], reqPath[r]);
+        }
+    }
+
+    /** Flow fields built since Init. */
+    public static long GetFieldCount() {
+        return fieldCount;
+    }
+
+    /** Requests searched on their own since Init. */
+    public static long GetSearchCount() {
+        return searchCount;
+    }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+
+        for (Thread th : threads) {
+            try {
+                th.join();
+            } catch (InterruptedException e) {
+                LogSession(LogLevel.WARNING, ERR_STR_JOIN_INTERRUPTED);
+            }
+        }
+
+        threads = null;
+        workers = null;
+        mainWorker = null;
+        reqMap = null;
+        reqStrategy = null;
+        reqReceiver = null;
+        reqPath = null;
+        count = 0;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static boolean IsInitialized() {
+        return init;
+    }
+
+    private static final String THREAD_NAME = "path";
+
+    public static final String CLASS = PathService.class.getSimpleName();
+    private static final String ERR_STR_JOB_FAILED = CLASS +
+            " failed to answer path requests because a search threw.\n";
+    private static final String ERR_STR_JOIN_INTERRUPTED = CLASS +
+            " was interrupted while waiting for a worker to stop.\n";
+}
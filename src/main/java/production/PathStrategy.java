@@ -0,0 +1,25 @@
+package production;
+
+/**
+ * How Pathfinder searches. BFS, ASTAR and JPS return a shortest path on the
+ * 4-connected grid; they differ in how much of the map they touch to find
+ * it, and equal length paths may differ in shape between them. HPA trades
+ * a few percent of path length for cost that follows the path, not the map.
+ */
+public enum PathStrategy {
+    /** Uninformed, floods outward. Cheapest per tile, fine on small maps. */
+    BFS,
+    /** Manhattan-guided, expands toward the goal first. */
+    ASTAR,
+    /**
+     * A* over jump points: straight runs with no branching are skipped in
+     * one step, so open areas cost a few heap operations rather than one
+     * per tile.
+     */
+    JPS,
+    /**
+     * Hierarchical, over the map's PathClusterGraph. Falls back to JPS on a
+     * map that has none, or from a start on a blocked tile.
+     */
+    HPA
+}
@@ -1,16 +1,100 @@
 package production;
 
-import production.tilemap.Tile;
 import production.tilemap.TileMap;
+import whitetail.utility.IntArray;
 
-import java.util.*;
+import java.util.Arrays;
 
 /**
- * BFS pathfinding on the tile map.
- * Coordinates are packed into ints: high 16 bits = x, low 16 bits = y.
+ * Pathfinding on the tile map, by BFS, A*, jump point search or
+ * hierarchically over a PathClusterGraph (see PathStrategy). Coordinates
+ * are packed into ints: high 16 bits = x, low 16 bits = y.
+ *
+ * On a map with component labels (TileMap.buildComponents) a destination
+ * walled off from the start is rejected before any search.
+ *
+ * The search runs over map-local tile indices (y * width + x) with flat int
+ * arrays held in a Scratch, so a query allocates nothing once the scratch
+ * has grown to the map. The overloads without a Scratch share one and must
+ * only be called from the main thread. The overloads without a strategy use
+ * BFS.
  */
 public final class Pathfinder {
 
+    /* direction offsets: right, left, down, up */
+    private static final int DX[] = { 1, -1, 0, 0 };
+    private static final int DY[] = { 0, 0, 1, -1 };
+
+    private static final Scratch MAIN_SCRATCH = new Scratch();
+
+    /**
+     * Per-thread search state, reused across queries and maps. Grows to the
+     * largest map searched; never shrinks.
+     */
+    public static final class Scratch {
+        /* BFS queue or A* binary heap, each tile is in it at most once */
+        int open[] = new int[0];
+        /* parent[i] is the tile i was reached from, valid if seen[i] == gen */
+        int parent[] = new int[0];
+        /* seen[i] == gen means tile i was reached in the current search, so
+        clearing between searches is one increment */
+        int seen[] = new int[0];
+        int gen;
+        /* A* only, valid if seen[i] == gen: cost from start, and position in
+        the heap or -1 once expanded */
+        int cost[] = new int[0];
+        int heapKey[] = new int[0];
+        int heapPos[] = new int[0];
+        int heapSize;
+        /* tiles that end the search, and their map-local coordinates */
+        final int goals[] = new int[4];
+        final int goalX[] = new int[4];
+        final int goalY[] = new int[4];
+        int goalCount;
+        /* HPA only, sized to one cluster: in-cluster BFS state, distances
+        from the start and from each goal to every tile of their cluster, and
+        the abstract path before refinement */
+        int clusterQueue[] = new int[0];
+        int clusterParent[] = new int[0];
+        int startDist[] = new int[0];
+        final int goalDist[][] = new int[4][0];
+        final int goalCluster[] = new int[4];
+        final IntArray hops = new IntArray();
+        /* flow field only: what it leads to, and the starts it has yet to
+        reach while flooding */
+        TileMap fieldMap;
+        int fieldX, fieldY;
+        boolean fieldAdjacent;
+        final IntArray fieldStarts = new IntArray();
+
+        void begin(int tiles) {
+            if (seen.length < tiles) {
+                open = new int[tiles];
+                parent = new int[tiles];
+                seen = new int[tiles];
+                cost = new int[tiles];
+                heapKey = new int[tiles];
+                heapPos = new int[tiles];
+                gen = 0;
+            }
+
+            if (++gen == 0) {
+                Arrays.fill(seen, 0);
+                gen = 1;
+            }
+        }
+
+        void beginClusters(int area) {
+            if (startDist.length < area) {
+                clusterQueue = new int[area];
+                clusterParent = new int[area];
+                startDist = new int[area];
+                for (int g = 0; g < goalDist.length; ++g)
+                    goalDist[g] = new int[area];
+            }
+        }
+    }
+
     private Pathfinder() {}
 
     /**
@@ -37,168 +121,769 @@ public final class Pathfinder {
      * @param startY starting tile Y
      * @param destX destination tile X
      * @param destY destination tile Y
-     * @return path as ArrayList of packed coordinates (start excluded, dest included),
-     *         or null if no path exists
+     * @param out receives the path as packed coordinates (start excluded,
+     *            dest included), empty if already there
+     * @return false if no path exists, out is then empty
      */
-    public static ArrayList<Integer> find(TileMap map,
-                                          int startX, int startY,
-                                          int destX, int destY) {
+    public static boolean find(TileMap map, int startX, int startY,
+                               int destX, int destY, IntArray out) {
+        return find(MAIN_SCRATCH, map, startX, startY, destX, destY,
+                PathStrategy.BFS, out);
+    }
+
+    public static boolean find(Scratch s, TileMap map,
+                               int startX, int startY,
+                               int destX, int destY,
+                               PathStrategy strategy, IntArray out) {
+        out.clear();
+
         /* trivial case: already there */
-        if (startX == destX && startY == destY) {
-            return new ArrayList<Integer>();
-        }
+        if (startX == destX && startY == destY) return true;
 
         /* check destination is valid and walkable */
-        Tile destTile = map.getTile((short) destX, (short) destY);
-        if (destTile == null || destTile.isBlocked()) {
-            return null;
+        if (!walkable(map, destX, destY)) return false;
+
+        /* walled off from start, no need to search */
+        if (!mayReach(map, startX, startY, destX, destY)) return false;
+
+        s.goalCount = 0;
+        addGoal(s, map, destX, destY);
+
+        return search(s, map, startX, startY, strategy, out);
+    }
+
+    /**
+     * Find a path from start to any walkable tile adjacent to the target.
+     * Useful for walking up to NPCs, objects, etc.
+     *
+     * @param map the tile map
+     * @param startX starting tile X
+     * @param startY starting tile Y
+     * @param targetX target tile X (the tile we want to be adjacent to)
+     * @param targetY target tile Y
+     * @param out receives the path as packed coordinates (start excluded,
+     *            dest included), empty if already adjacent
+     * @return false if no path exists, out is then empty
+     */
+    public static boolean findAdjacent(TileMap map, int startX, int startY,
+                                       int targetX, int targetY,
+                                       IntArray out) {
+        return findAdjacent(MAIN_SCRATCH, map, startX, startY,
+                targetX, targetY, PathStrategy.BFS, out);
+    }
+
+    public static boolean findAdjacent(Scratch s, TileMap map,
+                                       int startX, int startY,
+                                       int targetX, int targetY,
+                                       PathStrategy strategy, IntArray out) {
+        int adjX, adjY, i;
+
+        out.clear();
+
+        /* check if already adjacent */
+        for (i = 0; i < 4; i++) {
+            if (startX == targetX + DX[i] && startY == targetY + DY[i])
+                return true;
         }
 
-        int startPacked = pack(startX, startY);
-        int destPacked = pack(destX, destY);
+        /* valid adjacent destinations */
+        s.goalCount = 0;
+        for (i = 0; i < 4; i++) {
+            adjX = targetX + DX[i];
+            adjY = targetY + DY[i];
+            if (walkable(map, adjX, adjY) &&
+                    mayReach(map, startX, startY, adjX, adjY))
+                addGoal(s, map, adjX, adjY);
+        }
 
-        /* BFS frontier */
-        Queue<Integer> frontier = new LinkedList<Integer>();
-        frontier.add(startPacked);
+        if (s.goalCount == 0) return false;
 
-        /* track where we came from: cameFrom[node] = previous node */
-        HashMap<Integer, Integer> cameFrom = new HashMap<Integer, Integer>();
-        cameFrom.put(startPacked, null);
+        return search(s, map, startX, startY, strategy, out);
+    }
 
-        /* direction offsets: right, left, down, up */
-        int[] dx = { 1, -1, 0, 0 };
-        int[] dy = { 0, 0, 1, -1 };
+    /**
+     * Floods distances out from the destination, or with adjacent from the
+     * walkable tiles next to it, for followFlowField to walk from any number
+     * of starts. One field serves every agent headed to the same place.
+     *
+     * The flood stops after the layer in which the last of the starts is
+     * reached, so agents near the destination cost a small area even on a
+     * large map. Starts that the component labels rule out are not waited
+     * for.
+     *
+     * @param starts packed start coordinates
+     * @return false if no destination tile is walkable, the field is then
+     *         empty
+     */
+    public static boolean flowField(Scratch s, TileMap map, int destX,
+                                    int destY, boolean adjacent,
+                                    IntArray starts) {
+        int w = map.width, h = map.height;
+        IntArray left = s.fieldStarts;
+        int queue[], seen[], cost[];
+        int gen, head, tail, layerEnd, cur, cx, cy, nx, ny, n, x, y, i, g;
+
+        s.begin(w * h);
+        s.fieldMap = map;
+        s.fieldX = destX;
+        s.fieldY = destY;
+        s.fieldAdjacent = adjacent;
+
+        s.goalCount = 0;
+        if (adjacent) {
+            for (i = 0; i < 4; i++) {
+                if (walkable(map, destX + DX[i], destY + DY[i]))
+                    addGoal(s, map, destX + DX[i], destY + DY[i]);
+            }
+        } else if (walkable(map, destX, destY)) {
+            addGoal(s, map, destX, destY);
+        }
+        if (s.goalCount == 0) return false;
+
+        /* the starts to wait for, map-local */
+        left.clear();
+        for (i = 0; i < starts.size(); ++i) {
+            x = unpackX(starts.get(i));
+            y = unpackY(starts.get(i));
+            for (g = 0; g < s.goalCount; ++g) {
+                if (mayReach(map, x, y, s.goalX[g] + map.originOffsetX,
+                        s.goalY[g] + map.originOffsetY))
+                    break;
+            }
+            x -= map.originOffsetX;
+            y -= map.originOffsetY;
+            if (g < s.goalCount && x >= 0 && y >= 0 && x < w && y < h)
+                left.add(y * w + x);
+        }
 
-        while (!frontier.isEmpty()) {
-            int current = frontier.poll();
-            int cx = unpackX(current);
-            int cy = unpackY(current);
+        queue = s.open;
+        seen = s.seen;
+        cost = s.cost;
+        gen = s.gen;
 
-            for (int i = 0; i < 4; i++) {
-                int nx = cx + dx[i];
-                int ny = cy + dy[i];
-                int neighborPacked = pack(nx, ny);
+        head = tail = 0;
+        for (g = 0; g < s.goalCount; ++g) {
+            seen[s.goals[g]] = gen;
+            cost[s.goals[g]] = 0;
+            queue[tail++] = s.goals[g];
+        }
 
-                /* already visited? */
-                if (cameFrom.containsKey(neighborPacked)) continue;
+        layerEnd = tail;
+        while (head < tail) {
+            /* every tile at the distance just finished is labelled */
+            if (head == layerEnd) {
+                if (allReached(s, map)) break;
+                layerEnd = tail;
+            }
 
-                /* valid tile? */
-                Tile neighborTile = map.getTile((short) nx, (short) ny);
-                if (neighborTile == null || neighborTile.isBlocked()) continue;
+            cur = queue[head++];
+            cy = cur / w;
+            cx = cur - cy * w;
 
-                cameFrom.put(neighborPacked, current);
+            for (i = 0; i < 4; i++) {
+                nx = cx + DX[i];
+                ny = cy + DY[i];
+                if (!free(map, nx, ny)) continue;
 
-                /* found destination? */
-                if (neighborPacked == destPacked) {
-                    return reconstructPath(cameFrom, destPacked);
+                n = ny * w + nx;
+                if (seen[n] == gen) continue;
+
+                seen[n] = gen;
+                cost[n] = cost[cur] + 1;
+                queue[tail++] = n;
+            }
+        }
+
+        return true;
+    }
+
+    /*
+     * Drops the starts the flood has reached: an open one once it is
+     * labelled, a blocked one once a neighbour is.
+     */
+    private static boolean allReached(Scratch s, TileMap map) {
+        IntArray left = s.fieldStarts;
+        int w = map.width;
+        int i = 0, t, x, y, d;
+        boolean reached;
+
+        while (i < left.size()) {
+            t = left.get(i);
+            reached = s.seen[t] == s.gen;
+            if (!reached && map.isBlockedLocal(t % w, t / w)) {
+                y = t / w;
+                x = t - y * w;
+                for (d = 0; d < 4 && !reached; d++) {
+                    reached = free(map, x + DX[d], y + DY[d]) &&
+                            s.seen[(y + DY[d]) * w + x + DX[d]] == s.gen;
                 }
+            }
 
-                frontier.add(neighborPacked);
+            if (reached) {
+                left.set(i, left.get(left.size() - 1));
+                left.setSize(left.size() - 1);
+            } else {
+                ++i;
             }
         }
 
-        /* no path found */
-        return null;
+        return left.isEmpty();
     }
 
     /**
-     * Find a path from start to any walkable tile adjacent to the target.
-     * Useful for walking up to NPCs, objects, etc.
+     * Walks the field last built in s by flowField, downhill from start.
+     * Gives a shortest path, and the same answer as find or findAdjacent
+     * would, though equal length paths may differ in shape.
      *
-     * @param map the tile map
-     * @param startX starting tile X
-     * @param startY starting tile Y
-     * @param targetX target tile X (the tile we want to be adjacent to)
-     * @param targetY target tile Y
-     * @return path as ArrayList of packed coordinates (start excluded, dest included),
-     *         empty list if already adjacent, or null if no path exists
+     * @param out receives the path as packed coordinates (start excluded,
+     *            dest included), empty if already there
+     * @return false if no path exists, out is then empty
      */
-    public static ArrayList<Integer> findAdjacent(TileMap map,
-                                                  int startX, int startY,
-                                                  int targetX, int targetY) {
-        /* direction offsets: right, left, down, up */
-        int[] dx = { 1, -1, 0, 0 };
-        int[] dy = { 0, 0, 1, -1 };
+    public static boolean followFlowField(Scratch s, TileMap map, int startX,
+                                          int startY, IntArray out) {
+        int w = map.width;
+        int ax = startX - map.originOffsetX;
+        int ay = startY - map.originOffsetY;
+        int seen[] = s.seen, cost[] = s.cost, gen = s.gen;
+        int cur, best, bestCost, cx, cy, nx, ny, n, i;
+
+        assert(s.fieldMap == map);
+
+        out.clear();
+
+        /* trivial cases, as in find and findAdjacent */
+        if (s.fieldAdjacent) {
+            for (i = 0; i < 4; i++) {
+                if (startX == s.fieldX + DX[i] && startY == s.fieldY + DY[i])
+                    return true;
+            }
+        } else if (startX == s.fieldX && startY == s.fieldY) {
+            return true;
+        }
 
-        /* check if already adjacent */
-        for (int i = 0; i < 4; i++) {
-            if (startX == targetX + dx[i] && startY == targetY + dy[i]) {
-                return new ArrayList<Integer>();
+        if (ax < 0 || ay < 0 || ax >= w || ay >= map.height) return false;
+
+        cur = ay * w + ax;
+        for (; seen[cur] != gen || cost[cur] != 0; cur = best) {
+            cy = cur / w;
+            cx = cur - cy * w;
+
+            /* a blocked start is not in the field, step to its best
+            neighbour */
+            best = -1;
+            bestCost = seen[cur] == gen ? cost[cur] : Integer.MAX_VALUE;
+            for (i = 0; i < 4; i++) {
+                nx = cx + DX[i];
+                ny = cy + DY[i];
+                if (!free(map, nx, ny)) continue;
+
+                n = ny * w + nx;
+                if (seen[n] == gen && cost[n] < bestCost) {
+                    best = n;
+                    bestCost = cost[n];
+                }
             }
+
+            if (best < 0) {
+                out.clear();
+                return false;
+            }
+
+            out.add(pack(best % w + map.originOffsetX,
+                    best / w + map.originOffsetY));
+        }
+
+        return true;
+    }
+
+    private static void addGoal(Scratch s, TileMap map, int x, int y) {
+        int ax = x - map.originOffsetX, ay = y - map.originOffsetY;
+
+        s.goalX[s.goalCount] = ax;
+        s.goalY[s.goalCount] = ay;
+        s.goals[s.goalCount++] = ay * map.width + ax;
+    }
+
+    private static boolean isGoal(Scratch s, int n) {
+        for (int g = 0; g < s.goalCount; ++g) {
+            if (n == s.goals[g]) return true;
         }
+        return false;
+    }
+
+    private static boolean walkable(TileMap map, int x, int y) {
+        int ax = x - map.originOffsetX;
+        int ay = y - map.originOffsetY;
 
-        /* build set of valid adjacent destinations */
-        HashSet<Integer> destinations = new HashSet<Integer>();
-        for (int i = 0; i < 4; i++) {
-            int adjX = targetX + dx[i];
-            int adjY = targetY + dy[i];
-            Tile adjTile = map.getTile((short) adjX, (short) adjY);
-            if (adjTile != null && !adjTile.isBlocked()) {
-                destinations.add(pack(adjX, adjY));
+        return ax >= 0 && ay >= 0 && ax < map.width && ay < map.height &&
+                !map.isBlockedLocal(ax, ay);
+    }
+
+    /*
+     * False only if start and the walkable dest are both labelled, in
+     * different components. A start off the map or on a blocked tile has
+     * no component, so the search decides.
+     */
+    private static boolean mayReach(TileMap map, int startX, int startY,
+                                    int destX, int destY) {
+        int ax = startX - map.originOffsetX;
+        int ay = startY - map.originOffsetY;
+        int c;
+
+        if (ax < 0 || ay < 0 || ax >= map.width || ay >= map.height)
+            return true;
+        if ((c = map.getComponentLocal(ax, ay)) < 0) return true;
+
+        return c == map.getComponentLocal(destX - map.originOffsetX,
+                destY - map.originOffsetY);
+    }
+
+    /* map-local, so also false off the map */
+    private static boolean free(TileMap map, int ax, int ay) {
+        return ax >= 0 && ay >= 0 && ax < map.width && ay < map.height &&
+                !map.isBlockedLocal(ax, ay);
+    }
+
+    private static boolean search(Scratch s, TileMap map,
+                                  int startX, int startY,
+                                  PathStrategy strategy, IntArray out) {
+        int w = map.width, h = map.height;
+        int ax = startX - map.originOffsetX;
+        int ay = startY - map.originOffsetY;
+        int start;
+
+        /* the search walks map-local indices, a start off the map has none */
+        if (ax < 0 || ay < 0 || ax >= w || ay >= h) return false;
+
+        s.begin(w * h);
+        start = ay * w + ax;
+        s.seen[start] = s.gen;
+        s.parent[start] = -1;
+
+        switch (strategy) {
+            case ASTAR: return aStar(s, map, start, false, out);
+            case JPS:   return aStar(s, map, start, true, out);
+            case HPA:
+                /* the graph only joins open tiles, a start on a blocked
+                tile may leave its cluster where there is no transition */
+                if (map.getPathGraph() == null || map.isBlockedLocal(ax, ay))
+                    return aStar(s, map, start, true, out);
+                return hpa(s, map, map.getPathGraph(), start, out);
+            default:    return bfs(s, map, start, out);
+        }
+    }
+
+    /**
+     * Breadth-first from start until a goal is reached.
+     * Visits neighbours in DX/DY order, so ties resolve as they always have.
+     */
+    private static boolean bfs(Scratch s, TileMap map, int start,
+                               IntArray out) {
+        int w = map.width, h = map.height;
+        int queue[] = s.open, parent[] = s.parent, seen[] = s.seen;
+        int gen = s.gen;
+        int head, tail, cur, cx, cy, nx, ny, n, i;
+
+        head = tail = 0;
+        queue[tail++] = start;
+
+        while (head < tail) {
+            cur = queue[head++];
+            cy = cur / w;
+            cx = cur - cy * w;
+
+            for (i = 0; i < 4; i++) {
+                nx = cx + DX[i];
+                ny = cy + DY[i];
+                if (nx < 0 || ny < 0 || nx >= w || ny >= h) continue;
+
+                n = ny * w + nx;
+
+                /* already visited? */
+                if (seen[n] == gen) continue;
+                if (map.isBlockedLocal(nx, ny)) continue;
+
+                seen[n] = gen;
+                parent[n] = cur;
+
+                /* found destination? */
+                if (isGoal(s, n)) {
+                    reconstructPath(map, parent, n, out);
+                    return true;
+                }
+
+                queue[tail++] = n;
             }
         }
 
-        if (destinations.isEmpty()) {
-            return null;
+        /* no path found */
+        return false;
+    }
+
+    /**
+     * A* with a Manhattan heuristic to the nearest goal, which is consistent
+     * on a unit-cost grid, so an expanded tile is final. With jump set the
+     * successors of a tile are the jump points reached from it instead of
+     * its neighbours.
+     */
+    private static boolean aStar(Scratch s, TileMap map, int start,
+                                 boolean jump, IntArray out) {
+        int w = map.width;
+        int parent[] = s.parent, cost[] = s.cost, heapPos[] = s.heapPos;
+        int cur, cx, cy, pdx, pdy, n, i;
+
+        cost[start] = 0;
+        s.heapSize = 0;
+        heapPush(s, start, heuristic(s, start % w, start / w));
+
+        while (s.heapSize > 0) {
+            cur = heapPop(s);
+            heapPos[cur] = -1;
+
+            if (isGoal(s, cur)) {
+                reconstructPath(map, parent, cur, out);
+                return true;
+            }
+
+            cy = cur / w;
+            cx = cur - cy * w;
+
+            /* direction of travel into cur, 0, 0 at the start */
+            pdx = pdy = 0;
+            if (parent[cur] != -1) {
+                pdx = Integer.signum(cx - parent[cur] % w);
+                pdy = Integer.signum(cy - parent[cur] / w);
+            }
+
+            for (i = 0; i < 4; i++) {
+                /* never straight back the way we came */
+                if (DX[i] == -pdx && DY[i] == -pdy &&
+                        (pdx != 0 || pdy != 0))
+                    continue;
+
+                n = jump ? jumpFrom(s, map, cx, cy, DX[i], DY[i]) :
+                        step(map, cx, cy, DX[i], DY[i]);
+                if (n < 0) continue;
+
+                relax(s, w, cur, n,
+                        cost[cur] + Math.abs(n % w - cx) +
+                                Math.abs(n / w - cy));
+            }
         }
 
-        int startPacked = pack(startX, startY);
+        /* no path found */
+        return false;
+    }
 
-        Queue<Integer> frontier = new LinkedList<Integer>();
-        frontier.add(startPacked);
+    /* offers n to the open set at cost nc, reached from cur */
+    private static void relax(Scratch s, int w, int cur, int n, int nc) {
+        if (s.seen[n] != s.gen) {
+            s.seen[n] = s.gen;
+            s.cost[n] = nc;
+            s.parent[n] = cur;
+            heapPush(s, n, nc + heuristic(s, n % w, n / w));
+        } else if (s.heapPos[n] >= 0 && nc < s.cost[n]) {
+            s.cost[n] = nc;
+            s.parent[n] = cur;
+            heapDecrease(s, n, nc + heuristic(s, n % w, n / w));
+        }
+    }
 
-        HashMap<Integer, Integer> cameFrom = new HashMap<Integer, Integer>();
-        cameFrom.put(startPacked, null);
+    /**
+     * A* over the cluster graph. The start and goals join it for this query
+     * only: the start reaches the nodes of its cluster, and a node reaches a
+     * goal in its cluster, at their in-cluster distances. The abstract path
+     * is then refined hop by hop.
+     */
+    private static boolean hpa(Scratch s, TileMap map, PathClusterGraph g,
+                               int start, IntArray out) {
+        int w = map.width, size = g.size;
+        int parent[] = s.parent, cost[] = s.cost, heapPos[] = s.heapPos;
+        int startK, cur, k, j, m, d, cn, i, nodes[], dist[];
+
+        g.refresh();
+        s.beginClusters(size * size);
+
+        startK = g.clusterOf(start);
+        PathClusterGraph.clusterBfs(map, size, startK % g.cw, startK / g.cw,
+                start, s.startDist, s.clusterQueue, null);
+        for (i = 0; i < s.goalCount; ++i) {
+            k = s.goalCluster[i] = g.clusterOf(s.goals[i]);
+            PathClusterGraph.clusterBfs(map, size, k % g.cw, k / g.cw,
+                    s.goals[i], s.goalDist[i], s.clusterQueue, null);
+        }
 
-        while (!frontier.isEmpty()) {
-            int current = frontier.poll();
-            int cx = unpackX(current);
-            int cy = unpackY(current);
+        cost[start] = 0;
+        s.heapSize = 0;
+        heapPush(s, start, heuristic(s, start % w, start / w));
 
-            for (int i = 0; i < 4; i++) {
-                int nx = cx + dx[i];
-                int ny = cy + dy[i];
-                int neighborPacked = pack(nx, ny);
+        while (s.heapSize > 0) {
+            cur = heapPop(s);
+            heapPos[cur] = -1;
 
-                if (cameFrom.containsKey(neighborPacked)) continue;
+            if (isGoal(s, cur)) {
+                refine(s, map, g, start, cur, out);
+                return true;
+            }
 
-                Tile neighborTile = map.getTile((short) nx, (short) ny);
-                if (neighborTile == null || neighborTile.isBlocked()) continue;
+            k = g.clusterOf(cur);
+            nodes = g.nodes[k];
 
-                cameFrom.put(neighborPacked, current);
+            if (cur == start) {
+                for (m = 0; m < nodes.length; ++m) {
+                    d = s.startDist[g.localIndex(nodes[m], k)];
+                    if (d > 0) relax(s, w, cur, nodes[m], d);
+                }
+            }
 
-                if (destinations.contains(neighborPacked)) {
-                    return reconstructPath(cameFrom, neighborPacked);
+            if ((j = g.nodeIndex(k, cur)) >= 0) {
+                /* to the other nodes of the cluster */
+                dist = g.dist[k];
+                cn = nodes.length;
+                for (m = 0; m < cn; ++m) {
+                    d = dist[j * cn + m];
+                    if (d > 0) relax(s, w, cur, nodes[m], cost[cur] + d);
                 }
 
-                frontier.add(neighborPacked);
+                /* across the borders */
+                crossBorder(s, w, cur, g.east[k], 0);
+                crossBorder(s, w, cur, g.south[k], 0);
+                if (k % g.cw > 0) crossBorder(s, w, cur, g.east[k - 1], 1);
+                if (k >= g.cw) crossBorder(s, w, cur, g.south[k - g.cw], 1);
+            }
+
+            for (i = 0; i < s.goalCount; ++i) {
+                if (s.goalCluster[i] != k) continue;
+                d = s.goalDist[i][g.localIndex(cur, k)];
+                if (d > 0) relax(s, w, cur, s.goals[i], cost[cur] + d);
             }
         }
 
-        return null;
+        /* no path found */
+        return false;
+    }
+
+    /* relaxes the far side of every transition in trans whose side is cur */
+    private static void crossBorder(Scratch s, int w, int cur, int trans[],
+                                    int side) {
+        for (int i = side; i < trans.length; i += 2) {
+            if (trans[i] == cur)
+                relax(s, w, cur, trans[i ^ 1], s.cost[cur] + 1);
+        }
     }
 
-    private static ArrayList<Integer> reconstructPath(
-            HashMap<Integer, Integer> cameFrom, int dest) {
-        ArrayList<Integer> path = new ArrayList<Integer>();
-        Integer current = dest;
+    /*
+     * Expands the abstract path ending at dest into tiles. A hop across a
+     * border is one step; a hop inside a cluster is a BFS of that cluster
+     * from the hop's beginning, walked back from its end and reversed. The
+     * BFS starts from the beginning so a start on a blocked tile still
+     * refines.
+     */
+    private static void refine(Scratch s, TileMap map, PathClusterGraph g,
+                               int start, int dest, IntArray out) {
+        IntArray hops = s.hops;
+        int w = map.width, size = g.size;
+        int i, j, n, a, b, k, x0, y0, loc, end, first, t;
+
+        hops.clear();
+        for (n = dest; n != start; n = s.parent[n]) hops.add(n);
+        hops.add(start);
+
+        out.clear();
+        for (i = hops.size() - 1; i > 0; --i) {
+            a = hops.get(i);
+            b = hops.get(i - 1);
+            k = g.clusterOf(a);
+
+            if (k != g.clusterOf(b)) {
+                out.add(pack(b % w + map.originOffsetX,
+                        b / w + map.originOffsetY));
+                continue;
+            }
 
-        while (current != null) {
-            Integer prev = cameFrom.get(current);
-            if (prev != null) {  /* don't include start */
-                path.add(current);
+            x0 = (k % g.cw) * size;
+            y0 = (k / g.cw) * size;
+            PathClusterGraph.clusterBfs(map, size, k % g.cw, k / g.cw, a,
+                    s.startDist, s.clusterQueue, s.clusterParent);
+
+            first = out.size();
+            end = g.localIndex(a, k);
+            for (loc = g.localIndex(b, k); loc != end;
+                 loc = s.clusterParent[loc]) {
+                out.add(pack(x0 + loc % size + map.originOffsetX,
+                        y0 + loc / size + map.originOffsetY));
             }
-            current = prev;
+
+            for (j = out.size() - 1; first < j; ++first, --j) {
+                t = out.get(first);
+                out.set(first, out.get(j));
+                out.set(j, t);
+            }
+        }
+    }
+
+    private static int heuristic(Scratch s, int ax, int ay) {
+        int best = Integer.MAX_VALUE, d, g;
+
+        for (g = 0; g < s.goalCount; ++g) {
+            d = Math.abs(ax - s.goalX[g]) + Math.abs(ay - s.goalY[g]);
+            if (d < best) best = d;
+        }
+
+        return best;
+    }
+
+    /* the neighbour in direction (dx, dy), -1 if it cannot be entered */
+    private static int step(TileMap map, int x, int y, int dx, int dy) {
+        x += dx;
+        y += dy;
+
+        return free(map, x, y) ? y * map.width + x : -1;
+    }
+
+    /*
+     * Jump point search on a 4-connected grid. A horizontal run stops where a
+     * tile above or below opens up past a wall, since a shortest path may
+     * turn there. A vertical run also stops wherever a horizontal run from
+     * it would find such a tile, so no turn is missed. Runs stop at goals.
+     * Returns the tile the run stops at, or -1 if it hits a wall first.
+     */
+    private static int jumpFrom(Scratch s, TileMap map, int x, int y,
+                                int dx, int dy) {
+        return dx != 0 ? jumpH(s, map, x, y, dx) : jumpV(s, map, x, y, dy);
+    }
+
+    private static int jumpH(Scratch s, TileMap map, int x, int y, int dx) {
+        int n;
+
+        for (;;) {
+            x += dx;
+            if (!free(map, x, y)) return -1;
+
+            n = y * map.width + x;
+            if (isGoal(s, n)) return n;
+
+            if ((free(map, x, y - 1) && !free(map, x - dx, y - 1)) ||
+                    (free(map, x, y + 1) && !free(map, x - dx, y + 1)))
+                return n;
         }
+    }
+
+    private static int jumpV(Scratch s, TileMap map, int x, int y, int dy) {
+        int n;
+
+        for (;;) {
+            y += dy;
+            if (!free(map, x, y)) return -1;
+
+            n = y * map.width + x;
+            if (isGoal(s, n)) return n;
 
-        /* reverse so path goes start -> dest */
-        int size = path.size();
-        for (int i = 0; i < size / 2; i++) {
-            int temp = path.get(i);
-            path.set(i, path.get(size - 1 - i));
-            path.set(size - 1 - i, temp);
+            if ((free(map, x - 1, y) && !free(map, x - 1, y - dy)) ||
+                    (free(map, x + 1, y) && !free(map, x + 1, y - dy)))
+                return n;
+
+            if (jumpH(s, map, x, y, 1) >= 0 || jumpH(s, map, x, y, -1) >= 0)
+                return n;
         }
+    }
+
+    /*
+     * Binary min-heap of tiles in s.open, keyed by s.heapKey. Ties go to the
+     * tile with the higher cost so far, i.e. the one nearer a goal.
+     */
+    private static boolean heapLess(Scratch s, int a, int b) {
+        return s.heapKey[a] < s.heapKey[b] ||
+                (s.heapKey[a] == s.heapKey[b] && s.cost[a] > s.cost[b]);
+    }
 
-        return path;
+    private static void heapPush(Scratch s, int n, int key) {
+        s.heapKey[n] = key;
+        s.open[s.heapSize] = n;
+        s.heapPos[n] = s.heapSize;
+        heapUp(s, s.heapSize++);
+    }
+
+    private static void heapDecrease(Scratch s, int n, int key) {
+        s.heapKey[n] = key;
+        heapUp(s, s.heapPos[n]);
+    }
+
+    private static int heapPop(Scratch s) {
+        int heap[] = s.open;
+        int top = heap[0];
+
+        if (--s.heapSize > 0) {
+            heap[0] = heap[s.heapSize];
+            s.heapPos[heap[0]] = 0;
+            heapDown(s, 0);
+        }
+
+        return top;
+    }
+
+    private static void heapUp(Scratch s, int i) {
+        int heap[] = s.open, pos[] = s.heapPos;
+        int n = heap[i], p;
+
+        while (i > 0) {
+            p = (i - 1) >> 1;
+            if (!heapLess(s, n, heap[p])) break;
+            heap[i] = heap[p];
+            pos[heap[i]] = i;
+            i = p;
+        }
+
+        heap[i] = n;
+        pos[n] = i;
+    }
+
+    private static void heapDown(Scratch s, int i) {
+        int heap[] = s.open, pos[] = s.heapPos;
+        int size = s.heapSize;
+        int n = heap[i], c;
+
+        for (;;) {
+            c = 2 * i + 1;
+            if (c >= size) break;
+            if (c + 1 < size && heapLess(s, heap[c + 1], heap[c])) ++c;
+            if (!heapLess(s, heap[c], n)) break;
+            heap[i] = heap[c];
+            pos[heap[i]] = i;
+            i = c;
+        }
+
+        heap[i] = n;
+        pos[n] = i;
+    }
+
+    /*
+     * Writes start-excluded, dest-included packed coordinates into out.
+     * Parent links may skip a straight run of tiles (jump points), so each
+     * link is walked a tile at a time.
+     */
+    private static void reconstructPath(TileMap map, int parent[], int dest,
+                                        IntArray out) {
+        int w = map.width;
+        int len = 0, i, n, p, x, y, px, py, sx, sy;
+
+        for (n = dest; (p = parent[n]) != -1; n = p) {
+            len += Math.abs(n % w - p % w) + Math.abs(n / w - p / w);
+        }
+
+        out.setSize(len);
+        i = len - 1;
+        for (n = dest; (p = parent[n]) != -1; n = p) {
+            x = n % w;
+            y = n / w;
+            px = p % w;
+            py = p / w;
+            sx = Integer.signum(px - x);
+            sy = Integer.signum(py - y);
+            for (; x != px || y != py; x += sx, y += sy) {
+                out.set(i--, pack(x + map.originOffsetX,
+                        y + map.originOffsetY));
+            }
+        }
     }
-}
\ No newline at end of file
+}
@@ -2,16 +2,12 @@ package production;
 
 import production.carpscript.ScriptState;
 import production.character.Char;
-import production.sprite.SpriteAnim;
 import production.sprite.SpriteCamera;
-import production.sprite.SpritePool;
-import production.tilemap.Tile;
+import production.sprite.SpriteInterpSys;
 import production.ui.Bitmap;
-import whitetail.utility.FramerateManager;
+import whitetail.utility.IntArray;
 import whitetail.utility.logging.LogLevel;
 
-import java.util.ArrayList;
-
 import static production.ui.BitmapRegistry.MISSING_PORTRAIT;
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
 import static whitetail.utility.logging.Logger.LogSession;
@@ -20,7 +16,9 @@ public final class Player {
     static SpriteCamera cam;
 
     static int spriteHandle;
-    static SpriteAnim anim;
+    /* the idle runs on its def's shared clock, so there is no anim handle */
+    static int idleDef;
+    static int interp;
 
     private static Bitmap portrait;
 
@@ -44,7 +42,7 @@ public final class Player {
     static int queuedDY = 0;
 
     // Path following
-    static ArrayList<Integer> path = null;
+    static final IntArray path = new IntArray();
     static int pathIndex = 0;
 
     private static Char dialogueTarget;
@@ -66,15 +64,20 @@ public final class Player {
         prevTileX = tileX;
         prevTileY = tileY;
 
+        updateTile();
+
+        SpriteInterpSys.SetTile(interp, tileX, tileY);
+    }
+
+    private static void updateTile() {
         /* path following takes priority over keyboard input */
-        if (path != null && pathIndex < path.size()) {
+        if (pathIndex < path.size()) {
             int nextPacked = path.get(pathIndex);
             int nextX = Pathfinder.unpackX(nextPacked);
             int nextY = Pathfinder.unpackY(nextPacked);
 
             /* verify tile is still walkable (in case world changed) */
-            Tile t = Data.tileMap.getTile((short) nextX, (short) nextY);
-            if (t == null || t.isBlocked()) {
+            if (Data.tileMap.isBlocked(nextX, nextY)) {
                 clearPath();
             } else {
                 tileX = nextX;
@@ -94,7 +97,7 @@ public final class Player {
         see if we are adjacent to the target, rather than completing the path
         and then doing the action. The reason for this is that the target might
         have moved. Same is going to be true for combat */
-        if (path != null && pathIndex >= path.size()) {
+        if (!path.isEmpty() && pathIndex >= path.size()) {
             clearPath();
 
             /*
@@ -118,14 +121,12 @@ public final class Player {
             int newX = tileX + queuedDX;
             int newY = tileY + queuedDY;
 
-            Tile t = Data.tileMap.getTile((short)newX, (short)newY);
-
-            if (t == null) {
+            if (!Data.tileMap.hasTile(newX, newY)) {
                 LogFatalAndExit(ErrStrTileNotFound(newX, newY));
                 return;
             }
 
-            if (t.isBlocked()) {
+            if (Data.tileMap.isBlocked(newX, newY)) {
                 queuedDX = 0;
                 queuedDY = 0;
                 if (holdingLeft)       queueMove(-1, 0);
@@ -149,35 +150,23 @@ public final class Player {
         else if (holdingDown)  queueMove(0, 1);
     }
 
+    /* must be called after SpriteInterpSys.Render */
     static void Render() {
         assert(cam != null);
 
-        float t = (float)FramerateManager.InterpolationFactor();
-        t = easeOutQuad(t);
-
-        int prevScreenX = prevTileX * Data.SPRITE_SIZE;
-        int prevScreenY = prevTileY * Data.SPRITE_SIZE;
-        int currScreenX = tileX * Data.SPRITE_SIZE;
-        int currScreenY = tileY * Data.SPRITE_SIZE;
-
-        screenX = (int)(prevScreenX + (currScreenX - prevScreenX) * t);
-        screenY = (int)(prevScreenY + (currScreenY - prevScreenY) * t);
+        screenX = SpriteInterpSys.GetX(interp);
+        screenY = SpriteInterpSys.GetY(interp);
 
         cam.slave(screenX, screenY);
-        SpritePool.SetPosition(spriteHandle, screenX, screenY);
-    }
-
-    private static float easeOutQuad(float t) {
-        return t * (2.0f - t);
     }
 
-    static void setPath(ArrayList<Integer> newPath) {
-        path = newPath;
+    static void setPath(IntArray newPath) {
+        path.copyFrom(newPath);
         pathIndex = 0;
     }
 
     public static void clearPath() {
-        path = null;
+        path.clear();
         pathIndex = 0;
     }
 
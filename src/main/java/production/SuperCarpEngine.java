@@ -18,8 +18,6 @@ import production.save.SaveData;
 import production.save.SaveManager;
 import production.scene.SceneGame;
 import production.sprite.*;
-import production.tilemap.TileMapFileParser;
-import production.tilemap.TileMapLoader;
 import production.ui.*;
 import whitetail.audio.AudioCategory;
 import whitetail.audio.AudioContext;
@@ -30,8 +28,8 @@ import whitetail.loaders.AssetStreamResolver;
 import whitetail.scene.SceneManager;
 import whitetail.scene.SceneType;
 import whitetail.software_framebuffer.GL12SoftwareFramebuffer;
-import whitetail.software_framebuffer.GLSourceTexelLayout;
 import whitetail.software_framebuffer.GLTextureTexelLayout;
+import whitetail.software_framebuffer.RasterThread;
 import whitetail.utility.FramerateManager;
 import whitetail.utility.logging.LogLevel;
 
@@ -68,7 +66,7 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
         }
 
         if (!GL12SoftwareFramebuffer.Init(
-                GLSourceTexelLayout.RGBA_UINT_8888,
+                Data.TEXEL_LAYOUT,
                 GLTextureTexelLayout.RGBA8,
                 DisplayConfig.GetEmulatedW(),
                 DisplayConfig.GetEmulatedH(),
@@ -101,26 +99,27 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
         Data.atlasIdsByFilename.put(Data.TEST_ATLAS_ANIM_FILENAME,
                 Data.PLAYER_ATLAS);
 
-        SpriteRenderer.paletteArr[Data.MAP_PALETTE] = Data.sp;
+        SpriteSys.SetPalette(Data.MAP_PALETTE, Data.sp);
         SpriteRenderer.atlasArr[Data.MAP_ATLAS] = Data.sa;
         SpriteRenderer.atlasArr[Data.PLAYER_ATLAS] = Data.sa_player;
 
         SpriteAnimSys.Init();
+        SpriteInterpSys.Init(Data.SPRITE_SIZE);
+        SpritePaletteAnimSys.Init();
+        if (!PathService.Init(Data.PATH_WORKERS)) return false;
 
-        Data.tileMap = TileMapFileParser.FromFile("test_map.map");
-        if (Data.tileMap == null) return false;
+        if (!MapRegistry.Init(Data.MAP_CACHE_BUDGET, null)) return false;
+        if (MapRegistry.Activate("test_map.map") == null) return false;
 
-        TileMapLoader.Load(Data.tileMap, Data.atlasIdsByFilename,
-                Data.paletteIdsByFilename,Data.TEST_PALETTE_FILENAME);
-
-        Data.clearColor = Data.tileMap.clearColor;
+        if (!SpriteSys.EnableScrollLayer(Data.TILE_LAYER, Data.clearColor))
+            return false;
 
 
-        SpriteAnimDef playerIdle = new SpriteAnimDef(
+        int playerIdle = SpriteAnimSys.RegisterDef(new SpriteAnimDef(
                 new short[] { 0, 1, 2 },  // frame sequence in atlas
                 (short) 200,                  // 200ms per frame
                 true                          // loops
-        );
+        ));
 
         Player.cam = Data.sCam;
         /* If you set the tile coords only, then Player.Render will animate
@@ -138,11 +137,12 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
                 Data.PLAYER_ATLAS,
                 0, 0, Data.MAP_PALETTE, false, false,
                 true);
-        SpriteAnim playerAnimHandle = SpriteAnimSys.Create(playerSpriteHandle,
-                playerIdle);
+        SpriteAnimSys.Subscribe(playerIdle, playerSpriteHandle);
 
         Player.spriteHandle = playerSpriteHandle;
-        Player.anim = playerAnimHandle;
+        Player.idleDef = playerIdle;
+        Player.interp = SpriteInterpSys.Add(playerSpriteHandle,
+                Player.tileX, Player.tileY);
 
         if (!SaveManager.Init()) return false;
         SaveData loaded = SaveManager.Load();
@@ -151,6 +151,8 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
             Player.tileY = loaded.playerTileY;
             Player.prevTileX = loaded.playerTileX;
             Player.prevTileY = loaded.playerTileY;
+            SpriteInterpSys.Warp(Player.interp, loaded.playerTileX,
+                    loaded.playerTileY);
             System.out.println("Loaded save: player at " + loaded.playerTileX + ", " + loaded.playerTileY);
         }
 
@@ -246,6 +248,9 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
         DialogueRenderer.Init(Data.fontAtlas, Data.sp.colors[0],
                 Data.sp.colors[6], Data.sp.colors[3], Data.sp.colors[8]);
 
+        if (!RasterThread.Init(new Runnable() {
+            public void run() { rasterize(); }
+        })) return false;
 
         return true;
     }
@@ -305,11 +310,13 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
 
         Data.sCam.setPos((float)Player.screenX, (float)Player.screenY);
         SpriteAnimSys.Update(dt);
+        SpritePaletteAnimSys.Update(dt);
 
         while (FramerateManager.Tick()) onTick(dt);
     }
 
     private void onTick(float dt) {
+        SpriteInterpSys.BeginTick();
 
         Data.tileMap.update();
         Player.Update(dt);
@@ -329,33 +336,58 @@ public class SuperCarpEngine extends GameEngine implements EventListener {
         }
 
         SaveManager.RequestSave(SaveData.Capture());
+
+        /* paths asked for this tick, answered before the next */
+        PathService.Flush();
+        SpriteChunkStreamer.Update(Player.tileX, Player.tileY);
     }
 
-    @Override
-    protected void onRender() {
-        SceneManager.Render();
+    /* Interpolation factor of the frame being rasterized, read on the main
+    thread before RasterThread.Begin so the raster task never touches the
+    frame clock. */
+    private float rasterInterp;
+
+    /* Everything that writes the software framebuffer. Runs on the raster
+    thread, between RasterThread.Begin and Await in onRender, while game
+    state is not being changed. */
+    private void rasterize() {
         SpriteRenderer.Clear(Data.BLACK);
+        SpriteInterpSys.Render(rasterInterp);
         Player.Render();
-        SpriteRenderer.ClearViewport(Data.clearColor);
+        /* the scroll layer covers the whole viewport, no ClearViewport */
         SpriteRenderer.RenderNew();
 
-        if (Keyboard.isKeyDown(Keyboard.KEY_Q)) {
-
-            GameFrame.Draw();
-        }
         GameFrame.Draw();
 
         if (DialogueRenderer.IsActive()) DialogueRenderer.Draw();
         else ChatBox.Draw();
 
+        GL12SoftwareFramebuffer.Stage();
+    }
+
+    @Override
+    protected void onRender() {
+        SceneManager.Render();
+
+        /* rasterize this frame while the last one is uploaded and swapped */
+        rasterInterp = (float)FramerateManager.InterpolationFactor();
+        RasterThread.Begin();
+
         GL12SoftwareFramebuffer.Present();
         window.swapBuffers();
+
+        RasterThread.Await();
     }
 
     @Override
     protected void onShutdown() {
+        RasterThread.Shutdown();
         SceneManager.Shutdown();
         SaveManager.Shutdown();
+        PathService.Shutdown();
+        MapRegistry.Shutdown();
+        SpritePaletteAnimSys.Shutdown();
+        SpriteInterpSys.Shutdown();
         SpriteSys.Shutdown();
         Data.sCam.shutdown();
     }
@@ -1,9 +1,10 @@
 package production.character;
 
 import production.dialogue.DialogueNode;
-import production.sprite.SpriteAnim;
 import production.sprite.SpriteAnimDef;
 import production.sprite.SpriteAnimSys;
+import production.sprite.SpriteInterpSys;
+import production.sprite.SpritePool;
 import production.ui.Bitmap;
 import whitetail.utility.logging.LogLevel;
 
@@ -11,8 +12,12 @@ import static whitetail.utility.ErrorHandler.LogFatalAndExit;
 import static whitetail.utility.logging.Logger.LogSession;
 
 public final class Char {
-    private int spriteHandle;
-    public final SpriteAnim anims[];
+    private int spriteHandle = SpritePool.INVALID_HANDLE;
+    private int interp = SpriteInterpSys.INVALID_HANDLE;
+    /* per animation: its def, and its own anim handle, or INVALID_HANDLE
+    for a looping one, which runs on the def's shared clock instead */
+    public final int animDefs[];
+    public final int anims[];
     public int tileX, tileY;
 
     public final String name;
@@ -39,32 +44,63 @@ public final class Char {
         this.atlasIndices = atlasIndices;
         this.frameDurMs = frameDurMs;
         this.loops = loops;
+        this.animDefs = new int[loops.length];
         this.anims = constructAnims();
         this.animCount = this.loops.length;
     }
 
-    private SpriteAnim[] constructAnims() {
+    private int[] constructAnims() {
         int i = loops.length;
-        SpriteAnim array[] = new SpriteAnim[i];
+        int array[] = new int[i];
 
         if (!(frameDurMs.length == i && i == atlasIndices.length)) {
             LogFatalAndExit(errStrAnimInfoMismatch());
         }
 
         for (i = 0; i < frameDurMs.length; ++i) {
-            array[0] = SpriteAnimSys.Generate(
-                    -1, new SpriteAnimDef(atlasIndices[i],
-                            frameDurMs[i], loops[i]));
+            animDefs[i] = SpriteAnimSys.RegisterDef(new SpriteAnimDef(
+                    atlasIndices[i], frameDurMs[i], loops[i]));
+            /* looping anims join the def's group once there is a sprite */
+            array[i] = loops[i] ? SpriteAnimSys.INVALID_HANDLE :
+                    SpriteAnimSys.Generate(SpritePool.INVALID_HANDLE,
+                            animDefs[i]);
         }
         return array;
     }
 
+    public int getSpriteHandle() { return spriteHandle; }
+
+    /**
+     * Moves the char's animations to the sprite. Call with INVALID_HANDLE
+     * before removing the old sprite, so it leaves its groups first.
+     */
     public void setSpriteHandle(int handle) {
+        int old = spriteHandle;
         int i;
+
         spriteHandle = handle;
         for (i = 0; i < animCount; ++i) {
-            SpriteAnimSys.SetSpriteHandle(anims[i], handle);
+            if (anims[i] != SpriteAnimSys.INVALID_HANDLE) {
+                SpriteAnimSys.SetSpriteHandle(anims[i], handle);
+                continue;
+            }
+
+            SpriteAnimSys.Unsubscribe(animDefs[i], old);
+            if (SpritePool.IsValid(handle))
+                SpriteAnimSys.Subscribe(animDefs[i], handle);
         }
+
+        SpriteInterpSys.Remove(interp);
+        interp = SpritePool.IsValid(handle) ?
+                SpriteInterpSys.Add(handle, tileX, tileY) :
+                SpriteInterpSys.INVALID_HANDLE;
+    }
+
+    /* the sprite, if any, eases to the new tile over the current tick */
+    public void setTile(int x, int y) {
+        tileX = x;
+        tileY = y;
+        SpriteInterpSys.SetTile(interp, x, y);
     }
 
     public void setPortrait(Bitmap portrait) {
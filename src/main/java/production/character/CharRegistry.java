@@ -1,8 +1,5 @@
 package production.character;
 
-import production.sprite.SpriteAnim;
-import production.sprite.SpriteAnimSys;
-
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,6 +30,17 @@ public final class DisplayConfig {
         return true;
     }
 
+    /**
+     * Stands in for {@code QueryDisplayResolution} when there is no display
+     * to query, e.g. in headless runs.
+     */
+    public static void SetDisplayResolution(int w, int h) {
+        assert(w > 0 && h > 0);
+
+        displayW = w;
+        displayH = h;
+    }
+
     /**
      * One-shot. Derives any missing display parameters from the given
      * props according to its mode, then stores the results.
@@ -0,0 +1,156 @@
+package production.headless;
+
+import whitetail.software_framebuffer.PixelUnpackGL;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * PixelUnpackGL with no context, for checking PixelBufferRing headless.
+ *
+ * Keeps each buffer's store in memory and copies it into an int[] texture on
+ * texSubImage2D. Misuse that GL would reject, or that would make the driver
+ * wait on the GPU, is counted in errors and stalls instead of failing.
+ *
+ * An upload marks the store as being read until the buffer is orphaned with
+ * bufferData; mapping it before then counts as a stall, since a driver
+ * would have to wait for the copy to finish.
+ */
+final class FakePixelUnpackGL implements PixelUnpackGL {
+    private static final class Buffer {
+        int store[];
+        ByteBuffer mapping;
+        boolean beingRead;
+    }
+
+    private final Map<Integer, Buffer> buffers =
+            new HashMap<Integer, Buffer>();
+    private int nextName = 1;
+    private int bound;
+
+    final int texture[];
+    private final int texW, texH;
+
+    int errors;
+    int stalls;
+    int uploads;
+    int orphans;
+    String firstError;
+
+    FakePixelUnpackGL(int texW, int texH) {
+        this.texW = texW;
+        this.texH = texH;
+        texture = new int[texW * texH];
+    }
+
+    private void error(String what) {
+        if (errors++ == 0) firstError = what;
+    }
+
+    private Buffer boundBuffer(String op) {
+        Buffer b = bound != 0 ? buffers.get(bound) : null;
+
+        if (b == null) error(op + " with no buffer bound");
+
+        return b;
+    }
+
+    public int genBuffer() {
+        int name = nextName++;
+
+        buffers.put(name, new Buffer());
+
+        return name;
+    }
+
+    public void bindBuffer(int buffer) {
+        if (buffer != 0 && !buffers.containsKey(buffer)) {
+            error("bind of unknown buffer " + buffer);
+            return;
+        }
+        bound = buffer;
+    }
+
+    public void bufferData(long size) {
+        Buffer b = boundBuffer("bufferData");
+
+        if (b == null) return;
+        if (b.mapping != null) {
+            error("bufferData on mapped buffer " + bound);
+            return;
+        }
+
+        b.store = new int[(int)(size / 4)];
+        b.beingRead = false;
+        ++orphans;
+    }
+
+    public ByteBuffer mapBuffer(long size, ByteBuffer old) {
+        Buffer b = boundBuffer("mapBuffer");
+
+        if (b == null) return null;
+        if (b.store == null || b.mapping != null) {
+            error("mapBuffer on " + (b.store == null ? "empty" : "mapped") +
+                    " buffer " + bound);
+            return null;
+        }
+        if (b.beingRead) ++stalls;
+
+        /* a fresh address each time, as after a real orphan */
+        b.mapping = ByteBuffer.allocateDirect((int)size)
+                .order(ByteOrder.nativeOrder());
+
+        return b.mapping;
+    }
+
+    public boolean unmapBuffer() {
+        Buffer b = boundBuffer("unmapBuffer");
+        IntBuffer v;
+
+        if (b == null) return false;
+        if (b.mapping == null) {
+            error("unmapBuffer on unmapped buffer " + bound);
+            return false;
+        }
+
+        v = b.mapping.asIntBuffer();
+        v.get(b.store, 0, Math.min(b.store.length, v.remaining()));
+        b.mapping = null;
+
+        return true;
+    }
+
+    public void texSubImage2D(int w, int h, int format, int type) {
+        Buffer b = boundBuffer("texSubImage2D");
+
+        if (b == null) return;
+        if (b.mapping != null) {
+            error("texSubImage2D from mapped buffer " + bound);
+            return;
+        }
+        if (w != texW || h != texH || b.store.length < w * h) {
+            error("texSubImage2D of " + w + "x" + h + " from " +
+                    b.store.length + " texels");
+            return;
+        }
+
+        System.arraycopy(b.store, 0, texture, 0, w * h);
+        b.beingRead = true;
+        ++uploads;
+    }
+
+    public void deleteBuffer(int buffer) {
+        Buffer b = buffers.remove(buffer);
+
+        if (b == null) error("delete of unknown buffer " + buffer);
+
+        if (bound == buffer) bound = 0;
+    }
+
+    public int getError() { return 0; }
+
+    int liveBuffers() { return buffers.size(); }
+}
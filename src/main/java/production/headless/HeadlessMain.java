@@ -0,0 +1,444 @@
+package production.headless;
+
+import production.Data;
+import production.sprite.SpriteRenderer;
+import production.ui.BitmapRegistry;
+import production.ui.Renderer;
+import whitetail.software_framebuffer.FramebufferImage;
+import whitetail.software_framebuffer.PixelBufferRing;
+import whitetail.software_framebuffer.RasterThread;
+import whitetail.utility.ErrorHandler;
+import whitetail.utility.logging.Logger;
+
+import java.io.File;
+import java.util.Arrays;
+
+/**
+ * Runs HeadlessScene with no window or GL context. Start with
+ * -Djava.awt.headless=true on machines with no display.
+ *
+ * <pre>
+ * dump  &lt;dir&gt; [w h]           write the golden frames to dir
+ * check &lt;golden&gt; &lt;out&gt; [w h]  compare against golden frames, write the
+ *                             actual frame and a diff to out on mismatch
+ * bench [w h [frames]]        time full-frame renders
+ * raster [w h [iters]]        time the clear, fill and blit primitives alone
+ * pbo [w h [frames]]          check PixelBufferRing against a fake GL
+ * path [size [queries]]       check and time the Pathfinder strategies
+ * agents [size [agents]]      check and time PathService on a crowd
+ * stream [size [steps]]       check and time SpriteChunkStreamer on a walk
+ * map [size]                  check and time compiled map loading
+ * maps [count]                check and time MapRegistry on a chain of maps
+ * </pre>
+ *
+ * Golden frames are every GOLDEN_STRIDE-th frame of the script, so they land
+ * at different points within a tick. check exits with status 1 on any
+ * mismatch. bench prints one line per run; run it once per resolution, since
+ * the scene is one per process. pbo, path, agents, stream, map and maps
+ * exit with status 1 on any failure.
+ */
+public final class HeadlessMain {
+    private static final int GOLDEN_STRIDE = 29;
+    private static final int GOLDEN_COUNT = 18;
+
+    private static final int BENCH_WARMUP_LOOPS = 4;
+    private static final int BENCH_DEFAULT_FRAMES = 3000;
+
+    private static final int RASTER_DEFAULT_ITERS = 2000;
+    private static final int RASTER_WARMUP_ITERS = 5000;
+
+    private static final int PBO_DEFAULT_FRAMES = 200;
+    private static final int PBO_SLOT_COUNTS[] = { 2, 3 };
+
+    /* shared with the raster task of checkPixelBuffers */
+    private static PixelBufferRing pboRing;
+    private static int pboFrames[][];
+    private static int pboRastered;
+
+    private static final int PATH_DEFAULT_SIZE = 256;
+    private static final int PATH_DEFAULT_QUERIES = 200;
+    private static final int AGENTS_DEFAULT_COUNT = 500;
+    private static final int STREAM_DEFAULT_SIZE = 1024;
+    private static final int STREAM_DEFAULT_STEPS = 5000;
+    private static final int MAP_DEFAULT_SIZE = 1024;
+    private static final int MAPS_DEFAULT_COUNT = 6;
+
+    private static final int OP_CLEAR = 0;
+    private static final int OP_CLEAR_VIEWPORT = 1;
+    private static final int OP_PANEL = 2;
+    private static final int OP_OUTLINE = 3;
+    private static final int OP_BITMAP = 4;
+    private static final int OP_BITMAP_OPAQUE = 5;
+    private static final String OP_NAMES[] = {
+            "Clear", "ClearViewport", "DrawRect", "DrawRectOutline",
+            "DrawBitmap", "DrawBitmap1"
+    };
+
+    private HeadlessMain() {}
+
+    public static void main(String args[]) {
+        if (args.length < 1) {
+            usage();
+            return;
+        }
+
+        String mode = args[0];
+
+        if (mode.equals("dump") && args.length >= 2) {
+            init(args, 2);
+            dump(new File(args[1]));
+        } else if (mode.equals("check") && args.length >= 3) {
+            init(args, 3);
+            if (!check(new File(args[1]), new File(args[2])))
+                System.exit(1);
+        } else if (mode.equals("bench")) {
+            init(args, 1);
+            bench(args.length >= 4 ?
+                    Integer.parseInt(args[3]) : BENCH_DEFAULT_FRAMES);
+        } else if (mode.equals("raster")) {
+            init(args, 1);
+            benchRaster(args.length >= 4 ?
+                    Integer.parseInt(args[3]) : RASTER_DEFAULT_ITERS);
+        } else if (mode.equals("pbo")) {
+            init(args, 1);
+            if (!checkPixelBuffers(args.length >= 4 ?
+                    Integer.parseInt(args[3]) : PBO_DEFAULT_FRAMES))
+                System.exit(1);
+        } else if (mode.equals("path")) {
+            if (!Logger.Init()) System.exit(1);
+            ErrorHandler.InitHeadless();
+            if (!PathBench.Run(args.length >= 2 ? Integer.parseInt(args[1]) :
+                    PATH_DEFAULT_SIZE, args.length >= 3 ?
+                    Integer.parseInt(args[2]) : PATH_DEFAULT_QUERIES))
+                System.exit(1);
+        } else if (mode.equals("agents")) {
+            if (!Logger.Init()) System.exit(1);
+            ErrorHandler.InitHeadless();
+            if (!PathBench.RunAgents(args.length >= 2 ?
+                    Integer.parseInt(args[1]) : PATH_DEFAULT_SIZE,
+                    args.length >= 3 ? Integer.parseInt(args[2]) :
+                    AGENTS_DEFAULT_COUNT))
+                System.exit(1);
+        } else if (mode.equals("stream")) {
+            /* the scene for its atlas and palette, at native resolution */
+            init(args, args.length);
+            if (!StreamBench.Run(args.length >= 2 ?
+                    Integer.parseInt(args[1]) : STREAM_DEFAULT_SIZE,
+                    args.length >= 3 ? Integer.parseInt(args[2]) :
+                    STREAM_DEFAULT_STEPS))
+                System.exit(1);
+        } else if (mode.equals("map")) {
+            /* the scene for the char and monster registries */
+            init(args, args.length);
+            if (!MapBench.Run(args.length >= 2 ?
+                    Integer.parseInt(args[1]) : MAP_DEFAULT_SIZE))
+                System.exit(1);
+        } else if (mode.equals("maps")) {
+            /* the scene for the registries and the sprite systems */
+            init(args, args.length);
+            if (!MapsBench.Run(args.length >= 2 ?
+                    Integer.parseInt(args[1]) : MAPS_DEFAULT_COUNT))
+                System.exit(1);
+        } else {
+            usage();
+        }
+    }
+
+    private static void usage() {
+        System.err.println("usage: dump <dir> [w h]\n" +
+                "       check <golden> <out> [w h]\n" +
+                "       bench [w h [frames]]\n" +
+                "       raster [w h [iters]]\n" +
+                "       pbo [w h [frames]]\n" +
+                "       path [size [queries]]\n" +
+                "       agents [size [agents]]\n" +
+                "       stream [size [steps]]\n" +
+                "       map [size]\n" +
+                "       maps [count]");
+        System.exit(2);
+    }
+
+    private static void init(String args[], int resArg) {
+        int w = HeadlessScene.NATIVE_W, h = HeadlessScene.NATIVE_H;
+
+        if (args.length >= resArg + 2) {
+            w = Integer.parseInt(args[resArg]);
+            h = Integer.parseInt(args[resArg + 1]);
+        }
+
+        if (!Logger.Init()) System.exit(1);
+        ErrorHandler.InitHeadless();
+
+        if (!HeadlessScene.Init(Data.TEXEL_LAYOUT, w, h)) System.exit(1);
+    }
+
+    /* advances and renders until frame n has been drawn */
+    private static void renderTo(int n) {
+        while (HeadlessScene.GetFrame() <= n) {
+            HeadlessScene.Update();
+            HeadlessScene.Render();
+        }
+    }
+
+    private static String frameName(int n) {
+        return String.format("frame_%04d.png", n);
+    }
+
+    private static void dump(File dir) {
+        int w = HeadlessScene.GetWidth(), h = HeadlessScene.GetHeight();
+        int i, n;
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("cannot create " + dir.getPath());
+            System.exit(1);
+        }
+
+        for (i = 0; i < GOLDEN_COUNT; ++i) {
+            n = i * GOLDEN_STRIDE;
+            renderTo(n);
+            if (!FramebufferImage.WritePNG(HeadlessScene.GetBuf(), w, h,
+                    new File(dir, frameName(n))))
+                System.exit(1);
+        }
+
+        System.out.println("wrote " + GOLDEN_COUNT + " frames to " +
+                dir.getPath());
+    }
+
+    private static boolean check(File golden, File out) {
+        int w = HeadlessScene.GetWidth(), h = HeadlessScene.GetHeight();
+        int diff[] = new int[w * h];
+        int expected[];
+        int i, n, bad, failed = 0;
+
+        for (i = 0; i < GOLDEN_COUNT; ++i) {
+            n = i * GOLDEN_STRIDE;
+            renderTo(n);
+
+            expected = FramebufferImage.ReadPNG(
+                    new File(golden, frameName(n)), w, h);
+            if (expected == null) {
+                System.out.println(frameName(n) + ": missing or wrong size");
+                ++failed;
+                continue;
+            }
+
+            bad = FramebufferImage.Compare(expected, HeadlessScene.GetBuf(),
+                    diff, w * h);
+            if (bad == 0) continue;
+
+            System.out.println(frameName(n) + ": " + bad +
+                    " pixels differ");
+            ++failed;
+
+            if (!out.isDirectory() && !out.mkdirs()) continue;
+            FramebufferImage.WritePNG(HeadlessScene.GetBuf(), w, h,
+                    new File(out, frameName(n)));
+            FramebufferImage.WritePNG(diff, w, h,
+                    new File(out, "diff_" + frameName(n)));
+        }
+
+        System.out.println(failed == 0 ? "all " + GOLDEN_COUNT +
+                " frames match" : failed + " of " + GOLDEN_COUNT +
+                " frames differ");
+
+        return failed == 0;
+    }
+
+    /**
+     * Times Render only; Update runs between samples untimed. Warms up over
+     * a few full script loops first so every code path has been compiled.
+     */
+    private static void bench(int frames) {
+        long samples[] = new long[frames];
+        long t0, total = 0;
+        int i;
+
+        for (i = 0; i < BENCH_WARMUP_LOOPS * HeadlessScene.LOOP_FRAMES; ++i) {
+            HeadlessScene.Update();
+            HeadlessScene.Render();
+        }
+
+        for (i = 0; i < frames; ++i) {
+            HeadlessScene.Update();
+            t0 = System.nanoTime();
+            HeadlessScene.Render();
+            samples[i] = System.nanoTime() - t0;
+            total += samples[i];
+        }
+
+        Arrays.sort(samples);
+
+        double mean = total / (double)frames;
+        System.out.println(String.format("%dx%d frames [%d] mean [%.1f] us " +
+                "median [%.1f] us p99 [%.1f] us max [%.1f] us fps [%.0f]",
+                HeadlessScene.GetWidth(), HeadlessScene.GetHeight(), frames,
+                mean / 1e3, samples[frames / 2] / 1e3,
+                samples[(int)(frames * 0.99)] / 1e3,
+                samples[frames - 1] / 1e3, 1e9 / mean));
+    }
+
+    /**
+     * Times each primitive on its own over the whole framebuffer: a full
+     * clear, a viewport clear, a filled and an outlined panel covering the
+     * middle three quarters, and the UI frame bitmap blitted masked and
+     * opaque.
+     */
+    private static void benchRaster(int iters) {
+        long samples[] = new long[iters];
+        long t0, total;
+        int op, i;
+
+        for (op = 0; op < OP_NAMES.length; ++op) {
+            for (i = 0; i < RASTER_WARMUP_ITERS; ++i) runRasterOp(op);
+
+            total = 0;
+            for (i = 0; i < iters; ++i) {
+                t0 = System.nanoTime();
+                runRasterOp(op);
+                samples[i] = System.nanoTime() - t0;
+                total += samples[i];
+            }
+
+            Arrays.sort(samples);
+
+            System.out.println(String.format("%dx%d %-16s mean [%.2f] us " +
+                    "median [%.2f] us", HeadlessScene.GetWidth(),
+                    HeadlessScene.GetHeight(), OP_NAMES[op],
+                    total / (double)iters / 1e3, samples[iters / 2] / 1e3));
+        }
+    }
+
+    private static void runRasterOp(int op) {
+        int w = HeadlessScene.GetWidth(), h = HeadlessScene.GetHeight();
+
+        switch (op) {
+            case OP_CLEAR:
+                SpriteRenderer.Clear(Data.BLACK);
+                break;
+            case OP_CLEAR_VIEWPORT:
+                SpriteRenderer.ClearViewport(Data.BLACK);
+                break;
+            case OP_PANEL:
+                Renderer.DrawRect(w / 8, h / 8, w * 3 / 4, h * 3 / 4, 1,
+                        Data.sp);
+                break;
+            case OP_OUTLINE:
+                Renderer.DrawRectWithBorder(w / 8, h / 8, w * 3 / 4,
+                        h * 3 / 4, 1, 2, Data.sp);
+                break;
+            case OP_BITMAP:
+                Renderer.DrawBitmap(BitmapRegistry.FRAME_0, 0, 0);
+                break;
+            case OP_BITMAP_OPAQUE:
+                Renderer.DrawBitmap1(BitmapRegistry.FRAME_0, 0, 0);
+                break;
+        }
+    }
+
+    /**
+     * Streams scene frames through a PixelBufferRing over a FakePixelUnpackGL,
+     * in the order SuperCarpEngine.onRender uses: frame n is rastered and
+     * staged on the RasterThread while the GL thread uploads. Checks that
+     * each upload is frame n - 1, or frame n if it was staged in time,
+     * exactly; that frames are uploaded once and in order; that the ring
+     * never misuses a buffer or maps one the GPU may still be reading; and
+     * that it frees every buffer on shutdown.
+     */
+    private static boolean checkPixelBuffers(int frames) {
+        int w = HeadlessScene.GetWidth(), h = HeadlessScene.GetHeight();
+        int format = Data.TEXEL_LAYOUT.glFormat;
+        int type = Data.TEXEL_LAYOUT.glType;
+        FakePixelUnpackGL gl;
+        boolean uploaded, ok = true;
+        String fail;
+        long seq, lastSeq;
+        int slots, s, i, changes;
+
+        pboFrames = new int[2][w * h];
+
+        for (s = 0; s < PBO_SLOT_COUNTS.length; ++s) {
+            slots = PBO_SLOT_COUNTS[s];
+            gl = new FakePixelUnpackGL(w, h);
+            pboRing = new PixelBufferRing(gl, slots, w, h);
+            pboRastered = 0;
+            fail = null;
+            lastSeq = 0;
+            changes = 0;
+
+            if (!pboRing.init()) {
+                System.out.println("pbo " + slots + " buffers: init failed");
+                ok = false;
+                continue;
+            }
+
+            RasterThread.Init(new Runnable() {
+                public void run() { rasterPixelBuffers(); }
+            });
+
+            for (i = 0; i <= frames && fail == null; ++i) {
+                if (i < frames) {
+                    HeadlessScene.Update();
+                    RasterThread.Begin();
+                }
+
+                uploaded = pboRing.upload(format, type);
+                /* seq n means frame n - 1 is in the texture */
+                seq = pboRing.getUploadedCount();
+
+                if (uploaded != (seq != 0)) {
+                    fail = "upload reported [" + uploaded + "] after [" +
+                            seq + "] frames";
+                } else if (seq < i || seq < lastSeq) {
+                    fail = "frame " + (i - 1) + " was not uploaded, " +
+                            "texture holds frame " + (seq - 1);
+                } else if (seq != 0 && FramebufferImage.Compare(
+                        pboFrames[(int)((seq - 1) & 1)], gl.texture, null,
+                        w * h) != 0) {
+                    fail = "frame " + (seq - 1) + " uploaded wrong pixels";
+                }
+                if (seq != lastSeq) ++changes;
+                lastSeq = seq;
+
+                if (i < frames) RasterThread.Await();
+            }
+
+            /* nothing new staged, the texture keeps the last frame */
+            if (fail == null && (!pboRing.upload(format, type) ||
+                    pboRing.getUploadedCount() != frames ||
+                    gl.uploads != changes))
+                fail = "re-uploaded a frame, [" + gl.uploads + "] uploads " +
+                        "for [" + changes + "] new frames";
+
+            RasterThread.Shutdown();
+            pboRing.shutdown();
+
+            if (fail == null && gl.errors != 0)
+                fail = gl.errors + " GL errors, first: " + gl.firstError;
+            if (fail == null && gl.stalls != 0)
+                fail = gl.stalls + " maps of buffers still being read";
+            if (fail == null && gl.liveBuffers() != 0)
+                fail = gl.liveBuffers() + " buffers not deleted";
+
+            System.out.println(String.format("pbo %d buffers: %d frames, " +
+                    "%d uploads, %d orphans: %s", slots, frames, gl.uploads,
+                    gl.orphans, fail == null ? "ok" : fail));
+            ok &= fail == null;
+        }
+
+        pboRing = null;
+        pboFrames = null;
+
+        return ok;
+    }
+
+    /* raster task of checkPixelBuffers, runs on the RasterThread */
+    private static void rasterPixelBuffers() {
+        int buf[] = HeadlessScene.GetBuf();
+
+        HeadlessScene.Render();
+        System.arraycopy(buf, 0, pboFrames[pboRastered & 1], 0, buf.length);
+        pboRing.stage(buf);
+        ++pboRastered;
+    }
+}
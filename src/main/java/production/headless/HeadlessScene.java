@@ -0,0 +1,293 @@
+package production.headless;
+
+import production.Data;
+import production.MapRegistry;
+import production.display.DisplayConfig;
+import production.display.DisplayProps;
+import production.display.FramebufferConfig;
+import production.display.FramebufferPreset;
+import production.display.ViewportPreset;
+import production.sprite.*;
+import production.ui.BitmapRegistry;
+import production.ui.ChatBox;
+import production.ui.FontAtlasFileParser;
+import production.ui.GameFrame;
+import production.ui.Renderer;
+import production.ui.TextRenderer;
+import whitetail.loaders.AssetStreamResolver;
+import whitetail.software_framebuffer.GLSourceTexelLayout;
+import whitetail.software_framebuffer.HeadlessSoftwareFramebuffer;
+import whitetail.utility.logging.LogLevel;
+
+import java.io.File;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Scripted, deterministic version of the game scene for headless runs.
+ *
+ * Loads the same assets, map and UI as SuperCarpEngine, then replaces input
+ * and wall-clock time with a fixed script: a walker loops a rectangle one
+ * tile per tick with the camera following it, one palette entry fades back
+ * and forth, and chat lines arrive on fixed ticks. Frame n therefore always
+ * renders the same pixels, which is what the golden images rely on.
+ *
+ * DisplayConfig and FramebufferConfig are one-shot, so there is one scene per
+ * process. The frame and chat box art only exist at 384x216; at any other
+ * resolution only the sprite layers are drawn, though the UI renderers are
+ * still initialized for benchmarks.
+ */
+public final class HeadlessScene {
+    private static boolean init;
+
+    public static final int NATIVE_W = 384;
+    public static final int NATIVE_H = 216;
+
+    public static final float FRAME_DT = 1.0f / 60.0f;
+    public static final int FRAMES_PER_TICK =
+            (int)Math.round(Data.TICK_DUR / FRAME_DT);
+
+    /* one tile per tick, as {dx, dy} */
+    private static final int PATH[][] = {
+            { 1, 0 }, { 1, 0 }, { 1, 0 }, { 1, 0 },
+            { 0, 1 }, { 0, 1 }, { 0, 1 },
+            { -1, 0 }, { -1, 0 }, { -1, 0 }, { -1, 0 },
+            { 0, -1 }, { 0, -1 }, { 0, -1 }
+    };
+
+    public static final int LOOP_FRAMES = PATH.length * FRAMES_PER_TICK;
+
+    private static final int START_TILE_X = 0;
+    private static final int START_TILE_Y = -1;
+
+    private static final int FADE_IDX = 2;
+    private static final int FADE_TO = 0xFFFFFFFF;
+    private static final int FADE_STEPS = 8;
+    private static final int FADE_FRAME_MS = 150;
+
+    private static final int CHAT_EVERY_TICKS = 3;
+
+    private static boolean drawUi;
+
+    private static int walkerSprite;
+    private static int walkerInterp;
+    private static int tileX, tileY;
+
+    private static int frame;
+    private static int tick;
+
+    private HeadlessScene() {}
+
+    public static boolean Init(GLSourceTexelLayout layout, int w, int h) {
+        assert(!init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        if (!initDisplay(w, h)) return init = false;
+
+        if (!HeadlessSoftwareFramebuffer.Init(layout, w, h))
+            return init = false;
+
+        if (!SpriteSys.Init(Data.SPRITE_SYS_CAP, w, h, Data.BPP)) {
+            LogFatalAndExit(ErrStrFailedInit(SpriteSys.CLASS));
+            return init = false;
+        }
+        SpriteSys.SetBuf(HeadlessSoftwareFramebuffer.GetBuf());
+
+        File assetsDir = new File("assets");
+        if (assetsDir.isDirectory()) {
+            AssetStreamResolver.Init(assetsDir);
+        } else {
+            AssetStreamResolver.Init();
+        }
+
+        Data.sCam = new SpriteCamera();
+        Data.sCam.init(FramebufferConfig.GetViewportW(),
+                FramebufferConfig.GetViewportH(), Data.SPRITE_SIZE);
+        SpriteRenderer.SetCamera(Data.sCam);
+
+        Data.sp = SpritePaletteFileParser.FromFile(Data.TEST_PALETTE_FILENAME);
+        if (Data.sp == null) return init = false;
+        Data.sa = SpriteAtlasFileParser.FromFile(Data.TEST_ATLAS_FILENAME,
+                Data.SPRITE_SIZE, Data.sp);
+        if (Data.sa == null) return init = false;
+        Data.sa_player = SpriteAtlasFileParser.FromFile(
+                Data.TEST_ATLAS_ANIM_FILENAME, Data.SPRITE_SIZE, Data.sp);
+        if (Data.sa_player == null) return init = false;
+
+        Data.atlasIdsByFilename.put(Data.TEST_ATLAS_FILENAME, Data.MAP_ATLAS);
+        Data.paletteIdsByFilename.put(Data.TEST_PALETTE_FILENAME,
+                Data.MAP_PALETTE);
+        Data.atlasIdsByFilename.put(Data.TEST_ATLAS_ANIM_FILENAME,
+                Data.PLAYER_ATLAS);
+
+        SpriteSys.SetPalette(Data.MAP_PALETTE, Data.sp);
+        SpriteRenderer.atlasArr[Data.MAP_ATLAS] = Data.sa;
+        SpriteRenderer.atlasArr[Data.PLAYER_ATLAS] = Data.sa_player;
+
+        SpriteAnimSys.Init();
+        SpriteInterpSys.Init(Data.SPRITE_SIZE);
+        SpritePaletteAnimSys.Init();
+
+        if (!MapRegistry.Init(Data.MAP_CACHE_BUDGET, null))
+            return init = false;
+        if (MapRegistry.Activate("test_map.map") == null) return init = false;
+
+        if (!SpriteSys.EnableScrollLayer(Data.TILE_LAYER, Data.clearColor))
+            return init = false;
+
+        tileX = START_TILE_X;
+        tileY = START_TILE_Y;
+        walkerSprite = SpritePool.Create(tileX * Data.SPRITE_SIZE,
+                tileY * Data.SPRITE_SIZE, Data.PLAYER_ATLAS, 0, 0,
+                Data.MAP_PALETTE, false, false, true);
+        SpriteAnimSys.Subscribe(SpriteAnimSys.RegisterDef(
+                new SpriteAnimDef(new short[] { 0, 1, 2 }, (short)200, true)),
+                walkerSprite);
+        walkerInterp = SpriteInterpSys.Add(walkerSprite, tileX, tileY);
+
+        SpritePaletteAnimSys.Create(Data.MAP_PALETTE,
+                SpritePaletteAnimSys.BuildFade(Data.sp.colors, FADE_IDX,
+                        FADE_TO, FADE_STEPS, true),
+                FADE_FRAME_MS, true);
+
+        Renderer.Init(HeadlessSoftwareFramebuffer.GetBuf(), w, h);
+        BitmapRegistry.Init(Data.sp);
+        TextRenderer.Init(HeadlessSoftwareFramebuffer.GetBuf(), w, h,
+                Data.BPP);
+
+        drawUi = w == NATIVE_W && h == NATIVE_H;
+        if (drawUi) {
+            Data.fontAtlas = FontAtlasFileParser.FromFile(
+                    "monogram_16_java.fnt", Data.sp, 11);
+            if (Data.fontAtlas == null) return init = false;
+
+            ChatBox.Init(Data.fontAtlas);
+            ChatBox.AddMsg("Welcome to SuperCarp.");
+
+            GameFrame.Init();
+        }
+
+        frame = tick = 0;
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with [" + w +
+                "] width, [" + h + "] height, ui [" + drawUi + "].\n");
+
+        return init = true;
+    }
+
+    private static boolean initDisplay(int w, int h) {
+        FramebufferPreset preset;
+        DisplayProps props;
+        boolean nat = w == NATIVE_W && h == NATIVE_H;
+
+        if (!FramebufferConfig.Init(
+                new FramebufferPreset[] { new FramebufferPreset(w, h) },
+                nat ? new ViewportPreset[] {
+                        new ViewportPreset(4, 4, 304, 154) } : null,
+                new int[][] { new int[] { w, h, 0 } },
+                false)) {
+            LogFatalAndExit(ErrStrFailedInit(FramebufferConfig.CLASS));
+            return false;
+        }
+
+        DisplayConfig.SetDisplayResolution(w, h);
+
+        if ((preset = FramebufferConfig.ResolvePreset(w, h)) == null)
+            return false;
+
+        props = FramebufferConfig.BuildDisplayProps(preset, w, h,
+                false, false, false, 0);
+
+        if (!DisplayConfig.ApplyDisplayProps(props)) {
+            LogFatalAndExit(ErrStrFailedInit(DisplayConfig.CLASS));
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Advances the script by one frame: animations by FRAME_DT, and a game
+     * tick every FRAMES_PER_TICK frames.
+     */
+    public static void Update() {
+        assert(init);
+
+        SpriteAnimSys.Update(FRAME_DT);
+        SpritePaletteAnimSys.Update(FRAME_DT);
+
+        if (frame % FRAMES_PER_TICK == 0) onTick();
+
+        ++frame;
+    }
+
+    private static void onTick() {
+        int step[] = PATH[tick % PATH.length];
+
+        SpriteInterpSys.BeginTick();
+
+        tileX += step[0];
+        tileY += step[1];
+        SpriteInterpSys.SetTile(walkerInterp, tileX, tileY);
+        SpriteChunkStreamer.Update(tileX, tileY);
+
+        if (drawUi && tick % CHAT_EVERY_TICKS == 0) {
+            ChatBox.AddMsg("Tick " + tick + ": walker at " + tileX + ", " +
+                    tileY + ".");
+        }
+
+        ++tick;
+    }
+
+    /**
+     * Draws the frame Update last advanced to, the same way onRender does.
+     */
+    public static void Render() {
+        assert(init);
+
+        /* Update already counted this frame */
+        float t = (float)((frame - 1) % FRAMES_PER_TICK) / FRAMES_PER_TICK;
+
+        SpriteRenderer.Clear(Data.BLACK);
+        SpriteInterpSys.Render(t);
+        Data.sCam.slave(SpriteInterpSys.GetX(walkerInterp),
+                SpriteInterpSys.GetY(walkerInterp));
+        SpriteRenderer.RenderNew();
+
+        if (drawUi) {
+            GameFrame.Draw();
+            ChatBox.Draw();
+        }
+
+        HeadlessSoftwareFramebuffer.Present();
+    }
+
+    /* frames advanced so far; the frame last rendered is GetFrame() - 1 */
+    public static int GetFrame() { assert(init); return frame; }
+
+    public static int[] GetBuf() {
+        assert(init);
+
+        return HeadlessSoftwareFramebuffer.GetBuf();
+    }
+
+    public static int GetWidth() {
+        assert(init);
+
+        return HeadlessSoftwareFramebuffer.GetWidth();
+    }
+
+    public static int GetHeight() {
+        assert(init);
+
+        return HeadlessSoftwareFramebuffer.GetHeight();
+    }
+
+    public static final String CLASS = HeadlessScene.class.getSimpleName();
+    private static String ErrStrFailedInit(String dependency) {
+        return String.format("%s failed to initialize because %s failed to " +
+                "initialize.\n", CLASS, dependency);
+    }
+}
@@ -0,0 +1,234 @@
+package production.headless;
+
+import production.tilemap.TileMap;
+import production.tilemap.TileMapFileParser;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Checks compiled maps load the same as parsing the source, and times both.
+ *
+ * The test map and a generated map of size x size are each parsed, then
+ * compiled and loaded back, and the two compared tile by tile. Then the
+ * generated map's source is changed in place, keeping its length, and the
+ * next load must see the change; and its compiled file is cut short, and
+ * the next load must still succeed from the source.
+ */
+final class MapBench {
+    private static final long SEED = 0x5EEDL;
+    private static final String TEST_MAP = "/maps/test_map.map";
+
+    private static final float BLOCKED_TILES = 0.1f;
+    private static final float HOLE_TILES = 0.02f;
+    private static final int EXAMINE_EVERY = 997;
+    private static final int SPRITES = 16;
+
+    private static final int TIMED_LOADS = 5;
+
+    private MapBench() {}
+
+    static boolean Run(int size) {
+        File dir, testMap, source, compiled;
+        URL url = MapBench.class.getResource(TEST_MAP);
+        int fails = 0;
+
+        try {
+            /* deleted on exit in reverse, so the files before the dir */
+            dir = Files.createTempDirectory("mapc").toFile();
+            dir.deleteOnExit();
+            testMap = new File(dir, "test_map.mapc");
+            testMap.deleteOnExit();
+
+            fails += roundTrip(new File(url.toURI()), testMap);
+
+            source = new File(dir, "gen.map");
+            compiled = new File(dir, "gen.mapc");
+            source.deleteOnExit();
+            compiled.deleteOnExit();
+            generate(source, size);
+
+            fails += roundTrip(source, compiled);
+            time("gen " + size + "x" + size, source, compiled);
+            fails += staleCheck(source, compiled);
+            fails += corruptCheck(source, compiled);
+        } catch (IOException | URISyntaxException e) {
+            System.out.println("FAIL " + e);
+            return false;
+        }
+
+        if (fails > 0) System.out.println(fails + " map checks failed");
+        return fails == 0;
+    }
+
+    /* parses, compiles, loads the compiled file and compares */
+    private static int roundTrip(File source, File compiled) {
+        TileMap text = TileMapFileParser.FromFile(source, null);
+        TileMap first, bin;
+
+        compiled.delete();
+        first = TileMapFileParser.FromFile(source, compiled);
+        if (!compiled.isFile()) {
+            System.out.println("FAIL " + source.getName() + " not compiled");
+            return 1;
+        }
+        bin = TileMapFileParser.FromFile(source, compiled);
+
+        return compare(source.getName(), text, first) +
+                compare(source.getName(), text, bin);
+    }
+
+    private static int compare(String what, TileMap a, TileMap b) {
+        int x, y, wx, wy;
+        String ea, eb;
+
+        if (!a.name.equals(b.name) || a.width != b.width ||
+                a.height != b.height || a.originOffsetX != b.originOffsetX ||
+                a.originOffsetY != b.originOffsetY ||
+                a.clearColor != b.clearColor ||
+                a.getSpawnCount() != b.getSpawnCount() ||
+                !a.getNeighbours().equals(b.getNeighbours())) {
+            System.out.println("FAIL " + what + " header differs");
+            return 1;
+        }
+
+        for (y = 0; y < a.height; ++y) {
+            for (x = 0; x < a.width; ++x) {
+                wx = x + a.originOffsetX;
+                wy = y + a.originOffsetY;
+                ea = a.getExamine(wx, wy);
+                eb = b.getExamine(wx, wy);
+
+                if (a.hasTileLocal(x, y) != b.hasTileLocal(x, y) ||
+                        a.getSpriteIdxLocal(x, y) !=
+                                b.getSpriteIdxLocal(x, y) ||
+                        a.isBlockedLocal(x, y) != b.isBlockedLocal(x, y) ||
+                        (ea == null ? eb != null : !ea.equals(eb))) {
+                    System.out.println("FAIL " + what + " differs at [" +
+                            wx + ", " + wy + "]");
+                    return 1;
+                }
+            }
+        }
+
+        return 0;
+    }
+
+    private static void time(String what, File source, File compiled) {
+        long t, textNs = Long.MAX_VALUE, binNs = Long.MAX_VALUE;
+
+        for (int i = 0; i < TIMED_LOADS; ++i) {
+            t = System.nanoTime();
+            TileMapFileParser.FromFile(source, null);
+            textNs = Math.min(textNs, System.nanoTime() - t);
+
+            t = System.nanoTime();
+            TileMapFileParser.FromFile(source, compiled);
+            binNs = Math.min(binNs, System.nanoTime() - t);
+        }
+
+        System.out.printf("map %s: text %.1f ms (%.1f MB), compiled " +
+                "%.1f ms (%.1f MB)%n", what, textNs / 1e6,
+                source.length() / 1e6, binNs / 1e6, compiled.length() / 1e6);
+    }
+
+    /* rewrites the first tile's sprite digit, so the length is unchanged */
+    private static int staleCheck(File source, File compiled)
+            throws IOException {
+        TileMap before = TileMapFileParser.FromFile(source, compiled);
+        short was = before.getSpriteIdxLocal(0, 0);
+        TileMap after;
+
+        RandomAccessFile raf = new RandomAccessFile(source, "rw");
+        try {
+            raf.seek(firstTileSpriteOffset(raf));
+            raf.write('0' + (was + 1) % 10);
+        } finally {
+            raf.close();
+        }
+        source.setLastModified(source.lastModified() + 2000);
+
+        after = TileMapFileParser.FromFile(source, compiled);
+        if (after.getSpriteIdxLocal(0, 0) != (was + 1) % 10) {
+            System.out.println("FAIL stale compiled map was loaded");
+            return 1;
+        }
+
+        return compare("recompiled", after,
+                TileMapFileParser.FromFile(source, null));
+    }
+
+    private static int corruptCheck(File source, File compiled)
+            throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(compiled, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+
+        return compare("corrupt", TileMapFileParser.FromFile(source, null),
+                TileMapFileParser.FromFile(source, compiled));
+    }
+
+    /* offset of the third field of the first line after the header */
+    private static long firstTileSpriteOffset(RandomAccessFile raf)
+            throws IOException {
+        String line;
+        int tabs = 0, c;
+
+        raf.seek(0);
+        while ((line = raf.readLine()) != null && !line.startsWith("---")) {
+            /* header */
+        }
+        while (tabs < 2 && (c = raf.read()) >= 0) {
+            if (c == '\t') ++tabs;
+        }
+        return raf.getFilePointer();
+    }
+
+    /* a size x size map, sprites 0 to 9 first so staleCheck has one digit */
+    private static void generate(File f, int size) throws IOException {
+        Random rng = new Random(SEED);
+        int origin = -size / 2, x, y, i = 0;
+
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            w.write("name:Generated\nwidth:" + size + "\nheight:" + size +
+                    "\norigin:" + origin + "," + origin +
+                    "\ntileset:test_atlas.png\nclear_color:#ad4030" +
+                    "\nneighbours:test_map.map, gen2.map\n---\n");
+            w.write(origin + "\t" + origin + "\t" + rng.nextInt(10) +
+                    "\t0\n");
+
+            for (y = 0; y < size; ++y) {
+                for (x = 0; x < size; ++x) {
+                    if ((x | y) == 0 || rng.nextFloat() < HOLE_TILES)
+                        continue;
+                    w.write((origin + x) + "\t" + (origin + y) + "\t" +
+                            rng.nextInt(SPRITES) + "\t" +
+                            (rng.nextFloat() < BLOCKED_TILES ? 1 : 0) +
+                            "\n");
+                }
+            }
+
+            w.write("--- examine\n");
+            for (y = 0; y < size; ++y) {
+                for (x = 0; x < size; ++x) {
+                    if (++i % EXAMINE_EVERY != 0) continue;
+                    w.write((origin + x) + "\t" + (origin + y) +
+                            "\tA tile numbered " + i + "\n");
+                }
+            }
+        } finally {
+            w.close();
+        }
+    }
+}
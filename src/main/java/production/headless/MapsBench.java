@@ -0,0 +1,293 @@
+package production.headless;
+
+import production.Data;
+import production.MapRegistry;
+import production.character.Char;
+import production.sprite.SpriteAnimSys;
+import production.sprite.SpriteChunkStreamer;
+import production.sprite.SpriteInterpSys;
+import production.sprite.SpritePool;
+import production.tilemap.TileMap;
+import production.tilemap.TileMapFileParser;
+import production.tilemap.TileMapLoader;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+
+/**
+ * Walks MapRegistry along a chain of generated maps, each naming the ones
+ * either side as neighbours, there and back a few times, and checks:
+ *
+ * - the active map is the one drawn and streamed, and the map left behind
+ *   has no ground images left and its chars hidden;
+ * - a char on two maps, a registry singleton, is back on its tile and
+ *   sprite here, moving and animating it, whenever either map is active;
+ * - a neighbour is prepared in the background, so activating it only
+ *   attaches and swaps;
+ * - with a budget of two maps, the far end of the chain is dropped, and
+ *   coming back to it loads it again with no sprites leaked.
+ *
+ * Reports the time to activate a cold map against a preloaded one.
+ */
+final class MapsBench {
+    private static final int SIZE = 256;
+    /* inactive maps the budget holds */
+    private static final int BUDGET_MAPS = 2;
+    private static final int ROUNDS = 3;
+
+    /* the first two maps have a char each, at CHAR_AT */
+    private static final String CHARS[] = { "Bilbo", "Missing char" };
+    private static final int CHAR_AT = 2;
+    /* the first char is on the second map too, at SHARED_AT */
+    private static final int SHARED_AT = 4;
+
+    private MapsBench() {}
+
+    static boolean Run(int count) {
+        File dir;
+        int fails = 0, i, round, step, sprites = -1;
+        long t, coldNs = 0, warmNs = 0;
+        int cold = 0, warm = 0;
+        TileMap map, prev = null;
+        boolean preloaded;
+
+        try {
+            dir = Files.createTempDirectory("maps").toFile();
+            dir.deleteOnExit();
+            for (i = 0; i < count; ++i) generate(dir, i, count);
+        } catch (IOException e) {
+            System.out.println("FAIL " + e);
+            return false;
+        }
+
+        /* the scene's registry reads the resources, this needs the dir */
+        MapRegistry.Shutdown();
+        if (!MapRegistry.Init(BUDGET_MAPS * footprint(dir), dir))
+            return false;
+
+        for (round = 0; round < ROUNDS; ++round) {
+            for (step = 0; step < 2 * (count - 1); ++step) {
+                i = step < count ? step : 2 * (count - 1) - step;
+
+                MapRegistry.AwaitPreloads();
+                preloaded = MapRegistry.IsCached(name(i));
+
+                t = System.nanoTime();
+                map = MapRegistry.Activate(name(i));
+                t = System.nanoTime() - t;
+                if (preloaded) {
+                    warmNs += t;
+                    ++warm;
+                } else {
+                    coldNs += t;
+                    ++cold;
+                }
+
+                SpriteChunkStreamer.Update(CHAR_AT, CHAR_AT);
+                SpriteChunkStreamer.Drain();
+
+                fails += activeCheck(map, prev, i);
+                fails += charCheck(map, prev, i);
+                fails += sharedCheck(map, i);
+
+                /* back at the start, with the same maps cached around it, the
+                same sprites are held; the first visit had fewer cached */
+                if (i == 0 && round > 0) {
+                    if (sprites < 0) {
+                        sprites = SpritePool.GetActiveCount();
+                    } else if (SpritePool.GetActiveCount() != sprites) {
+                        System.out.println("FAIL [" +
+                                SpritePool.GetActiveCount() + "] sprites " +
+                                "back at " + name(0) + ", was [" + sprites +
+                                "]");
+                        ++fails;
+                    }
+                }
+
+                /* the end of the chain is out of reach of the budget */
+                if (i == count - 1 && count > BUDGET_MAPS + 2 &&
+                        MapRegistry.IsCached(name(0))) {
+                    System.out.println("FAIL " + name(0) + " still cached " +
+                            "at " + name(i));
+                    ++fails;
+                }
+
+                prev = MapRegistry.IsCached(map.name) ? map : null;
+            }
+
+            if (warm == 0) {
+                System.out.println("FAIL no neighbour was preloaded");
+                ++fails;
+            }
+        }
+
+        System.out.printf("maps %d of %dx%d: cold %.2f ms (%d), preloaded " +
+                "%.2f ms (%d)%n", count, SIZE, SIZE,
+                cold > 0 ? coldNs / 1e6 / cold : 0.0, cold,
+                warm > 0 ? warmNs / 1e6 / warm : 0.0, warm);
+
+        MapRegistry.Shutdown();
+
+        if (fails > 0)
+            System.out.println(fails + " map registry checks failed");
+        return fails == 0;
+    }
+
+    /* map is the one read, drawn and streamed, prev streams no more */
+    private static int activeCheck(TileMap map, TileMap prev, int i) {
+        if (map == null || MapRegistry.GetActive() != map ||
+                Data.tileMap != map || Data.clearColor != map.clearColor ||
+                !map.name.equals(name(i))) {
+            System.out.println("FAIL " + name(i) + " not active");
+            return 1;
+        }
+
+        if (map.getGroundLayer().getResidentCount() == 0) {
+            System.out.println("FAIL " + name(i) + " ground not streamed");
+            return 1;
+        }
+
+        if (prev != null && prev != map && prev.getGroundLayer() != null &&
+                prev.getGroundLayer().getResidentCount() != 0) {
+            System.out.println("FAIL " + prev.name + " still has ground " +
+                    "resident");
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /* the active map's char is shown, the last map's hidden unless it is
+    on this map too, and so on this map's sprite */
+    private static int charCheck(TileMap map, TileMap prev, int i) {
+        Char c = map.getCharAt(CHAR_AT, CHAR_AT);
+        Char p = prev != null && prev != map ?
+                prev.getCharAt(CHAR_AT, CHAR_AT) : null;
+
+        if (p != null && map.getCharAt(p.tileX, p.tileY) == p) p = null;
+
+        if ((i < CHARS.length) != (c != null) ||
+                (c != null && (!c.name.equals(CHARS[i]) ||
+                !SpritePool.IsVisible(c.getSpriteHandle())))) {
+            System.out.println("FAIL " + name(i) + " char not shown");
+            return 1;
+        }
+
+        if (p != null && p != c && SpritePool.IsValid(p.getSpriteHandle()) &&
+                SpritePool.IsVisible(p.getSpriteHandle())) {
+            System.out.println("FAIL " + prev.name + " char still shown");
+            return 1;
+        }
+
+        return 0;
+    }
+
+    /* the shared char is on this map's tile and sprite, if it is here */
+    private static int sharedCheck(TileMap map, int i) {
+        int at = i == 0 ? CHAR_AT : SHARED_AT;
+        Char c;
+        int h, k;
+
+        if (i > 1) return 0;
+
+        c = map.getCharAt(at, at);
+
+        if (c == null || !c.name.equals(CHARS[0]) || c.tileX != at ||
+                c.tileY != at) {
+            System.out.println("FAIL " + name(i) + " shared char not on " +
+                    "its tile");
+            return 1;
+        }
+
+        h = c.getSpriteHandle();
+        if (!SpritePool.IsValid(h) || !SpritePool.IsVisible(h)) {
+            System.out.println("FAIL " + name(i) + " shared char not on a " +
+                    "shown sprite");
+            return 1;
+        }
+
+        /* its interp entry eases the sprite to its tile here */
+        SpriteInterpSys.Render(1.0f);
+        if (SpritePool.GetX(h) != at * Data.SPRITE_SIZE ||
+                SpritePool.GetY(h) != at * Data.SPRITE_SIZE) {
+            System.out.println("FAIL " + name(i) + " shared char's sprite " +
+                    "not moved to its tile");
+            return 1;
+        }
+
+        for (k = 0; k < c.animCount; ++k) {
+            if (c.anims[k] != SpriteAnimSys.INVALID_HANDLE &&
+                    SpriteAnimSys.GetSpriteHandle(c.anims[k]) != h) {
+                System.out.println("FAIL " + name(i) + " shared char's " +
+                        "animation not on its sprite");
+                return 1;
+            }
+        }
+
+        return 0;
+    }
+
+    /* bytes one prepared map takes while cached */
+    private static long footprint(File dir) {
+        TileMap probe = TileMapFileParser.FromFile(new File(dir, name(0)),
+                null);
+        long bytes;
+
+        TileMapLoader.Prepare(probe, Data.atlasIdsByFilename,
+                Data.paletteIdsByFilename, Data.TEST_PALETTE_FILENAME);
+        bytes = probe.getFootprintBytes();
+        probe.release();
+
+        return bytes;
+    }
+
+    private static String name(int i) {
+        return "chain" + i + ".map";
+    }
+
+    /* a SIZE x SIZE map of every sprite in turn, none blocked */
+    private static void generate(File dir, int i, int count)
+            throws IOException {
+        File f = new File(dir, name(i));
+        StringBuilder neighbours = new StringBuilder();
+        int x, y;
+
+        /* the compiled file is written next to the source */
+        f.deleteOnExit();
+        new File(dir, name(i) + "c").deleteOnExit();
+
+        if (i > 0) neighbours.append(name(i - 1));
+        if (i < count - 1) {
+            if (i > 0) neighbours.append(", ");
+            neighbours.append(name(i + 1));
+        }
+
+        BufferedWriter w = new BufferedWriter(new FileWriter(f));
+        try {
+            w.write("name:" + name(i) + "\nwidth:" + SIZE + "\nheight:" +
+                    SIZE + "\norigin:0,0\ntileset:test_atlas.png" +
+                    "\nclear_color:#ad4030\nneighbours:" + neighbours +
+                    "\n---\n");
+            for (y = 0; y < SIZE; ++y) {
+                for (x = 0; x < SIZE; ++x) {
+                    w.write(x + "\t" + y + "\t" + ((x + y + i) % 16) +
+                            "\t0\n");
+                }
+            }
+
+            w.write("--- examine\n--- characters\n");
+            if (i < CHARS.length) {
+                w.write(CHAR_AT + "\t" + CHAR_AT + "\t" + CHARS[i] + "\n");
+            }
+            if (i == 1) {
+                w.write(SHARED_AT + "\t" + SHARED_AT + "\t" + CHARS[0] +
+                        "\n");
+            }
+        } finally {
+            w.close();
+        }
+    }
+}
@@ -0,0 +1,573 @@
+package production.headless;
+
+import production.PathClusterGraph;
+import production.PathService;
+import production.PathStrategy;
+import production.Pathfinder;
+import production.tilemap.TileMap;
+import production.tilemap.TileMapFileParser.TileMapBuilder;
+import whitetail.utility.IntArray;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares the Pathfinder strategies on generated maps: a maze, where every
+ * route is a corridor, and an open field with scattered obstacles.
+ *
+ * Every query is first run through each strategy and checked: the path must
+ * be a walkable chain of neighbouring tiles ending at the destination, and
+ * all strategies must agree on whether a path exists and, except HPA, on its
+ * length. HPA must not be shorter, and its excess is reported. Then each
+ * strategy is timed over the same queries. Last, tiles are toggled through
+ * TileMap.setBlocked between queries to check the cluster graph and the
+ * component labels keep up. Toggles go to an unlabelled copy of the map as
+ * well, where BFS gives the answers to check against, and at the end the
+ * labels must split the map the same way as labelling it afresh.
+ *
+ * RunAgents checks PathService instead: a crowd of agents chasing one target,
+ * plus a few headed elsewhere, answered in one Flush and compared with a
+ * search per agent.
+ */
+final class PathBench {
+    private static final long SEED = 0x5EEDL;
+
+    /* share of open-field tiles that are blocked */
+    private static final float FIELD_BLOCKED = 0.1f;
+    /* share of maze walls knocked out so there is more than one route */
+    private static final float MAZE_BRAID = 0.03f;
+
+    private static final int WARMUP_ROUNDS = 3;
+    private static final int TIMED_ROUNDS = 5;
+
+    private static final int TOGGLE_ROUNDS = 500;
+    private static final int TOGGLES_PER_ROUND = 8;
+
+    /* one agent in this many heads somewhere of its own */
+    private static final int AGENT_STRAY = 8;
+
+    private PathBench() {}
+
+    /**
+     * @return false if any strategy returned a wrong path
+     */
+    static boolean Run(int size, int queries) {
+        boolean ok;
+
+        ok = runMap("maze", maze(size), maze(size), queries);
+        ok &= runMap("field", field(size), field(size), queries);
+
+        return ok;
+    }
+
+    /**
+     * @return false if PathService disagreed with a search per agent
+     */
+    static boolean RunAgents(int size, int agents) {
+        boolean ok;
+
+        ok = runAgents("maze", maze(size), agents);
+        ok &= runAgents("field", field(size), agents);
+
+        return ok;
+    }
+
+    /* per agent: start x, start y, dest x, dest y, adjacent */
+    private static int[] pickAgents(TileMap map, int agents) {
+        Random rnd = new Random(SEED);
+        int a[] = new int[agents * 5];
+        int q[] = pickQueries(map, agents + 1);
+        int i;
+
+        for (i = 0; i < agents; ++i) {
+            a[5 * i] = q[4 * i];
+            a[5 * i + 1] = q[4 * i + 1];
+            if (rnd.nextInt(AGENT_STRAY) == 0) {
+                a[5 * i + 2] = q[4 * i + 2];
+                a[5 * i + 3] = q[4 * i + 3];
+                a[5 * i + 4] = 0;
+            } else {
+                /* chasers close in next to the shared target */
+                a[5 * i + 2] = q[4 * agents];
+                a[5 * i + 3] = q[4 * agents + 1];
+                a[5 * i + 4] = 1;
+            }
+        }
+
+        return a;
+    }
+
+    private static boolean runAgents(String name, TileMap map, int agents) {
+        final boolean found[] = new boolean[agents];
+        final int length[] = new int[agents];
+        final IntArray paths[] = new IntArray[agents];
+        PathService.Receiver receiver = new PathService.Receiver() {
+            public void onPath(int tag, boolean f, IntArray path) {
+                found[tag] = f;
+                length[tag] = f ? path.size() : -1;
+                paths[tag].copyFrom(path);
+            }
+        };
+        Pathfinder.Scratch scratch = new Pathfinder.Scratch();
+        IntArray out = new IntArray();
+        int a[] = pickAgents(map, agents);
+        /* at least two workers, so the hand-off is checked on one core */
+        int threads[] = { 0,
+                Math.max(2, Runtime.getRuntime().availableProcessors() - 1) };
+        int bad = 0, i, k, last, r, ex, ey;
+        long t0, best;
+        boolean has, adj;
+
+        map.buildComponents();
+        for (i = 0; i < agents; ++i) paths[i] = new IntArray();
+
+        /* a search per agent, as without the service */
+        best = Long.MAX_VALUE;
+        for (r = 0; r < WARMUP_ROUNDS + TIMED_ROUNDS; ++r) {
+            t0 = System.nanoTime();
+            for (i = 0; i < agents; ++i) agentSearch(scratch, map, a, i, out);
+            if (r >= WARMUP_ROUNDS)
+                best = Math.min(best, System.nanoTime() - t0);
+        }
+        System.out.println(String.format("%s %dx%d: %d agents, a BFS each " +
+                "best of %d [%.2f] ms", name, map.width, map.height, agents,
+                TIMED_ROUNDS, best / 1e6));
+
+        for (k = 0; k < threads.length; ++k) {
+            if (k > 0 && threads[k] <= threads[k - 1]) continue;
+            if (!PathService.Init(threads[k])) return false;
+
+            best = Long.MAX_VALUE;
+            for (r = 0; r < WARMUP_ROUNDS + TIMED_ROUNDS; ++r) {
+                t0 = System.nanoTime();
+                for (i = 0; i < agents; ++i) {
+                    PathService.Request(map, a[5 * i], a[5 * i + 1],
+                            a[5 * i + 2], a[5 * i + 3], a[5 * i + 4] != 0,
+                            PathStrategy.BFS, receiver, i);
+                }
+                PathService.Flush();
+                if (r >= WARMUP_ROUNDS)
+                    best = Math.min(best, System.nanoTime() - t0);
+            }
+
+            for (i = 0; i < agents; ++i) {
+                has = agentSearch(scratch, map, a, i, out);
+                adj = a[5 * i + 4] != 0;
+                ex = a[5 * i + 2];
+                ey = a[5 * i + 3];
+                if (adj && found[i]) {
+                    /* wherever it ends, it must be next to the target */
+                    ex = a[5 * i];
+                    ey = a[5 * i + 1];
+                    if (!paths[i].isEmpty()) {
+                        last = paths[i].get(paths[i].size() - 1);
+                        ex = Pathfinder.unpackX(last);
+                        ey = Pathfinder.unpackY(last);
+                    }
+                }
+
+                if (has != found[i] || (has && out.size() != length[i]) ||
+                        (found[i] && (!valid(map, a[5 * i], a[5 * i + 1], ex,
+                        ey, paths[i]) || (adj && Math.abs(ex - a[5 * i + 2]) +
+                        Math.abs(ey - a[5 * i + 3]) != 1)))) {
+                    if (bad++ == 0) System.out.println(name + ": agent " + i +
+                            " got length [" + length[i] + "] from " +
+                            "PathService but [" + (has ? out.size() : -1) +
+                            "] from a search");
+                }
+            }
+
+            System.out.println(String.format("%s %dx%d: %d agents, " +
+                    "PathService with %d workers best of %d [%.2f] ms, %d " +
+                    "fields and %d searches so far, %d mismatches", name,
+                    map.width, map.height, agents, threads[k], TIMED_ROUNDS,
+                    best / 1e6, PathService.GetFieldCount(),
+                    PathService.GetSearchCount(), bad));
+
+            PathService.Shutdown();
+        }
+
+        return bad == 0;
+    }
+
+    private static boolean agentSearch(Pathfinder.Scratch scratch,
+                                       TileMap map, int a[], int i,
+                                       IntArray out) {
+        if (a[5 * i + 4] != 0) {
+            return Pathfinder.findAdjacent(scratch, map, a[5 * i],
+                    a[5 * i + 1], a[5 * i + 2], a[5 * i + 3],
+                    PathStrategy.BFS, out);
+        }
+        return Pathfinder.find(scratch, map, a[5 * i], a[5 * i + 1],
+                a[5 * i + 2], a[5 * i + 3], PathStrategy.BFS, out);
+    }
+
+    private static boolean runMap(String name, TileMap map, TileMap plain,
+                                  int queries) {
+        PathStrategy strategies[] = PathStrategy.values();
+        Pathfinder.Scratch scratch = new Pathfinder.Scratch();
+        IntArray out = new IntArray();
+        int q[] = pickQueries(map, queries);
+        long t0, best, refTotal = 0, hpaTotal = 0;
+        int found = 0, bad = 0;
+        int i, k, r, len, refLen;
+        boolean has, refHas, exact;
+
+        t0 = System.nanoTime();
+        map.buildComponents();
+        System.out.println(String.format("%s %dx%d: components labelled in " +
+                "[%.1f] ms", name, map.width, map.height,
+                (System.nanoTime() - t0) / 1e6));
+
+        t0 = System.nanoTime();
+        map.setPathGraph(new PathClusterGraph(map,
+                PathClusterGraph.DEFAULT_CLUSTER_SIZE));
+        System.out.println(String.format("%s %dx%d: cluster graph built in " +
+                "[%.1f] ms", name, map.width, map.height,
+                (System.nanoTime() - t0) / 1e6));
+
+        for (i = 0; i < queries; ++i) {
+            refHas = false;
+            refLen = -1;
+
+            for (k = 0; k < strategies.length; ++k) {
+                has = Pathfinder.find(scratch, map, q[4 * i], q[4 * i + 1],
+                        q[4 * i + 2], q[4 * i + 3], strategies[k], out);
+                len = has ? out.size() : -1;
+                exact = strategies[k] != PathStrategy.HPA;
+
+                if (has && !valid(map, q[4 * i], q[4 * i + 1],
+                        q[4 * i + 2], q[4 * i + 3], out)) {
+                    if (bad++ == 0) System.out.println(name + ": " +
+                            strategies[k] + " returned an invalid path " +
+                            "for query " + i);
+                } else if (k > 0 && (has != refHas ||
+                        (exact ? len != refLen : len < refLen))) {
+                    if (bad++ == 0) System.out.println(name + ": " +
+                            strategies[k] + " length [" + len + "] but " +
+                            strategies[0] + " [" + refLen + "] for query " +
+                            i);
+                }
+
+                if (k == 0) {
+                    refHas = has;
+                    refLen = len;
+                    if (has) {
+                        ++found;
+                        refTotal += len;
+                    }
+                } else if (!exact && has) {
+                    hpaTotal += len;
+                }
+            }
+        }
+
+        System.out.println(String.format("%s %dx%d: %d queries, %d with a " +
+                "path, %d mismatches, HPA paths [%.2f]%% longer", name,
+                map.width, map.height, queries, found, bad,
+                refTotal == 0 ? 0.0 : (hpaTotal - refTotal) * 100.0 /
+                        refTotal));
+
+        for (k = 0; k < strategies.length; ++k) {
+            for (r = 0; r < WARMUP_ROUNDS; ++r)
+                runQueries(scratch, map, q, queries, strategies[k], out);
+
+            best = Long.MAX_VALUE;
+            for (r = 0; r < TIMED_ROUNDS; ++r) {
+                t0 = System.nanoTime();
+                runQueries(scratch, map, q, queries, strategies[k], out);
+                best = Math.min(best, System.nanoTime() - t0);
+            }
+
+            System.out.println(String.format("%s %dx%d %-5s best of %d " +
+                    "[%.1f] us per query", name, map.width, map.height,
+                    strategies[k], TIMED_ROUNDS,
+                    best / (double)queries / 1e3));
+        }
+
+        bad += walledCheck(name, map, plain, scratch, q, queries, out);
+        bad += toggleCheck(name, map, plain, scratch, q, queries, out);
+
+        return bad == 0;
+    }
+
+    /*
+     * Walls in the first query's destination, as a click on an enclosed
+     * tile, and times every start to it with and without labels.
+     */
+    private static int walledCheck(String name, TileMap map, TileMap plain,
+                                   Pathfinder.Scratch scratch, int q[],
+                                   int queries, IntArray out) {
+        int dx = q[2], dy = q[3];
+        int bad = 0, i, d, r;
+        long t0, plainBest = Long.MAX_VALUE, labelBest = Long.MAX_VALUE;
+        boolean was[] = new boolean[4];
+
+        for (d = 0; d < 4; ++d)
+            was[d] = setIfOnMap(map, plain, dx + DIR_X[d], dy + DIR_Y[d], true);
+
+        for (r = 0; r < WARMUP_ROUNDS + TIMED_ROUNDS; ++r) {
+            t0 = System.nanoTime();
+            for (i = 0; i < queries; ++i) {
+                if (Pathfinder.find(scratch, plain, q[4 * i], q[4 * i + 1],
+                        dx, dy, PathStrategy.BFS, out) && r == 0 &&
+                        outside(map, q[4 * i], q[4 * i + 1], dx, dy)) ++bad;
+            }
+            if (r >= WARMUP_ROUNDS)
+                plainBest = Math.min(plainBest, System.nanoTime() - t0);
+
+            t0 = System.nanoTime();
+            for (i = 0; i < queries; ++i) {
+                if (Pathfinder.find(scratch, map, q[4 * i], q[4 * i + 1],
+                        dx, dy, PathStrategy.BFS, out) && r == 0 &&
+                        outside(map, q[4 * i], q[4 * i + 1], dx, dy)) ++bad;
+            }
+            if (r >= WARMUP_ROUNDS)
+                labelBest = Math.min(labelBest, System.nanoTime() - t0);
+        }
+
+        for (d = 0; d < 4; ++d)
+            setIfOnMap(map, plain, dx + DIR_X[d], dy + DIR_Y[d], was[d]);
+
+        if (bad > 0) System.out.println(name + ": found a path into a " +
+                "walled in tile");
+        System.out.println(String.format("%s %dx%d: BFS to a walled in tile " +
+                "best of %d [%.1f] us per query unlabelled, [%.3f] us " +
+                "labelled", name, map.width, map.height, TIMED_ROUNDS,
+                plainBest / (double)queries / 1e3,
+                labelBest / (double)queries / 1e3));
+
+        return bad;
+    }
+
+    /* a start on the destination or in the wall around it may reach it */
+    private static boolean outside(TileMap map, int sx, int sy, int dx,
+                                   int dy) {
+        return (sx != dx || sy != dy) && !map.isBlockedLocal(sx, sy);
+    }
+
+    /* @return whether the tile was blocked before, true off the map */
+    private static boolean setIfOnMap(TileMap map, TileMap plain, int x,
+                                      int y, boolean blocked) {
+        boolean was;
+
+        if (x < 0 || y < 0 || x >= map.width || y >= map.height) return true;
+
+        was = map.isBlockedLocal(x, y);
+        map.setBlocked(x, y, blocked);
+        plain.setBlocked(x, y, blocked);
+
+        return was;
+    }
+
+    /*
+     * Flips random tiles between queries and checks BFS and HPA, on the
+     * updated labels and graph, against BFS on the unlabelled copy.
+     */
+    private static int toggleCheck(String name, TileMap map, TileMap plain,
+                                   Pathfinder.Scratch scratch, int q[],
+                                   int queries, IntArray out) {
+        Random rnd = new Random(SEED);
+        int bad = 0, walled = 0, r, t, i, x, y, sx, sy, dx, dy;
+        long t0, t1, t2, plainNs = 0, labelNs = 0;
+        boolean ref, bfs, hpa;
+
+        for (r = 0; r < TOGGLE_ROUNDS; ++r) {
+            for (t = 0; t < TOGGLES_PER_ROUND; ++t) {
+                x = rnd.nextInt(map.width);
+                y = rnd.nextInt(map.height);
+                map.setBlocked(x, y, !map.isBlockedLocal(x, y));
+                plain.setBlocked(x, y, !plain.isBlockedLocal(x, y));
+            }
+
+            i = rnd.nextInt(queries);
+            sx = q[4 * i];
+            sy = q[4 * i + 1];
+            dx = q[4 * i + 2];
+            dy = q[4 * i + 3];
+
+            t0 = System.nanoTime();
+            ref = Pathfinder.find(scratch, plain, sx, sy, dx, dy,
+                    PathStrategy.BFS, out);
+            t1 = System.nanoTime();
+            bfs = Pathfinder.find(scratch, map, sx, sy, dx, dy,
+                    PathStrategy.BFS, out);
+            t2 = System.nanoTime();
+            hpa = Pathfinder.find(scratch, map, sx, sy, dx, dy,
+                    PathStrategy.HPA, out);
+            if (!ref) {
+                ++walled;
+                plainNs += t1 - t0;
+                labelNs += t2 - t1;
+            }
+
+            if (bfs != ref || hpa != ref ||
+                    (hpa && !valid(map, sx, sy, dx, dy, out))) {
+                if (bad++ == 0) System.out.println(name + ": after toggling" +
+                        ", " + (bfs != ref ? "BFS" : "HPA") + " disagrees " +
+                        "with the unlabelled map in round " + r);
+            }
+        }
+
+        plain.buildComponents();
+        if (!samePartition(map, plain)) {
+            if (bad++ == 0) System.out.println(name + ": after toggling, " +
+                    "the components differ from a fresh labelling");
+        }
+
+        System.out.println(String.format("%s %dx%d: %d toggle rounds, %d " +
+                "mismatches, %d walled off, BFS to those [%.1f] us per query " +
+                "unlabelled, [%.2f] us labelled", name, map.width, map.height,
+                TOGGLE_ROUNDS, bad, walled,
+                walled == 0 ? 0.0 : plainNs / (double)walled / 1e3,
+                walled == 0 ? 0.0 : labelNs / (double)walled / 1e3));
+
+        return bad;
+    }
+
+    /* true if the labels of a and b group the open tiles the same way */
+    private static boolean samePartition(TileMap a, TileMap b) {
+        Map<Integer, Integer> ab = new HashMap<Integer, Integer>();
+        Map<Integer, Integer> ba = new HashMap<Integer, Integer>();
+        Integer prev;
+        int x, y, ca, cb;
+
+        for (y = 0; y < a.height; ++y) {
+            for (x = 0; x < a.width; ++x) {
+                ca = a.getComponentLocal(x, y);
+                cb = b.getComponentLocal(x, y);
+                if ((ca < 0) != (cb < 0)) return false;
+                if (ca < 0) continue;
+
+                if ((prev = ab.put(ca, cb)) != null && prev != cb)
+                    return false;
+                if ((prev = ba.put(cb, ca)) != null && prev != ca)
+                    return false;
+            }
+        }
+
+        return true;
+    }
+
+    private static void runQueries(Pathfinder.Scratch scratch, TileMap map,
+                                   int q[], int queries,
+                                   PathStrategy strategy, IntArray out) {
+        for (int i = 0; i < queries; ++i) {
+            Pathfinder.find(scratch, map, q[4 * i], q[4 * i + 1],
+                    q[4 * i + 2], q[4 * i + 3], strategy, out);
+        }
+    }
+
+    private static boolean valid(TileMap map, int sx, int sy, int dx, int dy,
+                                 IntArray path) {
+        int x = sx, y = sy, nx, ny, i;
+
+        for (i = 0; i < path.size(); ++i) {
+            nx = Pathfinder.unpackX(path.get(i));
+            ny = Pathfinder.unpackY(path.get(i));
+            if (Math.abs(nx - x) + Math.abs(ny - y) != 1) return false;
+            if (map.isBlockedLocal(nx, ny)) return false;
+            x = nx;
+            y = ny;
+        }
+
+        return x == dx && y == dy;
+    }
+
+    /* start x, start y, dest x, dest y per query, both on open tiles */
+    private static int[] pickQueries(TileMap map, int queries) {
+        Random rnd = new Random(SEED);
+        int q[] = new int[queries * 4];
+        int i, x, y;
+
+        for (i = 0; i < queries * 2; ++i) {
+            do {
+                x = rnd.nextInt(map.width);
+                y = rnd.nextInt(map.height);
+            } while (map.isBlockedLocal(x, y));
+            q[2 * i] = x;
+            q[2 * i + 1] = y;
+        }
+
+        return q;
+    }
+
+    /* recursive backtracker on odd cells, then braided */
+    private static TileMap maze(int size) {
+        Random rnd = new Random(SEED);
+        int w = size | 1, h = size | 1;
+        boolean open[] = new boolean[w * h];
+        int stack[] = new int[w * h];
+        int dirs[] = new int[4];
+        int top = 0, cur, x, y, nx, ny, n, d, i, t;
+
+        open[w + 1] = true;
+        stack[top++] = w + 1;
+
+        while (top > 0) {
+            cur = stack[top - 1];
+            x = cur % w;
+            y = cur / w;
+
+            n = 0;
+            for (d = 0; d < 4; ++d) {
+                nx = x + 2 * DIR_X[d];
+                ny = y + 2 * DIR_Y[d];
+                if (nx > 0 && ny > 0 && nx < w - 1 && ny < h - 1 &&
+                        !open[ny * w + nx])
+                    dirs[n++] = d;
+            }
+
+            if (n == 0) {
+                --top;
+                continue;
+            }
+
+            d = dirs[rnd.nextInt(n)];
+            open[(y + DIR_Y[d]) * w + x + DIR_X[d]] = true;
+            t = (y + 2 * DIR_Y[d]) * w + x + 2 * DIR_X[d];
+            open[t] = true;
+            stack[top++] = t;
+        }
+
+        for (y = 1; y < h - 1; ++y) {
+            for (x = 1; x < w - 1; ++x) {
+                i = y * w + x;
+                if (!open[i] && rnd.nextFloat() < MAZE_BRAID) open[i] = true;
+            }
+        }
+
+        return build("maze", w, h, open);
+    }
+
+    private static TileMap field(int size) {
+        Random rnd = new Random(SEED);
+        boolean open[] = new boolean[size * size];
+
+        for (int i = 0; i < open.length; ++i)
+            open[i] = rnd.nextFloat() >= FIELD_BLOCKED;
+
+        return build("field", size, size, open);
+    }
+
+    private static TileMap build(String name, int w, int h, boolean open[]) {
+        TileMapBuilder b = new TileMapBuilder();
+        int x, y;
+
+        b.mapName = name;
+        b.width = w;
+        b.height = h;
+        b.initTiles();
+
+        for (y = 0; y < h; ++y) {
+            for (x = 0; x < w; ++x)
+                b.setTile(x, y, (short)0, !open[y * w + x]);
+        }
+
+        return b.build();
+    }
+
+    private static final int DIR_X[] = { 1, -1, 0, 0 };
+    private static final int DIR_Y[] = { 0, 0, 1, -1 };
+}
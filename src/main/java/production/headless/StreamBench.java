@@ -0,0 +1,194 @@
+package production.headless;
+
+import production.Data;
+import production.sprite.SpriteAtlas;
+import production.sprite.SpriteChunkLayer;
+import production.sprite.SpriteChunkStreamer;
+import production.sprite.SpriteRenderer;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Walks a point across a generated ground layer far bigger than the budget
+ * and checks SpriteChunkStreamer keeps up: never more than the budget
+ * resident, and, once the baker has caught up, every chunk within radius
+ * baked and the same as baking it afresh. Every so often the point jumps
+ * somewhere new and a cell is changed while its chunk is being baked, which
+ * must drop that bake and queue another.
+ *
+ * Reports the time per Update and the chunk memory held against baking the
+ * whole layer.
+ */
+final class StreamBench {
+    private static final long SEED = 0x5EEDL;
+
+    /* share of cells with no ground */
+    private static final float EMPTY_CELLS = 0.05f;
+    /* steps walked before turning, at most */
+    private static final int RUN_STEPS = 40;
+    private static final int CHECK_EVERY = 64;
+    private static final int JUMP_EVERY = 500;
+
+    private static final int DIR_X[] = { 1, -1, 0, 0 };
+    private static final int DIR_Y[] = { 0, 0, 1, -1 };
+
+    private StreamBench() {}
+
+    /**
+     * @param size width and height of the layer, in cells
+     * @return false if any check failed
+     */
+    static boolean Run(int size, int steps) {
+        Random rng = new Random(SEED);
+        SpriteChunkLayer layer = new SpriteChunkLayer();
+        SpriteAtlas atlas = SpriteRenderer.atlasArr[Data.MAP_ATLAS];
+        int origin = -size / 2;
+        int x, y, i, dir, run, step, fails = 0, peak = 0;
+        long t, updateNs = 0;
+
+        /* the scene streams its own map, this needs the streamer */
+        if (SpriteChunkStreamer.IsInitialized())
+            SpriteChunkStreamer.Shutdown();
+
+        if (!layer.init(size, size, origin, origin, Data.MAP_ATLAS,
+                Data.MAP_PALETTE, Data.BLACK))
+            return false;
+
+        for (y = 0; y < size; ++y) {
+            for (x = 0; x < size; ++x) {
+                if (rng.nextFloat() < EMPTY_CELLS) continue;
+                layer.setCell(origin + x, origin + y,
+                        (short)rng.nextInt(atlas.spriteCount));
+            }
+        }
+
+        if (!SpriteChunkStreamer.Init(layer, Data.GROUND_STREAM_RADIUS,
+                Data.GROUND_RESIDENT_BUDGET))
+            return false;
+
+        int scratch[] = layer.takeImage();
+        x = y = 0;
+        dir = run = 0;
+
+        for (step = 0; step < steps; ++step) {
+            if (step > 0 && step % JUMP_EVERY == 0) {
+                x = origin + rng.nextInt(size);
+                y = origin + rng.nextInt(size);
+                fails += jumpCheck(layer, x, y, scratch);
+            } else {
+                if (run == 0) {
+                    dir = rng.nextInt(4);
+                    run = 1 + rng.nextInt(RUN_STEPS);
+                }
+                --run;
+                x = clamp(x + DIR_X[dir], origin, origin + size - 1);
+                y = clamp(y + DIR_Y[dir], origin, origin + size - 1);
+            }
+
+            t = System.nanoTime();
+            SpriteChunkStreamer.Update(x, y);
+            updateNs += System.nanoTime() - t;
+
+            peak = Math.max(peak, layer.getResidentCount());
+            if (layer.getResidentCount() > Data.GROUND_RESIDENT_BUDGET) {
+                System.out.println("FAIL [" + layer.getResidentCount() +
+                        "] chunks resident at step " + step);
+                ++fails;
+            }
+
+            if (step % CHECK_EVERY == 0) {
+                SpriteChunkStreamer.Drain();
+                fails += nearCheck(layer, x, y, scratch);
+            }
+        }
+
+        long chunkBytes = 4L * layer.getChunkPx() * layer.getChunkPx();
+        i = layer.getChunksW() * layer.getChunksH();
+
+        System.out.printf("stream %dx%d: %d steps, %.2f us/update, " +
+                "%d baked, %d dropped, %d evicted%n", size, size, steps,
+                updateNs / 1000.0 / steps, SpriteChunkStreamer.GetBakedCount(),
+                SpriteChunkStreamer.GetDroppedCount(),
+                SpriteChunkStreamer.GetEvictedCount());
+        System.out.printf("stream %dx%d: peak %d of %d chunks resident, " +
+                "%.1f MB against %.1f MB baked whole%n", size, size, peak, i,
+                peak * chunkBytes / 1e6, i * chunkBytes / 1e6);
+
+        SpriteChunkStreamer.Shutdown();
+        layer.shutdown();
+
+        if (fails > 0) System.out.println(fails + " stream checks failed");
+        return fails == 0;
+    }
+
+    /* jumps to (x, y) and changes a cell of its chunk once queued */
+    private static int jumpCheck(SpriteChunkLayer layer, int x, int y,
+                                 int scratch[]) {
+        int i = chunkAt(layer, x, y);
+        long dropped = SpriteChunkStreamer.GetDroppedCount();
+        int fails = 0;
+
+        SpriteChunkStreamer.Update(x, y);
+        layer.setCell(x, y, SpriteChunkLayer.EMPTY_CELL);
+        SpriteChunkStreamer.Drain();
+
+        if (SpriteChunkStreamer.GetDroppedCount() == dropped ||
+                layer.isBaked(i)) {
+            System.out.println("FAIL stale bake of chunk " + i +
+                    " was installed");
+            ++fails;
+        }
+
+        /* the next Update queues it again */
+        SpriteChunkStreamer.Update(x, y);
+        SpriteChunkStreamer.Drain();
+
+        return fails + nearCheck(layer, x, y, scratch);
+    }
+
+    /* every chunk within radius of (x, y) must be baked and up to date */
+    private static int nearCheck(SpriteChunkLayer layer, int x, int y,
+                                 int scratch[]) {
+        int r = Data.GROUND_STREAM_RADIUS;
+        int c = chunkAt(layer, x, y);
+        int w = layer.getChunksW(), h = layer.getChunksH();
+        int cx, cy, i, fails = 0;
+
+        for (cy = c / w - r; cy <= c / w + r; ++cy) {
+            for (cx = c % w - r; cx <= c % w + r; ++cx) {
+                if (cx < 0 || cy < 0 || cx >= w || cy >= h) continue;
+
+                i = cy * w + cx;
+                if (!layer.isBaked(i)) {
+                    System.out.println("FAIL chunk " + i + " near [" + x +
+                            ", " + y + "] not baked");
+                    ++fails;
+                    continue;
+                }
+
+                layer.bakeInto(i, scratch);
+                if (!Arrays.equals(scratch, layer.getImage(i))) {
+                    System.out.println("FAIL chunk " + i + " near [" + x +
+                            ", " + y + "] differs from a fresh bake");
+                    ++fails;
+                }
+            }
+        }
+
+        return fails;
+    }
+
+    private static int chunkAt(SpriteChunkLayer layer, int x, int y) {
+        int cx = Math.floorDiv(x - layer.getOriginX(),
+                SpriteChunkLayer.CHUNK_CELLS);
+        int cy = Math.floorDiv(y - layer.getOriginY(),
+                SpriteChunkLayer.CHUNK_CELLS);
+
+        return cy * layer.getChunksW() + cx;
+    }
+
+    private static int clamp(int v, int lo, int hi) {
+        return v < lo ? lo : v > hi ? hi : v;
+    }
+}
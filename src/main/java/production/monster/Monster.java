@@ -1,21 +1,27 @@
 package production.monster;
 
-import production.sprite.SpriteAnim;
+import production.sprite.SpriteInterpSys;
 
 public final class Monster {
     public final MonsterSpawn spawn;
     public final int spriteHandle;
-    public final SpriteAnim anim;
+    /* INVALID_HANDLE when the sprite is driven by animDef's shared clock */
+    public final int anim;
+    public final int animDef;
+    public final int interp;
     public final String displayName;
 
     private int tileX, tileY;
     private int hp;
 
-    Monster(MonsterSpawn spawn, int spriteHandle, SpriteAnim anim,
+    Monster(MonsterSpawn spawn, int spriteHandle, int anim, int animDef,
+            int interp,
             String displayName, int tileX, int tileY, int hp) {
         this.spawn = spawn;
         this.spriteHandle = spriteHandle;
         this.anim = anim;
+        this.animDef = animDef;
+        this.interp = interp;
         this.displayName = displayName;
         this.tileX = tileX;
         this.tileY = tileY;
@@ -25,7 +31,14 @@ public final class Monster {
     public int getTileX() { return tileX; }
     public int getTileY() { return tileY; }
     public int getHP() { return hp; }
-    public void setTileX(int x) { tileX = x; }
-    public void setTileY(int y) { tileY = y; }
+    public void setTileX(int x) { setTile(x, tileY); }
+    public void setTileY(int y) { setTile(tileX, y); }
+
+    /* the sprite eases to the new tile over the current tick */
+    public void setTile(int x, int y) {
+        tileX = x;
+        tileY = y;
+        SpriteInterpSys.SetTile(interp, x, y);
+    }
     public void setHP(int hp) { this.hp = hp; }
 }
@@ -1,9 +1,9 @@
 package production.monster;
 
 import production.Data;
-import production.sprite.SpriteAnim;
 import production.sprite.SpriteAnimDef;
 import production.sprite.SpriteAnimSys;
+import production.sprite.SpriteInterpSys;
 import production.sprite.SpritePool;
 import whitetail.utility.FramerateManager;
 
@@ -16,6 +16,9 @@ public final class MonsterSpawn {
     private int lastDeath;
     private Monster monster;
 
+    /* registered on first spawn, since monster defs are built statically */
+    private int animDef = SpriteAnimSys.INVALID_DEF;
+
     public MonsterSpawn(int x, int y, MonsterDef monsterDef, int respawnTicks) {
         this.x = x;
         this.y = y;
@@ -41,17 +44,47 @@ public final class MonsterSpawn {
                 Data.PLAYER_ATLAS, 0, 0, Data.MAP_PALETTE,
                 false, false, true);
 
-        SpriteAnim anim = SpriteAnimSys.Create(spriteHandle, new SpriteAnimDef(
-                monsterDef.atlasIndices,
-                monsterDef.frameDurMs,
-                monsterDef.loops
-        ));
+        if (animDef == SpriteAnimSys.INVALID_DEF) {
+            animDef = SpriteAnimSys.RegisterDef(new SpriteAnimDef(
+                    monsterDef.atlasIndices,
+                    monsterDef.frameDurMs,
+                    monsterDef.loops
+            ));
+        }
+
+        /* looping idles share one clock per def instead of a timer each */
+        int anim = SpriteAnimSys.INVALID_HANDLE;
+        if (monsterDef.loops) SpriteAnimSys.Subscribe(animDef, spriteHandle);
+        else anim = SpriteAnimSys.Create(spriteHandle, animDef);
 
-        monster = new Monster(this, spriteHandle, anim,
+        int interp = SpriteInterpSys.Add(spriteHandle, x, y);
+
+        monster = new Monster(this, spriteHandle, anim, animDef, interp,
                 monsterDef.displayName, x, y, monsterDef.hp);
     }
 
+    /** Hides or shows the monster's sprite, if it is up. */
+    public void setVisible(boolean visible) {
+        if (isAlive) SpritePool.SetVisible(monster.spriteHandle, visible);
+    }
+
+    /** Takes the monster down and frees its sprite, for a dropped map. */
+    public void clear() {
+        if (!isAlive) return;
+
+        int handle = monster.spriteHandle;
+        despawn();
+        SpritePool.Remove(handle);
+        monster = null;
+    }
+
     private void despawn() {
+        if (monster.anim == SpriteAnimSys.INVALID_HANDLE)
+            SpriteAnimSys.Unsubscribe(monster.animDef, monster.spriteHandle);
+        else
+            SpriteAnimSys.Remove(monster.anim);
+        SpriteInterpSys.Remove(monster.interp);
+
         isAlive = false;
         lastDeath = (int)FramerateManager.GetTickCount();
     }
@@ -1,16 +1,13 @@
 package production.script;
 
-import production.Player;
+import production.MapRegistry;
 
 public final class Scripts {
     public static final Script TEST_TELEPORT = new Script() {
         @Override
         public void run() {
-            Player.clearPath();
-            Player.tileX = 4;
-            Player.tileY = -3;
-            Player.prevTileX = 4;
-            Player.prevTileY = -3;
+            /* through the registry, so the streamer follows the player */
+            MapRegistry.Teleport(MapRegistry.GetActiveFilename(), 4, -3);
         }
     };
 }
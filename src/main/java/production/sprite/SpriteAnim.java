@@ -1,79 +0,0 @@
-package production.sprite;
-
-// Mutable instance — one per animated entity
-public final class SpriteAnim {
-    private int spriteHandle;
-    private SpriteAnimDef def;
-
-    private int frame;
-    private int elapsedMs;
-    private boolean playing;
-    private boolean finished;
-
-    SpriteAnim(int spriteHandle, SpriteAnimDef def) {
-        this.spriteHandle = spriteHandle;
-        this.def = def;
-        this.frame = 0;
-        this.elapsedMs = 0;
-        this.playing = true;
-        this.finished = false;
-
-        /* I don't think we need to do this, but I'm not sure.
-        SpritePool.SetAtlasIdx(spriteHandle, def.frames[0]);
-         */
-    }
-
-    void update(int dtMs) {
-        if (!playing || finished) return;
-
-        elapsedMs += dtMs;
-
-        while (elapsedMs >= def.frameDurationMs) {
-            elapsedMs -= def.frameDurationMs;
-            frame++;
-
-            if (frame >= def.frames.length) {
-                if (def.loops) {
-                    frame = 0;
-                } else {
-                    frame = def.frames.length - 1;
-                    finished = true;
-                    break;
-                }
-            }
-        }
-
-        SpritePool.SetAtlasIdx(spriteHandle, def.frames[frame]);
-    }
-
-    public void play()  { playing = true; }
-    public void pause() { playing = false; }
-
-    public void reset() {
-        frame = 0;
-        elapsedMs = 0;
-        finished = false;
-
-        if (spriteHandle != SpritePool.INVALID_HANDLE)
-            SpritePool.SetAtlasIdx(spriteHandle, def.frames[0]);
-    }
-
-    public void setDef(SpriteAnimDef def) {
-        this.def = def;
-        reset();
-    }
-
-    void setSpriteHandle(int handle) {
-        this.spriteHandle = handle;
-        if (spriteHandle != SpritePool.INVALID_HANDLE)
-            SpritePool.SetAtlasIdx(spriteHandle, def.frames[frame]);
-    }
-
-    public boolean isPlaying()  { return playing; }
-    public boolean isFinished() { return finished; }
-    public int getFrame()       { return frame; }
-    public int getSpriteHandle() { return spriteHandle; }
-    public SpriteAnimDef getDef() { return def; }
-
-    public static final String CLASS = SpriteAnim.class.getSimpleName();
-}
\ No newline at end of file
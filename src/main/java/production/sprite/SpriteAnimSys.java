@@ -1,191 +1,640 @@
 package production.sprite;
 
-import java.util.ArrayList;
+import whitetail.utility.logging.LogLevel;
+
+import java.util.Arrays;
 
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
 import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
-
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Sprite animations stored as parallel primitive arrays.
+ *
+ * Animations are addressed by int handles. A handle's index maps to a dense
+ * slot through slotOf[], and removal swaps the last slot into the hole, so
+ * every lookup is O(1) and Update walks contiguous memory. Definitions are
+ * registered once and referenced by ID, so per-animation state is four ints
+ * and a byte. The pool is only written when a frame actually changes.
+ *
+ * Ambient loops that every entity plays in lockstep (idles, torches, water)
+ * don't need an animation each. Sprites subscribed to a def's group share
+ * one clock per def, and a frame change is a single pass over the group's
+ * contiguous handle array.
+ *
+ * An animation should be removed, or unsubscribed, before its sprite. If
+ * the sprite goes first, Update drops it: the animation stops and the group
+ * forgets it, with a warning, rather than writing to whichever sprite
+ * reuses the slot.
+ */
 public final class SpriteAnimSys {
     private static boolean init;
-    private static ArrayList<SpriteAnim> anims;
-    private static byte[] flags;
-    private static int flagsCap;
+
+    public static final int INVALID_HANDLE = -1;
+    public static final int INVALID_DEF = -1;
+
+    /**
+     * Handles are laid out like SpritePool's:
+     * 0GGGGGGG_GGGGIIII_IIIIIIII_IIIIIIII
+     *
+     * (11) [G]eneration of the index when the handle was issued
+     * (20) [I]ndex into slotOf
+     *
+     * An index's generation is bumped on Remove, so a handle kept past
+     * Remove no longer resolves, even after the index is reused.
+     */
+    static final int INDEX_MASK =       0x000FFFFF;
+    static final int HANDLE_GEN_SHIFT = 20;
+    static final int HANDLE_GEN_MASK =  0x7FF;
 
     public static final byte SPRITE_VALID_MASK  = (byte)0x01;
     public static final byte ANIM_DEF_VALID_MASK = (byte)0x02;
     public static final byte ANIM_VALID_MASK =
             SPRITE_VALID_MASK | ANIM_DEF_VALID_MASK;
-
-    private static final int INITIAL_FLAGS_CAPACITY = 64;
+    public static final byte PLAYING_MASK =     (byte)0x04;
+    public static final byte FINISHED_MASK =    (byte)0x08;
+
+    /* pre-computed for Update: valid, playing and not finished */
+    private static final byte RUNNING_MASK = ANIM_VALID_MASK | PLAYING_MASK;
+    private static final byte RUNNING_TEST = RUNNING_MASK | FINISHED_MASK;
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int INITIAL_DEF_CAPACITY = 16;
+    private static final int INITIAL_GROUP_CAPACITY = 16;
+
+    /* --- definitions, indexed by def ID --- */
+    private static int defCount;
+    private static short defFrames[][];
+    private static int defFrameDurMs[];
+    private static boolean defLoops[];
+
+    /* --- shared clocks, indexed by def ID --- */
+    private static int groupFrame[];
+    private static int groupElapsedMs[];
+    private static int groupSize[];
+    private static int groupMembers[][];
+
+    /* --- animations, indexed by dense slot --- */
+    private static int count;
+    private static int cap;
+    private static int frame[];
+    private static int elapsedMs[];
+    private static int defId[];
+    private static int spriteHandle[];
+    private static byte flags[];
+    private static int handleOf[];
+
+    /* --- handle index to slot, and the index's generation --- */
+    private static int handleMark;
+    private static int slotOf[];
+    private static int genOf[];
+    private static int freeCount;
+    private static int freeList[];
+
+    /* frame changes collected during Update, written in one pass */
+    private static int pendingCount;
+    private static int pendingHandles[];
+    private static int pendingIdx[];
 
     private SpriteAnimSys() {}
 
     public static boolean Init() {
         assert(!init);
 
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
         try {
-            anims = new ArrayList<>();
-            flagsCap = INITIAL_FLAGS_CAPACITY;
-            flags = new byte[flagsCap];
-            return init = true;
+            defFrames = new short[INITIAL_DEF_CAPACITY][];
+            defFrameDurMs = new int[INITIAL_DEF_CAPACITY];
+            defLoops = new boolean[INITIAL_DEF_CAPACITY];
+            groupFrame = new int[INITIAL_DEF_CAPACITY];
+            groupElapsedMs = new int[INITIAL_DEF_CAPACITY];
+            groupSize = new int[INITIAL_DEF_CAPACITY];
+            groupMembers = new int[INITIAL_DEF_CAPACITY][];
+
+            cap = INITIAL_CAPACITY;
+            frame = new int[cap];
+            elapsedMs = new int[cap];
+            defId = new int[cap];
+            spriteHandle = new int[cap];
+            flags = new byte[cap];
+            handleOf = new int[cap];
+            slotOf = new int[cap];
+            genOf = new int[cap];
+            freeList = new int[cap];
+            pendingHandles = new int[cap];
+            pendingIdx = new int[cap];
         } catch (OutOfMemoryError e) {
             LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
             return init = false;
         }
+
+        defCount = count = handleMark = freeCount = pendingCount = 0;
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized.\n");
+
+        return init = true;
     }
 
-    public static SpriteAnim Create(int spriteHandle, SpriteAnimDef def) {
+    /**
+     * Registers an immutable definition and returns its ID. A definition
+     * equal to one already registered gets the existing ID, so identical
+     * defs built by different entities share a group clock.
+     */
+    public static int RegisterDef(SpriteAnimDef def) {
         assert(init);
-        assert(SpritePool.IsValid(spriteHandle));
-        assert(def != null);
 
+        if (def == null) {
+            LogFatalAndExit(ERR_STR_DEF_NULL);
+            return INVALID_DEF;
+        }
+
+        int i;
+        for (i = 0; i < defCount; ++i) {
+            if (defFrameDurMs[i] == def.frameDurationMs &&
+                    defLoops[i] == def.loops &&
+                    Arrays.equals(defFrames[i], def.frames)) {
+                return i;
+            }
+        }
+
+        if (defCount == defFrames.length) {
+            int newCap = defCount * 2;
+
+            try {
+                short newFrames[][] = new short[newCap][];
+                boolean newLoops[] = new boolean[newCap];
+                int newMembers[][] = new int[newCap][];
+                System.arraycopy(defFrames, 0, newFrames, 0, defCount);
+                System.arraycopy(defLoops, 0, newLoops, 0, defCount);
+                System.arraycopy(groupMembers, 0, newMembers, 0, defCount);
+                defFrames = newFrames;
+                defLoops = newLoops;
+                groupMembers = newMembers;
+                defFrameDurMs = copyOf(defFrameDurMs, newCap);
+                groupFrame = copyOf(groupFrame, newCap);
+                groupElapsedMs = copyOf(groupElapsedMs, newCap);
+                groupSize = copyOf(groupSize, newCap);
+            } catch (OutOfMemoryError e) {
+                LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+                return INVALID_DEF;
+            }
+        }
+
+        defFrames[defCount] = def.frames;
+        defFrameDurMs[defCount] = def.frameDurationMs;
+        defLoops[defCount] = def.loops;
+        groupFrame[defCount] = 0;
+        groupElapsedMs[defCount] = 0;
+        groupSize[defCount] = 0;
+        groupMembers[defCount] = null;
+
+        return defCount++;
+    }
+
+    /**
+     * Drives the sprite from the def's shared clock. The sprite joins at the
+     * group's current frame, so every member stays in phase. Only looping
+     * defs can be shared, since a one-shot's start time is per entity.
+     */
+    public static void Subscribe(int def, int spriteHandle) {
+        assert(init);
+
+        if (!isDefValid(def) || !defLoops[def]) {
+            LogFatalAndExit(ErrStrCantShareDef(def));
+            return;
+        }
         if (!(SpritePool.IsValid(spriteHandle))) {
             LogFatalAndExit(ErrStrInvalidSpriteHandle(spriteHandle));
-            return null;
+            return;
         }
-        if (def == null) {
-            LogFatalAndExit(ERR_STR_DEF_NULL);
-            return null;
+
+        int members[] = groupMembers[def];
+        int n = groupSize[def];
+
+        try {
+            if (members == null) {
+                members = groupMembers[def] = new int[INITIAL_GROUP_CAPACITY];
+            } else if (n == members.length) {
+                members = groupMembers[def] = copyOf(members, n * 2);
+            }
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return;
         }
 
-        SpriteAnim anim = new SpriteAnim(spriteHandle, def);
-        addAnim(anim, ANIM_VALID_MASK);
+        members[n] = spriteHandle;
+        groupSize[def] = n + 1;
+
+        SpritePool.SetAtlasIdx(spriteHandle, defFrames[def][groupFrame[def]]);
+    }
+
+    /**
+     * Stops driving the sprite from the def's shared clock. Linear in the
+     * group size, which is fine for despawns but not for per-frame use.
+     */
+    public static void Unsubscribe(int def, int spriteHandle) {
+        assert(init);
+
+        if (!isDefValid(def)) return;
+
+        int members[] = groupMembers[def];
+        int last = groupSize[def] - 1;
+        int i;
+
+        for (i = last; i >= 0; --i) {
+            if (members[i] != spriteHandle) continue;
+
+            /* swap-and-pop */
+            members[i] = members[last];
+            groupSize[def] = last;
+            return;
+        }
+    }
+
+    public static int GetGroupSize(int def) {
+        assert(init);
+
+        return isDefValid(def) ? groupSize[def] : 0;
+    }
+
+    private static boolean isDefValid(int def) {
+        return def >= 0 && def < defCount;
+    }
+
+    public static int Create(int spriteHandle, int def) {
+        assert(init);
+
+        if (!(SpritePool.IsValid(spriteHandle))) {
+            LogFatalAndExit(ErrStrInvalidSpriteHandle(spriteHandle));
+            return INVALID_HANDLE;
+        }
+        if (!isDefValid(def)) {
+            LogFatalAndExit(ErrStrInvalidDef(def));
+            return INVALID_HANDLE;
+        }
+
+        int anim = addAnim(spriteHandle, def,
+                (byte)(ANIM_VALID_MASK | PLAYING_MASK));
+        SpritePool.SetAtlasIdx(spriteHandle, defFrames[def][0]);
         return anim;
     }
 
-    public static SpriteAnim Generate(int spriteHandle, SpriteAnimDef def) {
+    /**
+     * Like Create, but tolerates an invalid sprite handle or def. The
+     * animation doesn't run until both are set.
+     */
+    public static int Generate(int spriteHandle, int def) {
         assert(init);
 
-        byte f = (byte)0;
+        byte f = PLAYING_MASK;
         if (SpritePool.IsValid(spriteHandle)) f |= SPRITE_VALID_MASK;
-        if (def != null)                      f |= ANIM_DEF_VALID_MASK;
+        if (isDefValid(def))                  f |= ANIM_DEF_VALID_MASK;
 
-        SpriteAnim anim = new SpriteAnim(spriteHandle, def);
-        addAnim(anim, f);
-        return anim;
+        return addAnim(spriteHandle, def, f);
     }
 
-    private static void addAnim(SpriteAnim anim, byte f) {
-        int idx = anims.size();
-        anims.add(anim);
-        ensureFlagsCapacity(idx + 1);
-        flags[idx] = f;
+    private static int addAnim(int sprite, int def, byte f) {
+        int idx, handle;
+
+        if (count == cap) grow();
+
+        if (freeCount > 0) idx = freeList[--freeCount];
+        else               idx = handleMark++;
+        assert(idx <= INDEX_MASK);
+        handle = genOf[idx] << HANDLE_GEN_SHIFT | idx;
+
+        int i = count++;
+        frame[i] = 0;
+        elapsedMs[i] = 0;
+        defId[i] = def;
+        spriteHandle[i] = sprite;
+        flags[i] = f;
+        handleOf[i] = handle;
+        slotOf[idx] = i;
+
+        return handle;
     }
 
-    private static void ensureFlagsCapacity(int required) {
-        if (required <= flagsCap) return;
+    private static void grow() {
+        int newCap = cap * 2;
 
-        int newCapacity = flagsCap;
-        while (newCapacity < required) {
-            newCapacity *= 2;
+        try {
+            frame = copyOf(frame, newCap);
+            elapsedMs = copyOf(elapsedMs, newCap);
+            defId = copyOf(defId, newCap);
+            spriteHandle = copyOf(spriteHandle, newCap);
+            handleOf = copyOf(handleOf, newCap);
+            slotOf = copyOf(slotOf, newCap);
+            genOf = copyOf(genOf, newCap);
+            freeList = copyOf(freeList, newCap);
+            pendingHandles = copyOf(pendingHandles, newCap);
+            pendingIdx = copyOf(pendingIdx, newCap);
+
+            byte newFlags[] = new byte[newCap];
+            System.arraycopy(flags, 0, newFlags, 0, cap);
+            flags = newFlags;
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return;
         }
 
-        byte[] newFlags = new byte[newCapacity];
-        System.arraycopy(flags, 0, newFlags, 0, flagsCap);
-        flags = newFlags;
-        flagsCap = newCapacity;
+        cap = newCap;
+    }
+
+    private static int[] copyOf(int src[], int newCap) {
+        int dst[] = new int[newCap];
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
     }
 
-    public static void Remove(SpriteAnim anim) {
-        assert init;
+    /* returns the slot for a live handle of the current generation, or -1 */
+    private static int slot(int anim) {
+        int idx = anim & INDEX_MASK;
+
+        if (anim < 0 || idx >= handleMark) return -1;
 
-        int idx = anims.indexOf(anim);
-        if (idx == -1) return;
+        int i = slotOf[idx];
+        return (i < count && handleOf[i] == anim) ? i : -1;
+    }
 
-        // Swap-and-pop for O(1) removal
-        int last = anims.size() - 1;
-        if (idx != last) {
-            anims.set(idx, anims.get(last));
-            flags[idx] = flags[last];
+    public static void Remove(int anim) {
+        assert(init);
+
+        int i = slot(anim);
+        if (i == -1) return;
+
+        /* swap-and-pop */
+        int last = --count;
+        if (i != last) {
+            frame[i] = frame[last];
+            elapsedMs[i] = elapsedMs[last];
+            defId[i] = defId[last];
+            spriteHandle[i] = spriteHandle[last];
+            flags[i] = flags[last];
+            handleOf[i] = handleOf[last];
+            slotOf[handleOf[i] & INDEX_MASK] = i;
         }
-        anims.remove(last);
         flags[last] = 0;
+        handleOf[last] = INVALID_HANDLE;
+
+        /* bump the generation, wrapping within its bits */
+        int idx = anim & INDEX_MASK;
+        genOf[idx] = (genOf[idx] + 1) & HANDLE_GEN_MASK;
+        freeList[freeCount++] = idx;
     }
 
     public static void Update(float dt) {
-        assert init;
+        assert(init);
 
         int dtMs = (int)(dt * 1000.0f);
+        int i, e, d, dur, f, n;
+
+        for (d = 0; d < defCount; ++d) {
+            if (groupSize[d] == 0) continue;
+
+            e = groupElapsedMs[d] + dtMs;
+            dur = defFrameDurMs[d];
 
-        for (int i = 0; i < anims.size(); ++i) {
-            if ((flags[i] & ANIM_VALID_MASK) == ANIM_VALID_MASK) {
-                anims.get(i).update(dtMs);
+            if (e < dur) {
+                groupElapsedMs[d] = e;
+                continue;
             }
+
+            f = (groupFrame[d] + e / dur) % defFrames[d].length;
+            groupElapsedMs[d] = e % dur;
+            if (f == groupFrame[d]) continue;
+            groupFrame[d] = f;
+
+            if (!SpritePool.isBatchValid(groupMembers[d], 0, groupSize[d]))
+                dropDeadMembers(d);
+            SpritePool.SetAtlasIdxs(groupMembers[d], 0, groupSize[d],
+                    defFrames[d][f]);
         }
-    }
 
-    public static void SetSpriteHandle(SpriteAnim anim, int handle) {
-        assert init;
+        for (i = 0; i < count; ++i) {
+            if ((flags[i] & RUNNING_TEST) != RUNNING_MASK) continue;
 
-        int idx = anims.indexOf(anim);
-        if (idx == -1) return;
+            e = elapsedMs[i] + dtMs;
+            d = defId[i];
+            dur = defFrameDurMs[d];
 
-        boolean valid = SpritePool.IsValid(handle);
-        if (valid) {
-            flags[idx] |= SPRITE_VALID_MASK;
-        } else {
-            flags[idx] &= ~SPRITE_VALID_MASK;
+            if (e < dur) {
+                elapsedMs[i] = e;
+                continue;
+            }
+
+            n = defFrames[d].length;
+            f = frame[i] + e / dur;
+            e %= dur;
+
+            if (f >= n) {
+                if (defLoops[d]) {
+                    f %= n;
+                } else {
+                    f = n - 1;
+                    e = 0;
+                    flags[i] |= FINISHED_MASK;
+                }
+            }
+
+            elapsedMs[i] = e;
+            if (f == frame[i]) continue;
+            frame[i] = f;
+
+            if (!SpritePool.IsValid(spriteHandle[i])) {
+                /* the sprite was removed first, stop rather than batch it */
+                LogSession(LogLevel.WARNING,
+                        ErrStrDeadSprite(spriteHandle[i]));
+                flags[i] &= ~SPRITE_VALID_MASK;
+                continue;
+            }
+
+            pendingHandles[pendingCount] = spriteHandle[i];
+            pendingIdx[pendingCount++] = defFrames[d][f];
+        }
+
+        SpritePool.SetAtlasIdxs(pendingHandles, pendingIdx, 0, pendingCount);
+        pendingCount = 0;
+    }
+
+    /* removes members whose sprite was removed before they unsubscribed */
+    private static void dropDeadMembers(int def) {
+        int members[] = groupMembers[def];
+        int n = 0, k;
+
+        for (k = 0; k < groupSize[def]; ++k) {
+            if (SpritePool.IsValid(members[k])) {
+                members[n++] = members[k];
+            } else {
+                LogSession(LogLevel.WARNING, ErrStrDeadSprite(members[k]));
+            }
         }
 
-        anim.setSpriteHandle(handle);
+        groupSize[def] = n;
     }
 
-    public static void SetDef(SpriteAnim anim, SpriteAnimDef def) {
-        assert init;
+    public static void SetSpriteHandle(int anim, int handle) {
+        assert(init);
+
+        int i = slot(anim);
+        if (i == -1) return;
 
-        int idx = anims.indexOf(anim);
-        if (idx == -1) return;
+        spriteHandle[i] = handle;
 
-        if (def != null) {
-            flags[idx] |= ANIM_DEF_VALID_MASK;
+        if (SpritePool.IsValid(handle)) {
+            flags[i] |= SPRITE_VALID_MASK;
+            if ((flags[i] & ANIM_DEF_VALID_MASK) != 0)
+                SpritePool.SetAtlasIdx(handle, defFrames[defId[i]][frame[i]]);
         } else {
-            flags[idx] &= ~ANIM_DEF_VALID_MASK;
+            flags[i] &= ~SPRITE_VALID_MASK;
         }
+    }
+
+    public static void SetDef(int anim, int def) {
+        assert(init);
+
+        int i = slot(anim);
+        if (i == -1) return;
+
+        defId[i] = def;
+
+        if (isDefValid(def)) flags[i] |= ANIM_DEF_VALID_MASK;
+        else                 flags[i] &= ~ANIM_DEF_VALID_MASK;
+
+        Reset(anim);
+    }
+
+    public static void Play(int anim) {
+        assert(init);
 
-        anim.setDef(def);
+        int i = slot(anim);
+        if (i != -1) flags[i] |= PLAYING_MASK;
     }
 
-    public static byte GetFlags(SpriteAnim anim) {
-        assert init;
+    public static void Pause(int anim) {
+        assert(init);
 
-        int idx = anims.indexOf(anim);
-        if (idx == -1) return 0;
-        return flags[idx];
+        int i = slot(anim);
+        if (i != -1) flags[i] &= ~PLAYING_MASK;
     }
 
-    public static boolean IsValid(SpriteAnim anim) {
+    public static void Reset(int anim) {
+        assert(init);
+
+        int i = slot(anim);
+        if (i == -1) return;
+
+        frame[i] = 0;
+        elapsedMs[i] = 0;
+        flags[i] &= ~FINISHED_MASK;
+
+        if ((flags[i] & ANIM_VALID_MASK) == ANIM_VALID_MASK &&
+                SpritePool.IsValid(spriteHandle[i]))
+            SpritePool.SetAtlasIdx(spriteHandle[i], defFrames[defId[i]][0]);
+    }
+
+    public static byte GetFlags(int anim) {
+        assert(init);
+
+        int i = slot(anim);
+        return i == -1 ? 0 : flags[i];
+    }
+
+    public static boolean IsValid(int anim) {
         return (GetFlags(anim) & ANIM_VALID_MASK) == ANIM_VALID_MASK;
     }
 
-    public static boolean IsSpriteValid(SpriteAnim anim) {
+    public static boolean IsSpriteValid(int anim) {
         return (GetFlags(anim) & SPRITE_VALID_MASK) != 0;
     }
 
-    public static boolean IsDefValid(SpriteAnim anim) {
+    public static boolean IsDefValid(int anim) {
         return (GetFlags(anim) & ANIM_DEF_VALID_MASK) != 0;
     }
 
+    public static boolean IsPlaying(int anim) {
+        return (GetFlags(anim) & PLAYING_MASK) != 0;
+    }
+
+    public static boolean IsFinished(int anim) {
+        return (GetFlags(anim) & FINISHED_MASK) != 0;
+    }
+
+    public static int GetFrame(int anim) {
+        assert(init);
+
+        int i = slot(anim);
+        return i == -1 ? 0 : frame[i];
+    }
+
+    public static int GetSpriteHandle(int anim) {
+        assert(init);
+
+        int i = slot(anim);
+        return i == -1 ? SpritePool.INVALID_HANDLE : spriteHandle[i];
+    }
+
+    public static int GetDef(int anim) {
+        assert(init);
+
+        int i = slot(anim);
+        return i == -1 ? INVALID_DEF : defId[i];
+    }
+
     public static int GetActiveCount() {
-        assert init;
-        return anims.size();
+        assert(init);
+
+        return count;
     }
 
     public static void Shutdown() {
-        assert init;
+        assert(init);
 
-        anims.clear();
-        anims = null;
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        defFrames = null;
+        defFrameDurMs = null;
+        defLoops = null;
+        groupFrame = null;
+        groupElapsedMs = null;
+        groupSize = null;
+        groupMembers = null;
+        frame = null;
+        elapsedMs = null;
+        defId = null;
+        spriteHandle = null;
         flags = null;
-        flagsCap = 0;
+        handleOf = null;
+        slotOf = null;
+        genOf = null;
+        freeList = null;
+        pendingHandles = null;
+        pendingIdx = null;
+        defCount = count = cap = handleMark = freeCount = pendingCount = 0;
 
         init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
     }
 
     public static final String CLASS = SpriteAnimSys.class.getSimpleName();
     private static String ErrStrInvalidSpriteHandle(int handle) {
-        return String.format("%s failed to an create animation because the " +
+        return String.format("%s failed to create an animation because the " +
                 "sprite handle [%d] was invalid.\n", CLASS, handle);
     }
-    private static final String ERR_STR_DEF_NULL = CLASS + " failed to create" +
-            " an animation because the " + SpriteAnim.CLASS + " was null.\n";
-}
\ No newline at end of file
+    private static String ErrStrInvalidDef(int def) {
+        return String.format("%s failed to create an animation because the " +
+                "def ID [%d] was not registered.\n", CLASS, def);
+    }
+    private static String ErrStrCantShareDef(int def) {
+        return String.format("%s failed to subscribe to def ID [%d] because " +
+                "it isn't a registered looping def.\n", CLASS, def);
+    }
+    private static String ErrStrDeadSprite(int handle) {
+        return String.format("%s dropped sprite handle [%d] because it was " +
+                "removed before its animation.\n", CLASS, handle);
+    }
+    private static final String ERR_STR_DEF_NULL = CLASS + " failed to " +
+            "register a definition because it was null.\n";
+}
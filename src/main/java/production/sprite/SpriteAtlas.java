@@ -1,25 +1,155 @@
 package production.sprite;
 
+/**
+ * Sprites are stored as per-row runs of opaque texels rather than as the raw
+ * atlas image. Transparent texels, padding and empty cells take no space,
+ * and blitting copies whole runs with no per-texel alpha test.
+ *
+ * Sprite i's spans start at spans[spriteSpan[i]] and its texels at
+ * texels[spriteTexel[i]]. Its rows follow in order, row r holding
+ * rowCount[i * spriteSize + r] spans. Each span is a char:
+ *
+ * XXXXXXXX_LLLLLLLL
+ *
+ * (8) Sprite-local [X] of the first texel
+ * (8) [L]ength in texels, minus one
+ *
+ * The span's texels follow the previous span's in texels[].
+ *
+ * Each sprite also records which palette entries its texels use, as
+ * ENTRY_WORDS longs of bits from spriteEntries[i * ENTRY_WORDS], so a
+ * palette animation redraws only what shows the entries it changes.
+ */
 public final class SpriteAtlas {
     private SpritePalette palette;
     public final int spriteSize;
     public final int spritesPerRow;
     public final int spriteCount;
     public final int size;
-    public final byte data[];
+
+    final int spriteSpan[];
+    final int spriteTexel[];
+    final byte rowCount[];
+    final char spans[];
+    final byte texels[];
+    final long spriteEntries[];
+
+    /* 256 palette entries, a bit each */
+    static final int ENTRY_WORDS = 4;
+
+    static final int SPAN_X_SHIFT = 8;
+    static final int SPAN_LEN_MASK = 0xFF;
 
     public static final int MIN_IDX = 0x0;
     public static final int MAX_IDX = 0xFFFF;
     public static final int MAX_SIZE = 0x7FFF;
+    /* spans store X and length in a byte each */
+    public static final int MAX_SPRITE_SIZE = 0x100;
 
+    /**
+     * @param data raw atlas image, one palette index per texel. Only read
+     *             during construction.
+     */
     SpriteAtlas(SpritePalette palette, int spriteSize, byte data[],
                 int spritesPerRow, int spriteCount) {
+        assert(spriteSize > 0 && spriteSize <= MAX_SPRITE_SIZE);
+
         this.palette = palette;
         this.spriteSize = spriteSize;
-        this.data = data;
         this.spritesPerRow = spritesPerRow;
         this.spriteCount = spriteCount;
         this.size = this.spritesPerRow * this.spriteSize;
+
+        int spanCount = 0, texelCount = 0;
+        int i, r, x, x0, base, n, e;
+        boolean in;
+
+        /* size the arrays first so nothing is over-allocated */
+        for (i = 0; i < spriteCount; ++i) {
+            for (r = 0; r < spriteSize; ++r) {
+                base = (getSpriteY(i) + r) * size + getSpriteX(i);
+                in = false;
+                for (x = 0; x < spriteSize; ++x) {
+                    if (data[base + x] == SpritePalette.TRANSPARENT_IDX) {
+                        in = false;
+                        continue;
+                    }
+                    if (!in) spanCount++;
+                    in = true;
+                    texelCount++;
+                }
+            }
+        }
+
+        spriteSpan = new int[spriteCount];
+        spriteTexel = new int[spriteCount];
+        rowCount = new byte[spriteCount * spriteSize];
+        spans = new char[spanCount];
+        texels = new byte[texelCount];
+        spriteEntries = new long[spriteCount * ENTRY_WORDS];
+
+        spanCount = texelCount = 0;
+        for (i = 0; i < spriteCount; ++i) {
+            spriteSpan[i] = spanCount;
+            spriteTexel[i] = texelCount;
+
+            for (r = 0; r < spriteSize; ++r) {
+                base = (getSpriteY(i) + r) * size + getSpriteX(i);
+                n = 0;
+
+                x = 0;
+                while (x < spriteSize) {
+                    if (data[base + x] == SpritePalette.TRANSPARENT_IDX) {
+                        ++x;
+                        continue;
+                    }
+
+                    x0 = x;
+                    while (x < spriteSize &&
+                            data[base + x] != SpritePalette.TRANSPARENT_IDX) {
+                        e = data[base + x] & 0xFF;
+                        spriteEntries[i * ENTRY_WORDS + (e >>> 6)] |= 1L << e;
+                        texels[texelCount++] = data[base + x++];
+                    }
+                    spans[spanCount++] =
+                            (char)(x0 << SPAN_X_SHIFT | (x - x0 - 1));
+                    n++;
+                }
+
+                rowCount[i * spriteSize + r] = (byte)n;
+            }
+        }
+    }
+
+    /**
+     * @return whether sprite atlasIdx uses any of the palette entries set in
+     *         entries; true for an index past the atlas, to be safe
+     */
+    boolean usesEntries(int atlasIdx, long entries[]) {
+        if (atlasIdx < 0 || atlasIdx >= spriteCount) return true;
+
+        int k = atlasIdx * ENTRY_WORDS;
+        return ((spriteEntries[k] & entries[0]) |
+                (spriteEntries[k + 1] & entries[1]) |
+                (spriteEntries[k + 2] & entries[2]) |
+                (spriteEntries[k + 3] & entries[3])) != 0;
+    }
+
+    /* ORs sprite atlasIdx's entries into out[off .. off + ENTRY_WORDS) */
+    void orEntries(int atlasIdx, long out[], int off) {
+        int k = atlasIdx * ENTRY_WORDS;
+
+        for (int w = 0; w < ENTRY_WORDS; ++w)
+            out[off + w] |= spriteEntries[k + w];
+    }
+
+    /**
+     * Bytes held by the encoded sprite data, for comparison with the
+     * size * size bytes of the raw image.
+     */
+    public int getEncodedBytes() {
+        return spriteSpan.length * 8 + rowCount.length + spans.length * 2 +
+                texels.length;
     }
 
     public int getSpriteXY(int atlasIdx) {
@@ -83,6 +83,11 @@ public final class SpriteAtlasFileParser {
             return null;
         }
 
+        if (spriteSize > SpriteAtlas.MAX_SPRITE_SIZE) {
+            LogFatalAndExit(ErrStrSpriteTooLarge(f, spriteSize));
+            return null;
+        }
+
         if (w > SpriteAtlas.MAX_SIZE) {
             LogFatalAndExit(ErrStrImgTooLarge(f, w));
             return null;
@@ -127,8 +132,13 @@ public final class SpriteAtlasFileParser {
             }
         }
 
-        return new SpriteAtlas(palette, spriteSize, data, spritesPerRow,
-                spriteCount);
+        try {
+            return new SpriteAtlas(palette, spriteSize, data, spritesPerRow,
+                    spriteCount);
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_BUILD_FROM_FILE_OOM);
+            return null;
+        }
     }
 
     private static final String CLASS =
@@ -173,6 +183,12 @@ public final class SpriteAtlasFileParser {
                 " maximum [%d].\n", CLASS, filename, w, SpriteAtlas.MAX_SIZE);
     }
 
+    private static String ErrStrSpriteTooLarge(String filename, int s) {
+        return String.format("%s rejected [%s]. Sprite size [%d] exceeds the" +
+                " maximum [%d].\n", CLASS, filename, s,
+                SpriteAtlas.MAX_SPRITE_SIZE);
+    }
+
     private static String ErrStrTooManySprites(String filename, int c) {
         return String.format("%s rejected [%s]. Sprite count [%d] exceeds the" +
                 " maximum [%d].\n", CLASS, filename, c, SpriteAtlas.MAX_IDX + 1);
@@ -0,0 +1,442 @@
+package production.sprite;
+
+import whitetail.software_framebuffer.TexelFormat;
+
+import java.util.Arrays;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
+
+/**
+ * A static grid of same-atlas cells (e.g. a tile map's ground layer) baked
+ * into CHUNK_CELLS x CHUNK_CELLS opaque images. Drawing is a row copy per
+ * chunk instead of a blit per cell, and no pool handles are used.
+ *
+ * A chunk is only baked again after one of its cells changes, or one of the
+ * palette entries its cells use does. The layer is drawn behind every pool
+ * layer.
+ *
+ * Baked images are a kilobyte or so per cell, so on a large map only some
+ * chunks are kept: SpriteChunkStreamer bakes the ones near the player on its
+ * own thread and evicts far ones. A chunk drawn while not resident is baked
+ * on the spot. Each chunk has a version, bumped whenever its pixels would
+ * change, so an image baked off-thread from older cells is dropped rather
+ * than installed.
+ */
+public final class SpriteChunkLayer {
+    private boolean init;
+
+    public static final int CHUNK_CELLS = 16;
+    public static final short EMPTY_CELL = -1;
+
+    /* freed chunk images kept for reuse */
+    private static final int SPARE_IMAGES = 8;
+
+    private int cellsW, cellsH;
+    /* cell coords of cells[0], in cells */
+    private int originX, originY;
+    private int atlasId;
+    private int paletteIdx;
+    private int cellSize;
+    private int chunkPx;
+
+    private short cells[];
+
+    private int chunksW, chunksH;
+    private int chunks[][];
+    private boolean chunkDirty[];
+    private int chunkVersion[];
+    /* per chunk, SpriteAtlas.ENTRY_WORDS longs: the palette entries its
+    cells have used, never cleared, so at worst a chunk is rebaked for
+    nothing */
+    private long chunkEntries[];
+    private int residentCount;
+    /* images of evicted chunks, for reuse */
+    private int spareImages[][];
+    private int spareCount;
+
+    /* framebuffer format, not ARGB */
+    private int clearColor;
+
+    public SpriteChunkLayer() {}
+
+    public boolean init(int cellsW, int cellsH, int originX, int originY,
+                        int atlasId, int paletteIdx, int clearColorARGB) {
+        assert(!init);
+        assert(cellsW > 0 && cellsH > 0);
+
+        if (atlasId < SpritePool.MIN_ATLAS || atlasId > SpritePool.MAX_ATLAS ||
+                SpriteRenderer.atlasArr[atlasId] == null) {
+            LogFatalAndExit(ErrStrNoAtlas(atlasId));
+            return init = false;
+        }
+
+        if (paletteIdx < SpritePool.MIN_PALETTE ||
+                paletteIdx > SpritePool.MAX_PALETTE ||
+                SpriteRenderer.paletteArr[paletteIdx] == null) {
+            LogFatalAndExit(ErrStrNoPalette(paletteIdx));
+            return init = false;
+        }
+
+        this.cellsW = cellsW;
+        this.cellsH = cellsH;
+        this.originX = originX;
+        this.originY = originY;
+        this.atlasId = atlasId;
+        this.paletteIdx = paletteIdx;
+        cellSize = SpriteRenderer.atlasArr[atlasId].spriteSize;
+        chunkPx = CHUNK_CELLS * cellSize;
+        chunksW = (cellsW + CHUNK_CELLS - 1) / CHUNK_CELLS;
+        chunksH = (cellsH + CHUNK_CELLS - 1) / CHUNK_CELLS;
+        clearColor = TexelFormat.FromARGB(clearColorARGB);
+
+        try {
+            cells = new short[cellsW * cellsH];
+            chunks = new int[chunksW * chunksH][];
+            chunkDirty = new boolean[chunksW * chunksH];
+            chunkVersion = new int[chunksW * chunksH];
+            chunkEntries = new long[chunksW * chunksH *
+                    SpriteAtlas.ENTRY_WORDS];
+            spareImages = new int[SPARE_IMAGES][];
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return init = false;
+        }
+
+        Arrays.fill(cells, EMPTY_CELL);
+        Arrays.fill(chunkDirty, true);
+        residentCount = spareCount = 0;
+
+        return init = true;
+    }
+
+    /**
+     * Sets the atlas index of the cell at absolute cell coords. Marks the
+     * owning chunk for a rebake if the value changed.
+     *
+     * @param atlasIdx intra-atlas index, or EMPTY_CELL
+     */
+    public void setCell(int x, int y, short atlasIdx) {
+        assert(init);
+
+        int ax = x - originX;
+        int ay = y - originY;
+
+        if (ax < 0 || ay < 0 || ax >= cellsW || ay >= cellsH) {
+            LogFatalAndExit(ErrStrCellOOB(x, y));
+            return;
+        }
+
+        int i = ay * cellsW + ax;
+        if (cells[i] == atlasIdx) return;
+        cells[i] = atlasIdx;
+
+        i = (ay / CHUNK_CELLS) * chunksW + ax / CHUNK_CELLS;
+        chunkDirty[i] = true;
+        ++chunkVersion[i];
+        if (atlasIdx != EMPTY_CELL) {
+            SpriteRenderer.atlasArr[atlasId].orEntries(atlasIdx & 0xFFFF,
+                    chunkEntries, i * SpriteAtlas.ENTRY_WORDS);
+        }
+
+        if (SpriteRenderer.chunkLayer == this &&
+                SpriteScrollLayer.IsInitialized()) {
+            SpriteScrollLayer.MarkDirty(x * cellSize, y * cellSize,
+                    cellSize, cellSize);
+        }
+    }
+
+    public short getCell(int x, int y) {
+        assert(init);
+
+        int ax = x - originX;
+        int ay = y - originY;
+
+        if (ax < 0 || ay < 0 || ax >= cellsW || ay >= cellsH)
+            return EMPTY_CELL;
+        return cells[ay * cellsW + ax];
+    }
+
+    public void setClearColor(int clearColorARGB) {
+        assert(init);
+
+        clearColor = TexelFormat.FromARGB(clearColorARGB);
+        invalidate();
+    }
+
+    /**
+     * Marks every chunk for a rebake, e.g. after the atlas or palette was
+     * swapped.
+     */
+    public void invalidate() {
+        assert(init);
+
+        Arrays.fill(chunkDirty, true);
+        for (int i = 0; i < chunkVersion.length; ++i) ++chunkVersion[i];
+
+        if (SpriteRenderer.chunkLayer == this &&
+                SpriteScrollLayer.IsInitialized()) {
+            SpriteScrollLayer.Invalidate();
+        }
+    }
+
+    /**
+     * Marks for a rebake only the chunks whose cells use one of the palette
+     * entries set in entries, e.g. the ones a palette animation step just
+     * changed. Chunks that use none keep their images.
+     */
+    void invalidateEntries(long entries[]) {
+        assert(init);
+
+        boolean drawn = SpriteRenderer.chunkLayer == this &&
+                SpriteScrollLayer.IsInitialized();
+        int i, k;
+
+        for (i = 0; i < chunkVersion.length; ++i) {
+            k = i * SpriteAtlas.ENTRY_WORDS;
+            if (((chunkEntries[k] & entries[0]) |
+                    (chunkEntries[k + 1] & entries[1]) |
+                    (chunkEntries[k + 2] & entries[2]) |
+                    (chunkEntries[k + 3] & entries[3])) == 0) {
+                continue;
+            }
+
+            chunkDirty[i] = true;
+            ++chunkVersion[i];
+
+            /* a chunk with no image is not on screen */
+            if (drawn && chunks[i] != null) {
+                SpriteScrollLayer.MarkDirty(
+                        originX * cellSize + (i % chunksW) * chunkPx,
+                        originY * cellSize + (i / chunksW) * chunkPx,
+                        chunkPx, chunkPx);
+            }
+        }
+    }
+
+    /**
+     * Bakes every dirty chunk now, instead of on first draw.
+     */
+    public void bake() {
+        assert(init);
+
+        for (int i = 0; i < chunkDirty.length; ++i) {
+            if (chunkDirty[i]) bakeChunk(i);
+        }
+    }
+
+    private void bakeChunk(int i) {
+        int img[] = chunks[i];
+
+        if (img == null) {
+            if ((img = takeImage()) == null) return;
+            chunks[i] = img;
+            ++residentCount;
+        }
+
+        bakeInto(i, img);
+        chunkDirty[i] = false;
+    }
+
+    /**
+     * Bakes chunk i into img, which need not be the chunk's own. Only reads
+     * the layer, so it may run on another thread; install with the version
+     * read before starting.
+     */
+    public void bakeInto(int i, int img[]) {
+        int cx = i % chunksW;
+        int cy = i / chunksW;
+        int x, y, ax, ay, idx;
+        short cell;
+
+        Arrays.fill(img, clearColor);
+
+        SpriteAtlas atlas = SpriteRenderer.atlasArr[atlasId];
+        int palette[] = SpriteRenderer.paletteColors[paletteIdx];
+
+        for (y = 0; y < CHUNK_CELLS; ++y) {
+            ay = cy * CHUNK_CELLS + y;
+            if (ay >= cellsH) break;
+
+            for (x = 0; x < CHUNK_CELLS; ++x) {
+                ax = cx * CHUNK_CELLS + x;
+                if (ax >= cellsW) break;
+
+                cell = cells[ay * cellsW + ax];
+                if (cell == EMPTY_CELL) continue;
+
+                idx = cell & 0xFFFF;
+                SpriteRenderer.blitSpans(img, chunkPx, 0, 0, chunkPx, chunkPx,
+                        x * cellSize, y * cellSize, atlas, idx, palette,
+                        false, false);
+            }
+        }
+    }
+
+    /**
+     * Makes img, baked by bakeInto from version, chunk i's image. Dropped if
+     * the chunk has changed since, and then false.
+     */
+    public boolean install(int i, int img[], int version) {
+        assert(init);
+        assert(img.length == chunkPx * chunkPx);
+
+        if (version != chunkVersion[i]) {
+            recycle(img);
+            return false;
+        }
+
+        if (chunks[i] != null) recycle(chunks[i]);
+        else ++residentCount;
+        chunks[i] = img;
+        chunkDirty[i] = false;
+
+        return true;
+    }
+
+    /** Frees chunk i's image; it is baked again when next needed. */
+    public void evict(int i) {
+        assert(init);
+
+        if (chunks[i] == null) return;
+
+        recycle(chunks[i]);
+        chunks[i] = null;
+        chunkDirty[i] = true;
+        --residentCount;
+    }
+
+    /**
+     * @return an image for a chunk, reused if one was freed, null if out of
+     *         memory
+     */
+    public int[] takeImage() {
+        assert(init);
+
+        if (spareCount > 0) {
+            int img[] = spareImages[--spareCount];
+
+            spareImages[spareCount] = null;
+            return img;
+        }
+
+        try {
+            return new int[chunkPx * chunkPx];
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return null;
+        }
+    }
+
+    /* keeps a few freed images, the rest go to the collector */
+    private void recycle(int img[]) {
+        if (spareCount < spareImages.length) spareImages[spareCount++] = img;
+    }
+
+    /** @return whether chunk i has an image that is up to date */
+    public boolean isBaked(int i) {
+        assert(init);
+
+        return chunks[i] != null && !chunkDirty[i];
+    }
+
+    public boolean isResident(int i) {
+        assert(init);
+
+        return chunks[i] != null;
+    }
+
+    /** @return chunk i's image, null if not resident; for checks only */
+    public int[] getImage(int i) { assert(init); return chunks[i]; }
+    public int getVersion(int i) { assert(init); return chunkVersion[i]; }
+    public int getResidentCount() { assert(init); return residentCount; }
+    public int getChunksW() { assert(init); return chunksW; }
+    public int getChunksH() { assert(init); return chunksH; }
+    public int getChunkPx() { assert(init); return chunkPx; }
+    /* cell coords of cell (0, 0) */
+    public int getOriginX() { assert(init); return originX; }
+    public int getOriginY() { assert(init); return originY; }
+
+    /**
+     * Copies every chunk overlapping the clip rect into dst. Dirty chunks are
+     * baked first.
+     *
+     * @param offX added to a world X to get its dst X
+     * @param offY added to a world Y to get its dst Y
+     */
+    void draw(int dst[], int dstW, int clipX0, int clipY0,
+              int clipX1, int clipY1, int offX, int offY) {
+        assert(init);
+
+        /* clip rect in pixels relative to chunk (0, 0) */
+        int left = clipX0 - offX - originX * cellSize;
+        int top = clipY0 - offY - originY * cellSize;
+        int right = clipX1 - offX - originX * cellSize;
+        int bottom = clipY1 - offY - originY * cellSize;
+
+        int c0 = Math.max(Math.floorDiv(left, chunkPx), 0);
+        int r0 = Math.max(Math.floorDiv(top, chunkPx), 0);
+        int c1 = Math.min(Math.floorDiv(right - 1, chunkPx), chunksW - 1);
+        int r1 = Math.min(Math.floorDiv(bottom - 1, chunkPx), chunksH - 1);
+        int cx, cy, i, y, x0, y0, x1, y1, dstX, dstY;
+        int img[];
+
+        for (cy = r0; cy <= r1; ++cy) {
+            for (cx = c0; cx <= c1; ++cx) {
+                i = cy * chunksW + cx;
+                if (chunkDirty[i]) bakeChunk(i);
+                img = chunks[i];
+
+                dstX = (originX * cellSize + cx * chunkPx) + offX;
+                dstY = (originY * cellSize + cy * chunkPx) + offY;
+
+                x0 = Math.max(dstX, clipX0);
+                y0 = Math.max(dstY, clipY0);
+                x1 = Math.min(dstX + chunkPx, clipX1);
+                y1 = Math.min(dstY + chunkPx, clipY1);
+                if (x0 >= x1 || y0 >= y1) continue;
+
+                for (y = y0; y < y1; ++y) {
+                    System.arraycopy(img, (y - dstY) * chunkPx + (x0 - dstX),
+                            dst, y * dstW + x0, x1 - x0);
+                }
+            }
+        }
+    }
+
+    public int getAtlasId() { assert(init); return atlasId; }
+    public int getPaletteIdx() { assert(init); return paletteIdx; }
+
+    public boolean isInitialized() {
+        return init;
+    }
+
+    public void shutdown() {
+        assert(init);
+
+        if (SpriteRenderer.chunkLayer == this) SpriteRenderer.chunkLayer = null;
+
+        cells = null;
+        chunks = null;
+        chunkDirty = null;
+        chunkVersion = null;
+        chunkEntries = null;
+        spareImages = null;
+
+        init = false;
+    }
+
+    public static final String CLASS = SpriteChunkLayer.class.getSimpleName();
+    private static String ErrStrNoAtlas(int atlasId) {
+        return String.format("%s failed to initialize because atlas ID [%d] " +
+                "has no atlas loaded.\n", CLASS, atlasId);
+    }
+    private static String ErrStrNoPalette(int paletteIdx) {
+        return String.format("%s failed to initialize because palette index " +
+                "[%d] has no palette loaded.\n", CLASS, paletteIdx);
+    }
+    private static String ErrStrCellOOB(int x, int y) {
+        return String.format("%s attempted to set out of bounds cell [%d, " +
+                "%d].\n", CLASS, x, y);
+    }
+}
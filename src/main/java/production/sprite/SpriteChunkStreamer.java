@@ -0,0 +1,387 @@
+package production.sprite;
+
+import whitetail.utility.logging.LogLevel;
+
+import java.util.Arrays;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.ErrorHandler.LogFatalExcpAndExit;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Keeps the baked chunks of a SpriteChunkLayer around one point resident,
+ * and the rest of the layer within a budget.
+ *
+ * Update is given the point, normally the player's tile, once a tick. It
+ * installs the chunks the baker thread has finished, queues the chunks
+ * within radius that are missing or stale, nearest first, and evicts the
+ * farthest chunks outside the radius while more than the budget are
+ * resident. Baking reads the layer only; the version taken when a chunk is
+ * queued makes install drop it if its cells changed meanwhile.
+ *
+ * Only the baked images stream. The cells they are baked from stay whole
+ * in the layer, as the tiles do in the TileMap, see TileMapCompiler.
+ *
+ * Everything but the bake runs on the thread calling Update, which must
+ * also be the only one changing the layer, while nothing draws it.
+ */
+public final class SpriteChunkStreamer {
+    private static boolean init;
+
+    private static SpriteChunkLayer layer;
+    private static int radius;
+    private static int budget;
+
+    /* per chunk: queued or being baked */
+    private static boolean pending[];
+    private static int pendingCount;
+    /* eviction candidates, as distance << 32 | chunk */
+    private static long evictKeys[];
+
+    private static final Object lock = new Object();
+    private static Thread thread;
+
+    /* guarded by lock: chunks to bake with the version and image for each,
+    and the finished ones, both first in first out */
+    private static int jobChunk[], jobVersion[];
+    private static int jobImage[][];
+    private static int jobHead, jobCount;
+    private static int doneChunk[], doneVersion[];
+    private static int doneImage[][];
+    private static int doneCount;
+    private static boolean stopping;
+    private static Throwable failure;
+
+    /* counts since Init */
+    private static long bakedCount;
+    private static long droppedCount;
+    private static long evictedCount;
+
+    private SpriteChunkStreamer() {}
+
+    /**
+     * @param radius chunks kept around the point on each side, enough to
+     *               cover the view
+     * @param budget most chunks resident at once, at least the
+     *               (2 * radius + 1)^2 around the point
+     */
+    public static boolean Init(SpriteChunkLayer layer, int radius,
+                               int budget) {
+        assert(!init);
+        assert(layer != null && layer.isInitialized());
+        assert(radius >= 0);
+
+        int n = layer.getChunksW() * layer.getChunksH();
+        int window = (2 * radius + 1) * (2 * radius + 1);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        if (budget < window) {
+            LogFatalAndExit(ErrStrBudgetTooSmall(budget, window));
+            return init = false;
+        }
+
+        SpriteChunkStreamer.layer = layer;
+        SpriteChunkStreamer.radius = radius;
+        SpriteChunkStreamer.budget = budget;
+
+        pending = new boolean[n];
+        evictKeys = new long[n];
+        jobChunk = new int[window];
+        jobVersion = new int[window];
+        jobImage = new int[window][];
+        doneChunk = new int[window];
+        doneVersion = new int[window];
+        doneImage = new int[window][];
+        pendingCount = jobHead = jobCount = doneCount = 0;
+        bakedCount = droppedCount = evictedCount = 0;
+        stopping = false;
+        failure = null;
+
+        thread = new Thread(new Runnable() {
+            public void run() { loop(); }
+        }, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with radius [" +
+                radius + "] and budget [" + budget + "] of [" + n +
+                "] chunks.\n");
+
+        return init = true;
+    }
+
+    private static void loop() {
+        SpriteChunkLayer from;
+        int chunk, img[];
+        int version;
+        Throwable t;
+
+        for (;;) {
+            synchronized (lock) {
+                while (jobCount == 0 && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        /* only Shutdown stops the thread */
+                    }
+                }
+                if (stopping) return;
+
+                /* SetLayer waits for this job before swapping */
+                from = layer;
+                chunk = jobChunk[jobHead];
+                version = jobVersion[jobHead];
+                img = jobImage[jobHead];
+                jobImage[jobHead] = null;
+                jobHead = (jobHead + 1) % jobChunk.length;
+                --jobCount;
+            }
+
+            t = null;
+            try {
+                from.bakeInto(chunk, img);
+            } catch (Throwable e) {
+                t = e;
+            }
+
+            synchronized (lock) {
+                if (t != null && failure == null) failure = t;
+                doneChunk[doneCount] = chunk;
+                doneVersion[doneCount] = version;
+                doneImage[doneCount] = img;
+                ++doneCount;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Streams layer instead, from the next Update. Queued bakes of the old
+     * layer are dropped and the one being baked waited for, then the old
+     * layer's images are freed; it is baked again on demand if drawn.
+     */
+    public static void SetLayer(SpriteChunkLayer layer) {
+        assert(init);
+        assert(layer != null && layer.isInitialized());
+
+        SpriteChunkLayer old = SpriteChunkStreamer.layer;
+        int n = layer.getChunksW() * layer.getChunksH();
+        int i;
+
+        if (layer == old) return;
+
+        synchronized (lock) {
+            for (; jobCount > 0; --jobCount) {
+                jobImage[jobHead] = null;
+                jobHead = (jobHead + 1) % jobChunk.length;
+                --pendingCount;
+            }
+            while (doneCount < pendingCount) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    /* keep waiting, the baker is still reading the layer */
+                }
+            }
+            for (i = 0; i < doneCount; ++i) doneImage[i] = null;
+            doneCount = pendingCount = 0;
+            failure = null;
+
+            SpriteChunkStreamer.layer = layer;
+            pending = new boolean[n];
+            evictKeys = new long[n];
+        }
+
+        for (i = 0; i < old.getChunksW() * old.getChunksH(); ++i)
+            old.evict(i);
+
+        LogSession(LogLevel.DEBUG, CLASS + " now streaming a layer of [" +
+                n + "] chunks.\n");
+    }
+
+    /**
+     * Installs what has been baked and streams toward the point.
+     *
+     * @param cellX cell coords of the point, e.g. the player's tile
+     */
+    public static void Update(int cellX, int cellY) {
+        assert(init);
+
+        int ccx = Math.floorDiv(cellX - layer.getOriginX(),
+                SpriteChunkLayer.CHUNK_CELLS);
+        int ccy = Math.floorDiv(cellY - layer.getOriginY(),
+                SpriteChunkLayer.CHUNK_CELLS);
+
+        installDone();
+        queueNear(ccx, ccy);
+        evictFar(ccx, ccy);
+    }
+
+    private static void installDone() {
+        Throwable t;
+        int i;
+
+        synchronized (lock) {
+            t = failure;
+            failure = null;
+
+            for (i = 0; i < doneCount; ++i) {
+                pending[doneChunk[i]] = false;
+                --pendingCount;
+                if (t == null && layer.install(doneChunk[i], doneImage[i],
+                        doneVersion[i])) {
+                    ++bakedCount;
+                } else {
+                    ++droppedCount;
+                }
+                doneImage[i] = null;
+            }
+            doneCount = 0;
+        }
+
+        if (t != null) LogFatalExcpAndExit(ERR_STR_BAKE_FAILED, t);
+    }
+
+    /* queues the chunks within radius that need a bake, ring by ring */
+    private static void queueNear(int ccx, int ccy) {
+        int w = layer.getChunksW(), h = layer.getChunksH();
+        int r, x, y, i;
+        boolean queued = false;
+
+        synchronized (lock) {
+            for (r = 0; r <= radius; ++r) {
+                for (y = ccy - r; y <= ccy + r; ++y) {
+                    if (y < 0 || y >= h) continue;
+
+                    /* the ring only: every column on its top and bottom
+                    rows, its two ends on the rows between */
+                    for (x = ccx - r; x <= ccx + r;
+                         x += (y == ccy - r || y == ccy + r) ? 1 : 2 * r) {
+                        if (x >= 0 && x < w) {
+                            i = y * w + x;
+                            if (!pending[i] && !layer.isBaked(i)) {
+                                queue(i);
+                                queued = true;
+                            }
+                        }
+                        if (r == 0) break;
+                    }
+                }
+            }
+
+            if (queued) lock.notifyAll();
+        }
+    }
+
+    /* holds lock */
+    private static void queue(int i) {
+        int tail = (jobHead + jobCount) % jobChunk.length;
+        int img[];
+
+        /* a full window waits for the next tick; counting the bakes in
+        flight and done, not just the queued, keeps done[] from overflowing */
+        if (pendingCount == jobChunk.length) return;
+        if ((img = layer.takeImage()) == null) return;
+
+        jobChunk[tail] = i;
+        jobVersion[tail] = layer.getVersion(i);
+        jobImage[tail] = img;
+        ++jobCount;
+
+        pending[i] = true;
+        ++pendingCount;
+    }
+
+    /* evicts the farthest resident chunks outside radius, down to budget */
+    private static void evictFar(int ccx, int ccy) {
+        int w = layer.getChunksW();
+        int over = layer.getResidentCount() + pendingCount - budget;
+        int n = 0, i, d, k;
+
+        if (over <= 0) return;
+
+        for (i = 0; i < evictKeys.length; ++i) {
+            if (!layer.isResident(i)) continue;
+
+            d = Math.max(Math.abs(i % w - ccx), Math.abs(i / w - ccy));
+            if (d > radius) evictKeys[n++] = ((long)d << 32) | i;
+        }
+
+        Arrays.sort(evictKeys, 0, n);
+        for (k = n - 1; k >= 0 && over > 0; --k, --over) {
+            layer.evict((int)evictKeys[k]);
+            ++evictedCount;
+        }
+    }
+
+    /**
+     * Blocks until every queued chunk is baked, then installs them. For
+     * tests and loading screens, the game just calls Update.
+     */
+    public static void Drain() {
+        assert(init);
+
+        synchronized (lock) {
+            while (jobCount > 0 || doneCount < pendingCount) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    /* keep waiting, the baker is still writing */
+                }
+            }
+        }
+
+        installDone();
+    }
+
+    public static long GetBakedCount() { return bakedCount; }
+    public static long GetDroppedCount() { return droppedCount; }
+    public static long GetEvictedCount() { return evictedCount; }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            LogSession(LogLevel.WARNING, ERR_STR_JOIN_INTERRUPTED);
+        }
+
+        thread = null;
+        layer = null;
+        pending = null;
+        evictKeys = null;
+        jobImage = null;
+        doneImage = null;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static boolean IsInitialized() {
+        return init;
+    }
+
+    private static final String THREAD_NAME = "chunk-baker";
+
+    public static final String CLASS =
+            SpriteChunkStreamer.class.getSimpleName();
+    private static String ErrStrBudgetTooSmall(int budget, int window) {
+        return String.format("%s failed to initialize because a budget of " +
+                "[%d] chunks cannot hold the [%d] around the player.\n",
+                CLASS, budget, window);
+    }
+    private static final String ERR_STR_BAKE_FAILED = CLASS +
+            " failed to bake a chunk because the bake threw.\n";
+    private static final String ERR_STR_JOIN_INTERRUPTED = CLASS +
+            " was interrupted while waiting for the baker thread to stop.\n";
+}
@@ -0,0 +1,328 @@
+package production.sprite;
+
+import whitetail.utility.logging.LogLevel;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Tick-to-frame movement smoothing for sprites that move a tile at a time.
+ *
+ * Each entry keeps the sprite's tile position from the previous and the
+ * current tick in parallel primitive arrays. BeginTick rolls current into
+ * previous for every entry at once, game logic calls SetTile for whatever
+ * moved, and Render eases every entry between the two in one pass and writes
+ * the pixel positions to the pool in a single batch.
+ *
+ * Entries are addressed by int handles mapped to dense slots, the same way
+ * as SpriteAnimSys, generation and all.
+ *
+ * An entry should be removed before its sprite. If the sprite goes first,
+ * Render drops the entry, with a warning, rather than moving whichever
+ * sprite reuses the slot.
+ */
+public final class SpriteInterpSys {
+    private static boolean init;
+
+    public static final int INVALID_HANDLE = -1;
+
+    /* handles are laid out like SpriteAnimSys's: generation above index */
+    private static final int INDEX_MASK =       0x000FFFFF;
+    private static final int HANDLE_GEN_SHIFT = 20;
+    private static final int HANDLE_GEN_MASK =  0x7FF;
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    private static int tileSize;
+
+    /* --- entries, indexed by dense slot --- */
+    private static int count;
+    private static int cap;
+    private static int spriteHandle[];
+    private static int prevX[], prevY[];
+    private static int currX[], currY[];
+    private static int outX[], outY[];
+    private static int handleOf[];
+
+    /* --- handle to slot --- */
+    private static int handleMark;
+    private static int slotOf[];
+    private static int genOf[];
+    private static int freeCount;
+    private static int freeList[];
+
+    private SpriteInterpSys() {}
+
+    public static boolean Init(int tileSize) {
+        assert(!init);
+        assert(tileSize > 0);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        try {
+            cap = INITIAL_CAPACITY;
+            spriteHandle = new int[cap];
+            prevX = new int[cap];
+            prevY = new int[cap];
+            currX = new int[cap];
+            currY = new int[cap];
+            outX = new int[cap];
+            outY = new int[cap];
+            handleOf = new int[cap];
+            slotOf = new int[cap];
+            genOf = new int[cap];
+            freeList = new int[cap];
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return init = false;
+        }
+
+        SpriteInterpSys.tileSize = tileSize;
+        count = handleMark = freeCount = 0;
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized.\n");
+
+        return init = true;
+    }
+
+    /**
+     * Starts smoothing the sprite, placed at the given tile with no motion.
+     */
+    public static int Add(int spriteHandle, int tileX, int tileY) {
+        assert(init);
+
+        if (!(SpritePool.IsValid(spriteHandle))) {
+            LogFatalAndExit(ErrStrInvalidSpriteHandle(spriteHandle));
+            return INVALID_HANDLE;
+        }
+
+        int idx, handle;
+
+        if (count == cap) grow();
+
+        if (freeCount > 0) idx = freeList[--freeCount];
+        else               idx = handleMark++;
+        assert(idx <= INDEX_MASK);
+        handle = genOf[idx] << HANDLE_GEN_SHIFT | idx;
+
+        int i = count++;
+        SpriteInterpSys.spriteHandle[i] = spriteHandle;
+        prevX[i] = currX[i] = tileX;
+        prevY[i] = currY[i] = tileY;
+        handleOf[i] = handle;
+        slotOf[idx] = i;
+
+        return handle;
+    }
+
+    private static void grow() {
+        int newCap = cap * 2;
+
+        try {
+            spriteHandle = copyOf(spriteHandle, newCap);
+            prevX = copyOf(prevX, newCap);
+            prevY = copyOf(prevY, newCap);
+            currX = copyOf(currX, newCap);
+            currY = copyOf(currY, newCap);
+            outX = copyOf(outX, newCap);
+            outY = copyOf(outY, newCap);
+            handleOf = copyOf(handleOf, newCap);
+            slotOf = copyOf(slotOf, newCap);
+            genOf = copyOf(genOf, newCap);
+            freeList = copyOf(freeList, newCap);
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return;
+        }
+
+        cap = newCap;
+    }
+
+    private static int[] copyOf(int src[], int newCap) {
+        int dst[] = new int[newCap];
+        System.arraycopy(src, 0, dst, 0, src.length);
+        return dst;
+    }
+
+    /* returns the slot for a live handle, or -1 */
+    private static int slot(int entry) {
+        int idx = entry & INDEX_MASK;
+
+        if (entry < 0 || idx >= handleMark) return -1;
+
+        int i = slotOf[idx];
+        return (i < count && handleOf[i] == entry) ? i : -1;
+    }
+
+    public static void Remove(int entry) {
+        assert(init);
+
+        int i = slot(entry);
+        if (i == -1) return;
+
+        removeSlot(i);
+    }
+
+    private static void removeSlot(int i) {
+        int entry = handleOf[i];
+
+        /* swap-and-pop */
+        int last = --count;
+        if (i != last) {
+            spriteHandle[i] = spriteHandle[last];
+            prevX[i] = prevX[last];
+            prevY[i] = prevY[last];
+            currX[i] = currX[last];
+            currY[i] = currY[last];
+            outX[i] = outX[last];
+            outY[i] = outY[last];
+            handleOf[i] = handleOf[last];
+            slotOf[handleOf[i] & INDEX_MASK] = i;
+        }
+        handleOf[last] = INVALID_HANDLE;
+
+        /* bump the generation, wrapping within its bits */
+        int idx = entry & INDEX_MASK;
+        genOf[idx] = (genOf[idx] + 1) & HANDLE_GEN_MASK;
+        freeList[freeCount++] = idx;
+    }
+
+    /**
+     * Call once at the start of every tick, before any SetTile. Entries that
+     * don't move this tick then stay put.
+     */
+    public static void BeginTick() {
+        assert(init);
+
+        System.arraycopy(currX, 0, prevX, 0, count);
+        System.arraycopy(currY, 0, prevY, 0, count);
+    }
+
+    /**
+     * Sets the tile the sprite moves to over the current tick.
+     */
+    public static void SetTile(int entry, int tileX, int tileY) {
+        assert(init);
+
+        int i = slot(entry);
+        if (i == -1) return;
+
+        currX[i] = tileX;
+        currY[i] = tileY;
+    }
+
+    /**
+     * Places the sprite at the tile with no motion, e.g. after loading.
+     */
+    public static void Warp(int entry, int tileX, int tileY) {
+        assert(init);
+
+        int i = slot(entry);
+        if (i == -1) return;
+
+        prevX[i] = currX[i] = tileX;
+        prevY[i] = currY[i] = tileY;
+    }
+
+    /**
+     * Eases every entry between its previous and current tile and writes the
+     * pixel positions to the pool.
+     *
+     * @param t progress through the current tick, [0, 1]
+     */
+    public static void Render(float t) {
+        assert(init);
+
+        int i, px, py;
+
+        if (!SpritePool.isBatchValid(spriteHandle, 0, count))
+            dropDeadEntries();
+
+        t = easeOutQuad(t);
+
+        for (i = 0; i < count; ++i) {
+            px = prevX[i] * tileSize;
+            py = prevY[i] * tileSize;
+            outX[i] = (int)(px + (currX[i] * tileSize - px) * t);
+            outY[i] = (int)(py + (currY[i] * tileSize - py) * t);
+        }
+
+        SpritePool.SetPositions(spriteHandle, outX, outY, 0, count);
+    }
+
+    /* removes entries whose sprite was removed before them */
+    private static void dropDeadEntries() {
+        int i = 0;
+
+        while (i < count) {
+            if (SpritePool.IsValid(spriteHandle[i])) {
+                ++i;
+            } else {
+                LogSession(LogLevel.WARNING,
+                        ErrStrDeadSprite(spriteHandle[i]));
+                /* the last entry is swapped in, check slot i again */
+                removeSlot(i);
+            }
+        }
+    }
+
+    private static float easeOutQuad(float t) {
+        return t * (2.0f - t);
+    }
+
+    /* pixel position written by the last Render */
+    public static int GetX(int entry) {
+        assert(init);
+
+        int i = slot(entry);
+        return i == -1 ? 0 : outX[i];
+    }
+
+    public static int GetY(int entry) {
+        assert(init);
+
+        int i = slot(entry);
+        return i == -1 ? 0 : outY[i];
+    }
+
+    public static int GetActiveCount() {
+        assert(init);
+
+        return count;
+    }
+
+    public static boolean IsInitialized() {
+        return init;
+    }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        spriteHandle = null;
+        prevX = prevY = null;
+        currX = currY = null;
+        outX = outY = null;
+        handleOf = null;
+        slotOf = null;
+        genOf = null;
+        freeList = null;
+        count = cap = handleMark = freeCount = 0;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static final String CLASS = SpriteInterpSys.class.getSimpleName();
+    private static String ErrStrInvalidSpriteHandle(int handle) {
+        return String.format("%s failed to add an entry because the sprite " +
+                "handle [%d] was invalid.\n", CLASS, handle);
+    }
+    private static String ErrStrDeadSprite(int handle) {
+        return String.format("%s dropped sprite handle [%d] because it was " +
+                "removed before its entry.\n", CLASS, handle);
+    }
+}
@@ -1,10 +1,14 @@
 package production.sprite;
 
+import whitetail.software_framebuffer.TexelFormat;
+
 import java.util.Collections;
 import java.util.Map;
 
 public final class SpritePalette {
     public final int[] colors;
+    /* colors in the framebuffer's texel layout, converted once at load */
+    public final int[] texels;
     public final Map<Integer, Integer> colorToIndex;
     public final int maxIdx;
     public final int count;
@@ -12,6 +16,7 @@ public final class SpritePalette {
 
     SpritePalette(int[] colors, Map<Integer, Integer> colorToIndex) {
         this.colors = colors;
+        this.texels = TexelFormat.FromARGB(colors);
         this.colorToIndex = Collections.unmodifiableMap(colorToIndex);
         this.count = colors.length;
         this.maxIdx = this.count - 1;
@@ -0,0 +1,291 @@
+package production.sprite;
+
+import whitetail.software_framebuffer.TexelFormat;
+import whitetail.utility.logging.LogLevel;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Color cycling and fades (water, lava, hit flashes) done in the palette
+ * instead of in atlas frames.
+ *
+ * An animation is a list of full color tables built up front and converted
+ * to the framebuffer's texel layout once, at most one per palette index.
+ * Stepping a frame points the renderer's color table for that index at the
+ * next table, so no sprite is touched and nothing per pixel is recomputed.
+ * Only cached pixels showing an entry the step changed are drawn again: the
+ * ground chunks whose cells use it and the cached sprites that do.
+ */
+public final class SpritePaletteAnimSys {
+    private static boolean init;
+
+    public static final byte ACTIVE_MASK =   (byte)0x01;
+    public static final byte PLAYING_MASK =  (byte)0x02;
+    public static final byte LOOPS_MASK =    (byte)0x04;
+    public static final byte FINISHED_MASK = (byte)0x08;
+
+    private static final byte RUNNING_MASK = ACTIVE_MASK | PLAYING_MASK;
+    private static final byte RUNNING_TEST = RUNNING_MASK | FINISHED_MASK;
+
+    /* indexed by palette index, frames in the framebuffer's texel layout */
+    private static int frames[][][];
+    private static int frameDurMs[];
+    private static int elapsedMs[];
+    private static int frame[];
+    private static byte flags[];
+
+    private SpritePaletteAnimSys() {}
+
+    public static boolean Init() {
+        assert(!init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        int n = SpritePool.MAX_PALETTE + 1;
+
+        try {
+            frames = new int[n][][];
+            frameDurMs = new int[n];
+            elapsedMs = new int[n];
+            frame = new int[n];
+            flags = new byte[n];
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return init = false;
+        }
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized.\n");
+
+        return init = true;
+    }
+
+    /**
+     * Starts animating the palette at paletteIdx through the given color
+     * tables, replacing any animation already on it.
+     *
+     * @param frames full ARGB color tables, each as long as the palette
+     */
+    public static void Create(int paletteIdx, int frames[][],
+                              int frameDurMs, boolean loops) {
+        assert(init);
+
+        if (paletteIdx < SpritePool.MIN_PALETTE ||
+                paletteIdx > SpritePool.MAX_PALETTE ||
+                SpriteRenderer.paletteArr[paletteIdx] == null) {
+            LogFatalAndExit(ErrStrNoPalette(paletteIdx));
+            return;
+        }
+
+        if (frames == null || frames.length == 0 || frameDurMs <= 0) {
+            LogFatalAndExit(ErrStrBadFrames(paletteIdx));
+            return;
+        }
+
+        int count = SpriteRenderer.paletteArr[paletteIdx].count;
+        for (int f[] : frames) {
+            if (f == null || f.length != count) {
+                LogFatalAndExit(ErrStrBadFrames(paletteIdx));
+                return;
+            }
+        }
+
+        int texelFrames[][] = new int[frames.length][];
+        for (int i = 0; i < frames.length; ++i) {
+            texelFrames[i] = TexelFormat.FromARGB(frames[i]);
+        }
+
+        SpritePaletteAnimSys.frames[paletteIdx] = texelFrames;
+        SpritePaletteAnimSys.frameDurMs[paletteIdx] = frameDurMs;
+        elapsedMs[paletteIdx] = 0;
+        frame[paletteIdx] = 0;
+        flags[paletteIdx] = (byte)(ACTIVE_MASK | PLAYING_MASK |
+                (loops ? LOOPS_MASK : 0));
+
+        SpriteRenderer.SetPaletteColors(paletteIdx, texelFrames[0]);
+    }
+
+    /**
+     * Stops the animation and restores the palette's own colors.
+     */
+    public static void Remove(int paletteIdx) {
+        assert(init);
+
+        if (!isActive(paletteIdx)) return;
+
+        frames[paletteIdx] = null;
+        flags[paletteIdx] = 0;
+
+        SpriteRenderer.SetPaletteColors(paletteIdx,
+                SpriteRenderer.paletteArr[paletteIdx].texels);
+    }
+
+    public static void Update(float dt) {
+        assert(init);
+
+        int dtMs = (int)(dt * 1000.0f);
+        int p, e, dur, f, n;
+
+        for (p = 0; p < flags.length; ++p) {
+            if ((flags[p] & RUNNING_TEST) != RUNNING_MASK) continue;
+
+            e = elapsedMs[p] + dtMs;
+            dur = frameDurMs[p];
+
+            if (e < dur) {
+                elapsedMs[p] = e;
+                continue;
+            }
+
+            n = frames[p].length;
+            f = frame[p] + e / dur;
+            e %= dur;
+
+            if (f >= n) {
+                if ((flags[p] & LOOPS_MASK) != 0) {
+                    f %= n;
+                } else {
+                    f = n - 1;
+                    e = 0;
+                    flags[p] |= FINISHED_MASK;
+                }
+            }
+
+            elapsedMs[p] = e;
+            if (f == frame[p]) continue;
+            frame[p] = f;
+
+            SpriteRenderer.SetPaletteColors(p, frames[p][f]);
+        }
+    }
+
+    public static void Play(int paletteIdx) {
+        assert(init);
+
+        if (isActive(paletteIdx)) flags[paletteIdx] |= PLAYING_MASK;
+    }
+
+    public static void Pause(int paletteIdx) {
+        assert(init);
+
+        if (isActive(paletteIdx)) flags[paletteIdx] &= ~PLAYING_MASK;
+    }
+
+    public static void Reset(int paletteIdx) {
+        assert(init);
+
+        if (!isActive(paletteIdx)) return;
+
+        frame[paletteIdx] = 0;
+        elapsedMs[paletteIdx] = 0;
+        flags[paletteIdx] &= ~FINISHED_MASK;
+
+        SpriteRenderer.SetPaletteColors(paletteIdx, frames[paletteIdx][0]);
+    }
+
+    private static boolean isActive(int paletteIdx) {
+        return paletteIdx >= 0 && paletteIdx < flags.length &&
+                (flags[paletteIdx] & ACTIVE_MASK) != 0;
+    }
+
+    public static boolean IsActive(int paletteIdx) {
+        assert(init);
+
+        return isActive(paletteIdx);
+    }
+
+    public static boolean IsFinished(int paletteIdx) {
+        assert(init);
+
+        return isActive(paletteIdx) &&
+                (flags[paletteIdx] & FINISHED_MASK) != 0;
+    }
+
+    /**
+     * Builds frames that rotate entries [first, last] of base by one slot per
+     * frame, e.g. for flowing water. Returns (last - first + 1) frames.
+     */
+    public static int[][] BuildCycle(int base[], int first, int last) {
+        assert(base != null);
+        assert(first >= 0 && first <= last && last < base.length);
+
+        int len = last - first + 1;
+        int out[][] = new int[len][];
+        int f, i;
+
+        for (f = 0; f < len; ++f) {
+            out[f] = base.clone();
+            for (i = 0; i < len; ++i) {
+                out[f][first + (i + f) % len] = base[first + i];
+            }
+        }
+
+        return out;
+    }
+
+    /**
+     * Builds frames that fade entry idx of base to toARGB over steps frames,
+     * then back again if pingPong, e.g. for a flash or a lava glow.
+     */
+    public static int[][] BuildFade(int base[], int idx, int toARGB,
+                                    int steps, boolean pingPong) {
+        assert(base != null);
+        assert(idx >= 0 && idx < base.length);
+        assert(steps > 0);
+
+        int n = pingPong ? steps * 2 : steps + 1;
+        int out[][] = new int[n][];
+        int from = base[idx];
+        int f, k;
+
+        for (f = 0; f < n; ++f) {
+            /* pingPong: 0 .. steps .. 1, the last frame loops back to 0 */
+            k = f <= steps ? f : 2 * steps - f;
+            out[f] = base.clone();
+            out[f][idx] = lerpARGB(from, toARGB, k, steps);
+        }
+
+        return out;
+    }
+
+    private static int lerpARGB(int a, int b, int k, int steps) {
+        int r = 0, s, ca, cb;
+
+        for (s = 0; s < 32; s += 8) {
+            ca = (a >>> s) & 0xFF;
+            cb = (b >>> s) & 0xFF;
+            r |= ((ca + (cb - ca) * k / steps) & 0xFF) << s;
+        }
+
+        return r;
+    }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        frames = null;
+        frameDurMs = null;
+        elapsedMs = null;
+        frame = null;
+        flags = null;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static final String CLASS =
+            SpritePaletteAnimSys.class.getSimpleName();
+    private static String ErrStrNoPalette(int paletteIdx) {
+        return String.format("%s failed to animate palette [%d] because no " +
+                "palette is loaded at that index.\n", CLASS, paletteIdx);
+    }
+    private static String ErrStrBadFrames(int paletteIdx) {
+        return String.format("%s failed to animate palette [%d] because the " +
+                "frames were empty, mismatched the palette's length, or had " +
+                "a non-positive duration.\n", CLASS, paletteIdx);
+    }
+}
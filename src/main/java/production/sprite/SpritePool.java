@@ -11,34 +11,59 @@ public final class SpritePool {
     private static int activeCount;
     private static int highMark;
     private static long arr[];
+    private static int meta[];
+    /* min-heap of free indices, so the lowest slot is always reused first
+    and live sprites stay packed under highMark */
     private static int freeCount;
     private static int freeList[];
     static final int DEF_CAP = 0xFFFF;
     public static final int INVALID_HANDLE = -1;
 
     /**
-     * XXXXXXXX_XXXXXXXX_YYYYYYYY_YYYYYYYY_AAAAAAAA_AAAAAAAA_LLLPPPII_IUUUVOES
+     * Handles are 0GGGGGGG_GGGGIIII_IIIIIIII_IIIIIIII
+     *
+     * (11) [G]eneration of the slot when the handle was issued
+     * (20) Pool [I]ndex
+     *
+     * A slot's generation is bumped on Remove, so a handle kept past Remove
+     * no longer validates, even after the slot is reused. Generations wrap
+     * after 2048 reuses of the same slot.
+     */
+    static final int INDEX_MASK =       0x000FFFFF;
+    static final int HANDLE_GEN_SHIFT = 20;
+    static final int HANDLE_GEN_MASK =  0x7FF;
+
+    /**
+     * Each sprite is a pair of parallel columns. The long holds what changes
+     * every frame plus the render mask bits, so the renderer's reject test
+     * stays a single and-compare. The int holds what rarely changes.
+     *
+     * arr:
+     * XXXXXXXX_XXXXXXXX_YYYYYYYY_YYYYYYYY_AAAAAAAA_AAAAAAAA_UGGGGGGG_GGGGVOES
      *
      * (16) Signed screen space [X] position
      * (16) Signed screen space [Y] position
      * (16) Unsigned [A]tlas index (intra-atlas sprite index)
-     * (03) Unsigned [L]ayer
-     * (03) Unsigned [P]alette
-     * (03) Unsigned atlas [I]D (inter-atlas identifier)
-     * (03) [U]nused
+     * (01) [U]nused
+     * (11) Slot [G]eneration
      * (01) [V]alid
      * (01) Flipped H[O]rizontally
      * (01) Flipped V[E]rtically
      * (01) Vi[S]ible
+     *
+     * meta:
+     * IIIIIIII_IIIIIIII_PPPPPPPP_LLLLLLLL
+     *
+     * (16) Unsigned atlas [I]D (inter-atlas identifier)
+     * (08) Unsigned [P]alette
+     * (08) Unsigned [L]ayer
      */
 
     static final int X_SHIFT =          48;
     static final int Y_SHIFT =          32;
     static final int ATLAS_SHIFT =      16;
-    static final int LAYER_SHIFT =      13;
-    static final int PALETTE_SHIFT =    10;
-    static final int ATLAS_ID_SHIFT =   7;
-    static final int UNUSED_SHIFT =     4;
+    static final int UNUSED_SHIFT =     15;
+    static final int GEN_SHIFT =        4;
     static final int VALID_SHIFT =      3;
     static final int FLIP_H_SHIFT =     2;
     static final int FLIP_V_SHIFT =     1;
@@ -46,15 +71,21 @@ public final class SpritePool {
     static final long X_MASK =          0xFFFF000000000000L;
     static final long Y_MASK =          0x0000FFFF00000000L;
     static final long ATLAS_MASK =      0x00000000FFFF0000L;
-    static final long LAYER_MASK =      0x000000000000E000L;
-    static final long PALETTE_MASK =    0x0000000000001C00L;
-    static final long ATLAS_ID_MASK =   0x0000000000000380L;
-    static final long UNUSED_MASK =     0x0000000000000070L;
+    static final long UNUSED_MASK =     0x0000000000008000L;
+    static final long GEN_MASK =        0x0000000000007FF0L;
     static final long VALID_MASK =      0x0000000000000008L;
     static final long FLIP_H_MASK =     0x0000000000000004L;
     static final long FLIP_V_MASK =     0x0000000000000002L;
     static final long VISIBLE_MASK =    0x0000000000000001L;
 
+    static final int ATLAS_ID_SHIFT =   16;
+    static final int PALETTE_SHIFT =    8;
+    static final int LAYER_SHIFT =      0;
+
+    static final int ATLAS_ID_MASK =    0xFFFF0000;
+    static final int PALETTE_MASK =     0x0000FF00;
+    static final int LAYER_MASK =       0x000000FF;
+
     /* pre-computed for renderer */
     static final long VALID_VISIBLE_MASK = VALID_MASK | VISIBLE_MASK;
 
@@ -62,14 +93,15 @@ public final class SpritePool {
     static final int MIN_POS =      -0x8000;
     static final int MAX_POS =       0x7FFF;
     static final int MIN_LAYER =     0x0;
-    static final int MAX_LAYER =     0x7;
+    static final int MAX_LAYER =     0xFF;
     static final int MIN_PALETTE =   0x0;
-    static final int MAX_PALETTE =   0x7;
+    static final int MAX_PALETTE =   0xFF;
     static final int MIN_ATLAS =     0x0;
-    static final int MAX_ATLAS =     0x7;
+    static final int MAX_ATLAS =     0xFFFF;
 
     private static final long LONG_16_MASK = 0xFFFFL;
-    private static final long LONG_3_MASK = 0x7L;
+    private static final int INT_16_MASK = 0xFFFF;
+    private static final int INT_8_MASK = 0xFF;
 
     static boolean Init() {
         assert(!init);
@@ -78,6 +110,7 @@ public final class SpritePool {
 
         try {
             arr = new long[SpriteSys.cap];
+            meta = new int[SpriteSys.cap];
             freeList = new int[SpriteSys.cap];
         } catch (OutOfMemoryError e) {
             LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
@@ -92,32 +125,74 @@ public final class SpritePool {
         return init = true;
     }
 
+    /* returns a slot index, not a handle */
     private static int Alloc() {
         assert(init);
 
-        if (freeCount > 0) return freeList[--freeCount];
-        else if (highMark < SpriteSys.cap) return highMark++;
+        if (freeCount > 0) {
+            /* Free slots at or above highMark were trimmed off by Remove. The
+            heap's min is the lowest free slot, so if it's trimmed, they all
+            are. */
+            if (freeList[0] < highMark) return popFree();
+            freeCount = 0;
+        }
+        if (highMark < SpriteSys.cap) return highMark++;
         return INVALID_HANDLE;
     }
 
+    private static void pushFree(int i) {
+        int c = freeCount++;
+        int p;
+
+        while (c > 0) {
+            p = (c - 1) >>> 1;
+            if (freeList[p] <= i) break;
+            freeList[c] = freeList[p];
+            c = p;
+        }
+        freeList[c] = i;
+    }
+
+    private static int popFree() {
+        int min = freeList[0];
+        int last = freeList[--freeCount];
+        int p = 0;
+        int c;
+
+        while ((c = 2 * p + 1) < freeCount) {
+            if (c + 1 < freeCount && freeList[c + 1] < freeList[c]) ++c;
+            if (last <= freeList[c]) break;
+            freeList[p] = freeList[c];
+            p = c;
+        }
+        freeList[p] = last;
+
+        return min;
+    }
+
+    private static int toHandle(int i) {
+        return (int)((arr[i] & GEN_MASK) >>> GEN_SHIFT) << HANDLE_GEN_SHIFT | i;
+    }
+
     public static int Generate() {
         assert(init);
 
-        int handle = Alloc();
-        if (INVALID_HANDLE == handle) return INVALID_HANDLE;
+        int i = Alloc();
+        if (INVALID_HANDLE == i) return INVALID_HANDLE;
 
-        arr[handle] = VALID_MASK;
+        arr[i] = (arr[i] & GEN_MASK) | VALID_MASK;
+        meta[i] = 0;
 
         activeCount++;
 
-        return handle;
+        return toHandle(i);
     }
 
     public static int Create(int x, int y, int atlasId, int atlasIdx, int layer,
                              int paletteIdx, boolean hFlip, boolean vFlip, boolean visible) {
         assert(init);
 
-        int handle;
+        int i;
         long val;
 
         if (x < MIN_POS || x > MAX_POS) {
@@ -154,144 +229,175 @@ public final class SpritePool {
             return INVALID_HANDLE;
         }
 
-        handle = Alloc();
-        if (INVALID_HANDLE == handle) return INVALID_HANDLE;
+        i = Alloc();
+        if (INVALID_HANDLE == i) return INVALID_HANDLE;
 
         val = VALID_MASK
+                | (arr[i] & GEN_MASK)
                 | ((long)x & LONG_16_MASK) << X_SHIFT
                 | ((long)y & LONG_16_MASK) << Y_SHIFT
                 | ((long)atlasIdx & LONG_16_MASK) << ATLAS_SHIFT
-                | ((long)layer & LONG_3_MASK) << LAYER_SHIFT
-                | ((long)paletteIdx & LONG_3_MASK) << PALETTE_SHIFT
-                | ((long)atlasId & LONG_3_MASK) << ATLAS_ID_SHIFT
                 | (hFlip   ? FLIP_H_MASK   : 0)
                 | (vFlip   ? FLIP_V_MASK   : 0)
                 | (visible ? VISIBLE_MASK  : 0);
 
-        arr[handle] = val;
+        arr[i] = val;
+        meta[i] = (atlasId & INT_16_MASK) << ATLAS_ID_SHIFT
+                | (paletteIdx & INT_8_MASK) << PALETTE_SHIFT
+                | (layer & INT_8_MASK) << LAYER_SHIFT;
 
         activeCount++;
 
-        return handle;
+        return toHandle(i);
     }
 
-    /* Current thinking is that we trust user to use the API correctly.
-    Handles are meant to come into existence only through Generate/Create, so
-    debug-time bounds checking should be sufficient. */
+    /* Mutators validate handles in release builds too, since a stale handle
+    would otherwise silently write to whichever sprite reused its slot.
+    Getters only assert. */
     public static void Remove(int handle) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
-        arr[handle] &= ~VALID_MASK;
-        freeList[freeCount++] = handle;
+        /* bump the generation, wrapping within its bits */
+        arr[i] = (arr[i] & ~(VALID_MASK | GEN_MASK)) |
+                ((arr[i] + (1L << GEN_SHIFT)) & GEN_MASK);
+        pushFree(i);
         activeCount--;
+
+        /* trim dead slots off the top so the render scan stays short */
+        while (highMark > 0 && (arr[highMark - 1] & VALID_MASK) == 0) {
+            --highMark;
+        }
     }
 
     public static boolean IsValid(int handle) {
         assert(init);
 
-        if (!(handle >= 0 && handle < highMark)) {
+        int i = handle & INDEX_MASK;
+
+        if (!(handle >= 0 && i < highMark)) {
             /*
             LogFatalAndExit(ErrStrHandleOOB(handle));
              */
             return false;
         }
 
-        return (arr[handle] & VALID_MASK) != 0;
+        return (arr[i] & (VALID_MASK | GEN_MASK)) == (VALID_MASK |
+                (long)(handle >>> HANDLE_GEN_SHIFT) << GEN_SHIFT);
     }
 
     public static int GetX(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (short)((arr[handle] & X_MASK) >>> X_SHIFT);
+        return (short)((arr[handle & INDEX_MASK] & X_MASK) >>> X_SHIFT);
     }
 
     public static int GetY(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (short)((arr[handle] & Y_MASK) >>> Y_SHIFT);
+        return (short)((arr[handle & INDEX_MASK] & Y_MASK) >>> Y_SHIFT);
     }
 
     public static int GetAtlasId(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (int)((arr[handle] & ATLAS_ID_MASK) >>> ATLAS_ID_SHIFT);
+        return (meta[handle & INDEX_MASK] & ATLAS_ID_MASK) >>> ATLAS_ID_SHIFT;
     }
 
     public static int GetAtlasIdx(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (int)((arr[handle] & ATLAS_MASK) >>> ATLAS_SHIFT);
+        return (int)((arr[handle & INDEX_MASK] & ATLAS_MASK) >>> ATLAS_SHIFT);
     }
 
     public static int GetLayer(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (int)((arr[handle] & LAYER_MASK) >>> LAYER_SHIFT);
+        return (meta[handle & INDEX_MASK] & LAYER_MASK) >>> LAYER_SHIFT;
     }
 
     public static int GetPaletteIdx(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (int)((arr[handle] & PALETTE_MASK) >>> PALETTE_SHIFT);
+        return (meta[handle & INDEX_MASK] & PALETTE_MASK) >>> PALETTE_SHIFT;
     }
 
     public static boolean IsHFlipped(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (arr[handle] & FLIP_H_MASK) != 0;
+        return (arr[handle & INDEX_MASK] & FLIP_H_MASK) != 0;
     }
 
     public static boolean IsVFlipped(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (arr[handle] & FLIP_V_MASK) != 0;
+        return (arr[handle & INDEX_MASK] & FLIP_V_MASK) != 0;
     }
 
     public static boolean IsVisible(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return (arr[handle] & VISIBLE_MASK) != 0;
+        return (arr[handle & INDEX_MASK] & VISIBLE_MASK) != 0;
     }
 
     public static void SetX(int handle, int x) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (x < MIN_POS || x > MAX_POS) {
             LogFatalAndExit(ErrStrValOOB(x, "x", MIN_POS, MAX_POS));
             return;
         }
 
-        arr[handle] = (arr[handle] & ~X_MASK) |
+        arr[i] = (arr[i] & ~X_MASK) |
                 (((long)x & LONG_16_MASK) << X_SHIFT);
     }
 
     public static void SetY(int handle, int y) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (y < MIN_POS || y > MAX_POS) {
             LogFatalAndExit(ErrStrValOOB(y, "y", MIN_POS, MAX_POS));
             return;
         }
 
-        arr[handle] = (arr[handle] & ~Y_MASK) |
+        arr[i] = (arr[i] & ~Y_MASK) |
                 (((long)y & LONG_16_MASK) << Y_SHIFT);
     }
 
     public static void SetAtlasId(int handle, int atlasId) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (atlasId < MIN_ATLAS || atlasId > MAX_ATLAS) {
             LogFatalAndExit(ErrStrValOOB(atlasId, "atlasId",
@@ -299,13 +405,18 @@ public final class SpritePool {
             return;
         }
 
-        arr[handle] = (arr[handle] & ~ATLAS_ID_MASK) |
-                (((long)atlasId & LONG_3_MASK) << ATLAS_ID_SHIFT);
+        meta[i] = (meta[i] & ~ATLAS_ID_MASK) |
+                ((atlasId & INT_16_MASK) << ATLAS_ID_SHIFT);
     }
 
     public static void SetAtlasIdx(int handle, int atlasIdx) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (atlasIdx < SpriteAtlas.MIN_IDX || atlasIdx > SpriteAtlas.MAX_IDX) {
             LogFatalAndExit(ErrStrValOOB(atlasIdx, "atlasIdx",
@@ -313,26 +424,36 @@ public final class SpritePool {
             return;
         }
 
-        arr[handle] = (arr[handle] & ~ATLAS_MASK) |
+        arr[i] = (arr[i] & ~ATLAS_MASK) |
                 (((long)atlasIdx & LONG_16_MASK) << ATLAS_SHIFT);
     }
 
     public static void SetLayer(int handle, int layer) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (layer < MIN_LAYER || layer > MAX_LAYER) {
             LogFatalAndExit(ErrStrValOOB(layer, "layer", MIN_LAYER, MAX_LAYER));
             return;
         }
 
-        arr[handle] = (arr[handle] & ~LAYER_MASK) |
-                (((long)layer & LONG_3_MASK) << LAYER_SHIFT);
+        meta[i] = (meta[i] & ~LAYER_MASK) |
+                ((layer & INT_8_MASK) << LAYER_SHIFT);
     }
 
     public static void SetPaletteIdx(int handle, int paletteIdx) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (paletteIdx < MIN_PALETTE || paletteIdx > MAX_PALETTE) {
             LogFatalAndExit(ErrStrValOOB(paletteIdx, "paletteIdx",
@@ -340,37 +461,57 @@ public final class SpritePool {
             return;
         }
 
-        arr[handle] = (arr[handle] & ~PALETTE_MASK) |
-                (((long)paletteIdx & LONG_3_MASK) << PALETTE_SHIFT);
+        meta[i] = (meta[i] & ~PALETTE_MASK) |
+                ((paletteIdx & INT_8_MASK) << PALETTE_SHIFT);
     }
 
     public static void SetHFlip(int handle, boolean hFlip) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
 
-        if (hFlip) arr[handle] |= FLIP_H_MASK;
-        else       arr[handle] &= ~FLIP_H_MASK;
+        int i = handle & INDEX_MASK;
+
+        if (hFlip) arr[i] |= FLIP_H_MASK;
+        else       arr[i] &= ~FLIP_H_MASK;
     }
 
     public static void SetVFlip(int handle, boolean vFlip) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
-        if (vFlip) arr[handle] |= FLIP_V_MASK;
-        else       arr[handle] &= ~FLIP_V_MASK;
+        if (vFlip) arr[i] |= FLIP_V_MASK;
+        else       arr[i] &= ~FLIP_V_MASK;
     }
 
     public static void SetVisible(int handle, boolean visible) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
-        if (visible) arr[handle] |= VISIBLE_MASK;
-        else         arr[handle] &= ~VISIBLE_MASK;
+        if (visible) arr[i] |= VISIBLE_MASK;
+        else         arr[i] &= ~VISIBLE_MASK;
     }
 
     public static void SetPosition(int handle, int x, int y) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (x < MIN_POS || x > MAX_POS) {
             LogFatalAndExit(ErrStrValOOB(x, "x", MIN_POS, MAX_POS));
@@ -382,23 +523,33 @@ public final class SpritePool {
             return;
         }
 
-        arr[handle] = (arr[handle] & ~(X_MASK | Y_MASK)) |
+        arr[i] = (arr[i] & ~(X_MASK | Y_MASK)) |
                 (((long)x & LONG_16_MASK) << X_SHIFT) |
                 (((long)y & LONG_16_MASK) << Y_SHIFT);
     }
 
     public static void SetFlip(int handle, boolean hFlip, boolean vFlip) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
-        arr[handle] &= ~(FLIP_H_MASK | FLIP_V_MASK);
-        if (hFlip) arr[handle] |= FLIP_H_MASK;
-        if (vFlip) arr[handle] |= FLIP_V_MASK;
+        arr[i] &= ~(FLIP_H_MASK | FLIP_V_MASK);
+        if (hFlip) arr[i] |= FLIP_H_MASK;
+        if (vFlip) arr[i] |= FLIP_V_MASK;
     }
 
     public static void SetAtlas(int handle, int atlasId, int atlasIdx) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
         if (atlasId < MIN_ATLAS || atlasId > MAX_ATLAS) {
             LogFatalAndExit(ErrStrValOOB(atlasId, "atlasId",
@@ -412,14 +563,154 @@ public final class SpritePool {
             return;
         }
 
-        arr[handle] = (arr[handle] & ~(ATLAS_ID_MASK | ATLAS_MASK)) |
-                (((long)atlasId & LONG_3_MASK) << ATLAS_ID_SHIFT) |
+        meta[i] = (meta[i] & ~ATLAS_ID_MASK) |
+                ((atlasId & INT_16_MASK) << ATLAS_ID_SHIFT);
+        arr[i] = (arr[i] & ~ATLAS_MASK) |
                 (((long)atlasIdx & LONG_16_MASK) << ATLAS_SHIFT);
     }
 
+    /**
+     * Sets the positions of handles[off .. off + count) from the parallel xs
+     * and ys arrays. Handles and ranges are validated for the whole batch
+     * up front, then the writes run in one unchecked loop. Nothing is
+     * written if any element is invalid.
+     */
+    public static void SetPositions(int handles[], int xs[], int ys[],
+                                    int off, int count) {
+        assert(init);
+
+        int end = off + count;
+        int minX = 0, maxX = 0, minY = 0, maxY = 0;
+        int k, x, y, i;
+
+        if (!isBatchValid(handles, off, count)) {
+            LogFatalAndExit(ERR_STR_BATCH_STALE_HANDLE);
+            return;
+        }
+
+        if (count > 0) {
+            minX = maxX = xs[off];
+            minY = maxY = ys[off];
+        }
+        for (k = off + 1; k < end; ++k) {
+            minX = Math.min(minX, xs[k]);
+            maxX = Math.max(maxX, xs[k]);
+            minY = Math.min(minY, ys[k]);
+            maxY = Math.max(maxY, ys[k]);
+        }
+
+        if (minX < MIN_POS || maxX > MAX_POS) {
+            LogFatalAndExit(ErrStrValOOB(minX < MIN_POS ? minX : maxX, "x",
+                    MIN_POS, MAX_POS));
+            return;
+        }
+
+        if (minY < MIN_POS || maxY > MAX_POS) {
+            LogFatalAndExit(ErrStrValOOB(minY < MIN_POS ? minY : maxY, "y",
+                    MIN_POS, MAX_POS));
+            return;
+        }
+
+        for (k = off; k < end; ++k) {
+            i = handles[k] & INDEX_MASK;
+            x = xs[k];
+            y = ys[k];
+            arr[i] = (arr[i] & ~(X_MASK | Y_MASK)) |
+                    (((long)x & LONG_16_MASK) << X_SHIFT) |
+                    (((long)y & LONG_16_MASK) << Y_SHIFT);
+        }
+    }
+
+    /**
+     * Sets the atlas indices of handles[off .. off + count) from the
+     * parallel atlasIdxs array. Validated once per batch like SetPositions.
+     */
+    public static void SetAtlasIdxs(int handles[], int atlasIdxs[],
+                                    int off, int count) {
+        assert(init);
+
+        int end = off + count;
+        int min = 0, max = 0;
+        int k, i;
+
+        if (!isBatchValid(handles, off, count)) {
+            LogFatalAndExit(ERR_STR_BATCH_STALE_HANDLE);
+            return;
+        }
+
+        if (count > 0) min = max = atlasIdxs[off];
+        for (k = off + 1; k < end; ++k) {
+            min = Math.min(min, atlasIdxs[k]);
+            max = Math.max(max, atlasIdxs[k]);
+        }
+
+        if (min < SpriteAtlas.MIN_IDX || max > SpriteAtlas.MAX_IDX) {
+            LogFatalAndExit(ErrStrValOOB(min < SpriteAtlas.MIN_IDX ? min : max,
+                    "atlasIdx", SpriteAtlas.MIN_IDX, SpriteAtlas.MAX_IDX));
+            return;
+        }
+
+        for (k = off; k < end; ++k) {
+            i = handles[k] & INDEX_MASK;
+            arr[i] = (arr[i] & ~ATLAS_MASK) |
+                    (((long)atlasIdxs[k] & LONG_16_MASK) << ATLAS_SHIFT);
+        }
+    }
+
+    /**
+     * Sets one atlas index on every handle in handles[off .. off + count),
+     * e.g. all sprites sharing an animation clock.
+     */
+    public static void SetAtlasIdxs(int handles[], int off, int count,
+                                    int atlasIdx) {
+        assert(init);
+
+        int end = off + count;
+        int k, i;
+
+        if (!isBatchValid(handles, off, count)) {
+            LogFatalAndExit(ERR_STR_BATCH_STALE_HANDLE);
+            return;
+        }
+
+        if (atlasIdx < SpriteAtlas.MIN_IDX || atlasIdx > SpriteAtlas.MAX_IDX) {
+            LogFatalAndExit(ErrStrValOOB(atlasIdx, "atlasIdx",
+                    SpriteAtlas.MIN_IDX, SpriteAtlas.MAX_IDX));
+            return;
+        }
+
+        long bits = ((long)atlasIdx & LONG_16_MASK) << ATLAS_SHIFT;
+
+        for (k = off; k < end; ++k) {
+            i = handles[k] & INDEX_MASK;
+            arr[i] = (arr[i] & ~ATLAS_MASK) | bits;
+        }
+    }
+
+    /* IsValid for every handle, without a branch per handle on the result;
+    SpriteAnimSys and SpriteInterpSys check their batches with it first */
+    static boolean isBatchValid(int handles[], int off, int count) {
+        int end = off + count;
+        boolean ok = true;
+        int k, h, i;
+
+        for (k = off; k < end; ++k) {
+            h = handles[k];
+            i = h & INDEX_MASK;
+            ok &= h >= 0 && i < highMark &&
+                    (arr[i] & (VALID_MASK | GEN_MASK)) == (VALID_MASK |
+                    (long)(h >>> HANDLE_GEN_SHIFT) << GEN_SHIFT);
+        }
+
+        return ok;
+    }
+
     public static void Translate(int handle, int dx, int dy) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
 
         int newX = GetX(handle) + dx;
         int newY = GetY(handle) + dy;
@@ -441,23 +732,38 @@ public final class SpritePool {
 
     public static void ToggleHFlip(int handle) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
-        arr[handle] ^= FLIP_H_MASK;
+        arr[i] ^= FLIP_H_MASK;
     }
 
     public static void ToggleVFlip(int handle) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
 
-        arr[handle] ^= FLIP_V_MASK;
+        int i = handle & INDEX_MASK;
+
+        arr[i] ^= FLIP_V_MASK;
     }
 
     public static void ToggleVisible(int handle) {
         assert(init);
-        assert(IsValid(handle));
+        if (!IsValid(handle)) {
+            LogFatalAndExit(ErrStrStaleHandle(handle));
+            return;
+        }
+
+        int i = handle & INDEX_MASK;
 
-        arr[handle] ^= VISIBLE_MASK;
+        arr[i] ^= VISIBLE_MASK;
     }
 
     public static boolean IsInitialized() {
@@ -476,17 +782,25 @@ public final class SpritePool {
         return highMark;
     }
 
+    /* free slots below highMark; the heap may also hold trimmed ones */
     public static int GetFreeCount() {
         assert(init);
 
-        return freeCount;
+        return highMark - activeCount;
     }
 
     public static long GetRawData(int handle) {
         assert(init);
         assert(IsValid(handle));
 
-        return arr[handle];
+        return arr[handle & INDEX_MASK];
+    }
+
+    public static int GetRawMeta(int handle) {
+        assert(init);
+        assert(IsValid(handle));
+
+        return meta[handle & INDEX_MASK];
     }
 
     static long[] GetArr() {
@@ -495,12 +809,19 @@ public final class SpritePool {
         return arr;
     }
 
+    static int[] GetMeta() {
+        assert(init);
+
+        return meta;
+    }
+
     static void Shutdown() {
         assert(init);
 
         LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
 
         arr = null;
+        meta = null;
         freeList = null;
 
         init = false;
@@ -516,6 +837,16 @@ public final class SpritePool {
                 val, s, lo, hi);
     }
 
+    private static String ErrStrStaleHandle(int handle) {
+        return String.format("%s attempted to modify sprite [%d] through a " +
+                "stale or invalid handle [0x%08X].\n", CLASS,
+                handle & INDEX_MASK, handle);
+    }
+
+    private static final String ERR_STR_BATCH_STALE_HANDLE = CLASS +
+            " rejected a batch update because it contained a stale or " +
+            "invalid handle.\n";
+
     private static String ErrStrHandleOOB(int handle) {
         return String.format("%s attempted to check the validity of a clearly" +
                 " out of bounds handle [%d]. Active range is currently " +
@@ -1,8 +1,12 @@
 package production.sprite;
 
 import production.display.FramebufferConfig;
+import whitetail.software_framebuffer.Raster;
+import whitetail.software_framebuffer.TexelFormat;
 import whitetail.utility.logging.LogLevel;
 
+import java.util.Arrays;
+
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
 import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
 import static whitetail.utility.logging.Logger.LogSession;
@@ -13,9 +17,15 @@ public final class SpriteRenderer {
     private static SpriteCamera cam;
     static int[] framebuffer;
 
-    private static final int MAX_LAYERS = 8;
-    private static short[][] handlesByLayerArr;
-    private static int[] layerCounts;
+    /* baked static cells, drawn behind every layer; null if unused */
+    static SpriteChunkLayer chunkLayer;
+
+    private static final int MAX_LAYERS = SpritePool.MAX_LAYER + 1;
+
+    /* Renderable handles counting-sorted by layer. Layer i's handles are
+    sorted[layerStart[i] .. layerStart[i + 1]), in pool order. */
+    private static int[] sorted;
+    private static int[] layerStart;
 
     private static final int BYTES_PER_PIXEL = 4;  // RGBA
 
@@ -23,6 +33,14 @@ public final class SpriteRenderer {
     public static SpritePalette paletteArr[];
     public static SpriteAtlas atlasArr[];
 
+    /* Texel table blitted for each palette index, already in the framebuffer's
+    layout. Usually paletteArr[i].texels, but palette animation points it at a
+    precomputed frame instead, so a color change is one reference write. */
+    static int paletteColors[][];
+    /* SetPaletteColors' scratch: the entries that changed, as bits */
+    private static final long changedEntries[] =
+            new long[SpriteAtlas.ENTRY_WORDS];
+
     private SpriteRenderer() {}
 
     static boolean Init() {
@@ -31,9 +49,10 @@ public final class SpriteRenderer {
         LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
 
         try {
-            handlesByLayerArr = new short[MAX_LAYERS][SpriteSys.cap];
-            layerCounts = new int[MAX_LAYERS];
+            sorted = new int[SpriteSys.cap];
+            layerStart = new int[MAX_LAYERS + 1];
             paletteArr = new SpritePalette[SpritePool.MAX_PALETTE + 1];
+            paletteColors = new int[SpritePool.MAX_PALETTE + 1][];
             atlasArr = new SpriteAtlas[SpritePool.MAX_ATLAS + 1];
         } catch (OutOfMemoryError e) {
             LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
@@ -53,17 +72,8 @@ public final class SpriteRenderer {
     public static void Clear(int color) {
         assert(init);
 
-        byte r = (byte)((color >> 16) & 0xFF);
-        byte g = (byte)((color >> 8) & 0xFF);
-        byte b = (byte)(color & 0xFF);
-        byte a = (byte)((color >> 24) & 0xFF);
-
-        for (int i = 0; i < framebuffer.length; ++i) {
-            framebuffer[i]     = (r & 0xFF) << 24
-                    | (g & 0xFF) << 16
-                    | (b & 0xFF) <<  8
-                    | (a & 0xFF);
-        }
+        Raster.Fill(framebuffer, 0, framebuffer.length,
+                TexelFormat.FromARGB(color));
     }
 
     /* TODO: when I moved the framebuffer ownership to GL12SoftwareFramebuffer,
@@ -74,23 +84,10 @@ public final class SpriteRenderer {
     public static void ClearViewport(int color) {
         assert(init);
 
-        byte r = (byte)((color >> 16) & 0xFF);
-        byte g = (byte)((color >> 8) & 0xFF);
-        byte b = (byte)(color & 0xFF);
-        byte a = (byte)((color >> 24) & 0xFF);
-        int c = (r & 0xFF) << 24
-                | (g & 0xFF) << 16
-                | (b & 0xFF) <<  8
-                | (a & 0xFF);
-
         int[] vp = FramebufferConfig.GetViewportBounds();
 
-        for (int y = vp[1]; y < vp[3]; ++y) {
-            for (int x = vp[0]; x < vp[2]; ++x) {
-                int i = (y * SpriteSys.fbWidth + x);
-                framebuffer[i] = c;
-            }
-        }
+        Raster.FillRect(framebuffer, SpriteSys.fbWidth,
+                vp[0], vp[1], vp[2], vp[3], TexelFormat.FromARGB(color));
     }
 
     public static void RenderNew() {
@@ -98,54 +95,125 @@ public final class SpriteRenderer {
         assert(cam != null);
 
         long[] arr = SpritePool.GetArr();
+        int[] meta = SpritePool.GetMeta();
         int hm = SpritePool.GetHighMark();
-        int i, j;
+        int vp[] = FramebufferConfig.GetViewportBounds();
+        int camX = (int)cam.getX();
+        int camY = (int)cam.getY();
+        int i, j, top, layer, n, start;
 
-        for (i = 0; i < MAX_LAYERS; ++i) {
-            layerCounts[i] = 0;
+        for (i = 0; i <= MAX_LAYERS; ++i) {
+            layerStart[i] = 0;
         }
 
         long renderMask = SpritePool.VALID_VISIBLE_MASK;
 
+        /* count per layer, offset by one so the prefix sum yields starts */
         for (i = 0; i < hm; ++i) {
-            long bits = arr[i];
+            if ((arr[i] & renderMask) != renderMask) continue;
 
-            if ((bits & renderMask) != renderMask) continue;
-
-            int layer = (int)((bits & SpritePool.LAYER_MASK) >>> SpritePool.LAYER_SHIFT);
-            handlesByLayerArr[layer][layerCounts[layer]++] = (short)i;
+            layer = (meta[i] & SpritePool.LAYER_MASK) >>> SpritePool.LAYER_SHIFT;
+            layerStart[layer + 1]++;
         }
 
-        for (i = MAX_LAYERS - 1; i >= 0; --i) {
-            for (j = 0; j < layerCounts[i]; ++j) {
-                int handle = handlesByLayerArr[i][j];
+        for (i = 1; i <= MAX_LAYERS; ++i) {
+            layerStart[i] += layerStart[i - 1];
+        }
 
-                int screenX = SpritePool.GetX(handle) - (int)cam.getX();
-                int screenY = SpritePool.GetY(handle) - (int)cam.getY();
+        /* scatter, using layerStart[layer] as the write cursor */
+        for (i = 0; i < hm; ++i) {
+            if ((arr[i] & renderMask) != renderMask) continue;
 
-                int atlasIdx = SpritePool.GetAtlasIdx(handle);
-                int atlasId = SpritePool.GetAtlasId(handle);
-                int atlasX = atlasArr[atlasId].getSpriteX(atlasIdx);
-                int atlasY = atlasArr[atlasId].getSpriteY(atlasIdx);
+            layer = (meta[i] & SpritePool.LAYER_MASK) >>> SpritePool.LAYER_SHIFT;
+            sorted[layerStart[layer]++] = i;
+        }
 
-                boolean flipH = SpritePool.IsHFlipped(handle);
-                boolean flipV = SpritePool.IsVFlipped(handle);
+        /* the cursors now hold each layer's end, shift them back to starts */
+        for (i = MAX_LAYERS; i > 0; --i) {
+            layerStart[i] = layerStart[i - 1];
+        }
+        layerStart[0] = 0;
+
+        if (SpriteScrollLayer.IsInitialized()) {
+            SpriteScrollLayer.Track(arr, meta, hm);
+            SpriteScrollLayer.Update(camX, camY);
+            SpriteScrollLayer.Composite(framebuffer, SpriteSys.fbWidth, vp);
+            top = SpriteScrollLayer.layer - 1;
+        } else {
+            if (chunkLayer != null) {
+                chunkLayer.draw(framebuffer, SpriteSys.fbWidth,
+                        vp[0], vp[1], vp[2], vp[3],
+                        vp[0] - camX, vp[1] - camY);
+            }
+            top = MAX_LAYERS - 1;
+        }
 
-                int size = atlasArr[atlasId].spriteSize;
+        for (i = top; i >= 0; --i) {
+            for (j = layerStart[i]; j < layerStart[i + 1]; ++j) {
+                drawSprite(sorted[j], framebuffer,
+                        SpriteSys.fbWidth, vp[0], vp[1], vp[2], vp[3],
+                        vp[0] - camX, vp[1] - camY);
+            }
+        }
+    }
 
-                byte[] pixels = atlasArr[atlasId].data;
+    /**
+     * Draws the chunk layer, then every visible sprite on layers >= fromLayer
+     * that overlaps the clip rect into dst. Must be called after the layer
+     * lists have been built for the current frame.
+     *
+     * @param offX added to a sprite's world X to get its dst X
+     * @param offY added to a sprite's world Y to get its dst Y
+     */
+    static void RasterLayers(int dst[], int dstW, int clipX0, int clipY0,
+                             int clipX1, int clipY1, int offX, int offY,
+                             int fromLayer) {
+        assert(init);
 
-                /* TODO: use 'size' when rewriting this */
-                int atlasW = atlasArr[atlasId].spritesPerRow * size;
+        int i, j;
 
-                int[] palette = paletteArr[SpritePool.GetPaletteIdx(handle)].colors;
+        if (chunkLayer != null) {
+            chunkLayer.draw(dst, dstW, clipX0, clipY0, clipX1, clipY1,
+                    offX, offY);
+        }
 
-                blitSprite(screenX, screenY, atlasX, atlasY, size, pixels,
-                        atlasW, palette, flipH, flipV);
+        for (i = MAX_LAYERS - 1; i >= fromLayer; --i) {
+            for (j = layerStart[i]; j < layerStart[i + 1]; ++j) {
+                drawSprite(sorted[j], dst, dstW,
+                        clipX0, clipY0, clipX1, clipY1, offX, offY);
             }
         }
     }
 
+    /* i is a pool index, not a handle, so the columns are read directly */
+    private static void drawSprite(int i, int dst[], int dstW,
+                                   int clipX0, int clipY0,
+                                   int clipX1, int clipY1,
+                                   int offX, int offY) {
+        long bits = SpritePool.GetArr()[i];
+        int m = SpritePool.GetMeta()[i];
+
+        int screenX = (short)((bits & SpritePool.X_MASK) >>>
+                SpritePool.X_SHIFT) + offX;
+        int screenY = (short)((bits & SpritePool.Y_MASK) >>>
+                SpritePool.Y_SHIFT) + offY;
+
+        int atlasIdx = (int)((bits & SpritePool.ATLAS_MASK) >>>
+                SpritePool.ATLAS_SHIFT);
+        int atlasId = (m & SpritePool.ATLAS_ID_MASK) >>>
+                SpritePool.ATLAS_ID_SHIFT;
+
+        boolean flipH = (bits & SpritePool.FLIP_H_MASK) != 0;
+        boolean flipV = (bits & SpritePool.FLIP_V_MASK) != 0;
+
+        int[] palette = paletteColors[(m & SpritePool.PALETTE_MASK) >>>
+                SpritePool.PALETTE_SHIFT];
+
+        blitSpans(dst, dstW, clipX0, clipY0, clipX1, clipY1,
+                screenX, screenY, atlasArr[atlasId], atlasIdx, palette,
+                flipH, flipV);
+    }
+
     private static void blitSpriteOld(int screenX, int screenY,
                                    int atlasX, int atlasY, int size,
                                    byte[] atlasPixels, int atlasWidth,
@@ -193,62 +261,110 @@ public final class SpriteRenderer {
         }
     }
 
-    private static void blitSprite(int screenX, int screenY,
-                                   int atlasX, int atlasY, int size,
-                                   byte[] atlasPixels, int atlasWidth,
-                                   int[] palette,
-                                   boolean flipH, boolean flipV) {
-        int vpArr[] = FramebufferConfig.GetViewportBounds();
-        screenX += vpArr[0];
-        screenY += vpArr[1];
-
-        /* early rejection: entirely off-screen */
-        if (screenX + size < vpArr[0] ||
-                screenX > vpArr[2] ||
-                screenY + size < vpArr[1] ||
-                screenY > vpArr[3]) {
+    /**
+     * Draws the opaque spans of one sprite, clipped to the clip rect. There
+     * is no per-texel alpha test, since transparent texels aren't stored.
+     */
+    static void blitSpans(int dst[], int dstW,
+                          int clipX0, int clipY0,
+                          int clipX1, int clipY1,
+                          int screenX, int screenY,
+                          SpriteAtlas atlas, int atlasIdx,
+                          int[] palette,
+                          boolean flipH, boolean flipV) {
+        int size = atlas.spriteSize;
+
+        /* early rejection: entirely outside the clip rect */
+        if (screenX + size <= clipX0 ||
+                screenX >= clipX1 ||
+                screenY + size <= clipY0 ||
+                screenY >= clipY1) {
             return;
         }
 
-        /* clip to screen bounds */
-        int x0 = Math.max(screenX, vpArr[0]);
-        int y0 = Math.max(screenY, vpArr[1]);
-        int x1 = Math.min(screenX + size, vpArr[2]);
-        int y1 = Math.min(screenY + size, vpArr[3]);
+        byte rowCount[] = atlas.rowCount;
+        char spans[] = atlas.spans;
+        byte texels[] = atlas.texels;
+        int k = atlas.spriteSpan[atlasIdx];
+        int t = atlas.spriteTexel[atlasIdx];
+        int baseRow = atlasIdx * size;
+        int r, y, end, span, len, dx0, x0, x1, x, rowOffset, src;
+
+        /* walk rows in storage order, since span and texel offsets are only
+        known by accumulation; rows outside the clip rect are skipped over */
+        for (r = 0; r < size; ++r) {
+            end = k + (rowCount[baseRow + r] & 0xFF);
+            y = screenY + (flipV ? (size - 1) - r : r);
+
+            if (y < clipY0 || y >= clipY1) {
+                for (; k < end; ++k) {
+                    t += (spans[k] & SpriteAtlas.SPAN_LEN_MASK) + 1;
+                }
+                continue;
+            }
 
-        int srcX, srcY, texelIdx, color, fbIdx;
-        int fbRowOffset, atlasRowOffset;
+            rowOffset = y * dstW;
+
+            for (; k < end; ++k) {
+                span = spans[k];
+                len = (span & SpriteAtlas.SPAN_LEN_MASK) + 1;
+                dx0 = span >>> SpriteAtlas.SPAN_X_SHIFT;
+                if (flipH) dx0 = size - dx0 - len;
+                dx0 += screenX;
+
+                x0 = Math.max(dx0, clipX0);
+                x1 = Math.min(dx0 + len, clipX1);
+
+                if (!flipH) {
+                    src = t - dx0;
+                    for (x = x0; x < x1; ++x) {
+                        dst[rowOffset + x] = palette[texels[src + x] & 0xFF];
+                    }
+                } else {
+                    /* the span's last texel lands on dx0 */
+                    src = t + dx0 + len - 1;
+                    for (x = x0; x < x1; ++x) {
+                        dst[rowOffset + x] = palette[texels[src - x] & 0xFF];
+                    }
+                }
+
+                t += len;
+            }
+        }
+    }
 
-        for (int y = y0; y < y1; ++y) {
-            fbRowOffset = y * SpriteSys.fbWidth;
+    /**
+     * Points palette idx at a new texel table and invalidates the cached
+     * pixels that show an entry whose color differs from the old table's.
+     * A palette animation step usually changes one entry or a few, so only
+     * the ground chunks and cached sprites using those are drawn again.
+     */
+    static void SetPaletteColors(int idx, int texels[]) {
+        assert(init);
 
-            srcY = y - screenY;
-            if (flipV) srcY = (size - 1) - srcY;
-            atlasRowOffset = (atlasY + srcY) * atlasWidth;
+        int old[] = paletteColors[idx];
+        int n = Math.min(texels.length, SpriteAtlas.ENTRY_WORDS * 64);
+        long any = 0;
+        int e;
 
-            for (int x = x0; x < x1; ++x) {
-                srcX = x - screenX;
-                if (flipH) srcX = (size - 1) - srcX;
+        Arrays.fill(changedEntries, old == null ||
+                old.length != texels.length ? -1L : 0L);
+        if (old != null && old.length == texels.length) {
+            for (e = 0; e < n; ++e) {
+                if (old[e] != texels[e]) changedEntries[e >>> 6] |= 1L << e;
+            }
+        }
 
-                texelIdx = atlasPixels[atlasRowOffset + atlasX + srcX] & 0xFF;
+        paletteColors[idx] = texels;
 
-                /* alpha test: index 0 = transparent */
-                if (texelIdx == SpritePalette.TRANSPARENT_IDX) continue;
+        for (long w : changedEntries) any |= w;
+        if (any == 0) return;
 
-                color = palette[texelIdx];
-                fbIdx = fbRowOffset + x;
-
-                byte r = (byte)((color >> 16) & 0xFF);
-                byte g = (byte)((color >> 8) & 0xFF);
-                byte b = (byte)(color & 0xFF);
-                byte a = (byte)((color >> 24) & 0xFF);
-                int c = (r & 0xFF) << 24
-                        | (g & 0xFF) << 16
-                        | (b & 0xFF) <<  8
-                        | (a & 0xFF);
-
-                framebuffer[fbIdx]     = c;
-            }
+        if (chunkLayer != null && chunkLayer.getPaletteIdx() == idx) {
+            chunkLayer.invalidateEntries(changedEntries);
+        }
+        if (SpriteScrollLayer.IsInitialized()) {
+            SpriteScrollLayer.InvalidatePalette(idx, changedEntries);
         }
     }
 
@@ -264,10 +380,12 @@ public final class SpriteRenderer {
         LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
 
         framebuffer = null;
-        handlesByLayerArr = null;
-        layerCounts = null;
+        sorted = null;
+        layerStart = null;
         cam = null;
+        chunkLayer = null;
         paletteArr = null;
+        paletteColors = null;
         atlasArr = null;
 
         init = false;
@@ -0,0 +1,314 @@
+package production.sprite;
+
+import whitetail.software_framebuffer.Raster;
+import whitetail.software_framebuffer.TexelFormat;
+import whitetail.utility.logging.LogLevel;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Viewport-sized cache of the back layers (the world). When the camera pans,
+ * the cached image is shifted by the camera delta and only the newly exposed
+ * edge strips, plus any regions whose sprites changed, are rasterized again.
+ *
+ * Every sprite on a layer >= {@code layer} is owned by this cache. Layers in
+ * front of it are composited on top each frame as usual.
+ */
+public final class SpriteScrollLayer {
+    private static boolean init;
+
+    static int layer;
+
+    private static int buf[];
+    private static int w, h;
+
+    /* camera position the cached image was rendered at */
+    private static int camX, camY;
+    private static boolean valid;
+
+    /* framebuffer format, not ARGB */
+    private static int clearColor;
+
+    /* Bits of each sprite as last rasterized into buf, or 0 if the sprite was
+    not on a cached layer. Compared against the pool each frame, so changed
+    tiles are picked up without hooks in every SpritePool setter. */
+    private static long shadow[];
+    private static int shadowMeta[];
+    private static int shadowMark;
+
+    /* world space rects, {x0, y0, x1, y1} exclusive */
+    private static final int MAX_DIRTY = 32;
+    private static int dirty[];
+    private static int dirtyCount;
+
+    private SpriteScrollLayer() {}
+
+    static boolean Init(int layer, int viewportW, int viewportH,
+                        int clearColorARGB) {
+        assert(!init);
+        assert(viewportW > 0 && viewportH > 0);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        if (layer < SpritePool.MIN_LAYER || layer > SpritePool.MAX_LAYER) {
+            LogFatalAndExit(ErrStrLayerOOB(layer));
+            return init = false;
+        }
+
+        try {
+            buf = new int[viewportW * viewportH];
+            shadow = new long[SpriteSys.cap];
+            shadowMeta = new int[SpriteSys.cap];
+            dirty = new int[MAX_DIRTY * 4];
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return init = false;
+        }
+
+        SpriteScrollLayer.layer = layer;
+        w = viewportW;
+        h = viewportH;
+        clearColor = TexelFormat.FromARGB(clearColorARGB);
+        shadowMark = dirtyCount = 0;
+        valid = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with layer [" +
+                layer + "], [" + w + "] width, [" + h + "] height.\n");
+
+        return init = true;
+    }
+
+    static boolean IsInitialized() {
+        return init;
+    }
+
+    static void SetClearColor(int clearColorARGB) {
+        assert(init);
+
+        clearColor = TexelFormat.FromARGB(clearColorARGB);
+        valid = false;
+    }
+
+    static void Invalidate() {
+        assert(init);
+
+        valid = false;
+    }
+
+    /**
+     * Marks a world space rect for re-rasterization on the next frame. A
+     * rect outside the cached image is ignored; if a pan brings it in, it is
+     * drawn as part of the exposed strip.
+     */
+    static void MarkDirty(int x, int y, int rw, int rh) {
+        assert(init);
+
+        if (!valid) return;
+        if (x + rw <= camX || y + rh <= camY || x >= camX + w ||
+                y >= camY + h) {
+            return;
+        }
+
+        if (dirtyCount == MAX_DIRTY) {
+            /* a full redraw is cheaper than tracking this many rects */
+            valid = false;
+            return;
+        }
+
+        int i = dirtyCount++ * 4;
+        dirty[i]     = x;
+        dirty[i + 1] = y;
+        dirty[i + 2] = x + rw;
+        dirty[i + 3] = y + rh;
+    }
+
+    /**
+     * Diffs the pool against the shadow copy and marks the old and new
+     * bounds of every cached sprite that moved, changed, appeared or
+     * disappeared.
+     */
+    static void Track(long arr[], int meta[], int hm) {
+        assert(init);
+
+        long renderMask = SpritePool.VALID_VISIBLE_MASK;
+        int end = Math.max(hm, shadowMark);
+        long bits, prev;
+        int m, prevM, i;
+
+        for (i = 0; i < end; ++i) {
+            bits = i < hm ? arr[i] : 0L;
+            m = i < hm ? meta[i] : 0;
+
+            if ((bits & renderMask) != renderMask ||
+                    ((m & SpritePool.LAYER_MASK) >>>
+                            SpritePool.LAYER_SHIFT) < layer) {
+                bits = 0L;
+                m = 0;
+            }
+
+            prev = shadow[i];
+            prevM = shadowMeta[i];
+            if (bits == prev && m == prevM) continue;
+
+            if (prev != 0L) markBits(prev, prevM);
+            if (bits != 0L) markBits(bits, m);
+            shadow[i] = bits;
+            shadowMeta[i] = m;
+        }
+
+        shadowMark = hm;
+    }
+
+    private static void markBits(long bits, int m) {
+        int x = (short)((bits & SpritePool.X_MASK) >>> SpritePool.X_SHIFT);
+        int y = (short)((bits & SpritePool.Y_MASK) >>> SpritePool.Y_SHIFT);
+        int atlasId = (m & SpritePool.ATLAS_ID_MASK) >>>
+                SpritePool.ATLAS_ID_SHIFT;
+        int size = SpriteRenderer.atlasArr[atlasId].spriteSize;
+
+        MarkDirty(x, y, size, size);
+    }
+
+    /**
+     * Marks every cached sprite drawn with the palette that uses one of the
+     * entries set in entries, since its colors changed without any pool
+     * bits changing.
+     */
+    static void InvalidatePalette(int paletteIdx, long entries[]) {
+        assert(init);
+
+        int i, atlasId, atlasIdx;
+
+        for (i = 0; i < shadowMark; ++i) {
+            if (shadow[i] == 0L) continue;
+            if (((shadowMeta[i] & SpritePool.PALETTE_MASK) >>>
+                    SpritePool.PALETTE_SHIFT) != paletteIdx) continue;
+
+            atlasId = (shadowMeta[i] & SpritePool.ATLAS_ID_MASK) >>>
+                    SpritePool.ATLAS_ID_SHIFT;
+            atlasIdx = (int)((shadow[i] & SpritePool.ATLAS_MASK) >>>
+                    SpritePool.ATLAS_SHIFT);
+            if (!SpriteRenderer.atlasArr[atlasId].usesEntries(atlasIdx,
+                    entries)) continue;
+
+            markBits(shadow[i], shadowMeta[i]);
+        }
+    }
+
+    /**
+     * Brings the cached image up to date for the given camera position.
+     */
+    static void Update(int camX, int camY) {
+        assert(init);
+
+        int dx = camX - SpriteScrollLayer.camX;
+        int dy = camY - SpriteScrollLayer.camY;
+        int i;
+
+        if (!valid || Math.abs(dx) >= w || Math.abs(dy) >= h) {
+            SpriteScrollLayer.camX = camX;
+            SpriteScrollLayer.camY = camY;
+            rasterize(0, 0, w, h);
+            dirtyCount = 0;
+            valid = true;
+            return;
+        }
+
+        if (dx != 0 || dy != 0) {
+            scroll(dx, dy);
+            SpriteScrollLayer.camX = camX;
+            SpriteScrollLayer.camY = camY;
+
+            /* exposed columns, full height */
+            if (dx > 0)      rasterize(w - dx, 0, w, h);
+            else if (dx < 0) rasterize(0, 0, -dx, h);
+
+            /* exposed rows, minus the columns just drawn */
+            int sx0 = dx < 0 ? -dx : 0;
+            int sx1 = dx > 0 ? w - dx : w;
+            if (dy > 0)      rasterize(sx0, h - dy, sx1, h);
+            else if (dy < 0) rasterize(sx0, 0, sx1, -dy);
+        }
+
+        for (i = 0; i < dirtyCount * 4; i += 4) {
+            rasterize(dirty[i] - camX, dirty[i + 1] - camY,
+                    dirty[i + 2] - camX, dirty[i + 3] - camY);
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * Shifts the cached image so that the pixel at (dx, dy) lands at (0, 0).
+     */
+    private static void scroll(int dx, int dy) {
+        int srcX = Math.max(dx, 0);
+        int dstX = Math.max(-dx, 0);
+        int len = w - Math.abs(dx);
+        int rows = h - Math.abs(dy);
+        int y;
+
+        if (dy >= 0) {
+            for (y = 0; y < rows; ++y) {
+                System.arraycopy(buf, (y + dy) * w + srcX,
+                        buf, y * w + dstX, len);
+            }
+        } else {
+            for (y = h - 1; y >= -dy; --y) {
+                System.arraycopy(buf, (y + dy) * w + srcX,
+                        buf, y * w + dstX, len);
+            }
+        }
+    }
+
+    /* buffer space rect, exclusive */
+    private static void rasterize(int x0, int y0, int x1, int y1) {
+        if (x0 < 0) x0 = 0;
+        if (y0 < 0) y0 = 0;
+        if (x1 > w) x1 = w;
+        if (y1 > h) y1 = h;
+        if (x0 >= x1 || y0 >= y1) return;
+
+        Raster.FillRect(buf, w, x0, y0, x1, y1, clearColor);
+
+        SpriteRenderer.RasterLayers(buf, w, x0, y0, x1, y1, -camX, -camY,
+                layer);
+    }
+
+    /**
+     * Copies the cached image into the viewport area of the framebuffer.
+     */
+    static void Composite(int fb[], int fbW, int vp[]) {
+        assert(init);
+        assert(vp[2] - vp[0] == w && vp[3] - vp[1] == h);
+
+        int y;
+
+        for (y = 0; y < h; ++y) {
+            System.arraycopy(buf, y * w, fb, (vp[1] + y) * fbW + vp[0], w);
+        }
+    }
+
+    static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        buf = null;
+        shadow = null;
+        shadowMeta = null;
+        dirty = null;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static final String CLASS = SpriteScrollLayer.class.getSimpleName();
+    private static String ErrStrLayerOOB(int layer) {
+        return String.format("%s failed to initialize because layer [%d] is " +
+                "out of bounds. Valid range is [%d - %d] inclusive.\n", CLASS,
+                layer, SpritePool.MIN_LAYER, SpritePool.MAX_LAYER);
+    }
+}
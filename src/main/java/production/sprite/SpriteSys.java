@@ -1,5 +1,6 @@
 package production.sprite;
 
+import production.display.FramebufferConfig;
 import whitetail.utility.logging.LogLevel;
 
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
@@ -60,6 +61,7 @@ public final class SpriteSys {
 
         LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
 
+        if (SpriteScrollLayer.IsInitialized()) SpriteScrollLayer.Shutdown();
         SpritePool.Shutdown();
         SpriteRenderer.Shutdown();
 
@@ -89,6 +91,76 @@ public final class SpriteSys {
         return fbHeight;
     }
 
+    /**
+     * Enables scroll-blit rendering of every layer >= {@code layer}. Those
+     * layers are cached in a viewport-sized buffer that is shifted by the
+     * camera delta each frame, so only exposed edges and changed sprites are
+     * rasterized. Must be called after the viewport has been resolved.
+     *
+     * @param clearColor ARGB color shown where no cached sprite covers
+     */
+    public static boolean EnableScrollLayer(int layer, int clearColor) {
+        assert(init);
+
+        if (!SpriteScrollLayer.Init(layer, FramebufferConfig.GetViewportW(),
+                FramebufferConfig.GetViewportH(), clearColor)) {
+            LogFatalAndExit(ERR_STR_FAILED_INIT_SCROLL_LAYER);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Ignored until the scroll layer is enabled, which takes its own clear
+     * color.
+     */
+    public static void SetScrollLayerClearColor(int clearColor) {
+        assert(init);
+
+        if (SpriteScrollLayer.IsInitialized())
+            SpriteScrollLayer.SetClearColor(clearColor);
+    }
+
+    /**
+     * Forces a full redraw of the scroll layer on the next frame. Only needed
+     * for changes the pool can't see, e.g. an atlas or palette being swapped.
+     */
+    public static void InvalidateScrollLayer() {
+        assert(init);
+
+        if (SpriteScrollLayer.IsInitialized()) SpriteScrollLayer.Invalidate();
+    }
+
+    /**
+     * Sets the baked static layer drawn behind every pool layer, or null to
+     * draw none.
+     */
+    public static void SetChunkLayer(SpriteChunkLayer layer) {
+        assert(init);
+        assert(layer == null || layer.isInitialized());
+
+        SpriteRenderer.chunkLayer = layer;
+        InvalidateScrollLayer();
+    }
+
+    /**
+     * Installs a palette at the index. Anything cached with the index's
+     * previous colors is redrawn.
+     */
+    public static void SetPalette(int idx, SpritePalette palette) {
+        assert(init);
+        assert(palette != null);
+
+        if (idx < SpritePool.MIN_PALETTE || idx > SpritePool.MAX_PALETTE) {
+            LogFatalAndExit(ErrStrPaletteOOB(idx));
+            return;
+        }
+
+        SpriteRenderer.paletteArr[idx] = palette;
+        SpriteRenderer.SetPaletteColors(idx, palette.texels);
+    }
+
     public static void SetBuf(int buf[]) {
         assert(init);
 
@@ -96,6 +168,11 @@ public final class SpriteSys {
     }
 
     public static final String CLASS = SpriteSys.class.getSimpleName();
+    private static String ErrStrPaletteOOB(int idx) {
+        return String.format("%s failed to set palette [%d]. Valid range is " +
+                "[%d - %d] inclusive.\n", CLASS, idx, SpritePool.MIN_PALETTE,
+                SpritePool.MAX_PALETTE);
+    }
     private static String ErrStrCapOutOfBounds(int c) {
         return String.format("%s defaulted to [%d] capacity because an " +
                 "invalid capacity [%d] was requested. Valid range is " +
@@ -113,6 +190,9 @@ public final class SpriteSys {
     private static final String ERR_STR_FAILED_INIT_POOL = CLASS +
             " failed to initialize because " + SpritePool.CLASS + " failed " +
             "to initialize.\n";
+    private static final String ERR_STR_FAILED_INIT_SCROLL_LAYER = CLASS +
+            " failed to enable the scroll layer because " +
+            SpriteScrollLayer.CLASS + " failed to initialize.\n";
     private static final String ERR_STR_FAILED_INIT_RENDERER = CLASS +
             " failed to initialize because " + SpriteRenderer.CLASS +
             " failed to initialize.\n";
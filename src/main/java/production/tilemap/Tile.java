@@ -1,28 +1,24 @@
 package production.tilemap;
 
+/**
+ * One tile of a TileMap, as a view onto the map's arrays. It holds no state
+ * of its own, so it always reads what the map holds now. Changes go through
+ * TileMap, which keeps the ground layer and walkability listeners in step.
+ */
 public final class Tile {
-    public final short spriteIdx;
-    /* TODO: fix this also */
-    public int spriteHandle;
-    private boolean blocked;
-    private String examine;
+    private final TileMap map;
+    private final int i;
 
-    Tile(short spriteIdx, int handle, boolean blocked) {
-        this.spriteIdx = spriteIdx;
-        this.spriteHandle = handle;
-        this.blocked = blocked;
-        this.examine = null;
+    Tile(TileMap map, int i) {
+        this.map = map;
+        this.i = i;
     }
 
-    public String getExamine() {
-        return examine;
-    }
+    public short getSpriteIdx() { return map.spriteIdx[i]; }
 
-    /** Package-private setter for use during map loading. */
-    void setExamine(String examine) {
-        this.examine = examine;
+    public String getExamine() {
+        return map.getExamine(i);
     }
 
-    public void setBlocked(boolean b) { blocked = b; }
-    public boolean isBlocked() { return blocked; }
-}
\ No newline at end of file
+    public boolean isBlocked() { return map.isBlocked(i); }
+}
@@ -0,0 +1,297 @@
+package production.tilemap;
+
+import whitetail.utility.IntArray;
+import whitetail.utility.logging.LogLevel;
+
+import java.util.Arrays;
+
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Labels every open tile of a TileMap with the 4-connected component it is
+ * in, so a path between two tiles can be ruled out without searching.
+ *
+ * A tile's label is an id in a union-find forest, and the component is the
+ * root of that id. Unblocking a tile joins the components around it.
+ * Blocking one may split its component: if the open neighbours are still
+ * joined through the ring of eight tiles around it nothing can have
+ * split; otherwise a flood from each side runs in lockstep until all but
+ * one side are exhausted, and those get new ids. The cost is the size of
+ * the pieces cut off, not of the component.
+ */
+final class TileComponents implements TileMap.BlockedListener {
+    /* ids left behind by splits and merges are not reused; relabel the whole
+    map once there are this many per tile */
+    private static final int MAX_IDS_PER_TILE = 2;
+
+    /* the ring around a tile, in order, so consecutive cells touch */
+    private static final int RING_X[] = { -1, 0, 1, 1, 1, 0, -1, -1 };
+    private static final int RING_Y[] = { -1, -1, -1, 0, 1, 1, 1, 0 };
+
+    private static final int DX[] = { 1, -1, 0, 0 };
+    private static final int DY[] = { 0, 0, 1, -1 };
+
+    private final TileMap map;
+    private final int w, h;
+
+    /* union-find id of each tile, -1 if blocked */
+    private final int label[];
+    private int parent[];
+    private int idCount;
+
+    /* split floods: the tiles each has reached, and which flood owns a tile
+    in the current split as owner[t] - ownerBase */
+    private final IntArray floods[] = new IntArray[4];
+    private final int floodHead[] = new int[4];
+    private final int floodGroup[] = new int[4];
+    private final int owner[];
+    private int ownerBase;
+
+    TileComponents(TileMap map) {
+        assert(map != null);
+
+        this.map = map;
+        w = map.width;
+        h = map.height;
+        label = new int[w * h];
+        owner = new int[w * h];
+        parent = new int[Math.max(16, w * h / 8)];
+
+        for (int f = 0; f < floods.length; ++f) floods[f] = new IntArray();
+
+        relabel();
+
+        LogSession(LogLevel.DEBUG, CLASS + " labelled map [" + map.name +
+                "] with [" + idCount + "] components.\n");
+    }
+
+    /**
+     * Writes nothing, so any number of threads may call it while the map
+     * is not being changed.
+     *
+     * @return the component of map-local tile i, -1 if it is blocked
+     */
+    int componentOf(int i) {
+        int id = label[i];
+
+        if (id < 0) return -1;
+        while (parent[id] != id) id = parent[id];
+
+        return id;
+    }
+
+    public void onBlockedChanged(int ax, int ay, boolean blocked) {
+        if (blocked) block(ax, ay);
+        else unblock(ax, ay);
+
+        if (idCount > MAX_IDS_PER_TILE * w * h) relabel();
+    }
+
+    private boolean open(int ax, int ay) {
+        return ax >= 0 && ay >= 0 && ax < w && ay < h &&
+                !map.isBlockedLocal(ax, ay);
+    }
+
+    /* root of id, halving the path to it; only when changing the map */
+    private int find(int id) {
+        int p[] = parent;
+
+        while (p[id] != id) {
+            p[id] = p[p[id]];
+            id = p[id];
+        }
+        return id;
+    }
+
+    private int newId() {
+        if (idCount == parent.length)
+            parent = Arrays.copyOf(parent, idCount * 2);
+        parent[idCount] = idCount;
+
+        return idCount++;
+    }
+
+    /* labels the whole map from scratch, one flood per component */
+    private void relabel() {
+        IntArray queue = floods[0];
+        int i, j, cur, x, y, nx, ny, n, id;
+
+        Arrays.fill(label, -1);
+        idCount = 0;
+
+        for (i = 0; i < w * h; ++i) {
+            if (label[i] >= 0 || map.isBlockedLocal(i % w, i / w)) continue;
+
+            label[i] = id = newId();
+            queue.clear();
+            queue.add(i);
+
+            for (j = 0; j < queue.size(); ++j) {
+                cur = queue.get(j);
+                y = cur / w;
+                x = cur - y * w;
+
+                for (int d = 0; d < 4; ++d) {
+                    nx = x + DX[d];
+                    ny = y + DY[d];
+                    if (!open(nx, ny)) continue;
+
+                    n = ny * w + nx;
+                    if (label[n] >= 0) continue;
+
+                    label[n] = id;
+                    queue.add(n);
+                }
+            }
+        }
+    }
+
+    private void unblock(int ax, int ay) {
+        int i = ay * w + ax;
+        int root = -1, r, nx, ny, d;
+
+        for (d = 0; d < 4; ++d) {
+            nx = ax + DX[d];
+            ny = ay + DY[d];
+            if (!open(nx, ny)) continue;
+
+            r = find(label[ny * w + nx]);
+            if (root < 0) root = r;
+            else if (r != root) parent[r] = root;
+        }
+
+        label[i] = root >= 0 ? root : newId();
+    }
+
+    private void block(int ax, int ay) {
+        int seeds, f, g, cur, x, y, nx, ny, n, d, live;
+        boolean inArc;
+
+        label[ay * w + ax] = -1;
+
+        /* one seed per arc of open ring cells that holds a neighbour; the
+        cells of an arc are joined without the blocked tile */
+        seeds = 0;
+        inArc = false;
+        for (d = 0; d < 8; ++d) {
+            nx = ax + RING_X[d];
+            ny = ay + RING_Y[d];
+            if (!open(nx, ny)) {
+                inArc = false;
+                continue;
+            }
+            if ((d & 1) != 0 && !inArc) {
+                floods[seeds].clear();
+                floods[seeds++].add(ny * w + nx);
+            }
+            if ((d & 1) != 0) inArc = true;
+        }
+
+        /* the arc across index 7 -> 0 wraps around to the first one */
+        if (seeds > 1 && open(ax - 1, ay) && open(ax - 1, ay - 1) &&
+                open(ax, ay - 1)) {
+            floods[0].add(floods[--seeds].get(0));
+        }
+        if (seeds <= 1) return;
+
+        ownerBase += 4;
+        if (ownerBase < 0) {
+            Arrays.fill(owner, 0);
+            ownerBase = 4;
+        }
+        for (f = 0; f < seeds; ++f) {
+            floodHead[f] = 0;
+            floodGroup[f] = f;
+            for (g = 0; g < floods[f].size(); ++g)
+                owner[floods[f].get(g)] = ownerBase + f;
+        }
+
+        /* grow the floods a tile each in turn until at most one group of
+        joined floods is still growing */
+        for (;;) {
+            live = liveGroups(seeds);
+            if (live <= 1 || oneGroup(seeds)) break;
+
+            for (f = 0; f < seeds; ++f) {
+                if (floodHead[f] == floods[f].size()) continue;
+
+                cur = floods[f].get(floodHead[f]++);
+                y = cur / w;
+                x = cur - y * w;
+
+                for (d = 0; d < 4; ++d) {
+                    nx = x + DX[d];
+                    ny = y + DY[d];
+                    if (!open(nx, ny)) continue;
+
+                    n = ny * w + nx;
+                    g = owner[n] - ownerBase;
+                    if (g >= 0 && g < 4) {
+                        if (group(g) != group(f))
+                            floodGroup[group(g)] = group(f);
+                        continue;
+                    }
+
+                    owner[n] = ownerBase + f;
+                    floods[f].add(n);
+                }
+            }
+        }
+
+        if (oneGroup(seeds)) return;
+
+        /* every finished group is a piece of its own; if none is still
+        growing, one of them keeps the old id */
+        live = liveGroups(seeds);
+        for (f = 0; f < seeds; ++f) {
+            if (group(f) != f || groupLive(f, seeds)) continue;
+            if (live == 0) {
+                live = -1;
+                continue;
+            }
+            relabelGroup(f, seeds, newId());
+        }
+    }
+
+    private int group(int f) {
+        while (floodGroup[f] != f) f = floodGroup[f];
+        return f;
+    }
+
+    private boolean oneGroup(int seeds) {
+        for (int f = 1; f < seeds; ++f) {
+            if (group(f) != group(0)) return false;
+        }
+        return true;
+    }
+
+    private boolean groupLive(int root, int seeds) {
+        for (int f = 0; f < seeds; ++f) {
+            if (group(f) == root && floodHead[f] < floods[f].size())
+                return true;
+        }
+        return false;
+    }
+
+    private int liveGroups(int seeds) {
+        int count = 0;
+
+        for (int f = 0; f < seeds; ++f) {
+            if (group(f) == f && groupLive(f, seeds)) ++count;
+        }
+        return count;
+    }
+
+    private void relabelGroup(int root, int seeds, int id) {
+        IntArray tiles;
+
+        for (int f = 0; f < seeds; ++f) {
+            if (group(f) != root) continue;
+
+            tiles = floods[f];
+            for (int i = 0; i < tiles.size(); ++i) label[tiles.get(i)] = id;
+        }
+    }
+
+    public static final String CLASS = TileComponents.class.getSimpleName();
+}
@@ -1,10 +1,17 @@
 package production.tilemap;
 
+import production.PathClusterGraph;
 import production.Pathfinder;
 import production.character.Char;
 import production.monster.MonsterSpawn;
+import production.sprite.SpriteChunkLayer;
+import production.sprite.SpritePool;
+import whitetail.utility.IntArray;
 import whitetail.utility.logging.LogLevel;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -12,37 +19,308 @@ import static whitetail.utility.ErrorHandler.LogFatalAndExit;
 import static whitetail.utility.logging.Logger.LogSession;
 
 public final class TileMap {
+    /** Told after a tile's blocked flag changes, in map-local coordinates. */
+    public interface BlockedListener {
+        void onBlockedChanged(int ax, int ay, boolean blocked);
+    }
+
     public final String name;
     public final int width, height;
     public final int originOffsetX, originOffsetY;
-    private final Tile tiles[][];
+    /* Tiles as parallel arrays indexed ay * width + ax: sprite index, and a
+    bit each for whether the tile exists and whether it is blocked. A hole
+    in the grid does not exist and is blocked, so a collision query is one
+    bit test. */
+    final short spriteIdx[];
+    private final long presentBits[];
+    private final long blockedBits[];
+    /* examine text of the few tiles that have any, by index */
+    private final Map<Integer, String> examine;
     private final List<MonsterSpawn> spawns;
-    Map<Integer, Char> charsByPos;
+    /* filled by TileMapLoader from charLines, with each char in chars and
+    the sprite it made for it at the same index in charSprites */
+    final Map<Integer, Char> charsByPos = new HashMap<Integer, Char>();
+    final List<String> charLines;
+    final List<Char> chars = new ArrayList<Char>();
+    final IntArray charSprites = new IntArray();
+    private final List<String> neighbours;
     final String atlasFilename;
     public final int clearColor;
+    /* baked ground tiles, set by TileMapLoader */
+    SpriteChunkLayer groundLayer;
+    private final List<BlockedListener> blockedListeners =
+            new ArrayList<BlockedListener>();
+    /* set by TileMapLoader, null until then */
+    private PathClusterGraph pathGraph;
+    /* built by buildComponents, null until then */
+    private TileComponents components;
 
     /* TODO: needs to know what palette it uses! */
     TileMap(String name, int width, int height, String atlasFilename,
-            int originOffsetX, int originOffsetY, Tile[][] tiles,
-            List<MonsterSpawn> spawns, int clearColor,
-            Map<Integer, Char> charsByPos) {
+            int originOffsetX, int originOffsetY, short spriteIdx[],
+            long presentBits[], long blockedBits[],
+            Map<Integer, String> examine, List<MonsterSpawn> spawns,
+            int clearColor, List<String> charLines, List<String> neighbours) {
         this.name = name;
         this.width = width;
         this.height = height;
         this.originOffsetX = originOffsetX;
         this.originOffsetY = originOffsetY;
-        this.tiles = tiles;
+        this.spriteIdx = spriteIdx;
+        this.presentBits = presentBits;
+        this.blockedBits = blockedBits;
+        this.examine = examine;
         this.spawns = spawns;
         this.atlasFilename = atlasFilename;
         this.clearColor = clearColor;
-        this.charsByPos = charsByPos;
+        this.charLines = charLines;
+        this.neighbours = Collections.unmodifiableList(neighbours);
     }
 
+    /**
+     * @return a view of the tile at (x, y), null if there is none; for
+     *         one-off lookups, hot loops use the map-local accessors
+     */
     public Tile getTile(short x, short y) {
+        int i = indexOf(x, y);
+
+        return i >= 0 ? new Tile(this, i) : null;
+    }
+
+    /** @return whether there is a tile at (x, y) */
+    public boolean hasTile(int x, int y) {
+        return indexOf(x, y) >= 0;
+    }
+
+    /**
+     * @return whether (x, y) can't be walked on; where there is no tile it
+     *         can't
+     */
+    public boolean isBlocked(int x, int y) {
+        int i = indexOf(x, y);
+
+        return i < 0 || Bit(blockedBits, i);
+    }
+
+    /** @return the examine text of the tile at (x, y), null if none */
+    public String getExamine(int x, int y) {
+        int i = indexOf(x, y);
+
+        return i >= 0 ? examine.get(i) : null;
+    }
+
+    /* map-local index of the tile at (x, y), -1 if there is none */
+    int indexOf(int x, int y) {
         int ax = x - originOffsetX;
         int ay = y - originOffsetY;
-        if (ax < 0 || ay < 0 || ax >= width || ay >= height) return null;
-        return tiles[ay][ax];
+        int i;
+
+        if (ax < 0 || ay < 0 || ax >= width || ay >= height) return -1;
+
+        i = ay * width + ax;
+        return Bit(presentBits, i) ? i : -1;
+    }
+
+    /**
+     * Map-local lookup for hot loops, (ax, ay) must be in
+     * [0, width) x [0, height). Holes in the grid count as blocked.
+     */
+    public boolean isBlockedLocal(int ax, int ay) {
+        return Bit(blockedBits, ay * width + ax);
+    }
+
+    /** Map-local, (ax, ay) must be on the map. */
+    public boolean hasTileLocal(int ax, int ay) {
+        return Bit(presentBits, ay * width + ax);
+    }
+
+    /** Map-local, (ax, ay) must be on the map; 0 where there is no tile. */
+    public short getSpriteIdxLocal(int ax, int ay) {
+        return spriteIdx[ay * width + ax];
+    }
+
+    boolean isBlocked(int i) {
+        return Bit(blockedBits, i);
+    }
+
+    String getExamine(int i) {
+        return examine.get(i);
+    }
+
+    /**
+     * Changes the sprite of the tile at (x, y). Only the chunk that holds the
+     * tile is rebaked.
+     */
+    public void setTileSprite(int x, int y, short spriteIdx) {
+        int i = indexOf(x, y);
+
+        if (i < 0) {
+            LogFatalAndExit(errStrTileNotFound(x, y));
+            return;
+        }
+
+        this.spriteIdx[i] = spriteIdx;
+        if (groundLayer != null) groundLayer.setCell(x, y, spriteIdx);
+    }
+
+    /**
+     * Blocks or unblocks the tile at (x, y) and tells the listeners, so
+     * anything derived from walkability can update just that area.
+     */
+    public void setBlocked(int x, int y, boolean blocked) {
+        int i = indexOf(x, y);
+
+        if (i < 0) {
+            LogFatalAndExit(errStrTileNotFound(x, y));
+            return;
+        }
+
+        if (Bit(blockedBits, i) == blocked) return;
+        SetBit(blockedBits, i, blocked);
+
+        for (i = 0; i < blockedListeners.size(); ++i) {
+            blockedListeners.get(i).onBlockedChanged(x - originOffsetX,
+                    y - originOffsetY, blocked);
+        }
+    }
+
+    public void addBlockedListener(BlockedListener l) {
+        assert(l != null);
+
+        blockedListeners.add(l);
+    }
+
+    public void removeBlockedListener(BlockedListener l) {
+        blockedListeners.remove(l);
+    }
+
+    /**
+     * Labels the map's walkable components, kept current from then on
+     * through setBlocked. Done once all tiles and chars are in place.
+     */
+    public void buildComponents() {
+        if (components != null) removeBlockedListener(components);
+
+        components = new TileComponents(this);
+        addBlockedListener(components);
+    }
+
+    /**
+     * Map-local, (ax, ay) must be on the map. Two open tiles with the same
+     * component are joined by a walk; with different ones they are not.
+     *
+     * @return the component of the tile, -1 if it is blocked or the map
+     *         has not been labelled
+     */
+    public int getComponentLocal(int ax, int ay) {
+        return components != null ? components.componentOf(ay * width + ax) :
+                -1;
+    }
+
+    public PathClusterGraph getPathGraph() {
+        return pathGraph;
+    }
+
+    public void setPathGraph(PathClusterGraph g) {
+        if (pathGraph != null && pathGraph != g) pathGraph.detach();
+        pathGraph = g;
+    }
+
+    public SpriteChunkLayer getGroundLayer() {
+        return groundLayer;
+    }
+
+    public int getSpawnCount() {
+        return spawns.size();
+    }
+
+    /** @return maps a transition from this one is likely to lead to */
+    public List<String> getNeighbours() {
+        return neighbours;
+    }
+
+    /**
+     * Shows or hides the sprites of the map's chars and monsters, so a map
+     * can be swapped out and back in without making them again.
+     */
+    public void setVisible(boolean visible) {
+        for (int i = 0; i < charSprites.size(); ++i)
+            SpritePool.SetVisible(charSprites.get(i), visible);
+        for (MonsterSpawn spawn : spawns) {
+            if (spawn != null) spawn.setVisible(visible);
+        }
+    }
+
+    /**
+     * Puts the map's chars back on their tiles and sprites here, for when
+     * the map is active again. Chars are registry singletons, so one that is
+     * also on another map was moved to that map's tile and sprite while it
+     * was active. Main thread only.
+     */
+    public void rebindChars() {
+        Char c;
+        int k;
+
+        for (Map.Entry<Integer, Char> e : charsByPos.entrySet()) {
+            c = e.getValue();
+            if ((k = chars.indexOf(c)) < 0) continue;
+
+            c.tileX = Pathfinder.unpackX(e.getKey());
+            c.tileY = Pathfinder.unpackY(e.getKey());
+            if (c.getSpriteHandle() != charSprites.get(k))
+                c.setSpriteHandle(charSprites.get(k));
+        }
+    }
+
+    /**
+     * Frees the sprites and ground images the map holds, once it is no
+     * longer used. Main thread only.
+     */
+    public void release() {
+        Char c;
+        int h;
+
+        for (int i = 0; i < charSprites.size(); ++i) {
+            c = chars.get(i);
+            h = charSprites.get(i);
+            /* only unbind a char still on this map's sprite, one shared with
+            another map may be bound to that map's now */
+            if (c.getSpriteHandle() == h)
+                c.setSpriteHandle(SpritePool.INVALID_HANDLE);
+            SpritePool.Remove(h);
+        }
+        chars.clear();
+        charSprites.clear();
+
+        for (MonsterSpawn spawn : spawns) {
+            if (spawn != null) spawn.clear();
+        }
+
+        if (groundLayer != null) {
+            groundLayer.shutdown();
+            groundLayer = null;
+        }
+        setPathGraph(null);
+    }
+
+    /**
+     * @return about how much memory the map's tiles, labels and resident
+     *         ground images take
+     */
+    public long getFootprintBytes() {
+        long n = (long)width * height;
+        /* sprite index, present and blocked bits */
+        long bytes = n * 2 + presentBits.length * 16L;
+        int px;
+
+        /* labels and the split scratch */
+        if (components != null) bytes += n * 8;
+        if (groundLayer != null) {
+            px = groundLayer.getChunkPx();
+            bytes += n * 2 + 4L * px * px * groundLayer.getResidentCount();
+        }
+
+        return bytes;
     }
 
     public void update() {
@@ -81,12 +359,30 @@ public final class TileMap {
         charsByPos.put(Pathfinder.pack(x, y), c);
     }
 
+    /* one bit per tile, for a map of n tiles */
+    static long[] NewBits(int n) {
+        return new long[(n + 63) >>> 6];
+    }
+
+    static boolean Bit(long bits[], int i) {
+        return (bits[i >>> 6] & (1L << i)) != 0;
+    }
+
+    static void SetBit(long bits[], int i, boolean on) {
+        if (on) bits[i >>> 6] |= 1L << i;
+        else bits[i >>> 6] &= ~(1L << i);
+    }
+
     public static final String CLASS = TileMap.class.getSimpleName();
     private String errStrFailedUpdateCharPos(Char c) {
         return String.format("%s [%s] failed to update Char [%s] position " +
                 "because the Char was not found in the map.",
                 CLASS, this.name, c.name);
     }
+    private String errStrTileNotFound(int x, int y) {
+        return String.format("%s [%s] has no tile at [%d, %d].\n", CLASS,
+                this.name, x, y);
+    }
     private static final String ERR_STR_FAILED_UPDATE_CHAR_POS = CLASS +
             " failed to update Char position because Char was null.";
 }
\ No newline at end of file
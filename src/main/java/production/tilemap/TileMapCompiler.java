@@ -0,0 +1,263 @@
+package production.tilemap;
+
+import production.tilemap.TileMapFileParser.TileMapBuilder;
+import whitetail.utility.logging.LogLevel;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Compiles a parsed .map into a binary file that loads with no parsing, and
+ * loads it back.
+ *
+ * <pre>
+ * header   magic, format version, source length and modified time, width,
+ *          height, origin x and y, clear color
+ * strings  count, then per string its UTF-8 length and bytes
+ * refs     name, tileset, then examine as (tile index, string) pairs, spawn
+ *          lines, char lines and neighbours, each list after its count
+ * tiles    sprite index per tile, then present and blocked bits, as
+ *          TileMap keeps them, 8-byte aligned
+ * </pre>
+ *
+ * Little-endian throughout. Spawn and char lines are kept as they were in
+ * the .map and parsed again on load, since they name registry entries; a
+ * map has a handful. The source length and time let a stale file be told
+ * apart from a current one without reading the source.
+ *
+ * The tiles are one block, loaded whole, rather than regions paged in by
+ * chunk. Pathfinding, the component labels and the cluster graph read the
+ * whole collision grid, and at a little over 2 bytes a tile the block is
+ * small next to the baked chunk images, which SpriteChunkStreamer pages.
+ */
+final class TileMapCompiler {
+    private static final int MAGIC = 0x504D4353; /* "SCMP" */
+    private static final int FORMAT_VERSION = 2;
+
+    private TileMapCompiler() {}
+
+    /**
+     * Writes b, parsed from a source of the given length and modified time,
+     * to out. Goes through a temp file, so a failed write leaves no file
+     * that looks current.
+     *
+     * @return false if out could not be written
+     */
+    static boolean Write(TileMapBuilder b, long sourceLength,
+                         long sourceModified, File out) {
+        assert(b.hasTiles());
+
+        List<byte[]> strings = new ArrayList<byte[]>();
+        int n = b.width * b.height;
+        int refBytes, tileOffset, size, i;
+        ByteBuffer buf;
+        File tmp = new File(out.getPath() + TEMP_SUFFIX);
+        File dir = out.getAbsoluteFile().getParentFile();
+
+        strings.add(utf8(b.mapName));
+        strings.add(utf8(b.atlasFilename));
+        for (String s : b.examine.values()) strings.add(utf8(s));
+        for (String s : b.spawnLines) strings.add(utf8(s));
+        for (String s : b.charLines) strings.add(utf8(s));
+        for (String s : b.neighbours) strings.add(utf8(s));
+
+        size = HEADER_BYTES + 4;
+        for (byte s[] : strings) size += 4 + s.length;
+        refBytes = 8 + 4 + b.examine.size() * 8 + 4 + b.spawnLines.size() * 4 +
+                4 + b.charLines.size() * 4 + 4 + b.neighbours.size() * 4;
+        tileOffset = align8(size + refBytes);
+        size = tileOffset + align8(n * 2) + b.presentBits.length * 16;
+
+        buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC).putInt(FORMAT_VERSION);
+        buf.putLong(sourceLength).putLong(sourceModified);
+        buf.putInt(b.width).putInt(b.height);
+        buf.putInt(b.originX).putInt(b.originY);
+        buf.putInt(b.clearColor);
+
+        buf.putInt(strings.size());
+        for (byte s[] : strings) buf.putInt(s.length).put(s);
+
+        /* strings are in ref order, so refs count up from 2 */
+        i = 0;
+        buf.putInt(i++).putInt(i++);
+        buf.putInt(b.examine.size());
+        for (Integer tile : b.examine.keySet()) buf.putInt(tile).putInt(i++);
+        buf.putInt(b.spawnLines.size());
+        for (int k = 0; k < b.spawnLines.size(); ++k) buf.putInt(i++);
+        buf.putInt(b.charLines.size());
+        for (int k = 0; k < b.charLines.size(); ++k) buf.putInt(i++);
+        buf.putInt(b.neighbours.size());
+        for (int k = 0; k < b.neighbours.size(); ++k) buf.putInt(i++);
+
+        buf.position(tileOffset);
+        buf.asShortBuffer().put(b.spriteIdx);
+        buf.position(tileOffset + align8(n * 2));
+        buf.asLongBuffer().put(b.presentBits).put(b.blockedBits);
+        buf.rewind();
+
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            LogSession(LogLevel.WARNING, ErrStrFailedWrite(out));
+            return false;
+        }
+
+        try {
+            FileOutputStream fos = new FileOutputStream(tmp);
+            try {
+                FileChannel ch = fos.getChannel();
+                while (buf.hasRemaining()) ch.write(buf);
+            } finally {
+                fos.close();
+            }
+        } catch (IOException e) {
+            LogSession(LogLevel.WARNING, ErrStrFailedWrite(out));
+            tmp.delete();
+            return false;
+        }
+
+        if ((out.exists() && !out.delete()) || !tmp.renameTo(out)) {
+            LogSession(LogLevel.WARNING, ErrStrFailedWrite(out));
+            tmp.delete();
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Maps in and reads a compiled map. Spawn lines go through the parser's
+     * own section parser; char lines are left to TileMapLoader.
+     *
+     * @return the builder, null if in is missing, from another format
+     *         version or source, or unreadable, in which case the caller
+     *         should parse the source
+     */
+    static TileMapBuilder Read(File in, long sourceLength,
+                               long sourceModified, String filename) {
+        MappedByteBuffer buf;
+        TileMapBuilder b;
+        String strings[];
+        int n, i, count, tileOffset;
+
+        if (!in.isFile()) return null;
+
+        try {
+            RandomAccessFile raf = new RandomAccessFile(in, "r");
+            try {
+                buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+                        raf.length());
+            } finally {
+                /* the mapping outlives the channel */
+                raf.close();
+            }
+        } catch (IOException e) {
+            LogSession(LogLevel.WARNING, ErrStrFailedRead(in));
+            return null;
+        }
+
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+
+        try {
+            if (buf.getInt() != MAGIC || buf.getInt() != FORMAT_VERSION ||
+                    buf.getLong() != sourceLength ||
+                    buf.getLong() != sourceModified) {
+                return null;
+            }
+
+            b = new TileMapBuilder();
+            b.width = buf.getInt();
+            b.height = buf.getInt();
+            b.originX = buf.getInt();
+            b.originY = buf.getInt();
+            b.clearColor = buf.getInt();
+            if (b.width <= 0 || b.height <= 0)
+                throw new IllegalStateException();
+
+            strings = new String[buf.getInt()];
+            for (i = 0; i < strings.length; ++i) {
+                byte s[] = new byte[buf.getInt()];
+                buf.get(s);
+                strings[i] = new String(s, StandardCharsets.UTF_8);
+            }
+
+            b.mapName = strings[buf.getInt()];
+            b.atlasFilename = strings[buf.getInt()];
+            b.initTiles();
+            n = b.width * b.height;
+
+            count = buf.getInt();
+            for (i = 0; i < count; ++i) {
+                int tile = buf.getInt();
+                b.examine.put(tile, strings[buf.getInt()]);
+            }
+
+            /* read all before parsing spawns, which may exit */
+            List<String> spawns = refs(buf, strings);
+            b.charLines.addAll(refs(buf, strings));
+            b.neighbours.addAll(refs(buf, strings));
+
+            tileOffset = align8(buf.position());
+            buf.position(tileOffset);
+            buf.asShortBuffer().get(b.spriteIdx);
+            buf.position(tileOffset + align8(n * 2));
+            buf.asLongBuffer().get(b.presentBits).get(b.blockedBits);
+
+            for (String line : spawns) {
+                if (!TileMapFileParser.ParseSpawnLine(line, b)) return null;
+            }
+        } catch (BufferUnderflowException | IndexOutOfBoundsException |
+                 IllegalArgumentException | IllegalStateException |
+                 NegativeArraySizeException e) {
+            LogSession(LogLevel.WARNING, ErrStrCorrupt(in, filename));
+            return null;
+        }
+
+        return b;
+    }
+
+    private static List<String> refs(ByteBuffer buf, String strings[]) {
+        int count = buf.getInt();
+        List<String> out = new ArrayList<String>(count);
+
+        for (int i = 0; i < count; ++i) out.add(strings[buf.getInt()]);
+        return out;
+    }
+
+    private static byte[] utf8(String s) {
+        return (s != null ? s : "").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int align8(int n) {
+        return (n + 7) & ~7;
+    }
+
+    /* magic through clear color */
+    private static final int HEADER_BYTES = 4 * 2 + 8 * 2 + 4 * 5;
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    static final String CLASS = TileMapCompiler.class.getSimpleName();
+    private static String ErrStrFailedWrite(File f) {
+        return String.format("%s failed to write compiled map [%s], the " +
+                "source will be parsed each load.\n", CLASS, f);
+    }
+    private static String ErrStrFailedRead(File f) {
+        return String.format("%s failed to read compiled map [%s], parsing " +
+                "the source instead.\n", CLASS, f);
+    }
+    private static String ErrStrCorrupt(File f, String filename) {
+        return String.format("%s found compiled map [%s] of [%s] corrupt, " +
+                "parsing the source instead.\n", CLASS, f, filename);
+    }
+}
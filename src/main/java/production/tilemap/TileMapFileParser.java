@@ -1,16 +1,18 @@
 package production.tilemap;
 
-import production.Pathfinder;
-import production.character.Char;
-import production.character.CharFileParser;
 import production.monster.MonsterSpawn;
 import production.monster.MonsterSpawnFileParser;
 
-import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.CharBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -18,8 +20,17 @@ import java.util.Map;
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
 import static whitetail.utility.ErrorHandler.LogFatalExcpAndExit;
 
+/**
+ * Loads .map files. Each is compiled by TileMapCompiler the first time it
+ * is parsed, into COMPILED_DIR under the user's home, and later loads read
+ * the compiled file instead for as long as the source's length and
+ * modified time still match.
+ */
 public final class TileMapFileParser {
     private static final String MAPS_DIR = "maps";
+    /* compiled maps, under user.home */
+    private static final String COMPILED_DIR = ".supercarp/maps";
+    private static final String COMPILED_EXT = ".mapc";
 
     // =========================================================================
     // Extension Interfaces
@@ -49,6 +60,31 @@ public final class TileMapFileParser {
     private static final Map<String, SectionParser> sectionParsers =
             new HashMap<String, SectionParser>();
 
+    private static final String TILES_SECTION = "tiles";
+    private static final String EXAMINE_SECTION = "examine";
+    /* the built-in parsers FromStream scans in place while registered */
+    private static final SectionParser TILES_PARSER =
+            new TilesSectionParser();
+    private static final SectionParser EXAMINE_PARSER =
+            new ExamineSectionParser();
+
+    /* how FromStream handles the lines of the current section */
+    private static final int SECTION_HEADER = 0;
+    private static final int SECTION_TILES = 1;
+    private static final int SECTION_EXAMINE = 2;
+    private static final int SECTION_OTHER = 3;
+    private static final int SECTION_SKIP = 4;
+
+    private static final int READ_CHUNK = 1 << 16;
+    /* parseInt's result for a field parseInt would reject */
+    private static final long NOT_INT = Long.MIN_VALUE;
+
+    /* set once a parser is registered beyond the built-in ones; the
+    compiled format only holds what those read, so such maps are always
+    parsed */
+    private static boolean builtinsRegistered;
+    private static boolean customParsers;
+
     static {
         // Register built-in header field parsers
         registerHeaderParser("name", new HeaderFieldParser() {
@@ -85,6 +121,15 @@ public final class TileMapFileParser {
             }
         });
 
+        registerHeaderParser("neighbours", new HeaderFieldParser() {
+            public void parse(String value, TileMapBuilder b) {
+                for (String n : value.split(",")) {
+                    n = n.trim();
+                    if (!n.isEmpty()) b.neighbours.add(n);
+                }
+            }
+        });
+
         registerHeaderParser("clear_color", new HeaderFieldParser() {
             public void parse(String value, TileMapBuilder b) {
                 String hex = value.startsWith("#") ? value.substring(1) : value;
@@ -99,20 +144,23 @@ public final class TileMapFileParser {
         });
 
         // Register built-in section parsers
-        registerSectionParser("tiles", new TilesSectionParser());
-        registerSectionParser("examine", new ExamineSectionParser());
+        registerSectionParser(TILES_SECTION, TILES_PARSER);
+        registerSectionParser(EXAMINE_SECTION, EXAMINE_PARSER);
         registerSectionParser("spawns", new SpawnsSectionParser());
         registerSectionParser("characters", new CharSectionParser());
+        builtinsRegistered = true;
     }
 
     /** Register a custom header field parser. */
     public static void registerHeaderParser(String fieldName, HeaderFieldParser parser) {
         headerParsers.put(fieldName, parser);
+        customParsers |= builtinsRegistered;
     }
 
     /** Register a custom section parser. */
     public static void registerSectionParser(String sectionName, SectionParser parser) {
         sectionParsers.put(sectionName, parser);
+        customParsers |= builtinsRegistered;
     }
 
     // =========================================================================
@@ -127,9 +175,19 @@ public final class TileMapFileParser {
         public int height = 0;
         public int originX = 0;
         public int originY = 0;
-        public Tile[][] tiles = null;
+        /* tile arrays as TileMap keeps them, null until initTiles */
+        short spriteIdx[] = null;
+        long presentBits[] = null;
+        long blockedBits[] = null;
+        Map<Integer, String> examine = new HashMap<Integer, String>();
         public List<MonsterSpawn> spawns = new ArrayList<MonsterSpawn>();
-        static Map<Integer, Char> chars = new HashMap<Integer, Char>();
+        /* maps a transition from here is likely to lead to, to preload */
+        public List<String> neighbours = new ArrayList<String>();
+        /* spawn lines as read, for TileMapCompiler */
+        List<String> spawnLines = new ArrayList<String>();
+        /* char lines as read; chars are registry singletons, so they are
+        looked up by TileMapLoader on the main thread, not while parsing */
+        List<String> charLines = new ArrayList<String>();
 
         // Extended fields - add new fields here as needed
         public int clearColor = 0xFF000000;
@@ -137,14 +195,38 @@ public final class TileMapFileParser {
         /** Called after header is complete, before tile parsing begins. */
         public void initTiles() {
             if (width > 0 && height > 0) {
-                tiles = new Tile[height][width];
+                spriteIdx = new short[width * height];
+                presentBits = TileMap.NewBits(width * height);
+                /* holes are blocked until a tile fills them */
+                blockedBits = TileMap.NewBits(width * height);
+                Arrays.fill(blockedBits, -1L);
             }
         }
 
+        public boolean hasTiles() {
+            return spriteIdx != null;
+        }
+
+        /** Map-local, after initTiles. */
+        public void setTile(int ax, int ay, short spriteIdx, boolean blocked) {
+            int i = ay * width + ax;
+
+            this.spriteIdx[i] = spriteIdx;
+            TileMap.SetBit(presentBits, i, true);
+            TileMap.SetBit(blockedBits, i, blocked);
+        }
+
+        /** Map-local, after initTiles. Ignored where there is no tile. */
+        public void setExamine(int ax, int ay, String text) {
+            int i = ay * width + ax;
+
+            if (TileMap.Bit(presentBits, i)) examine.put(i, text);
+        }
+
         public TileMap build() {
             return new TileMap(mapName, width, height, atlasFilename,
-                    originX, originY, tiles, spawns, clearColor,
-                    chars);
+                    originX, originY, spriteIdx, presentBits, blockedBits,
+                    examine, spawns, clearColor, charLines, neighbours);
         }
     }
 
@@ -156,20 +238,63 @@ public final class TileMapFileParser {
         assert(filename != null && !filename.isEmpty());
 
         String p = "/" + MAPS_DIR + "/" + filename;
+        String home = System.getProperty("user.home");
 
         if (!filename.toLowerCase().endsWith(".map")) {
             LogFatalAndExit(ErrStrInvalidExtension(filename));
             return null;
         }
 
+        URL url = TileMapFileParser.class.getResource(p);
+        if (url == null) {
+            LogFatalAndExit(ErrStrFailedLoad(filename));
+            return null;
+        }
+
+        return load(url, filename, home == null ? null : new File(home,
+                COMPILED_DIR + "/" + compiledName(filename)));
+    }
+
+    /**
+     * Loads a .map from outside the resources, such as an editor export.
+     *
+     * @param compiled where to keep the compiled map, null to always parse
+     */
+    public static TileMap FromFile(File source, File compiled) {
+        assert(source != null);
+
+        if (!source.getName().toLowerCase().endsWith(".map")) {
+            LogFatalAndExit(ErrStrInvalidExtension(source.getName()));
+            return null;
+        }
+
         try {
-            InputStream stream = TileMapFileParser.class.getResourceAsStream(p);
-            if (stream == null) {
-                LogFatalAndExit(ErrStrFailedLoad(filename));
-                return null;
+            return load(source.toURI().toURL(), source.getName(), compiled);
+        } catch (IOException e) {
+            LogFatalExcpAndExit(ErrStrFailedLoad(source.getName()), e);
+            return null;
+        }
+    }
+
+    private static TileMap load(URL url, String filename, File compiled) {
+        TileMapBuilder b;
+        URLConnection conn;
+        long length, modified;
+
+        try {
+            conn = url.openConnection();
+            length = conn.getContentLengthLong();
+            modified = conn.getLastModified();
+
+            if (compiled != null && !customParsers) {
+                b = TileMapCompiler.Read(compiled, length, modified,
+                        filename);
+                if (b != null) return b.build();
             }
+
+            InputStream stream = conn.getInputStream();
             try {
-                return FromStream(stream, filename);
+                b = FromStream(stream, filename, length);
             } finally {
                 stream.close();
             }
@@ -177,74 +302,140 @@ public final class TileMapFileParser {
             LogFatalExcpAndExit(ErrStrFailedLoad(filename), e);
             return null;
         }
-    }
 
-    private static TileMap FromStream(InputStream s, String filename) {
-        BufferedReader reader;
-        String line;
-        TileMapBuilder builder = new TileMapBuilder();
+        if (b == null) return null;
 
-        // Parsing state
-        String currentSection = null; // null = header
+        /* a source of unknown size can't be told stale, so isn't compiled */
+        if (compiled != null && !customParsers && length >= 0)
+            TileMapCompiler.Write(b, length, modified, compiled);
 
-        try {
-            reader = new BufferedReader(new InputStreamReader(s));
+        return b.build();
+    }
 
-            while ((line = reader.readLine()) != null) {
-                line = line.trim();
+    /* test_map.map compiles to test_map.mapc */
+    private static String compiledName(String filename) {
+        return filename.substring(0, filename.length() - ".map".length()) +
+                COMPILED_EXT;
+    }
 
-                // Skip empty lines and comments
-                if (line.isEmpty() || line.startsWith("#")) {
-                    continue;
-                }
+    /*
+     * One pass over the whole file as a char[]. Lines are found and trimmed
+     * by index; only header lines, section names and lines for parsers
+     * other than the built-in tiles and examine ones become Strings. The
+     * section's parser is looked up once, at its "---" line.
+     */
+    private static TileMapBuilder FromStream(InputStream s, String filename,
+                                             long sizeHint) {
+        TileMapBuilder builder = new TileMapBuilder();
+        char buf[];
+        int len, pos, start, end, next, kind = SECTION_HEADER;
+        SectionParser parser = null;
 
-                // Check for section delimiter
-                if (line.startsWith("---")) {
-                    if (currentSection == null) {
-                        // End of header - validate and init tiles
-                        if (builder.width <= 0 || builder.height <= 0) {
-                            LogFatalAndExit(ErrStrInvalidHeader(filename));
-                            return null;
-                        }
-                        builder.initTiles();
-                        currentSection = "tiles";
-                    } else {
-                        // Named section (e.g., "--- examine")
-                        String sectionName = line.substring(3).trim();
-                        currentSection = sectionName.isEmpty() ? "tiles" : sectionName;
-                    }
-                    continue;
-                }
+        try {
+            CharBuffer text = readAll(new InputStreamReader(s), sizeHint);
+            buf = text.array();
+            len = text.limit();
+        } catch (IOException e) {
+            LogFatalExcpAndExit(ErrStrFailedLoad(filename), e);
+            return null;
+        }
 
-                // Dispatch to appropriate parser
-                if (currentSection == null) {
-                    // Header parsing
-                    if (!parseHeaderLine(line, builder)) {
-                        // Non-fatal: unknown header fields are ignored
+        for (pos = 0; pos < len; pos = next) {
+            /* the line is [start, end), trimmed as String.trim would */
+            end = pos;
+            while (end < len && buf[end] != '\n' && buf[end] != '\r') ++end;
+            next = end + 1;
+            if (end < len && buf[end] == '\r' && next < len &&
+                    buf[next] == '\n') {
+                ++next;
+            }
+            start = pos;
+            while (start < end && buf[start] <= ' ') ++start;
+            while (end > start && buf[end - 1] <= ' ') --end;
+
+            // Skip empty lines and comments
+            if (start == end || buf[start] == '#') continue;
+
+            // Check for section delimiter
+            if (end - start >= 3 && buf[start] == '-' &&
+                    buf[start + 1] == '-' && buf[start + 2] == '-') {
+                String name = TILES_SECTION;
+
+                if (kind == SECTION_HEADER) {
+                    // End of header - validate and init tiles
+                    if (builder.width <= 0 || builder.height <= 0) {
+                        LogFatalAndExit(ErrStrInvalidHeader(filename));
+                        return null;
                     }
+                    builder.initTiles();
                 } else {
-                    // Section parsing
-                    SectionParser parser = sectionParsers.get(currentSection);
-                    if (parser != null) {
-                        if (!parser.parseLine(line, builder, filename)) {
-                            return null; // Fatal error already logged
-                        }
-                    }
-                    // Unknown sections are silently skipped (forward compatibility)
+                    // Named section (e.g., "--- examine")
+                    name = new String(buf, start + 3, end - start - 3).trim();
+                    if (name.isEmpty()) name = TILES_SECTION;
                 }
-            }
 
-            if (builder.tiles == null) {
-                LogFatalAndExit(ErrStrMissingSeparator(filename));
-                return null;
+                /* Unknown sections are skipped (forward compatibility); a
+                built-in one is scanned in place unless it was replaced */
+                parser = sectionParsers.get(name);
+                kind = parser == null ? SECTION_SKIP : SECTION_OTHER;
+                switch (name) {
+                    case TILES_SECTION:
+                        if (parser == TILES_PARSER) kind = SECTION_TILES;
+                        break;
+                    case EXAMINE_SECTION:
+                        if (parser == EXAMINE_PARSER) kind = SECTION_EXAMINE;
+                        break;
+                }
+                continue;
             }
 
-            return builder.build();
+            switch (kind) {
+                case SECTION_HEADER:
+                    // Non-fatal: unknown header fields are ignored
+                    parseHeaderLine(new String(buf, start, end - start),
+                            builder);
+                    break;
+                case SECTION_TILES:
+                    if (!parseTile(buf, start, end, builder, filename))
+                        return null;
+                    break;
+                case SECTION_EXAMINE:
+                    parseExamine(buf, start, end, builder);
+                    break;
+                case SECTION_OTHER:
+                    if (!parser.parseLine(new String(buf, start, end - start),
+                            builder, filename)) {
+                        return null; // Fatal error already logged
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
 
-        } catch (IOException e) {
-            LogFatalExcpAndExit(ErrStrFailedLoad(filename), e);
+        if (!builder.hasTiles()) {
+            LogFatalAndExit(ErrStrMissingSeparator(filename));
             return null;
         }
+
+        return builder;
+    }
+
+    /* the whole of r, in the array's first limit() chars; sizeHint is the
+    length in bytes if known, else -1 */
+    private static CharBuffer readAll(Reader r, long sizeHint)
+            throws IOException {
+        /* one more, so a full array means there may be more to read */
+        char buf[] = new char[sizeHint >= 0 && sizeHint < Integer.MAX_VALUE ?
+                (int)sizeHint + 1 : READ_CHUNK];
+        int len = 0, n;
+
+        while ((n = r.read(buf, len, buf.length - len)) >= 0) {
+            len += n;
+            if (len == buf.length) buf = Arrays.copyOf(buf, len * 2);
+        }
+
+        return CharBuffer.wrap(buf, 0, len);
     }
 
     /** Parse a header line using registered parsers. Returns false if field unknown. */
@@ -270,89 +461,149 @@ public final class TileMapFileParser {
     // Built-in Section Parsers
     // =========================================================================
 
+    /* fields are x, y, atlas index and blocked, tab separated */
     private static final class TilesSectionParser implements SectionParser {
         public boolean parseLine(String line, TileMapBuilder b, String filename) {
-            String[] parts = line.split("\t");
-            if (parts.length < 4) {
-                return true; // Skip malformed lines
-            }
-
-            try {
-                int x = Integer.parseInt(parts[0].trim());
-                int y = Integer.parseInt(parts[1].trim());
-                int atlasIdx = Integer.parseInt(parts[2].trim());
-                boolean blocked = parts[3].trim().equals("1");
+            char c[] = line.toCharArray();
+            return parseTile(c, 0, c.length, b, filename);
+        }
+    }
 
-                int ax = x - b.originX;
-                int ay = y - b.originY;
+    /* fields are x, y and the text, which may hold tabs */
+    private static final class ExamineSectionParser implements SectionParser {
+        public boolean parseLine(String line, TileMapBuilder b, String filename) {
+            char c[] = line.toCharArray();
+            parseExamine(c, 0, c.length, b);
+            return true;
+        }
+    }
 
-                if (ax >= 0 && ax < b.width && ay >= 0 && ay < b.height) {
-                    b.tiles[ay][ax] = new Tile((short) atlasIdx, -1, blocked);
-                }
+    /** Line [start, end) of buf. Lines of under four fields are skipped. */
+    private static boolean parseTile(char buf[], int start, int end,
+                                     TileMapBuilder b, String filename) {
+        int t1, t2, t3, t4;
+        long x, y, atlasIdx;
+        boolean blocked;
+
+        if ((t1 = nextTab(buf, start, end)) == end ||
+                (t2 = nextTab(buf, t1 + 1, end)) == end ||
+                (t3 = nextTab(buf, t2 + 1, end)) == end) {
+            return true; // Skip malformed lines
+        }
+        t4 = nextTab(buf, t3 + 1, end);
+
+        x = parseInt(buf, start, t1);
+        y = parseInt(buf, t1 + 1, t2);
+        atlasIdx = parseInt(buf, t2 + 1, t3);
+        if (x == NOT_INT || y == NOT_INT || atlasIdx == NOT_INT) {
+            String line = new String(buf, start, end - start);
+            LogFatalExcpAndExit(ErrStrCorruptData(filename, line),
+                    new NumberFormatException(line));
+            return false;
+        }
+        blocked = isOne(buf, t3 + 1, t4);
 
-            } catch (NumberFormatException nfe) {
-                LogFatalExcpAndExit(ErrStrCorruptData(filename, line), nfe);
-                return false;
-            }
+        int ax = (int)x - b.originX;
+        int ay = (int)y - b.originY;
 
-            return true;
+        if (ax >= 0 && ax < b.width && ay >= 0 && ay < b.height) {
+            b.setTile(ax, ay, (short)atlasIdx, blocked);
         }
+
+        return true;
     }
 
-    private static final class ExamineSectionParser implements SectionParser {
-        public boolean parseLine(String line, TileMapBuilder b, String filename) {
-            String[] parts = line.split("\t", 3);
-            if (parts.length < 3) {
-                return true;
-            }
+    /** Malformed lines are skipped. The text keeps its whitespace. */
+    private static void parseExamine(char buf[], int start, int end,
+                                     TileMapBuilder b) {
+        int t1, t2;
+        long x, y;
 
-            try {
-                int x = Integer.parseInt(parts[0].trim());
-                int y = Integer.parseInt(parts[1].trim());
-                String examineText = parts[2]; // Preserve intentional whitespace
+        if ((t1 = nextTab(buf, start, end)) == end ||
+                (t2 = nextTab(buf, t1 + 1, end)) == end) {
+            return;
+        }
 
-                int ax = x - b.originX;
-                int ay = y - b.originY;
+        x = parseInt(buf, start, t1);
+        y = parseInt(buf, t1 + 1, t2);
+        if (x == NOT_INT || y == NOT_INT) return;
 
-                if (ax >= 0 && ax < b.width && ay >= 0 && ay < b.height) {
-                    Tile tile = b.tiles[ay][ax];
-                    if (tile != null) {
-                        tile.setExamine(examineText);
-                    }
-                }
+        int ax = (int)x - b.originX;
+        int ay = (int)y - b.originY;
 
-            } catch (NumberFormatException ignored) {
-                // Skip malformed examine lines
-            }
+        if (ax >= 0 && ax < b.width && ay >= 0 && ay < b.height) {
+            b.setExamine(ax, ay, new String(buf, t2 + 1, end - t2 - 1));
+        }
+    }
 
-            return true;
+    /* index of the first tab in [from, end), end if none */
+    private static int nextTab(char buf[], int from, int end) {
+        while (from < end && buf[from] != '\t') ++from;
+        return from;
+    }
+
+    /**
+     * Field [start, end) as Integer.parseInt would read it once trimmed.
+     *
+     * @return the value, NOT_INT where parseInt would throw
+     */
+    private static long parseInt(char buf[], int start, int end) {
+        long v = 0, limit = Integer.MAX_VALUE;
+        boolean neg = false;
+        char c;
+
+        while (start < end && buf[start] <= ' ') ++start;
+        while (end > start && buf[end - 1] <= ' ') --end;
+
+        if (start < end && (buf[start] == '-' || buf[start] == '+')) {
+            neg = buf[start++] == '-';
+            if (neg) ++limit;
         }
+        if (start == end) return NOT_INT;
+
+        for (; start < end; ++start) {
+            c = buf[start];
+            if (c < '0' || c > '9') return NOT_INT;
+            v = v * 10 + (c - '0');
+            if (v > limit) return NOT_INT;
+        }
+
+        return neg ? -v : v;
+    }
+
+    /* whether field [start, end) is "1" once trimmed */
+    private static boolean isOne(char buf[], int start, int end) {
+        while (start < end && buf[start] <= ' ') ++start;
+        while (end > start && buf[end - 1] <= ' ') --end;
+
+        return end - start == 1 && buf[start] == '1';
     }
 
     private static final class SpawnsSectionParser implements SectionParser {
         public boolean parseLine(String line, TileMapBuilder b, String filename) {
-            MonsterSpawn spawn = MonsterSpawnFileParser.FromLine(line);
-            if (spawn == null) {
-                LogFatalAndExit(ERR_STR_FAILED_PARSE_SPAWN);
-                return false;
-            }
-            b.spawns.add(spawn);
-            return true;
+            return ParseSpawnLine(line, b);
         }
     }
 
     private static final class CharSectionParser implements SectionParser {
         public boolean parseLine(String line, TileMapBuilder b, String filename) {
-            Char c = CharFileParser.FromLine(line);
-            if (c == null) {
-                LogFatalAndExit(ERR_STR_FAILED_PARSE_CHAR);
-                return false;
-            }
-            TileMapBuilder.chars.put(Pathfinder.pack(c.tileX, c.tileY), c);
+            b.charLines.add(line);
             return true;
         }
     }
 
+    /* shared with TileMapCompiler, which keeps spawn lines as text */
+    static boolean ParseSpawnLine(String line, TileMapBuilder b) {
+        MonsterSpawn spawn = MonsterSpawnFileParser.FromLine(line);
+        if (spawn == null) {
+            LogFatalAndExit(ERR_STR_FAILED_PARSE_SPAWN);
+            return false;
+        }
+        b.spawns.add(spawn);
+        b.spawnLines.add(line);
+        return true;
+    }
+
     // =========================================================================
     // Error Messages
     // =========================================================================
@@ -386,6 +637,4 @@ public final class TileMapFileParser {
 
     private static final String ERR_STR_FAILED_PARSE_SPAWN = CLASS + " failed " +
             "to parse a spawn line.\n";
-    private static final String ERR_STR_FAILED_PARSE_CHAR = CLASS + " failed " +
-            "to parse a character line.\n";
 }
\ No newline at end of file
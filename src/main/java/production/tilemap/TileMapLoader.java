@@ -1,9 +1,12 @@
 package production.tilemap;
 
 import production.Data;
+import production.PathClusterGraph;
+import production.Pathfinder;
 import production.character.Char;
-import production.character.CharRegistry;
+import production.character.CharFileParser;
 import production.sprite.SpriteAtlas;
+import production.sprite.SpriteChunkLayer;
 import production.sprite.SpritePalette;
 import production.sprite.SpriteRenderer;
 import production.sprite.SpritePool;
@@ -17,42 +20,95 @@ public final class TileMapLoader {
     public static Map<String, SpriteAtlas> atlases = new HashMap<>();
     public static Map<String, SpritePalette> palettes = new HashMap<>();
 
+    /**
+     * Prepares and attaches map, see below.
+     */
     public static void Load(TileMap map, HashMap<String, Integer> atlasIds,
                             HashMap<String, Integer> paletteIds, String paletteFileName) {
-        int atlasId = atlasIds.get(map.atlasFilename);
-        int paletteId = paletteIds.get(paletteFileName);
-        SpriteAtlas atlas = SpriteRenderer.atlasArr[atlasId];
-        /* TODO: fix this! */
-        SpritePalette palette = SpriteRenderer.paletteArr[paletteId];
+        if (Prepare(map, atlasIds, paletteIds, paletteFileName)) Attach(map);
+    }
+
+    /**
+     * Builds the map's ground layer, component labels and path graph. Only
+     * reads the renderer's atlases and palettes, so a map that is not being
+     * drawn may be prepared on another thread.
+     *
+     * @return false if it failed, after logging
+     */
+    public static boolean Prepare(TileMap map,
+                                  HashMap<String, Integer> atlasIds,
+                                  HashMap<String, Integer> paletteIds,
+                                  String paletteFileName) {
+        Integer atlasId = atlasIds.get(map.atlasFilename);
+        Integer paletteId = paletteIds.get(paletteFileName);
         int y, x;
-        Tile t;
-        if (atlas == null) {
-            LogFatalAndExit("error");
-            return;
+
+        if (atlasId == null || SpriteRenderer.atlasArr[atlasId] == null) {
+            LogFatalAndExit(ErrStrNoAtlas(map.atlasFilename, map.name));
+            return false;
+        }
+
+        /* TODO: fix this! */
+        if (paletteId == null || SpriteRenderer.paletteArr[paletteId] == null) {
+            LogFatalAndExit(ErrStrNoPalette(paletteFileName, map.name));
+            return false;
         }
 
-        if (palette == null) {
-            LogFatalAndExit("error");
-            return;
+        /* Ground tiles never move, so they are baked into chunk images
+        rather than given a pool sprite each. Nothing is baked here:
+        SpriteChunkStreamer bakes the chunks around the player. */
+        SpriteChunkLayer ground = new SpriteChunkLayer();
+        if (!ground.init(map.width, map.height, map.originOffsetX,
+                map.originOffsetY, atlasId, paletteId, map.clearColor)) {
+            LogFatalAndExit(ErrStrFailedInitGround(map.name));
+            return false;
         }
 
         for (y = 0; y < map.height; ++y) {
             for (x = 0; x < map.width; ++x) {
-                short tx = (short)(x + map.originOffsetX);
-                short ty = (short)(y + map.originOffsetY);
-                if ((t = map.getTile(tx, ty)) != null) {
-                    t.spriteHandle = SpritePool.Create(tx * atlas.spriteSize,
-                            ty * atlas.spriteSize, atlasId, t.spriteIdx,
-                            7, paletteId, false, false, true);
+                if (map.hasTileLocal(x, y)) {
+                    ground.setCell(x + map.originOffsetX,
+                            y + map.originOffsetY, map.getSpriteIdxLocal(x, y));
                 }
             }
         }
+        map.groundLayer = ground;
+
+        /* chars come later, and block their tiles through the labels */
+        map.buildComponents();
+        map.setPathGraph(new PathClusterGraph(map,
+                PathClusterGraph.DEFAULT_CLUSTER_SIZE));
+
+        return true;
+    }
+
+    /**
+     * Places the map's chars and gives each a sprite. Chars are registry
+     * singletons and sprites belong to the pool, so main thread only. Does
+     * not make the map the one drawn.
+     */
+    public static void Attach(TileMap map) {
+        Char c;
+        int handle;
 
         /* TODO: The char should know what atlas/palette it uses! */
         /* TODO: The other thing we really need to do here is check the GameCtx
         to see if there are any relevant persistent state changes to apply */
-        for (Char c : map.charsByPos.values()) {
-            c.setSpriteHandle(SpritePool.Create(
+        for (String line : map.charLines) {
+            if ((c = CharFileParser.FromLine(line)) == null) {
+                LogFatalAndExit(ErrStrFailedParseChar(line, map.name));
+                return;
+            }
+
+            if (!map.hasTile(c.tileX, c.tileY)) {
+                LogFatalAndExit(ErrStrFailedUpdateCharPosTileNull(c.tileX,
+                        c.tileY, c.name, map.name));
+                return;
+            }
+
+            map.charsByPos.put(Pathfinder.pack(c.tileX, c.tileY), c);
+
+            handle = SpritePool.Create(
                     c.tileX * Data.SPRITE_SIZE,
                     c.tileY * Data.SPRITE_SIZE,
                     Data.PLAYER_ATLAS,
@@ -61,19 +117,32 @@ public final class TileMapLoader {
                     Data.MAP_PALETTE,
                     false,
                     false,
-                    true));
+                    true);
+            c.setSpriteHandle(handle);
+            map.chars.add(c);
+            map.charSprites.add(handle);
 
-            t = map.getTile((short)c.tileX, (short)c.tileY);
-            if (t == null) {
-                LogFatalAndExit(ErrStrFailedUpdateCharPosTileNull(c.tileX,
-                        c.tileY, c.name, map.name));
-            } else {
-                t.setBlocked(true);
-            }
+            map.setBlocked(c.tileX, c.tileY, true);
         }
     }
 
     public static final String CLASS = TileMapLoader.class.getSimpleName();
+    private static String ErrStrFailedInitGround(String mapName) {
+        return String.format("%s failed to load map [%s] because the ground " +
+                "layer failed to initialize.\n", CLASS, mapName);
+    }
+    private static String ErrStrNoAtlas(String atlas, String mapName) {
+        return String.format("%s failed to load map [%s] because its tileset " +
+                "[%s] is not loaded.\n", CLASS, mapName, atlas);
+    }
+    private static String ErrStrNoPalette(String palette, String mapName) {
+        return String.format("%s failed to load map [%s] because the palette " +
+                "[%s] is not loaded.\n", CLASS, mapName, palette);
+    }
+    private static String ErrStrFailedParseChar(String line, String mapName) {
+        return String.format("%s failed to load map [%s] because of char " +
+                "line [%s].\n", CLASS, mapName, line);
+    }
     private static String ErrStrFailedUpdateCharPosTileNull(int x, int y,
             String name, String mapName) {
         return String.format("%s failed to update Char [%s] position to [%d, " +
@@ -3,7 +3,6 @@ package production.ui;
 import production.Data;
 import production.display.DisplayConfig;
 import production.sprite.SpriteSys;
-import whitetail.software_framebuffer.GL12SoftwareFramebuffer;
 
 /**
  * Simple chat box that displays the last N messages.
@@ -64,10 +63,6 @@ public final class ChatBox {
     public static void Draw() {
         if (fontAtlas == null) return;
 
-        int[] fb = GL12SoftwareFramebuffer.GetBuf();
-        int fbW = DisplayConfig.GetEmulatedW();
-        int fbH = DisplayConfig.GetEmulatedH();
-
         /* calculate Y position for topmost line */
         int lineHeight = fontAtlas.lineHeight;
         int totalHeight = LINE_COUNT * lineHeight;
@@ -1,6 +1,7 @@
 package production.ui;
 
 import production.sprite.SpritePalette;
+import whitetail.software_framebuffer.Raster;
 import whitetail.utility.logging.LogLevel;
 
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
@@ -65,15 +66,13 @@ public final class Renderer {
                                 int paletteIndex, SpritePalette palette) {
         if (paletteIndex < 0 || paletteIndex > palette.maxIdx) return;
 
-        int color = palette.colors[paletteIndex];
-        _DrawRect(x, y, w, h, color);
+        _DrawRect(x, y, w, h, palette.texels[paletteIndex]);
     }
 
     /**
-     * Draw a filled rectangle with raw ARGB color.
+     * Draw a filled rectangle with a texel in the framebuffer's layout.
      */
-    private static void _DrawRect(int x, int y, int w, int h,
-                                  int argbColor) {
+    private static void _DrawRect(int x, int y, int w, int h, int texel) {
         if (w <= 0 || h <= 0) return;
         if (x + w <= 0 || x >= Renderer.fbW) return;
         if (y + h <= 0 || y >= Renderer.fbH) return;
@@ -83,14 +82,7 @@ public final class Renderer {
         int x1 = Math.min(x + w, Renderer.fbW);
         int y1 = Math.min(y + h, Renderer.fbH);
 
-        int pixel = argbToRgba(argbColor);
-
-        for (int py = y0; py < y1; py++) {
-            int rowOffset = py * Renderer.fbW;
-            for (int px = x0; px < x1; px++) {
-                buf[rowOffset + px] = pixel;
-            }
-        }
+        Raster.FillRect(buf, Renderer.fbW, x0, y0, x1, y1, texel);
     }
 
     /**
@@ -100,21 +92,20 @@ public final class Renderer {
                                        int paletteIndex, SpritePalette palette) {
         if (paletteIndex < 0 || paletteIndex > palette.maxIdx) return;
 
-        int color = palette.colors[paletteIndex];
-        _DrawRectOutline(x, y, w, h, color);
+        _DrawRectOutline(x, y, w, h, palette.texels[paletteIndex]);
     }
 
     /**
-     * Draw a rectangle outline with raw ARGB color.
+     * Draw a rectangle outline with a texel in the framebuffer's layout.
      */
     private static void _DrawRectOutline(int x, int y, int w, int h,
-                                         int argbColor) {
+                                         int texel) {
         if (w <= 0 || h <= 0) return;
 
-        _DrawRect(x, y, w, 1, argbColor);
-        _DrawRect(x, y + h - 1, w, 1, argbColor);
-        _DrawRect(x, y + 1, 1, h - 2, argbColor);
-        _DrawRect(x + w - 1, y + 1, 1, h - 2, argbColor);
+        _DrawRect(x, y, w, 1, texel);
+        _DrawRect(x, y + h - 1, w, 1, texel);
+        _DrawRect(x, y + 1, 1, h - 2, texel);
+        _DrawRect(x + w - 1, y + 1, 1, h - 2, texel);
     }
 
     /**
@@ -156,23 +147,18 @@ public final class Renderer {
         int y1 = Math.min(y + h, fbH);
 
         byte[] pixels = bitmap.data;
-        int[] palette = bitmap.getPalette().colors;
+        int[] texels = bitmap.getPalette().texels;
 
-        int srcX, texelIdx, fbIdx;
-        int fbRowOffset, srcRowOffset;
+        int fbIdx, srcIdx, fbEnd, texelIdx;
 
         for (int py = y0; py < y1; ++py) {
-            fbRowOffset = py * fbW;
-            srcRowOffset = (py - y) * w;
-
-            for (int px = x0; px < x1; ++px) {
-                srcX = px - x;
-                texelIdx = pixels[srcRowOffset + srcX] & 0xFF;
-
-                if (texelIdx == 0) continue;
+            fbIdx = py * fbW + x0;
+            fbEnd = py * fbW + x1;
+            srcIdx = (py - y) * w + (x0 - x);
 
-                fbIdx = fbRowOffset + px;
-                buf[fbIdx] = argbToRgba(palette[texelIdx]);
+            for (; fbIdx < fbEnd; ++fbIdx, ++srcIdx) {
+                texelIdx = pixels[srcIdx] & 0xFF;
+                if (texelIdx != 0) buf[fbIdx] = texels[texelIdx];
             }
         }
     }
@@ -193,37 +179,21 @@ public final class Renderer {
         int y1 = Math.min(y + h, fbH);
 
         byte[] pixels = bitmap.data;
-        int[] palette = bitmap.getPalette().colors;
+        int[] texels = bitmap.getPalette().texels;
 
-        int srcX, texelIdx, fbIdx;
-        int fbRowOffset, srcRowOffset;
+        int fbIdx, srcIdx, fbEnd;
 
         for (int py = y0; py < y1; ++py) {
-            fbRowOffset = py * fbW;
-            srcRowOffset = (py - y) * w;
+            fbIdx = py * fbW + x0;
+            fbEnd = py * fbW + x1;
+            srcIdx = (py - y) * w + (x0 - x);
 
-            for (int px = x0; px < x1; ++px) {
-                srcX = px - x;
-                texelIdx = pixels[srcRowOffset + srcX] & 0xFF;
-
-                fbIdx = fbRowOffset + px;
-                buf[fbIdx] = argbToRgba(palette[texelIdx]);
+            for (; fbIdx < fbEnd; ++fbIdx, ++srcIdx) {
+                buf[fbIdx] = texels[pixels[srcIdx] & 0xFF];
             }
         }
     }
 
-    /**
-     * Convert ARGB (as stored in palettes) to RGBA packed for
-     * GL_UNSIGNED_INT_8_8_8_8.
-     */
-    private static int argbToRgba(int argb) {
-        int r = (argb >> 16) & 0xFF;
-        int g = (argb >>  8) & 0xFF;
-        int b =  argb        & 0xFF;
-        int a = (argb >> 24) & 0xFF;
-        return (r << 24) | (g << 16) | (b << 8) | a;
-    }
-
     public static final String CLASS = Renderer.class.getSimpleName();
     private static String ErrStrFailedInitValTooSmall(String s, int i) {
         return String.format("%s failed to initialize because [%s] [%d] must " +
@@ -1,6 +1,7 @@
 package production.ui;
 
 import production.sprite.SpritePalette;
+import whitetail.software_framebuffer.TexelFormat;
 import whitetail.utility.logging.LogLevel;
 
 import static whitetail.utility.ErrorHandler.LogFatalAndExit;
@@ -88,10 +89,7 @@ public final class TextRenderer {
             return BOUNDS_EMPTY;
         }
 
-        byte r = (byte)((argb >> 16) & 0xFF);
-        byte g = (byte)((argb >> 8) & 0xFF);
-        byte b = (byte)(argb & 0xFF);
-        byte a = (byte)((argb >> 24) & 0xFF);
+        int texel = TexelFormat.FromARGB(argb);
 
         int i, l = s.length();
         Glyph glyph;
@@ -102,7 +100,7 @@ public final class TextRenderer {
             if ((glyph = atlas.getGlyph(s.charAt(i))) == null) continue;
 
             long gb = BlitGlyph(atlas, x + glyph.xOffset, y + glyph.yOffset,
-                    glyph, r, g, b, a);
+                    glyph, texel);
 
             if (gb != BOUNDS_EMPTY) {
                 int gx0 = TLX(gb), gy0 = TLY(gb);
@@ -152,10 +150,7 @@ public final class TextRenderer {
             return BOUNDS_EMPTY;
         }
 
-        byte r = (byte)((argb >> 16) & 0xFF);
-        byte g = (byte)((argb >> 8) & 0xFF);
-        byte b = (byte)(argb & 0xFF);
-        byte a = (byte)((argb >> 24) & 0xFF);
+        int texel = TexelFormat.FromARGB(argb);
 
         int i, l = s.length();
         Glyph glyph;
@@ -177,7 +172,7 @@ public final class TextRenderer {
             if ((glyph = atlas.getGlyph(s.charAt(i))) == null) continue;
 
             long gb = BlitGlyph(atlas, cursorX + glyph.xOffset,
-                    y + glyph.yOffset, glyph, r, g, b, a);
+                    y + glyph.yOffset, glyph, texel);
 
             if (gb != BOUNDS_EMPTY) {
                 int gx0 = TLX(gb), gy0 = TLY(gb);
@@ -230,10 +225,7 @@ public final class TextRenderer {
             return BOUNDS_EMPTY;
         }
 
-        byte r = (byte)((argb >> 16) & 0xFF);
-        byte g = (byte)((argb >> 8) & 0xFF);
-        byte b = (byte)(argb & 0xFF);
-        byte a = (byte)((argb >> 24) & 0xFF);
+        int texel = TexelFormat.FromARGB(argb);
 
         int i, l = s.length();
         Glyph glyph;
@@ -253,7 +245,7 @@ public final class TextRenderer {
             if ((glyph = atlas.getGlyph(s.charAt(i))) == null) continue;
 
             long gb = BlitGlyph(atlas, cursorX + glyph.xOffset,
-                    y + glyph.yOffset, glyph, r, g, b, a);
+                    y + glyph.yOffset, glyph, texel);
 
             if (gb != BOUNDS_EMPTY) {
                 int gx0 = TLX(gb), gy0 = TLY(gb);
@@ -270,7 +262,7 @@ public final class TextRenderer {
     }
 
     private static long BlitGlyph(FontAtlas atlas, int x, int y, Glyph glyph,
-                                  byte r, byte g, byte b, byte a) {
+                                  int texel) {
         if (x + glyph.w <= 0 || x >= fbW || y + glyph.h <= 0 || y >= fbH)
             return BOUNDS_EMPTY;
 
@@ -296,13 +288,7 @@ public final class TextRenderer {
 
                 if (buf[atlasIdx] == SpritePalette.TRANSPARENT_IDX) continue;
 
-                /* TODO: stop unpacking and repacking the color int.
-                 * Make it so that bits per channel and order are configurable
-                 * in the palette, then set it up so they match the buffer */
-                TextRenderer.buf[fbRowOffset + px] = (r & 0xFF) << 24
-                        | (g & 0xFF) << 16
-                        | (b & 0xFF) <<  8
-                        | (a & 0xFF);
+                TextRenderer.buf[fbRowOffset + px] = texel;
 
                 if (px < bx0) bx0 = px;
                 if (py < by0) by0 = py;
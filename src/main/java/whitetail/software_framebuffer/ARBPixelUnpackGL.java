@@ -0,0 +1,61 @@
+package whitetail.software_framebuffer;
+
+import org.lwjgl.opengl.ARBBufferObject;
+import org.lwjgl.opengl.ARBPixelBufferObject;
+import org.lwjgl.opengl.ContextCapabilities;
+import org.lwjgl.opengl.GL11;
+import org.lwjgl.opengl.GLContext;
+
+import java.nio.ByteBuffer;
+
+/**
+ * PixelUnpackGL on ARB_pixel_buffer_object. Must be used on the thread that
+ * owns the GL context.
+ */
+public final class ARBPixelUnpackGL implements PixelUnpackGL {
+    public static boolean IsSupported() {
+        ContextCapabilities caps = GLContext.getCapabilities();
+
+        return caps.GL_ARB_pixel_buffer_object &&
+                caps.GL_ARB_vertex_buffer_object;
+    }
+
+    public int genBuffer() {
+        return ARBBufferObject.glGenBuffersARB();
+    }
+
+    public void bindBuffer(int buffer) {
+        ARBBufferObject.glBindBufferARB(
+                ARBPixelBufferObject.GL_PIXEL_UNPACK_BUFFER_ARB, buffer);
+    }
+
+    public void bufferData(long size) {
+        ARBBufferObject.glBufferDataARB(
+                ARBPixelBufferObject.GL_PIXEL_UNPACK_BUFFER_ARB, size,
+                ARBBufferObject.GL_STREAM_DRAW_ARB);
+    }
+
+    public ByteBuffer mapBuffer(long size, ByteBuffer old) {
+        return ARBBufferObject.glMapBufferARB(
+                ARBPixelBufferObject.GL_PIXEL_UNPACK_BUFFER_ARB,
+                ARBBufferObject.GL_WRITE_ONLY_ARB, size, old);
+    }
+
+    public boolean unmapBuffer() {
+        return ARBBufferObject.glUnmapBufferARB(
+                ARBPixelBufferObject.GL_PIXEL_UNPACK_BUFFER_ARB);
+    }
+
+    public void texSubImage2D(int w, int h, int format, int type) {
+        GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0, w, h, format, type,
+                0L);
+    }
+
+    public void deleteBuffer(int buffer) {
+        ARBBufferObject.glDeleteBuffersARB(buffer);
+    }
+
+    public int getError() {
+        return GL11.glGetError();
+    }
+}
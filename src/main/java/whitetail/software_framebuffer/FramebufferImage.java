@@ -0,0 +1,120 @@
+package whitetail.software_framebuffer;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.ErrorHandler.LogFatalExcpAndExit;
+
+/**
+ * PNG dumps and pixel comparison for the software framebuffers.
+ *
+ * Buffers are in the active TexelFormat and images are ARGB, so a golden
+ * image holds for every layout. Set java.awt.headless=true on machines with
+ * no display.
+ */
+public final class FramebufferImage {
+    private FramebufferImage() {}
+
+    public static boolean WritePNG(int buf[], int w, int h, File file) {
+        assert(buf != null && buf.length >= w * h);
+        assert(file != null);
+
+        BufferedImage image = new BufferedImage(w, h,
+                BufferedImage.TYPE_INT_ARGB);
+        int row[] = new int[w];
+        int x, y;
+
+        for (y = 0; y < h; ++y) {
+            for (x = 0; x < w; ++x) {
+                row[x] = TexelFormat.ToARGB(buf[y * w + x]);
+            }
+            image.setRGB(0, y, w, 1, row, 0, w);
+        }
+
+        try {
+            if (!ImageIO.write(image, "png", file)) {
+                LogFatalAndExit(ErrStrNoWriter(file));
+                return false;
+            }
+        } catch (IOException e) {
+            LogFatalExcpAndExit(ErrStrFailedWrite(file), e);
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * @return the image in the active TexelFormat, or null if it could not
+     *         be read or is not w by h
+     */
+    public static int[] ReadPNG(File file, int w, int h) {
+        assert(file != null);
+
+        BufferedImage image;
+        int out[];
+        int i;
+
+        try {
+            image = ImageIO.read(file);
+        } catch (IOException e) {
+            return null;
+        }
+
+        if (image == null || image.getWidth() != w ||
+                image.getHeight() != h)
+            return null;
+
+        out = image.getRGB(0, 0, w, h, null, 0, w);
+        for (i = 0; i < out.length; ++i) {
+            out[i] = TexelFormat.FromARGB(out[i]);
+        }
+
+        return out;
+    }
+
+    /**
+     * Counts the pixels that differ. If diff is not null, differing pixels
+     * are written to it as opaque red and matching ones as a dimmed copy of
+     * expected, so the mismatch can be dumped and inspected.
+     */
+    public static int Compare(int expected[], int actual[], int diff[],
+                              int count) {
+        assert(expected != null && actual != null);
+        assert(expected.length >= count && actual.length >= count);
+        assert(diff == null || diff.length >= count);
+
+        int mismatches = 0;
+        int diffColor = TexelFormat.FromARGB(DIFF_ARGB);
+        int i, e;
+
+        for (i = 0; i < count; ++i) {
+            e = expected[i];
+            if (e != actual[i]) {
+                ++mismatches;
+                if (diff != null) diff[i] = diffColor;
+            } else if (diff != null) {
+                /* halve r, g and b, keep alpha */
+                e = TexelFormat.ToARGB(e);
+                diff[i] = TexelFormat.FromARGB(
+                        (e & 0xFF000000) | ((e >>> 1) & 0x007F7F7F));
+            }
+        }
+
+        return mismatches;
+    }
+
+    private static final int DIFF_ARGB = 0xFFFF0000;
+
+    public static final String CLASS = FramebufferImage.class.getSimpleName();
+    private static String ErrStrNoWriter(File f) {
+        return String.format("%s failed to write [%s] because no PNG writer " +
+                "was available.\n", CLASS, f.getPath());
+    }
+    private static String ErrStrFailedWrite(File f) {
+        return String.format("%s failed to write [%s].\n", CLASS, f.getPath());
+    }
+}
@@ -16,6 +16,9 @@ import whitetail.utility.logging.LogLevel;
  *
  * Only for 8-bit per channel, four channel src configs.
  * For other configs use a different backend.
+ *
+ * Uploads through a PixelBufferRing when ARB_pixel_buffer_object is
+ * available, otherwise from client memory.
  */
 
 public final class GL12SoftwareFramebuffer {
@@ -23,7 +26,14 @@ public final class GL12SoftwareFramebuffer {
 
     private static int[] buf;
 
-    private static IntBuffer uploadBuf;
+    /* Upload buffers. Stage copies buf into the slot after the staged one,
+    Present uploads the staged one, so a frame can be staged on the raster
+    thread while the previous one is presented. pboRing when supported,
+    otherwise ring in client memory. */
+    private static final int RING_SIZE = 2;
+    private static PixelBufferRing pboRing;
+    private static IntBuffer ring[];
+    private static volatile int staged;
 
     private static int texId;
 
@@ -57,6 +67,7 @@ public final class GL12SoftwareFramebuffer {
 
         GL12SoftwareFramebuffer.srcFormat = layout;
         GL12SoftwareFramebuffer.dstFormat = internalLayout;
+        TexelFormat.Set(layout);
 
         if (!(fbW > 0 && fbH > 0)) {
             LogFatalAndExit(ErrStrInitVPRes(fbW, fbH));
@@ -92,15 +103,6 @@ public final class GL12SoftwareFramebuffer {
         GL12SoftwareFramebuffer.vpW = winW - vpX * 2;
         GL12SoftwareFramebuffer.vpH = winH - vpY * 2;
 
-        try {
-            uploadBuf = BufferUtils.createIntBuffer(
-                    GL12SoftwareFramebuffer.fbW *
-                            GL12SoftwareFramebuffer.fbH);
-        } catch (OutOfMemoryError e) {
-            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
-            return init = false;
-        }
-
         if ((glErr = GL11.glGetError()) != GL11.GL_NO_ERROR) {
             LogFatalAndExit(ErrStrPreExistingGlErr(glErr));
             return init = false;
@@ -165,6 +167,31 @@ public final class GL12SoftwareFramebuffer {
         if (!CheckGlErrorInit("glBindTexture(GL_TEXTURE_2D, 0)"))
             return init = false;
 
+        pboRing = null;
+        if (ARBPixelUnpackGL.IsSupported()) {
+            pboRing = new PixelBufferRing(new ARBPixelUnpackGL(), RING_SIZE,
+                    GL12SoftwareFramebuffer.fbW, GL12SoftwareFramebuffer.fbH);
+            if (!pboRing.init()) {
+                LogSession(LogLevel.WARNING, ERR_STR_PBO_FALLBACK);
+                pboRing = null;
+            }
+        }
+
+        if (pboRing == null) {
+            try {
+                ring = new IntBuffer[RING_SIZE];
+                for (int i = 0; i < RING_SIZE; ++i) {
+                    ring[i] = BufferUtils.createIntBuffer(
+                            GL12SoftwareFramebuffer.fbW *
+                                    GL12SoftwareFramebuffer.fbH);
+                }
+            } catch (OutOfMemoryError e) {
+                LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+                return init = false;
+            }
+        }
+        staged = -1;
+
         try {
             buf = new int[GL12SoftwareFramebuffer.fbW *
                     GL12SoftwareFramebuffer.fbH];
@@ -176,7 +203,9 @@ public final class GL12SoftwareFramebuffer {
         /* TODO: update me */
         LogSession(LogLevel.DEBUG, CLASS + " initialized with ["
                 + GL12SoftwareFramebuffer.fbW + "] width, [" +
-                GL12SoftwareFramebuffer.fbH + "] height.\n");
+                GL12SoftwareFramebuffer.fbH + "] height, uploading from " +
+                (pboRing != null ? "pixel buffer objects" : "client memory") +
+                ".\n");
 
         return init = true;
     }
@@ -206,23 +235,59 @@ public final class GL12SoftwareFramebuffer {
         return true;
     }
 
-    public static void Present() {
+    /**
+     * Copies the finished frame in buf to the next upload slot. Needs no GL,
+     * so it may run on the raster thread.
+     */
+    public static void Stage() {
         assert(init);
         assert(buf != null);
-        assert(GL12SoftwareFramebuffer.srcFormat.bpp == 4);
         assert(buf.length == GL12SoftwareFramebuffer.fbW *
                 GL12SoftwareFramebuffer.fbH);
 
-        uploadBuf.clear();
-        uploadBuf.put(buf);
-        uploadBuf.flip();
+        if (pboRing != null) {
+            pboRing.stage(buf);
+            return;
+        }
+
+        int slot = (staged + 1) % RING_SIZE;
+        IntBuffer b = ring[slot];
 
-        GL11.glViewport(vpX, vpY, vpW, vpH);
+        b.clear();
+        b.put(buf);
+        b.flip();
+
+        staged = slot;
+    }
+
+    /**
+     * Uploads and draws the most recently staged frame. Must run on the
+     * thread that owns the GL context.
+     */
+    public static void Present() {
+        assert(init);
+        assert(GL12SoftwareFramebuffer.srcFormat.bpp == 4);
+
+        int slot = staged;
 
         GL11.glBindTexture(GL11.GL_TEXTURE_2D, texId);
 
-        GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0,
-                fbW, fbH, srcFormat.glFormat, srcFormat.glType, uploadBuf);
+        if (pboRing != null) {
+            if (!pboRing.upload(srcFormat.glFormat, srcFormat.glType)) {
+                GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+                return;
+            }
+        } else {
+            if (slot == -1) {
+                GL11.glBindTexture(GL11.GL_TEXTURE_2D, 0);
+                return;
+            }
+            GL11.glTexSubImage2D(GL11.GL_TEXTURE_2D, 0, 0, 0,
+                    fbW, fbH, srcFormat.glFormat, srcFormat.glType,
+                    ring[slot]);
+        }
+
+        GL11.glViewport(vpX, vpY, vpW, vpH);
 
         GL11.glEnable(GL11.GL_TEXTURE_2D);
         GL11.glDisable(GL11.GL_DEPTH_TEST);
@@ -277,8 +342,14 @@ public final class GL12SoftwareFramebuffer {
             LogSession(LogLevel.WARNING, ERR_STR_TEX_ID_ZERO);
 
 
+        if (pboRing != null) {
+            pboRing.shutdown();
+            pboRing = null;
+        }
+
         buf = null;
-        uploadBuf = null;
+        ring = null;
+        staged = -1;
 
         init = false;
 
@@ -328,6 +399,9 @@ public final class GL12SoftwareFramebuffer {
                 "glDeleteTextures([%d]): %s", CLASS, texId,
                 GlErrorString(glErr));
     }
+    private static final String ERR_STR_PBO_FALLBACK = CLASS +
+            " could not set up pixel buffer objects and will upload from " +
+            "client memory.\n";
     private static final String ERR_STR_TEX_ID_ZERO = CLASS +
             " shutdown called but texId was already 0. This may indicate " +
             "Init() failed or Shutdown() was called twice.\n";
@@ -1,5 +1,14 @@
 package whitetail.software_framebuffer;
 
+import java.nio.ByteOrder;
+
+/**
+ * Pixel layouts the software framebuffer can hand to glTexSubImage2D. Each
+ * framebuffer int holds one texel as uploaded from a native-order IntBuffer.
+ *
+ * BGRA_UINT_8888_REV stores exactly the ARGB ints palettes are loaded as, so
+ * it needs no conversion at all.
+ */
 public enum GLSourceTexelLayout {
     /*                  GL11.GL_RGBA,       GL11.GL_UNSIGNED_BYTE             */
     RGBA_UBYTE          (0x1908,    0x1401, 4),
@@ -18,9 +27,62 @@ public enum GLSourceTexelLayout {
     public final int glType;
     public final int bpp;
 
+    /* blue is the first component rather than red */
+    private final boolean bgra;
+    /* the first component is in the int's low byte rather than its high byte.
+    For unsigned byte types that depends on the platform's byte order. */
+    private final boolean firstInLowByte;
+
+    private static final int GL_BGRA = 0x80E1;
+    private static final int GL_UNSIGNED_BYTE = 0x1401;
+    private static final int GL_UNSIGNED_INT_8_8_8_8_REV = 0x8367;
+
     GLSourceTexelLayout(int glFormat, int glType, int bpp) {
         this.glFormat = glFormat;
         this.glType = glType;
         this.bpp = bpp;
+
+        this.bgra = glFormat == GL_BGRA;
+        this.firstInLowByte = glType == GL_UNSIGNED_INT_8_8_8_8_REV ||
+                (glType == GL_UNSIGNED_BYTE &&
+                        ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * Converts an ARGB int (as stored in palettes) to this layout.
+     */
+    public int fromARGB(int argb) {
+        int a = argb >>> 24;
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        int first = bgra ? b : r;
+        int third = bgra ? r : b;
+
+        return firstInLowByte ?
+                a << 24 | third << 16 | g << 8 | first :
+                first << 24 | g << 16 | third << 8 | a;
+    }
+
+    /**
+     * Converts a texel in this layout back to ARGB.
+     */
+    public int toARGB(int texel) {
+        int first, g, third, a;
+
+        if (firstInLowByte) {
+            a = texel >>> 24;
+            third = (texel >> 16) & 0xFF;
+            g = (texel >> 8) & 0xFF;
+            first = texel & 0xFF;
+        } else {
+            first = texel >>> 24;
+            g = (texel >> 16) & 0xFF;
+            third = (texel >> 8) & 0xFF;
+            a = texel & 0xFF;
+        }
+
+        return a << 24 | (bgra ? third : first) << 16 | g << 8 |
+                (bgra ? first : third);
     }
 }
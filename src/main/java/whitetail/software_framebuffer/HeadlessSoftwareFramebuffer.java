@@ -0,0 +1,90 @@
+package whitetail.software_framebuffer;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.ErrorStrings.ERR_STR_FAILED_INIT_OOM;
+import static whitetail.utility.logging.Logger.LogSession;
+import whitetail.utility.logging.LogLevel;
+
+/**
+ * Requires Java 5, no display, no OpenGL.
+ *
+ * Same buffer contract as GL12SoftwareFramebuffer (one texel per int in the
+ * given layout, row-major, top row first), but Present only counts frames.
+ * Lets the software renderers run on machines with no GPU, for golden-image
+ * checks and benchmarks.
+ */
+
+public final class HeadlessSoftwareFramebuffer {
+    private static boolean init;
+
+    private static int[] buf;
+
+    private static int fbW, fbH;
+
+    private static long presentCount;
+
+    private HeadlessSoftwareFramebuffer() {}
+
+    public static boolean Init(GLSourceTexelLayout layout, int fbW, int fbH) {
+        assert(!init);
+        assert(layout != null && layout.bpp == 4);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        if (!(fbW > 0 && fbH > 0)) {
+            LogFatalAndExit(ErrStrInitRes(fbW, fbH));
+            return init = false;
+        }
+
+        TexelFormat.Set(layout);
+
+        HeadlessSoftwareFramebuffer.fbW = fbW;
+        HeadlessSoftwareFramebuffer.fbH = fbH;
+
+        try {
+            buf = new int[fbW * fbH];
+        } catch (OutOfMemoryError e) {
+            LogFatalAndExit(CLASS + ERR_STR_FAILED_INIT_OOM);
+            return init = false;
+        }
+
+        presentCount = 0;
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with [" + fbW +
+                "] width, [" + fbH + "] height.\n");
+
+        return init = true;
+    }
+
+    public static void Present() {
+        assert(init);
+
+        ++presentCount;
+    }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        buf = null;
+        fbW = fbH = 0;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static int GetBytesPerPixel() { assert(init); return 4; }
+    public static int[] GetBuf() { assert(init); return buf; }
+    public static int GetWidth() { assert(init); return fbW; }
+    public static int GetHeight() { assert(init); return fbH; }
+    public static long GetPresentCount() { assert(init); return presentCount; }
+
+    public static final String CLASS =
+            HeadlessSoftwareFramebuffer.class.getSimpleName();
+    private static String ErrStrInitRes(int w, int h) {
+        return String.format("%s failed to initialize because width [%d] " +
+                "and height [%d] must be positive.\n", CLASS, w, h);
+    }
+}
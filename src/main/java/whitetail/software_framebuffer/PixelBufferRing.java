@@ -0,0 +1,209 @@
+package whitetail.software_framebuffer;
+
+import whitetail.utility.logging.LogLevel;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Streams frames to a texture through a ring of pixel unpack buffers, so
+ * glTexSubImage2D reads from GPU-visible memory and returns without waiting
+ * for the copy.
+ *
+ * Every buffer stays mapped except the one being uploaded. stage writes the
+ * finished frame into the mapped buffer after the last staged one and may run
+ * on the raster thread. upload, on the GL thread, unmaps the last staged
+ * buffer, uploads from it, then orphans and maps it again for a later frame.
+ * Orphaning hands the driver a fresh store while the upload still reads the
+ * old one, so mapping never waits on the GPU.
+ *
+ * stage must not run more than slots - 1 frames ahead of upload; with the
+ * RasterThread hand-off it is at most one ahead.
+ */
+public final class PixelBufferRing {
+    private final PixelUnpackGL gl;
+    private final int slots;
+    private final int w, h;
+    private final long size;
+
+    private int ids[];
+    private ByteBuffer maps[];
+    private IntBuffer views[];
+
+    /* frames staged so far, frame n is in slot (n - 1) % slots */
+    private volatile long stagedSeq;
+    /* last frame uploaded, GL thread only */
+    private long uploadedSeq;
+
+    private boolean init;
+
+    public PixelBufferRing(PixelUnpackGL gl, int slots, int w, int h) {
+        assert(gl != null);
+        assert(slots >= 2);
+        assert(w > 0 && h > 0);
+
+        this.gl = gl;
+        this.slots = slots;
+        this.w = w;
+        this.h = h;
+        this.size = (long)w * h * 4;
+    }
+
+    /**
+     * @return false if the buffers could not be created or mapped. Nothing
+     *         is left allocated, so the caller can fall back to uploading
+     *         from client memory.
+     */
+    public boolean init() {
+        assert(!init);
+
+        int glErr, i;
+
+        ids = new int[slots];
+        maps = new ByteBuffer[slots];
+        views = new IntBuffer[slots];
+
+        for (i = 0; i < slots; ++i) {
+            if ((ids[i] = gl.genBuffer()) == 0) {
+                LogSession(LogLevel.WARNING, ERR_STR_GEN_BUFFER);
+                release();
+                return false;
+            }
+
+            gl.bindBuffer(ids[i]);
+            gl.bufferData(size);
+            if (!map(i)) {
+                gl.bindBuffer(0);
+                LogSession(LogLevel.WARNING, ERR_STR_MAP);
+                release();
+                return false;
+            }
+        }
+
+        gl.bindBuffer(0);
+
+        if ((glErr = gl.getError()) != 0) {
+            LogSession(LogLevel.WARNING, ErrStrInitGlErr(glErr));
+            release();
+            return false;
+        }
+
+        stagedSeq = uploadedSeq = 0;
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized with [" + slots +
+                "] buffers of [" + size + "] bytes.\n");
+
+        return init = true;
+    }
+
+    private boolean map(int slot) {
+        ByteBuffer m = gl.mapBuffer(size, maps[slot]);
+
+        if (m == null) return false;
+
+        if (m != maps[slot]) {
+            maps[slot] = m;
+            views[slot] = m.order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the finished frame in buf to the next buffer. Needs no GL.
+     */
+    public void stage(int buf[]) {
+        assert(init);
+        assert(buf != null && buf.length == w * h);
+
+        long seq = stagedSeq + 1;
+        IntBuffer v = views[(int)((seq - 1) % slots)];
+
+        v.clear();
+        v.put(buf);
+
+        stagedSeq = seq;
+    }
+
+    /**
+     * Uploads the last staged frame to the bound texture, if it has not been
+     * already. Must run on the GL thread. If stage finishes a frame while the
+     * GL thread is presenting, that frame may be the one uploaded; frames
+     * overtaken this way are skipped, never shown out of order.
+     *
+     * @return true if the texture holds a frame
+     */
+    public boolean upload(int format, int type) {
+        assert(init);
+
+        long seq = stagedSeq;
+        int slot;
+
+        if (seq == uploadedSeq) return seq != 0;
+
+        slot = (int)((seq - 1) % slots);
+
+        gl.bindBuffer(ids[slot]);
+
+        /* a lost store keeps the previous frame on screen */
+        if (gl.unmapBuffer()) gl.texSubImage2D(w, h, format, type);
+
+        gl.bufferData(size);
+        if (!map(slot)) {
+            LogFatalAndExit(ERR_STR_MAP);
+            return false;
+        }
+
+        gl.bindBuffer(0);
+
+        uploadedSeq = seq;
+
+        return true;
+    }
+
+    public void shutdown() {
+        assert(init);
+
+        release();
+
+        init = false;
+    }
+
+    private void release() {
+        int i;
+
+        for (i = 0; i < slots; ++i) {
+            if (ids[i] == 0) continue;
+
+            if (maps[i] != null) {
+                gl.bindBuffer(ids[i]);
+                gl.unmapBuffer();
+            }
+            gl.deleteBuffer(ids[i]);
+        }
+        gl.bindBuffer(0);
+
+        ids = null;
+        maps = null;
+        views = null;
+    }
+
+    public int getSlots() { return slots; }
+    public long getStagedCount() { return stagedSeq; }
+    public long getUploadedCount() { assert(init); return uploadedSeq; }
+
+    public static final String CLASS = PixelBufferRing.class.getSimpleName();
+    private static final String ERR_STR_GEN_BUFFER = CLASS +
+            " failed to initialize because OpenGL failed to generate a " +
+            "buffer.\n";
+    private static final String ERR_STR_MAP = CLASS +
+            " failed to map a pixel unpack buffer.\n";
+    private static String ErrStrInitGlErr(int glErr) {
+        return String.format("%s failed to initialize because an OpenGL " +
+                "error [0x%X] was detected.\n", CLASS, glErr);
+    }
+}
@@ -0,0 +1,46 @@
+package whitetail.software_framebuffer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The few GL calls PixelBufferRing streams frames with. ARBPixelUnpackGL
+ * forwards them to ARB_pixel_buffer_object; a fake can stand in for them
+ * where there is no context, to check the ring on its own.
+ *
+ * Calls act on the single GL_PIXEL_UNPACK_BUFFER binding point and the
+ * GL_TEXTURE_2D currently bound by the caller.
+ */
+public interface PixelUnpackGL {
+    /** @return a new buffer name, 0 on failure */
+    int genBuffer();
+
+    /** Binds buffer to the unpack target, 0 unbinds. */
+    void bindBuffer(int buffer);
+
+    /**
+     * Gives the bound buffer a new, undefined GL_STREAM_DRAW store of size
+     * bytes. On a buffer the GPU may still be reading this orphans the old
+     * store rather than waiting for it.
+     */
+    void bufferData(long size);
+
+    /**
+     * Maps the bound buffer write-only.
+     *
+     * @param old the previous mapping of this buffer, reused if the address
+     *            has not changed, or null
+     * @return the mapping, or null on failure
+     */
+    ByteBuffer mapBuffer(long size, ByteBuffer old);
+
+    /** @return false if the store was lost while mapped */
+    boolean unmapBuffer();
+
+    /** Uploads the bound buffer, from offset 0, to the bound texture. */
+    void texSubImage2D(int w, int h, int format, int type);
+
+    void deleteBuffer(int buffer);
+
+    /** @return the oldest unread GL error, GL_NO_ERROR if none */
+    int getError();
+}
@@ -0,0 +1,75 @@
+package whitetail.software_framebuffer;
+
+import java.util.Arrays;
+
+/**
+ * Span and rectangle fills for the software framebuffers.
+ *
+ * Callers pack the color once and pass ranges that are already clipped. Fills
+ * go through Arrays.fill and System.arraycopy, which the JIT turns into wide
+ * stores, rather than a per-pixel loop with an index computation per store.
+ */
+public final class Raster {
+    /* Rows narrower than this, e.g. outline sides, are plain stores. */
+    static final int ROW_STORE_MAX = 8;
+    /* Rows narrower than this are copied from the first filled row, which
+    beats Arrays.fill's setup on short spans. Wider rows are filled, since a
+    copy also has to read. */
+    static final int ROW_COPY_MAX = 64;
+
+    private Raster() {}
+
+    /**
+     * Fills buf[from, to) with v.
+     */
+    public static void Fill(int buf[], int from, int to, int v) {
+        assert(buf != null);
+        assert(from >= 0 && from <= to && to <= buf.length);
+
+        Arrays.fill(buf, from, to, v);
+    }
+
+    /**
+     * Fills the rectangle [x0, x1) x [y0, y1) of a row-major buffer with v.
+     */
+    public static void FillRect(int buf[], int stride,
+                                int x0, int y0, int x1, int y1, int v) {
+        assert(buf != null);
+        assert(x0 >= 0 && x0 <= x1 && x1 <= stride);
+        assert(y0 >= 0 && y0 <= y1 && y1 * stride <= buf.length);
+
+        int w = x1 - x0;
+        int first, row, end, i;
+
+        if (w == 0 || y0 == y1) return;
+
+        /* full-width rows are one contiguous span */
+        if (w == stride) {
+            Arrays.fill(buf, y0 * stride, y1 * stride, v);
+            return;
+        }
+
+        first = y0 * stride + x0;
+        end = (y1 - 1) * stride + x0;
+
+        if (w < ROW_STORE_MAX) {
+            for (row = first; row <= end; row += stride) {
+                for (i = row; i < row + w; ++i) buf[i] = v;
+            }
+            return;
+        }
+
+        if (w >= ROW_COPY_MAX) {
+            for (row = first; row <= end; row += stride) {
+                Arrays.fill(buf, row, row + w, v);
+            }
+            return;
+        }
+
+        /* fill one row and copy it down */
+        Arrays.fill(buf, first, first + w, v);
+        for (row = first + stride; row <= end; row += stride) {
+            System.arraycopy(buf, first, buf, row, w);
+        }
+    }
+}
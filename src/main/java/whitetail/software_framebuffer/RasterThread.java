@@ -0,0 +1,173 @@
+package whitetail.software_framebuffer;
+
+import whitetail.utility.logging.LogLevel;
+
+import static whitetail.utility.ErrorHandler.LogFatalAndExit;
+import static whitetail.utility.ErrorHandler.LogFatalExcpAndExit;
+import static whitetail.utility.logging.Logger.LogSession;
+
+/**
+ * Runs the software rasterization of a frame on its own thread, so it
+ * overlaps the GL upload and buffer swap of the previous frame on the thread
+ * that owns the context.
+ *
+ * The owning thread calls Begin once game state for the frame is final, does
+ * its GL work, then calls Await before touching game state again. Between
+ * the two calls only the raster thread may touch anything the task reads or
+ * writes. The monitor hand-off orders the owning thread's state writes
+ * before the task's reads, and the task's pixel writes before Await returns.
+ */
+public final class RasterThread {
+    private static boolean init;
+
+    private static final Object lock = new Object();
+
+    private static Thread thread;
+    private static Runnable task;
+
+    /* guarded by lock */
+    private static boolean pending;
+    private static boolean busy;
+    private static boolean stopping;
+    private static Throwable failure;
+
+    private RasterThread() {}
+
+    /**
+     * @param task rasterizes one frame and stages it, e.g. with
+     *             GL12SoftwareFramebuffer.Stage
+     */
+    public static boolean Init(Runnable task) {
+        assert(!init);
+        assert(task != null);
+
+        LogSession(LogLevel.DEBUG, CLASS + " initializing...\n");
+
+        RasterThread.task = task;
+        pending = busy = stopping = false;
+        failure = null;
+
+        thread = new Thread(new Runnable() {
+            public void run() { loop(); }
+        }, THREAD_NAME);
+        thread.setDaemon(true);
+        thread.start();
+
+        LogSession(LogLevel.DEBUG, CLASS + " initialized.\n");
+
+        return init = true;
+    }
+
+    private static void loop() {
+        Throwable t;
+
+        for (;;) {
+            synchronized (lock) {
+                while (!pending && !stopping) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        /* only Shutdown stops the thread */
+                    }
+                }
+                if (stopping) return;
+                pending = false;
+            }
+
+            t = null;
+            try {
+                task.run();
+            } catch (Throwable e) {
+                t = e;
+            }
+
+            synchronized (lock) {
+                failure = t;
+                busy = false;
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Starts rasterizing a frame. Must be followed by Await before the next
+     * Begin.
+     */
+    public static void Begin() {
+        assert(init);
+
+        synchronized (lock) {
+            if (busy) {
+                LogFatalAndExit(ERR_STR_BEGIN_WHILE_BUSY);
+                return;
+            }
+            busy = pending = true;
+            lock.notifyAll();
+        }
+    }
+
+    /**
+     * Blocks until the frame started by Begin is rasterized. Returns at once
+     * if none is in flight.
+     */
+    public static void Await() {
+        assert(init);
+
+        Throwable t;
+
+        synchronized (lock) {
+            while (busy) {
+                try {
+                    lock.wait();
+                } catch (InterruptedException e) {
+                    /* keep waiting, the frame is still being written */
+                }
+            }
+            t = failure;
+            failure = null;
+        }
+
+        if (t != null) LogFatalExcpAndExit(ERR_STR_TASK_FAILED, t);
+    }
+
+    public static void Shutdown() {
+        assert(init);
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutting down...\n");
+
+        Await();
+
+        synchronized (lock) {
+            stopping = true;
+            lock.notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            LogSession(LogLevel.WARNING, ERR_STR_JOIN_INTERRUPTED);
+        }
+
+        thread = null;
+        task = null;
+
+        init = false;
+
+        LogSession(LogLevel.DEBUG, CLASS + " shutdown complete.\n");
+    }
+
+    public static boolean IsInitialized() {
+        return init;
+    }
+
+    private static final String THREAD_NAME = "raster";
+
+    public static final String CLASS = RasterThread.class.getSimpleName();
+    private static final String ERR_STR_BEGIN_WHILE_BUSY = CLASS +
+            " was asked to begin a frame while the previous one was still " +
+            "being rasterized. Await must be called between frames.\n";
+    private static final String ERR_STR_TASK_FAILED = CLASS +
+            " failed to rasterize a frame because the raster task threw.\n";
+    private static final String ERR_STR_JOIN_INTERRUPTED = CLASS +
+            " was interrupted while waiting for the raster thread to stop.\n";
+}
@@ -0,0 +1,40 @@
+package whitetail.software_framebuffer;
+
+/**
+ * The texel layout of the active software framebuffer.
+ *
+ * Framebuffers set it when they initialize. Palettes and other colors are
+ * converted through it once, when loaded, so every blit afterwards is a plain
+ * store. It must therefore be set before any palette is loaded.
+ */
+public final class TexelFormat {
+    private static GLSourceTexelLayout layout =
+            GLSourceTexelLayout.RGBA_UINT_8888;
+
+    private TexelFormat() {}
+
+    public static void Set(GLSourceTexelLayout layout) {
+        assert(layout != null && layout.bpp == 4);
+
+        TexelFormat.layout = layout;
+    }
+
+    public static GLSourceTexelLayout Get() { return layout; }
+
+    public static int FromARGB(int argb) { return layout.fromARGB(argb); }
+
+    public static int ToARGB(int texel) { return layout.toARGB(texel); }
+
+    /**
+     * @return a converted copy of argb
+     */
+    public static int[] FromARGB(int argb[]) {
+        assert(argb != null);
+
+        int out[] = new int[argb.length];
+
+        for (int i = 0; i < argb.length; ++i) out[i] = layout.fromARGB(argb[i]);
+
+        return out;
+    }
+}
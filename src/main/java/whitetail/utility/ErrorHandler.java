@@ -8,6 +8,7 @@ import javax.swing.*;
 /** Very much WIP */
 public final class ErrorHandler {
     private static GameEngine game;
+    private static boolean headless;
 
     private ErrorHandler () {}
 
@@ -19,7 +20,26 @@ public final class ErrorHandler {
         return true;
     }
 
+    /**
+     * For runs with no engine and no display, e.g. the headless renderer.
+     * Fatal errors go to stderr and end the process with a non-zero status
+     * instead of showing a dialog.
+     */
+    public static boolean InitHeadless() {
+        headless = true;
+
+        return true;
+    }
+
+    private static void ExitHeadless(String s, Throwable t) {
+        System.err.print(s);
+        if (t != null) t.printStackTrace();
+        Logger.LogFatal(s, t);
+        System.exit(1);
+    }
+
     public static void LogFatalAndExit(String s) {
+        if (headless) { ExitHeadless(s, null); return; }
         JOptionPane.showMessageDialog(null,
                 s, "Fatal Error",
                 JOptionPane.ERROR_MESSAGE);
@@ -28,6 +48,7 @@ public final class ErrorHandler {
     }
 
     public static void LogFatalExcpAndExit(String s, Throwable t) {
+        if (headless) { ExitHeadless(s, t); return; }
         JOptionPane.showMessageDialog(null,
                 s + "See session.log for stack trace.\n", "Fatal Error",
                 JOptionPane.ERROR_MESSAGE);
@@ -37,6 +58,7 @@ public final class ErrorHandler {
 
     public static void LogFatalWithFloatAndExit(String s, float f) {
         String str = s + " {" + f + "}";
+        if (headless) { ExitHeadless(str, null); return; }
         JOptionPane.showMessageDialog(null,
                 str, "Fatal Error",
                 JOptionPane.ERROR_MESSAGE);
@@ -47,6 +69,7 @@ public final class ErrorHandler {
     public static void LogFatalExcpWithFloatAndExit(String s, float f,
             Throwable t) {
         String str = s + " {" + f + "}";
+        if (headless) { ExitHeadless(str, t); return; }
         JOptionPane.showMessageDialog(null,
                 str, "Fatal Error",
                 JOptionPane.ERROR_MESSAGE);
@@ -0,0 +1,76 @@
+package whitetail.utility;
+
+import java.util.Arrays;
+
+/**
+ * Growable list of ints with no boxing. Meant to be owned by the caller and
+ * refilled, so clear keeps the backing array.
+ */
+public final class IntArray {
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private int data[];
+    private int size;
+
+    public IntArray() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntArray(int capacity) {
+        assert(capacity >= 0);
+
+        data = new int[capacity];
+    }
+
+    public int size() { return size; }
+    public boolean isEmpty() { return size == 0; }
+
+    public int get(int i) {
+        assert(i >= 0 && i < size);
+
+        return data[i];
+    }
+
+    public void set(int i, int v) {
+        assert(i >= 0 && i < size);
+
+        data[i] = v;
+    }
+
+    public void add(int v) {
+        if (size == data.length) grow(size + 1);
+        data[size++] = v;
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * Sets the size to n. New elements are undefined, for the caller to
+     * fill with set.
+     */
+    public void setSize(int n) {
+        assert(n >= 0);
+
+        if (n > data.length) grow(n);
+        size = n;
+    }
+
+    public void ensureCapacity(int n) {
+        if (n > data.length) grow(n);
+    }
+
+    public void copyFrom(IntArray o) {
+        assert(o != null);
+
+        setSize(o.size);
+        System.arraycopy(o.data, 0, data, 0, o.size);
+    }
+
+    private void grow(int min) {
+        int cap = data.length + (data.length >> 1);
+
+        data = Arrays.copyOf(data, Math.max(cap, min));
+    }
+}
@@ -17,6 +17,7 @@ public final class Logger {
 
     private static boolean init;
 
+    /* not thread-safe, guarded by the class lock in Log */
     private static final SimpleDateFormat sdf =
             new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
 
@@ -61,8 +62,10 @@ public final class Logger {
         LogNoTime(sessionWriter, msg, null);
     }
 
-    private static void Log(PrintWriter writer, String level, String msg,
-                            Throwable t) {
+    /* synchronized: the path workers, chunk baker and map preload threads
+    log too, and a line and its stack trace must stay together */
+    private static synchronized void Log(PrintWriter writer, String level,
+                                         String msg, Throwable t) {
         assert(init);
 
         String time = sdf.format(new Date());
@@ -73,8 +76,8 @@ public final class Logger {
         writer.flush();
     }
 
-    private static void LogNoTime(PrintWriter writer, String msg,
-                                  Throwable t) {
+    private static synchronized void LogNoTime(PrintWriter writer,
+                                               String msg, Throwable t) {
         assert(init);
 
         writer.println(msg);